@@ -19,6 +19,9 @@ public final class ApiConfig {
         return ROUTES + "/" + routeId;
     }
 
+    // События для рекомендаций
+    public static final String EVENTS = BASE_URL + "/api/events";
+
     // Профиль
     public static final String USERS_ME          = BASE_URL + "/api/users/me";
     public static final String USERS_ME_PICTURE   = BASE_URL + "/api/users/me/picture";
@@ -19,13 +19,17 @@ import okhttp3.Request;
 import okhttp3.RequestBody;
 import okhttp3.Response;
 
+import ru.nsu.yousightseeing.utils.AppLog;
+
 public final class AuthApi {
 
     private static final String TAG = "AuthApi";
     private static final String PREFS_NAME = "auth_tokens";
     private static final MediaType JSON
             = MediaType.get("application/json; charset=utf-8");
-    private static final OkHttpClient client = new OkHttpClient();
+    private static final OkHttpClient client = new OkHttpClient.Builder()
+            .eventListenerFactory(NetworkMetrics.LISTENER_FACTORY)
+            .build();
 
     public interface GoogleAuthCallback {
         void onSuccess(String access, String refresh);
@@ -75,7 +79,10 @@ public final class AuthApi {
             public void onResponse(@NonNull Call call, @NonNull Response response) throws IOException {
                 String respBody = response.body() != null ? response.body().string() : "";
                 if (!response.isSuccessful()) {
-                    cb.onError("Ошибка авторизации: " + response.code() + "\n" + respBody);
+                    if (AppLog.ENABLED) {
+                        AppLog.d(TAG, () -> "auth/google error " + response.code() + " " + AppLog.body(respBody));
+                    }
+                    cb.onError("Ошибка авторизации: " + response.code());
                     return;
                 }
 
@@ -129,7 +136,10 @@ public final class AuthApi {
             public void onResponse(@NonNull Call call, @NonNull Response response) throws IOException {
                 String respBody = response.body() != null ? response.body().string() : "";
                 if (!response.isSuccessful()) {
-                    cb.onError("Ошибка обновления токенов: " + response.code() + "\n" + respBody);
+                    if (AppLog.ENABLED) {
+                        AppLog.d(TAG, () -> "refresh error " + response.code() + " " + AppLog.body(respBody));
+                    }
+                    cb.onError("Ошибка обновления токенов: " + response.code());
                     return;
                 }
 
@@ -194,7 +204,10 @@ public final class AuthApi {
             public void onResponse(@NonNull Call call, @NonNull Response response) throws IOException {
                 String respBody = response.body() != null ? response.body().string() : "";
                 if (!response.isSuccessful()) {
-                    cb.onError("Ошибка выхода: " + response.code() + "\n" + respBody);
+                    if (AppLog.ENABLED) {
+                        AppLog.d(TAG, () -> "logout error " + response.code() + " " + AppLog.body(respBody));
+                    }
+                    cb.onError("Ошибка выхода: " + response.code());
                     return;
                 }
 
@@ -0,0 +1,84 @@
+package ru.nsu.yousightseeing.api;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import ru.nsu.yousightseeing.features.AuthActivity;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+
+/**
+ * POST /api/events — действия пользователя, по которым бэкенд подстраивает веса категорий.
+ * <p>
+ * Отправка «выстрелил и забыл»: результат никто не ждёт, поэтому запрос идёт в фоновой полосе
+ * {@link RequestScheduler} и при нагрузке может быть сброшен. Вызывать с главного потока.
+ */
+public final class EventsApi {
+
+    private static final String TAG = "EventsApi";
+    private static final MediaType JSON = MediaType.get("application/json; charset=utf-8");
+    private static final OkHttpClient client = new OkHttpClient.Builder()
+            .eventListenerFactory(NetworkMetrics.LISTENER_FACTORY)
+            .build();
+
+    public static final String ROUTE_COMPLETED = "route_completed";
+    public static final String PLACE_VIEWED = "place_viewed";
+
+    private EventsApi() {}
+
+    /** routeId, placeId и category необязательны; пустые строки не отправляются. */
+    public static void track(Context ctx,
+                             String eventType,
+                             @Nullable String routeId,
+                             @Nullable String placeId,
+                             @Nullable String category) {
+        String access = AuthActivity.getAccessToken();
+        if (access == null) return;
+
+        JSONObject bodyJson = new JSONObject();
+        try {
+            bodyJson.put("event_type", eventType);
+            if (routeId != null && !routeId.isEmpty()) bodyJson.put("route_id", routeId);
+            if (placeId != null && !placeId.isEmpty()) bodyJson.put("place_id", placeId);
+            if (category != null && !category.isEmpty()) bodyJson.put("category", category);
+        } catch (JSONException e) {
+            return;
+        }
+
+        Request request = new Request.Builder()
+                .url(ApiConfig.EVENTS)
+                .post(RequestBody.create(bodyJson.toString(), JSON))
+                .addHeader("Authorization", "Bearer " + access)
+                .build();
+
+        Context laneCtx = RequestScheduler.withLane(ctx, RequestScheduler.Lane.BACKGROUND);
+        RetryingCall.enqueue(laneCtx, client, request, RetryPolicy.WRITE, new Callback() {
+            @Override
+            public void onFailure(@NonNull Call call, @NonNull IOException e) {
+                Log.w(TAG, "track " + eventType + " failure: " + e.getMessage());
+            }
+
+            @Override
+            public void onResponse(@NonNull Call call, @NonNull Response response) {
+                if (!response.isSuccessful()) {
+                    Log.w(TAG, "track " + eventType + " error " + response.code());
+                }
+                response.close();
+            }
+        });
+    }
+}
@@ -0,0 +1,262 @@
+package ru.nsu.yousightseeing.api;
+
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import okhttp3.Call;
+import okhttp3.Connection;
+import okhttp3.EventListener;
+import okhttp3.HttpUrl;
+import okhttp3.Protocol;
+import okhttp3.Request;
+
+/**
+ * Замеры сетевых запросов по эндпоинтам: DNS, соединение, время до первого байта,
+ * чтение тела, разбор JSON и размер ответа. Сетевые фазы снимает {@link EventListener},
+ * подключённый к клиентам API через {@link #LISTENER_FACTORY}; разбор отмечают сами API
+ * через {@link #recordParse(Call, long)}. Данные хранятся в {@link WindowedHistogram}
+ * за последний час и смотрятся на отладочном экране или выгружаются в файл.
+ * <p>
+ * Тот же слушатель отмечает вызовы, получившие соединение ({@link #wasConnected(Call)}):
+ * по этому {@link RetryPolicy} отличает таймаут соединения от таймаута ответа.
+ */
+public final class NetworkMetrics {
+
+    public enum Metric {
+        DNS("мкс"),
+        CONNECT("мкс"),
+        TTFB("мкс"),
+        BODY("мкс"),
+        PARSE("мкс"),
+        TOTAL("мкс"),
+        RESPONSE_BYTES("байт");
+
+        public final String unit;
+
+        Metric(String unit) {
+            this.unit = unit;
+        }
+    }
+
+    public static final class Row {
+        public final String endpoint;
+        public final Metric metric;
+        public final long count;
+        public final long p50;
+        public final long p95;
+        public final long p99;
+
+        Row(String endpoint, Metric metric, WindowedHistogram.Snapshot snapshot) {
+            this.endpoint = endpoint;
+            this.metric = metric;
+            this.count = snapshot.count;
+            this.p50 = snapshot.percentile(50);
+            this.p95 = snapshot.percentile(95);
+            this.p99 = snapshot.percentile(99);
+        }
+    }
+
+    private static final String EXPORT_FILE = "network_metrics.json";
+
+    private static final ConcurrentMap<String, WindowedHistogram[]> histograms = new ConcurrentHashMap<>();
+
+    public static final EventListener.Factory LISTENER_FACTORY = call -> new CallListener();
+
+    /** Вызовы, которым OkHttp выдал соединение; слабые ссылки — вызов сам уходит из набора. */
+    private static final Set<Call> connectedCalls = Collections.newSetFromMap(
+            Collections.synchronizedMap(new WeakHashMap<>()));
+
+    private NetworkMetrics() {}
+
+    /** Время разбора ответа запроса call, от получения тела до готового результата. */
+    static void recordParse(Call call, long nanos) {
+        record(endpointOf(call.request().url()), Metric.PARSE, nanos / 1000);
+    }
+
+    /**
+     * Получил ли вызов соединение: новое (после connectEnd) или из пула. После этого запрос
+     * мог уйти на сервер, и ошибка уже не доказывает, что он не обработан.
+     */
+    static boolean wasConnected(Call call) {
+        return connectedCalls.contains(call);
+    }
+
+    private static void record(String endpoint, Metric metric, long value) {
+        WindowedHistogram[] perMetric = histograms.computeIfAbsent(endpoint, key -> {
+            WindowedHistogram[] created = new WindowedHistogram[Metric.values().length];
+            for (int i = 0; i < created.length; i++) {
+                created[i] = new WindowedHistogram();
+            }
+            return created;
+        });
+        perMetric[metric.ordinal()].record(value, System.currentTimeMillis());
+    }
+
+    /** Путь без хоста; идентификаторы заменены на {id}, чтобы /api/routes/<uuid> сливались в одну строку. */
+    static String endpointOf(HttpUrl url) {
+        StringBuilder sb = new StringBuilder();
+        for (String segment : url.pathSegments()) {
+            if (segment.isEmpty()) continue;
+            sb.append('/').append(looksLikeId(segment) ? "{id}" : segment);
+        }
+        return sb.length() == 0 ? "/" : sb.toString();
+    }
+
+    private static boolean looksLikeId(String segment) {
+        if (segment.length() < 8) return false;
+        for (int i = 0; i < segment.length(); i++) {
+            if (Character.isDigit(segment.charAt(i))) return true;
+        }
+        return false;
+    }
+
+    /** Перцентили по всем эндпоинтам, отсортированные по эндпоинту и метрике. */
+    public static List<Row> snapshot() {
+        long now = System.currentTimeMillis();
+        Map<String, WindowedHistogram[]> sorted = new TreeMap<>(histograms);
+        List<Row> rows = new ArrayList<>();
+        for (Map.Entry<String, WindowedHistogram[]> entry : sorted.entrySet()) {
+            for (Metric metric : Metric.values()) {
+                WindowedHistogram.Snapshot snapshot = entry.getValue()[metric.ordinal()].snapshot(now);
+                if (snapshot.count > 0) {
+                    rows.add(new Row(entry.getKey(), metric, snapshot));
+                }
+            }
+        }
+        return rows;
+    }
+
+    /** Пишет снимок в JSON в каталог приложения (доступен через adb) и возвращает файл. */
+    public static File export(Context ctx) throws IOException {
+        File dir = ctx.getExternalFilesDir(null);
+        if (dir == null) dir = ctx.getFilesDir();
+        File file = new File(dir, EXPORT_FILE);
+
+        JSONObject root = new JSONObject();
+        try {
+            root.put("exported_at", System.currentTimeMillis());
+            root.put("window_ms", WindowedHistogram.WINDOWS * WindowedHistogram.WINDOW_MS);
+            JSONArray rowsJson = new JSONArray();
+            for (Row row : snapshot()) {
+                JSONObject rowJson = new JSONObject();
+                rowJson.put("endpoint", row.endpoint);
+                rowJson.put("metric", row.metric.name());
+                rowJson.put("unit", row.metric.unit);
+                rowJson.put("count", row.count);
+                rowJson.put("p50", row.p50);
+                rowJson.put("p95", row.p95);
+                rowJson.put("p99", row.p99);
+                rowsJson.put(rowJson);
+            }
+            root.put("rows", rowsJson);
+        } catch (JSONException e) {
+            throw new IOException("Не удалось собрать метрики", e);
+        }
+
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)) {
+            writer.write(root.toString());
+        }
+        return file;
+    }
+
+    /** Слушатель одного вызова: OkHttp создаёт его на каждую попытку, события приходят последовательно. */
+    private static final class CallListener extends EventListener {
+        private long callStart;
+        private long dnsStart;
+        private long connectStart;
+        private long requestSent;
+        private long bodyStart;
+
+        @Override
+        public void callStart(@NonNull Call call) {
+            callStart = System.nanoTime();
+        }
+
+        @Override
+        public void dnsStart(@NonNull Call call, @NonNull String domainName) {
+            dnsStart = System.nanoTime();
+        }
+
+        @Override
+        public void dnsEnd(@NonNull Call call, @NonNull String domainName, @NonNull List<InetAddress> addresses) {
+            recordSince(call, Metric.DNS, dnsStart);
+        }
+
+        @Override
+        public void connectStart(@NonNull Call call, @NonNull InetSocketAddress address, @NonNull Proxy proxy) {
+            connectStart = System.nanoTime();
+        }
+
+        @Override
+        public void connectEnd(@NonNull Call call, @NonNull InetSocketAddress address,
+                               @NonNull Proxy proxy, @Nullable Protocol protocol) {
+            recordSince(call, Metric.CONNECT, connectStart);
+        }
+
+        @Override
+        public void connectionAcquired(@NonNull Call call, @NonNull Connection connection) {
+            connectedCalls.add(call);
+        }
+
+        @Override
+        public void requestHeadersEnd(@NonNull Call call, @NonNull Request request) {
+            requestSent = System.nanoTime();
+        }
+
+        @Override
+        public void requestBodyEnd(@NonNull Call call, long byteCount) {
+            requestSent = System.nanoTime();
+        }
+
+        @Override
+        public void responseHeadersStart(@NonNull Call call) {
+            recordSince(call, Metric.TTFB, requestSent);
+        }
+
+        @Override
+        public void responseBodyStart(@NonNull Call call) {
+            bodyStart = System.nanoTime();
+        }
+
+        @Override
+        public void responseBodyEnd(@NonNull Call call, long byteCount) {
+            recordSince(call, Metric.BODY, bodyStart);
+            record(endpointOf(call.request().url()), Metric.RESPONSE_BYTES, byteCount);
+        }
+
+        @Override
+        public void callEnd(@NonNull Call call) {
+            recordSince(call, Metric.TOTAL, callStart);
+        }
+
+        private static void recordSince(Call call, Metric metric, long startNanos) {
+            if (startNanos == 0) return;
+            record(endpointOf(call.request().url()), metric, (System.nanoTime() - startNanos) / 1000);
+        }
+    }
+}
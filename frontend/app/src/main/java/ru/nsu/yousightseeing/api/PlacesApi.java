@@ -6,6 +6,7 @@ import android.util.Log;
 import androidx.annotation.NonNull;
 
 import ru.nsu.yousightseeing.features.AuthActivity;
+import ru.nsu.yousightseeing.utils.AppLog;
 
 import org.json.JSONArray;
 import org.json.JSONException;
@@ -31,7 +32,9 @@ import okhttp3.Response;
 public final class PlacesApi {
 
     private static final String TAG = "PlacesApi";
-    private static final OkHttpClient client = new OkHttpClient();
+    private static final OkHttpClient client = new OkHttpClient.Builder()
+            .eventListenerFactory(NetworkMetrics.LISTENER_FACTORY)
+            .build();
     private static final MediaType JSON
             = MediaType.get("application/json; charset=utf-8");
 
@@ -79,7 +82,6 @@ public final class PlacesApi {
                                       Set<String> categories, int limit, PlacesCallback cb,
                                       boolean alreadyRetried) {
         String access = AuthActivity.getAccessToken();
-        Log.d("AUTH_TEST", "Access token = " + access);
         if (access == null) {
             cb.onError("Требуется авторизация");
             return;
@@ -106,7 +108,7 @@ public final class PlacesApi {
                 .addHeader("Authorization", "Bearer " + access)
                 .build();
 
-        client.newCall(request).enqueue(new Callback() {
+        RetryingCall.enqueue(ctx, client, request, RetryPolicy.READ, new Callback() {
             @Override
             public void onFailure(@NonNull Call call, @NonNull IOException e) {
                 Log.e(TAG, "Network failure", e);
@@ -116,7 +118,9 @@ public final class PlacesApi {
             @Override
             public void onResponse(@NonNull Call call, @NonNull Response response) throws IOException {
                 String respBody = response.body() != null ? response.body().string() : "";
-                Log.d(TAG, "POI Response: " + response.code() + " | " + respBody.substring(0, Math.min(200, respBody.length())));
+                if (AppLog.ENABLED) {
+                    AppLog.d(TAG, () -> "POI Response: " + response.code() + " | " + AppLog.body(respBody));
+                }
 
                 // АВТО-REFRESH ТОКЕНА (1 раз)
                 if (response.code() == 401 && respBody.contains("expired") && !alreadyRetried) {
@@ -136,17 +140,20 @@ public final class PlacesApi {
                 }
 
                 if (!response.isSuccessful()) {
-                    Log.e(TAG, "POI search failed: " + response.code() + " | " + respBody);
+                    AppLog.e(TAG, "POI search failed: " + response.code() + " | " + AppLog.body(respBody));
                     cb.onError("Ошибка поиска: " + response.code());
                     return;
                 }
 
+                long parseStart = System.nanoTime();
                 try {
                     JSONObject json = new JSONObject(respBody);
                     JSONArray placesJson = json.getJSONArray("places");
 
                     List<Place> result = new ArrayList<>();
-                    Log.d(TAG, "📍 Backend вернул " + placesJson.length() + " POI");
+                    if (AppLog.ENABLED) {
+                        AppLog.d(TAG, () -> "📍 Backend вернул " + placesJson.length() + " POI");
+                    }
 
                     // ПОЛНЫЙ ПАРСИНГ JSON!
                     for (int i = 0; i < placesJson.length(); i++) {
@@ -176,11 +183,16 @@ public final class PlacesApi {
                         // Только валидные POI с координатами
                         if (!place.name.isEmpty() && place.lat != 0 && place.lon != 0) {
                             result.add(place);
-                            Log.d(TAG, "➕ POI: " + place.name + " (" + place.lat + "," + place.lon + ")");
+                            if (AppLog.ENABLED && AppLog.sampled(i)) {
+                                AppLog.d(TAG, () -> "➕ POI: " + place.name + " (" + place.lat + "," + place.lon + ")");
+                            }
                         }
                     }
 
-                    Log.d(TAG, "Готово к отправке: " + result.size() + " POI");
+                    NetworkMetrics.recordParse(call, System.nanoTime() - parseStart);
+                    if (AppLog.ENABLED) {
+                        AppLog.d(TAG, () -> "Готово к отправке: " + result.size() + " POI");
+                    }
                     cb.onSuccess(result);
 
                 } catch (JSONException e) {
@@ -0,0 +1,246 @@
+package ru.nsu.yousightseeing.api;
+
+import android.content.Context;
+import android.content.ContextWrapper;
+import android.os.Looper;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.lifecycle.DefaultLifecycleObserver;
+import androidx.lifecycle.Lifecycle;
+import androidx.lifecycle.LifecycleOwner;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BooleanSupplier;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+
+import ru.nsu.yousightseeing.utils.AppLog;
+
+/**
+ * Владелец in-flight запросов API.
+ * <p>
+ * Пока реестр открыт, он ставит вызовы OkHttp в очередь и помнит их. После {@link #close()}
+ * колбэки отвязываются (диспетчер OkHttp больше не держит Activity через анонимные
+ * колбэки), чтения отменяются, а записи дорабатывают без колбэка — сервер мог уже их применить.
+ * <p>
+ * API находит реестр по переданному Context: для Activity это реестр её Lifecycle,
+ * закрываемый на ON_DESTROY; для ViewModel — контекст из {@link #bind(Context)},
+ * который переживает поворот экрана.
+ */
+public final class RequestRegistry {
+
+    private static final String TAG = "RequestRegistry";
+
+    /** Context, за которым стоит собственный реестр (например, ViewModel). */
+    public interface Owner {
+        RequestRegistry getRequestRegistry();
+    }
+
+    private static final Map<LifecycleOwner, RequestRegistry> lifecycleRegistries = new WeakHashMap<>();
+
+    /** Проверка главного потока; в JVM-тестах у заглушек android.jar Looper нет, тесты её подменяют. */
+    static volatile BooleanSupplier mainThread = () -> Looper.myLooper() == Looper.getMainLooper();
+
+    private final Map<Call, DetachableCallback> inFlight = new ConcurrentHashMap<>();
+    private volatile boolean closed = false;
+
+    /**
+     * Реестр, привязанный к жизненному циклу owner. Вызывать с главного потока.
+     */
+    public static RequestRegistry of(LifecycleOwner owner) {
+        synchronized (lifecycleRegistries) {
+            RequestRegistry registry = lifecycleRegistries.get(owner);
+            if (registry != null) return registry;
+
+            registry = new RequestRegistry();
+            Lifecycle lifecycle = owner.getLifecycle();
+            if (lifecycle.getCurrentState() == Lifecycle.State.DESTROYED) {
+                registry.close();
+                return registry;
+            }
+
+            lifecycleRegistries.put(owner, registry);
+            RequestRegistry bound = registry;
+            lifecycle.addObserver(new DefaultLifecycleObserver() {
+                @Override
+                public void onDestroy(@NonNull LifecycleOwner source) {
+                    synchronized (lifecycleRegistries) {
+                        lifecycleRegistries.remove(source);
+                    }
+                    bound.close();
+                }
+            });
+            return registry;
+        }
+    }
+
+    @Nullable
+    static RequestRegistry find(@Nullable Context ctx) {
+        if (ctx instanceof Owner) {
+            return ((Owner) ctx).getRequestRegistry();
+        }
+        if (ctx instanceof LifecycleOwner) {
+            LifecycleOwner owner = (LifecycleOwner) ctx;
+            synchronized (lifecycleRegistries) {
+                RequestRegistry registry = lifecycleRegistries.get(owner);
+                if (registry != null) return registry;
+            }
+            // addObserver допустим только с главного потока
+            if (mainThread.getAsBoolean()) {
+                return of(owner);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Чтение или идемпотентный расчёт: при закрытии владельца вызов отменяется.
+     */
+    static void enqueue(Context ctx, OkHttpClient client, Request request, Callback callback) {
+        enqueue(ctx, client, request, callback, true, null);
+    }
+
+    /**
+     * Запись: при закрытии владельца колбэк отвязывается, но сам запрос не отменяется.
+     */
+    static void enqueueWrite(Context ctx, OkHttpClient client, Request request, Callback callback) {
+        enqueue(ctx, client, request, callback, false, null);
+    }
+
+    /**
+     * onDone вызывается ровно один раз, когда вызов завершён, отменён или отброшен, —
+     * даже если колбэк к этому моменту отвязан. Нужен планировщику, чтобы освобождать слоты.
+     */
+    static void enqueue(Context ctx, OkHttpClient client, Request request, Callback callback,
+                        boolean cancelOnClose, @Nullable Runnable onDone) {
+        RequestRegistry registry = find(ctx);
+        DetachableCallback detachable = new DetachableCallback(registry, callback, cancelOnClose, onDone);
+        if (registry == null) {
+            client.newCall(request).enqueue(detachable);
+            return;
+        }
+        registry.enqueue(client, request, detachable);
+    }
+
+    private void enqueue(OkHttpClient client, Request request, DetachableCallback detachable) {
+        if (closed) {
+            if (AppLog.ENABLED) {
+                AppLog.d(TAG, () -> "owner closed, drop " + request.method() + " " + request.url().encodedPath());
+            }
+            detachable.done();
+            return;
+        }
+
+        Call call = client.newCall(request);
+        inFlight.put(call, detachable);
+        call.enqueue(detachable);
+
+        // close() мог пройти между проверкой и put
+        if (closed) {
+            release(call, detachable);
+        }
+    }
+
+    /**
+     * Контекст приложения, через который API регистрирует запросы в этом реестре.
+     */
+    public Context bind(Context base) {
+        return new ScopedContext(base.getApplicationContext(), this);
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    public int inFlightCount() {
+        return inFlight.size();
+    }
+
+    public void close() {
+        closed = true;
+        List<Map.Entry<Call, DetachableCallback>> entries = new ArrayList<>(inFlight.entrySet());
+        for (Map.Entry<Call, DetachableCallback> entry : entries) {
+            release(entry.getKey(), entry.getValue());
+        }
+    }
+
+    private void release(Call call, DetachableCallback detachable) {
+        inFlight.remove(call);
+        detachable.detach();
+        if (detachable.cancelOnClose) {
+            call.cancel();
+        }
+    }
+
+    private static final class DetachableCallback implements Callback {
+        @Nullable private final RequestRegistry registry;
+        private volatile Callback delegate;
+        final boolean cancelOnClose;
+        @Nullable private final Runnable onDone;
+        private final AtomicBoolean finished = new AtomicBoolean(false);
+
+        DetachableCallback(@Nullable RequestRegistry registry, Callback delegate,
+                           boolean cancelOnClose, @Nullable Runnable onDone) {
+            this.registry = registry;
+            this.delegate = delegate;
+            this.cancelOnClose = cancelOnClose;
+            this.onDone = onDone;
+        }
+
+        void detach() {
+            delegate = null;
+        }
+
+        void done() {
+            if (onDone != null && finished.compareAndSet(false, true)) {
+                onDone.run();
+            }
+        }
+
+        @Override
+        public void onFailure(@NonNull Call call, @NonNull IOException e) {
+            if (registry != null) registry.inFlight.remove(call);
+            done();
+            Callback target = delegate;
+            if (target == null) return;
+            target.onFailure(call, e);
+        }
+
+        @Override
+        public void onResponse(@NonNull Call call, @NonNull Response response) throws IOException {
+            if (registry != null) registry.inFlight.remove(call);
+            done();
+            Callback target = delegate;
+            if (target == null) {
+                response.close();
+                return;
+            }
+            target.onResponse(call, response);
+        }
+    }
+
+    private static final class ScopedContext extends ContextWrapper implements Owner {
+        private final RequestRegistry registry;
+
+        ScopedContext(Context base, RequestRegistry registry) {
+            super(base);
+            this.registry = registry;
+        }
+
+        @Override
+        public RequestRegistry getRequestRegistry() {
+            return registry;
+        }
+    }
+}
@@ -0,0 +1,262 @@
+package ru.nsu.yousightseeing.api;
+
+import android.content.Context;
+import android.content.ContextWrapper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Callback;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+
+/**
+ * Очередь запросов к бэкенду с приоритетами и лимитами частоты.
+ * <p>
+ * Каждая попытка запроса сначала встаёт в полосу своего приоритета ({@link Lane}). Одновременно
+ * выполняется не больше {@link #MAX_IN_FLIGHT} запросов, причём последний слот только для
+ * интерактивной полосы. Для эндпоинтов, которые бэкенд проксирует во внешние сервисы
+ * с общей квотой, действуют token bucket'ы: интерактивный запрос может взять токен в долг,
+ * фоновые ждут пополнения. Фоновые запросы при нагрузке сбрасываются с {@link RequestShedException}.
+ * <p>
+ * Полоса задаётся через Context: {@link #withLane(Context, Lane)}; по умолчанию запрос интерактивный.
+ */
+public final class RequestScheduler {
+
+    private static final String TAG = "RequestScheduler";
+
+    public enum Lane {
+        /** Ответ ждёт пользователь: нажатие, открытие экрана. */
+        INTERACTIVE,
+        /** Подготовка данных наперёд: подгрузка списка, предзагрузка, отправка очереди. */
+        PREFETCH,
+        /** Можно отбросить: обновления, которые пользователь не ждёт. */
+        BACKGROUND
+    }
+
+    /** Запрос фоновой полосы сброшен планировщиком, сервер его не получал. */
+    public static final class RequestShedException extends IOException {
+        RequestShedException(String reason) {
+            super("Запрос отменён из-за нагрузки: " + reason);
+        }
+    }
+
+    private static final int MAX_IN_FLIGHT = 4;
+    private static final int RESERVED_FOR_INTERACTIVE = 1;
+    private static final int MAX_QUEUED_BACKGROUND = 8;
+    private static final long MAX_BACKGROUND_WAIT_MS = 10_000;
+
+    /** Ограничение частоты: rate токенов в секунду, не больше burst в запасе. */
+    private static final class TokenBucket {
+        final double ratePerSec;
+        final double burst;
+        double tokens;
+        long updatedAt;
+
+        TokenBucket(double ratePerSec, double burst) {
+            this.ratePerSec = ratePerSec;
+            this.burst = burst;
+            this.tokens = burst;
+            this.updatedAt = SystemClock.elapsedRealtime();
+        }
+
+        void refill(long now) {
+            tokens = Math.min(burst, tokens + (now - updatedAt) * ratePerSec / 1000.0);
+            updatedAt = now;
+        }
+
+        /** Интерактивные могут уйти в долг до -burst: фон потом дольше ждёт пополнения. */
+        boolean tryAcquire(long now, boolean borrow) {
+            refill(now);
+            if (tokens >= 1 || (borrow && tokens - 1 >= -burst)) {
+                tokens -= 1;
+                return true;
+            }
+            return false;
+        }
+
+        boolean inDebt() {
+            return tokens < 0;
+        }
+
+        long millisUntilToken() {
+            return (long) Math.ceil((1 - tokens) * 1000.0 / ratePerSec);
+        }
+    }
+
+    private static final class Pending {
+        final Context ctx;
+        final Lane lane;
+        final OkHttpClient client;
+        final Request request;
+        final boolean write;
+        final Callback callback;
+        /** Реестр владельца: сброс, как и обычный итог, закрытому владельцу не доставляется. */
+        @Nullable final RequestRegistry registry;
+        final String endpoint;
+        final long queuedAt = SystemClock.elapsedRealtime();
+
+        Pending(Context ctx, Lane lane, OkHttpClient client, Request request, boolean write, Callback callback) {
+            this.ctx = ctx;
+            this.registry = RequestRegistry.find(ctx);
+            this.lane = lane;
+            this.client = client;
+            this.request = request;
+            this.write = write;
+            this.callback = callback;
+            this.endpoint = request.url().encodedPath();
+        }
+    }
+
+    private static final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "api-scheduler");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static final Object lock = new Object();
+    private static final Map<Lane, ArrayDeque<Pending>> queues = new EnumMap<>(Lane.class);
+    private static final Map<String, TokenBucket> buckets = new HashMap<>();
+    private static int inFlight = 0;
+    private static boolean wakeupScheduled = false;
+
+    static {
+        for (Lane lane : Lane.values()) {
+            queues.put(lane, new ArrayDeque<>());
+        }
+        // Эндпоинты, за которыми внешние API с общей квотой
+        buckets.put("/api/places/search", new TokenBucket(1.0, 3));
+        buckets.put("/api/routes/generate", new TokenBucket(0.2, 2));
+        buckets.put("/api/routes/calculate", new TokenBucket(2.0, 4));
+    }
+
+    private RequestScheduler() {}
+
+    /** Context, запросы через который идут в указанной полосе. Вызывать с главного потока. */
+    public static Context withLane(Context ctx, Lane lane) {
+        return withLane(ctx, lane, RequestRegistry.find(ctx));
+    }
+
+    /** Context полосы с уже найденным реестром владельца; null — запросы без владельца. */
+    static Context withLane(Context ctx, Lane lane, @Nullable RequestRegistry registry) {
+        return new LaneContext(ctx, lane, registry);
+    }
+
+    static Lane laneOf(Context ctx) {
+        return ctx instanceof LaneContext ? ((LaneContext) ctx).lane : Lane.INTERACTIVE;
+    }
+
+    /** Ставит попытку в очередь; колбэк получит ответ, ошибку или {@link RequestShedException}. */
+    static void submit(Context ctx, OkHttpClient client, Request request, boolean write, Callback callback) {
+        Pending pending = new Pending(ctx, laneOf(ctx), client, request, write, callback);
+        List<Pending> shed = new ArrayList<>();
+        synchronized (lock) {
+            ArrayDeque<Pending> queue = queues.get(pending.lane);
+            queue.addLast(pending);
+            if (pending.lane == Lane.BACKGROUND && queue.size() > MAX_QUEUED_BACKGROUND) {
+                shed.add(queue.pollFirst());
+            }
+        }
+        fail(shed, "очередь переполнена");
+        dispatch();
+    }
+
+    private static void dispatch() {
+        List<Pending> toStart = new ArrayList<>();
+        List<Pending> shed = new ArrayList<>();
+        long now = SystemClock.elapsedRealtime();
+        long nextWakeup = Long.MAX_VALUE;
+
+        synchronized (lock) {
+            for (Lane lane : Lane.values()) {
+                int limit = lane == Lane.INTERACTIVE ? MAX_IN_FLIGHT : MAX_IN_FLIGHT - RESERVED_FOR_INTERACTIVE;
+                Iterator<Pending> it = queues.get(lane).iterator();
+                while (it.hasNext() && inFlight < limit) {
+                    Pending pending = it.next();
+                    TokenBucket bucket = buckets.get(pending.endpoint);
+
+                    if (lane == Lane.BACKGROUND && now - pending.queuedAt > MAX_BACKGROUND_WAIT_MS) {
+                        it.remove();
+                        shed.add(pending);
+                        continue;
+                    }
+                    if (bucket == null || bucket.tryAcquire(now, lane == Lane.INTERACTIVE)) {
+                        it.remove();
+                        inFlight++;
+                        toStart.add(pending);
+                        continue;
+                    }
+                    // Лимит выбран интерактивными запросами — фон не ждёт, а уступает
+                    if (lane == Lane.BACKGROUND && bucket.inDebt()) {
+                        it.remove();
+                        shed.add(pending);
+                        continue;
+                    }
+                    nextWakeup = Math.min(nextWakeup, bucket.millisUntilToken());
+                }
+            }
+            if (nextWakeup != Long.MAX_VALUE && !wakeupScheduled) {
+                wakeupScheduled = true;
+                timer.schedule(() -> {
+                    synchronized (lock) {
+                        wakeupScheduled = false;
+                    }
+                    dispatch();
+                }, Math.max(10, nextWakeup), TimeUnit.MILLISECONDS);
+            }
+        }
+
+        fail(shed, "превышен лимит");
+        for (Pending pending : toStart) {
+            RequestRegistry.enqueue(pending.ctx, pending.client, pending.request, pending.callback,
+                    !pending.write, RequestScheduler::onFinished);
+        }
+    }
+
+    private static void onFinished() {
+        synchronized (lock) {
+            inFlight--;
+        }
+        dispatch();
+    }
+
+    private static void fail(List<Pending> shed, String reason) {
+        for (Pending pending : shed) {
+            Log.w(TAG, "shed " + pending.request.method() + " " + pending.endpoint + ": " + reason);
+            timer.execute(() -> {
+                if (pending.registry != null && pending.registry.isClosed()) return;
+                pending.callback.onFailure(pending.client.newCall(pending.request), new RequestShedException(reason));
+            });
+        }
+    }
+
+    private static final class LaneContext extends ContextWrapper implements RequestRegistry.Owner {
+        final Lane lane;
+        @Nullable private final RequestRegistry registry;
+
+        LaneContext(Context base, Lane lane, @Nullable RequestRegistry registry) {
+            super(base);
+            this.lane = lane;
+            this.registry = registry;
+        }
+
+        @Nullable
+        @Override
+        public RequestRegistry getRequestRegistry() {
+            return registry;
+        }
+    }
+}
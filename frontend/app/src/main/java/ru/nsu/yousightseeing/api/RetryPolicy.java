@@ -0,0 +1,112 @@
+package ru.nsu.yousightseeing.api;
+
+import androidx.annotation.Nullable;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.concurrent.ThreadLocalRandom;
+
+import okhttp3.Response;
+
+/**
+ * Политика повторов для эндпоинта.
+ * <p>
+ * Идемпотентные запросы (чтения, расчёты, PUT/PATCH профиля) повторяются на любой сетевой ошибке
+ * и на 408/429/502/503/504. Неидемпотентные — только когда запрос заведомо не дошёл до сервера
+ * (не удалось соединиться) или сервер явно отказал без обработки (429, 503). Что соединения не было,
+ * видно по типу исключения, а для таймаута — по тому, что вызов так и не получил соединение.
+ * Пауза — экспоненциальная с полным джиттером, Retry-After от сервера имеет приоритет;
+ * все попытки укладываются в общий дедлайн.
+ */
+public final class RetryPolicy {
+
+    /** Чтения: списки и детали маршрутов, профиль, поиск мест. */
+    public static final RetryPolicy READ = new RetryPolicy(true, false, 3, 500, 4_000, 15_000);
+    /** Расчёт и генерация маршрута: долгие запросы на нестабильной сети, повторяем терпеливее. */
+    public static final RetryPolicy COMPUTE = new RetryPolicy(true, false, 4, 1_000, 8_000, 45_000);
+    /** Записи, которые безопасно повторить (PUT/PATCH профиля). */
+    public static final RetryPolicy IDEMPOTENT_WRITE = new RetryPolicy(true, true, 3, 1_000, 8_000, 20_000);
+    /** Создание сущностей: повтор только если запрос точно не обработан. */
+    public static final RetryPolicy WRITE = new RetryPolicy(false, true, 3, 1_000, 8_000, 20_000);
+
+    public final boolean idempotent;
+    /** Запись: при закрытии владельца запрос не отменяется и повторы продолжаются (см. {@link RetryingCall}). */
+    public final boolean write;
+    public final int maxAttempts;
+    public final long baseDelayMs;
+    public final long maxDelayMs;
+    public final long deadlineMs;
+
+    public RetryPolicy(boolean idempotent, boolean write, int maxAttempts,
+                       long baseDelayMs, long maxDelayMs, long deadlineMs) {
+        if (maxAttempts < 1 || baseDelayMs < 0 || maxDelayMs < baseDelayMs || deadlineMs < 0) {
+            throw new IllegalArgumentException("invalid retry policy");
+        }
+        this.idempotent = idempotent;
+        this.write = write;
+        this.maxAttempts = maxAttempts;
+        this.baseDelayMs = baseDelayMs;
+        this.maxDelayMs = maxDelayMs;
+        this.deadlineMs = deadlineMs;
+    }
+
+    /**
+     * Стоит ли повторять после сетевой ошибки; attempt — номер завершившейся попытки с 1,
+     * connected — вызов успел получить соединение ({@link NetworkMetrics#wasConnected}).
+     */
+    boolean shouldRetryFailure(IOException e, int attempt, boolean connected) {
+        if (attempt >= maxAttempts) return false;
+        // Сброшенный планировщиком запрос не уходил на сервер, но повтор только усилит нагрузку
+        if (e instanceof RequestScheduler.RequestShedException) return false;
+        if (idempotent) return true;
+        // Запрос не ушёл: соединение не установлено
+        return e instanceof ConnectException
+                || e instanceof UnknownHostException
+                || e instanceof NoRouteToHostException
+                || (e instanceof SocketTimeoutException && !connected);
+    }
+
+    /** Стоит ли повторять после ответа сервера. */
+    boolean shouldRetryResponse(Response response, int attempt) {
+        if (attempt >= maxAttempts) return false;
+        int code = response.code();
+        if (code == 429 || code == 503) return true;
+        return idempotent && (code == 408 || code == 502 || code == 504);
+    }
+
+    /**
+     * Пауза перед следующей попыткой: Retry-After, если сервер его прислал, иначе
+     * случайная величина от 0 до base * 2^(attempt-1), но не больше maxDelayMs.
+     */
+    long delayBeforeNext(int attempt, @Nullable String retryAfter, long nowMs) {
+        long serverDelay = parseRetryAfter(retryAfter, nowMs);
+        if (serverDelay >= 0) return serverDelay;
+
+        long cap = baseDelayMs << Math.min(attempt - 1, 20);
+        cap = Math.min(maxDelayMs, cap);
+        return cap > 0 ? ThreadLocalRandom.current().nextLong(cap + 1) : 0;
+    }
+
+    /** Retry-After в секундах или HTTP-датой; -1, если заголовка нет или он не разобран. */
+    static long parseRetryAfter(@Nullable String value, long nowMs) {
+        if (value == null || value.isEmpty()) return -1;
+        String trimmed = value.trim();
+        try {
+            long seconds = Long.parseLong(trimmed);
+            return seconds >= 0 ? seconds * 1000 : -1;
+        } catch (NumberFormatException ignored) {
+        }
+        try {
+            long at = ZonedDateTime.parse(trimmed, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+            return Math.max(0, at - nowMs);
+        } catch (DateTimeParseException e) {
+            return -1;
+        }
+    }
+}
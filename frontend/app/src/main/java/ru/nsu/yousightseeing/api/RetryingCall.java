@@ -0,0 +1,125 @@
+package ru.nsu.yousightseeing.api;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+
+import ru.nsu.yousightseeing.utils.AppLog;
+
+/**
+ * Выполняет запрос по {@link RetryPolicy}: каждая попытка проходит через {@link RequestScheduler}
+ * и тот же {@link RequestRegistry}, так что закрытие владельца останавливает и ожидающие повторы.
+ * Реестр находится один раз, в потоке вызова: повторы идут с потоков api-retry и OkHttp,
+ * где реестр Activity уже не найти. Наружу уходит только итог — последний ответ или последняя ошибка.
+ * <p>
+ * Записи так не останавливаются: их попытки идут без реестра владельца, в контексте приложения,
+ * и доходят до конца, даже если владелец закрылся между ними. Итог такой записи закрытому
+ * владельцу не доставляется — как и у записи, завершившейся после закрытия.
+ */
+final class RetryingCall implements Callback {
+
+    private static final String TAG = "RetryingCall";
+
+    private static final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "api-retry");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Context ctx;
+    private final OkHttpClient client;
+    private final Request request;
+    private final RetryPolicy policy;
+    private final Callback callback;
+    /** Реестр владельца; null для запросов без владельца. */
+    @Nullable private final RequestRegistry owner;
+    private final long deadlineAt;
+    private int attempt = 0;
+
+    private RetryingCall(Context ctx, OkHttpClient client, Request request, RetryPolicy policy, Callback callback) {
+        this.owner = RequestRegistry.find(ctx);
+        RequestScheduler.Lane lane = RequestScheduler.laneOf(ctx);
+        // Чтения идут через реестр владельца, записи — без него
+        this.ctx = RequestScheduler.withLane(ctx.getApplicationContext(), lane, policy.write ? null : owner);
+        this.client = client;
+        this.request = request;
+        this.policy = policy;
+        this.callback = callback;
+        this.deadlineAt = SystemClock.elapsedRealtime() + policy.deadlineMs;
+    }
+
+    static void enqueue(Context ctx, OkHttpClient client, Request request, RetryPolicy policy, Callback callback) {
+        new RetryingCall(ctx, client, request, policy, callback).attempt();
+    }
+
+    private void attempt() {
+        if (!policy.write && owner != null && owner.isClosed()) {
+            if (AppLog.ENABLED) {
+                AppLog.d(TAG, () -> describe() + " owner closed, retry dropped");
+            }
+            return;
+        }
+        attempt++;
+        RequestScheduler.submit(ctx, client, request, policy.write, this);
+    }
+
+    @Override
+    public void onFailure(@NonNull Call call, @NonNull IOException e) {
+        if (!call.isCanceled()
+                && policy.shouldRetryFailure(e, attempt, NetworkMetrics.wasConnected(call))
+                && scheduleRetry(null)) {
+            Log.w(TAG, describe() + " failed (" + e + "), retry " + (attempt + 1) + "/" + policy.maxAttempts);
+            return;
+        }
+        if (ownerClosed()) return;
+        callback.onFailure(call, e);
+    }
+
+    @Override
+    public void onResponse(@NonNull Call call, @NonNull Response response) throws IOException {
+        if (policy.shouldRetryResponse(response, attempt) && scheduleRetry(response.header("Retry-After"))) {
+            Log.w(TAG, describe() + " got " + response.code() + ", retry " + (attempt + 1) + "/" + policy.maxAttempts);
+            response.close();
+            return;
+        }
+        if (ownerClosed()) {
+            response.close();
+            return;
+        }
+        callback.onResponse(call, response);
+    }
+
+    private boolean ownerClosed() {
+        if (owner == null || !owner.isClosed()) return false;
+        if (AppLog.ENABLED) {
+            AppLog.d(TAG, () -> describe() + " finished after owner closed, result dropped");
+        }
+        return true;
+    }
+
+    /** Планирует следующую попытку; false, если она не успевает до дедлайна. */
+    private boolean scheduleRetry(String retryAfter) {
+        long delay = policy.delayBeforeNext(attempt, retryAfter, System.currentTimeMillis());
+        if (SystemClock.elapsedRealtime() + delay >= deadlineAt) return false;
+        scheduler.schedule(this::attempt, delay, TimeUnit.MILLISECONDS);
+        return true;
+    }
+
+    private String describe() {
+        return request.method() + " " + request.url().encodedPath();
+    }
+}
@@ -6,6 +6,7 @@ import android.util.Log;
 import androidx.annotation.NonNull;
 
 import ru.nsu.yousightseeing.features.AuthActivity;
+import ru.nsu.yousightseeing.utils.AppLog;
 import com.yandex.mapkit.geometry.Point;
 
 import org.json.JSONArray;
@@ -34,6 +35,7 @@ public final class RouteApi {
     private static final OkHttpClient client = new OkHttpClient.Builder()
             .connectTimeout(10, TimeUnit.SECONDS)
             .readTimeout(20, TimeUnit.SECONDS)
+            .eventListenerFactory(NetworkMetrics.LISTENER_FACTORY)
             .build();
 
     public interface RouteCallback {
@@ -48,7 +50,8 @@ public final class RouteApi {
 
     public interface CreateRouteCallback {
         void onSuccess(String routeId);
-        void onError(String message);
+        /** code — HTTP-код ответа; 0, если ответа нет и неизвестно, создан ли маршрут. */
+        void onError(int code, String message);
     }
 
     public interface RouteListCallback {
@@ -75,6 +78,14 @@ public final class RouteApi {
         public String shareCode;
         public String createdAt;
         public List<SavedRoutePoint> points = new ArrayList<>();
+        /** Только локально: состояние отправки маршрута, созданного на устройстве. */
+        public int syncState = SYNCED;
+
+        public static final int SYNCED = 0;
+        /** Ждёт отправки в очереди. */
+        public static final int PENDING = 1;
+        /** Сервер отклонил маршрут, повторять отправку бессмысленно. */
+        public static final int REJECTED = 2;
     }
 
     public static class SavedRoutePoint {
@@ -143,7 +154,9 @@ public final class RouteApi {
             bodyJson.put("preference", "fastest");
             bodyJson.put("optimize_order", optimizeOrder);
 
-            Log.d("ROUTE_API_BODY", bodyJson.toString());
+            if (AppLog.ENABLED) {
+                AppLog.d("ROUTE_API_BODY", () -> AppLog.body(bodyJson.toString()));
+            }
         } catch (JSONException e) {
             cb.onError("Ошибка формирования запроса");
             return;
@@ -156,23 +169,20 @@ public final class RouteApi {
                 .addHeader("Authorization", "Bearer " + access)
                 .build();
 
-        client.newCall(request).enqueue(new Callback() {
+        RetryingCall.enqueue(ctx, client, request, RetryPolicy.COMPUTE, new Callback() {
             @Override
             public void onFailure(@NonNull Call call, @NonNull IOException e) {
-                if (!alreadyRetried) {
-                    Log.w(TAG, "Request failed, retrying...", e);
-                    performCalculateRoute(ctx, points, optimizeOrder, cb, true);
-                } else {
-                    Log.e(TAG, "FULL ERROR after retry", e);
-                    cb.onError("Сервер оборвал соединение (backend упал)");
-                }
+                Log.e(TAG, "calculateRoute failure after retries", e);
+                cb.onError("Сервер оборвал соединение (backend упал)");
             }
 
             @Override
             public void onResponse(@NonNull Call call, @NonNull Response response) throws IOException {
                 String respBody = response.body() != null ? response.body().string() : "";
 
-                Log.d("ROUTE_API_RESPONSE", respBody);
+                if (AppLog.ENABLED) {
+                    AppLog.d("ROUTE_API_RESPONSE", () -> AppLog.body(respBody));
+                }
 
                 if (respBody == null || respBody.isEmpty()) {
                     cb.onError("Пустой ответ от сервера");
@@ -200,11 +210,12 @@ public final class RouteApi {
                 }
 
                 if (!response.isSuccessful()) {
-                    Log.e(TAG, "calculateRoute error " + response.code() + " " + respBody);
-                    cb.onError("Ошибка маршрута: " + response.code() + "\n" + respBody);
+                    AppLog.e(TAG, "calculateRoute error " + response.code() + " " + AppLog.body(respBody));
+                    cb.onError("Ошибка маршрута: " + response.code());
                     return;
                 }
 
+                long parseStart = System.nanoTime();
                 try {
                     JSONObject json = new JSONObject(respBody);
                     JSONArray pts = json.getJSONArray("points");
@@ -212,6 +223,7 @@ public final class RouteApi {
                     double duration = json.getDouble("duration");
 
                     List<Point> routePoints = parseRoutePoints(pts);
+                    NetworkMetrics.recordParse(call, System.nanoTime() - parseStart);
                     cb.onSuccess(routePoints, distance, duration);
 
                 } catch (JSONException e) {
@@ -322,33 +334,19 @@ public final class RouteApi {
                 .addHeader("Authorization", "Bearer " + access)
                 .build();
 
-        client.newCall(request).enqueue(new Callback() {
+        RetryingCall.enqueue(ctx, client, request, RetryPolicy.COMPUTE, new Callback() {
             @Override
             public void onFailure(@NonNull Call call, @NonNull IOException e) {
-                if (!alreadyRetried) {
-                    Log.w(TAG, "Request failed, retrying...", e);
-                    performGenerateRoute(
-                            ctx,
-                            startLat,
-                            startLon,
-                            categories,
-                            radius,
-                            maxPlaces,
-                            durationMinutes,
-                            includeFood,
-                            cb,
-                            true // This is the retry attempt
-                    );
-                } else {
-                    Log.e(TAG, "FULL ERROR after retry", e);
-                    cb.onError("Сервер оборвал соединение (backend упал)");
-                }
+                Log.e(TAG, "generateRoute failure after retries", e);
+                cb.onError("Сервер оборвал соединение (backend упал)");
             }
 
             @Override
             public void onResponse(@NonNull Call call, @NonNull Response response) throws IOException {
                 String respBody = response.body() != null ? response.body().string() : "";
-                Log.d("ROUTE_DEBUG", "Response = " + respBody);
+                if (AppLog.ENABLED) {
+                    AppLog.d("ROUTE_DEBUG", () -> "Response = " + AppLog.body(respBody));
+                }
                 if (respBody == null || respBody.isEmpty()) {
                     cb.onError("Пустой ответ от сервера");
                     return;
@@ -386,11 +384,13 @@ public final class RouteApi {
                 }
 
                 if (!response.isSuccessful()) {
-                    Log.e(TAG, "generateRoute error " + response.code() + " " + respBody);
-                    cb.onError("Ошибка генерации маршрута: " + response.code() + "\n" + respBody);
+                    AppLog.e(TAG, "generateRoute error " + response.code() + " " + AppLog.body(respBody));
+                    // Текст ошибки сервера нужен экрану: по нему отличается «не нашлось мест»
+                    cb.onError("Ошибка генерации маршрута: " + response.code() + serverError(respBody));
                     return;
                 }
 
+                long parseStart = System.nanoTime();
                 try {
                     JSONObject json = new JSONObject(respBody);
 
@@ -414,6 +414,7 @@ public final class RouteApi {
                         result.duration = routeJson.optDouble("duration", 0.0);
                     }
 
+                    NetworkMetrics.recordParse(call, System.nanoTime() - parseStart);
                     cb.onSuccess(result);
 
                 } catch (JSONException e) {
@@ -435,128 +436,112 @@ public final class RouteApi {
         return routePoints;
     }
 
-    public static void createRoute(Context ctx,
-                                   String title,
-                                   double startLat,
-                                   double startLon,
-                                   double distance,
-                                   double duration,
-                                   List<String> categories,
-                                   int maxPlaces,
-                                   boolean includeFood,
-                                   boolean isPublic,
-                                   List<PlacesApi.Place> places,
-                                   CreateRouteCallback cb) {
-
-        performCreateRoute(
-                ctx,
-                title,
-                startLat,
-                startLon,
-                distance,
-                duration,
-                categories,
-                maxPlaces,
-                includeFood,
-                isPublic,
-                places,
-                cb,
-                false
-        );
-    }
-
-    private static void performCreateRoute(Context ctx,
-                                           String title,
-                                           double startLat,
-                                           double startLon,
-                                           double distance,
-                                           double duration,
-                                           List<String> categories,
-                                           int maxPlaces,
-                                           boolean includeFood,
-                                           boolean isPublic,
-                                           List<PlacesApi.Place> places,
-                                           CreateRouteCallback cb,
-                                           boolean alreadyRetried) {
-
-        String access = AuthActivity.getAccessToken();
-        if (access == null) {
-            cb.onError("Требуется авторизация");
-            return;
+    /** Поле error из JSON-ответа с ошибкой — короткий текст сервера без остального тела; "" если его нет. */
+    private static String serverError(String body) {
+        try {
+            String error = new JSONObject(body).optString("error", "");
+            return error.isEmpty() ? "" : " (" + error + ")";
+        } catch (JSONException e) {
+            return "";
         }
+    }
 
+    /**
+     * Тело POST /api/routes для сохранённого маршрута. Позиции точек идут с 1 в порядке списка.
+     */
+    public static JSONObject buildCreateRouteBody(SavedRoute route) throws JSONException {
         JSONObject bodyJson = new JSONObject();
 
-        try {
-            bodyJson.put("title", title);
-            bodyJson.put("start_latitude", startLat);
-            bodyJson.put("start_longitude", startLon);
-            bodyJson.put("distance", Math.round(distance));
-            bodyJson.put("duration", (int) Math.round(duration));
+        bodyJson.put("title", route.title);
+        bodyJson.put("start_latitude", route.startLatitude);
+        bodyJson.put("start_longitude", route.startLongitude);
+        bodyJson.put("distance", route.distance);
+        bodyJson.put("duration", route.duration);
 
-            JSONArray categoriesJson = new JSONArray();
-            if (categories != null) {
-                for (String category : categories) {
-                    categoriesJson.put(category);
-                }
+        JSONArray categoriesJson = new JSONArray();
+        if (route.categories != null) {
+            for (String category : route.categories) {
+                categoriesJson.put(category);
             }
-            bodyJson.put("categories", categoriesJson);
-
-            bodyJson.put("max_places", maxPlaces);
-            bodyJson.put("include_food", includeFood);
-            bodyJson.put("is_public", isPublic);
-            bodyJson.put("share_code", JSONObject.NULL);
-
-            JSONArray pointsJson = new JSONArray();
+        }
+        bodyJson.put("categories", categoriesJson);
 
-            if (places != null) {
-                for (int i = 0; i < places.size(); i++) {
-                    PlacesApi.Place place = places.get(i);
+        bodyJson.put("max_places", route.maxPlaces);
+        bodyJson.put("include_food", route.includeFood);
+        bodyJson.put("is_public", route.isPublic);
+        bodyJson.put("share_code", route.shareCode != null ? route.shareCode : JSONObject.NULL);
 
-                    JSONObject pointJson = new JSONObject();
-                    pointJson.put("position", i + 1);
+        JSONArray pointsJson = new JSONArray();
 
-                    if (place.placeId != null && !place.placeId.isEmpty()) {
-                        pointJson.put("place_id", place.placeId);
-                    } else {
-                        pointJson.put("place_id", JSONObject.NULL);
-                    }
+        for (int i = 0; i < route.points.size(); i++) {
+            SavedRoutePoint point = route.points.get(i);
 
-                    pointJson.put("name",
-                            place.name != null && !place.name.isEmpty()
-                                    ? place.name
-                                    : "Точка");
+            JSONObject pointJson = new JSONObject();
+            pointJson.put("position", i + 1);
 
-                    pointJson.put("address",
-                            place.address != null
-                                    ? place.address
-                                    : "");
+            if (point.placeId != null && !point.placeId.isEmpty()) {
+                pointJson.put("place_id", point.placeId);
+            } else {
+                pointJson.put("place_id", JSONObject.NULL);
+            }
 
-                    JSONArray placeCategoriesJson = new JSONArray();
-                    if (place.categories != null) {
-                        for (String category : place.categories) {
-                            placeCategoriesJson.put(category);
-                        }
-                    }
-                    pointJson.put("categories", placeCategoriesJson);
+            pointJson.put("name",
+                    point.name != null && !point.name.isEmpty()
+                            ? point.name
+                            : "Точка");
 
-                    pointJson.put("latitude", place.lat);
-                    pointJson.put("longitude", place.lon);
+            pointJson.put("address",
+                    point.address != null
+                            ? point.address
+                            : "");
 
-                    pointsJson.put(pointJson);
+            JSONArray placeCategoriesJson = new JSONArray();
+            if (point.categories != null) {
+                for (String category : point.categories) {
+                    placeCategoriesJson.put(category);
                 }
             }
+            pointJson.put("categories", placeCategoriesJson);
 
-            bodyJson.put("points", pointsJson);
+            pointJson.put("latitude", point.latitude);
+            pointJson.put("longitude", point.longitude);
 
-            Log.d("CREATE_ROUTE_BODY", bodyJson.toString());
+            pointsJson.put(pointJson);
+        }
 
-        } catch (JSONException e) {
-            cb.onError("Ошибка формирования запроса");
+        bodyJson.put("points", pointsJson);
+        return bodyJson;
+    }
+
+    /**
+     * POST /api/routes с готовым телом (см. {@link #buildCreateRouteBody}).
+     * <p>
+     * Запрос не идемпотентен, поэтому сам повторяется только по {@link RetryPolicy#WRITE} — когда
+     * он заведомо не дошёл до сервера. Если ответ потерялся, маршрут мог создаться: решение
+     * о повторе принимает вызывающий (очередь отправки): сервер ключей идемпотентности не поддерживает.
+     */
+    public static void createRoute(Context ctx,
+                                   String body,
+                                   CreateRouteCallback cb) {
+        performCreateRoute(ctx, body, cb, false);
+    }
+
+    private static void performCreateRoute(Context ctx,
+                                           String bodyJson,
+                                           CreateRouteCallback cb,
+                                           boolean alreadyRetried) {
+
+        String access = AuthActivity.getAccessToken();
+        if (access == null) {
+            cb.onError(401, "Требуется авторизация");
             return;
         }
 
-        RequestBody body = RequestBody.create(bodyJson.toString(), JSON);
+        if (AppLog.ENABLED) {
+            AppLog.d("CREATE_ROUTE_BODY", () -> AppLog.body(bodyJson));
+        }
+
+        RequestBody body = RequestBody.create(bodyJson, JSON);
 
         Request request = new Request.Builder()
                 .url(ApiConfig.ROUTES)
@@ -564,38 +549,22 @@ public final class RouteApi {
                 .addHeader("Authorization", "Bearer " + access)
                 .build();
 
-        client.newCall(request).enqueue(new Callback() {
+        RetryingCall.enqueue(ctx, client, request, RetryPolicy.WRITE, new Callback() {
             @Override
             public void onFailure(@NonNull Call call, @NonNull IOException e) {
-                if (!alreadyRetried) {
-                    Log.w(TAG, "createRoute failed, retrying...", e);
-                    performCreateRoute(
-                            ctx,
-                            title,
-                            startLat,
-                            startLon,
-                            distance,
-                            duration,
-                            categories,
-                            maxPlaces,
-                            includeFood,
-                            isPublic,
-                            places,
-                            cb,
-                            true
-                    );
-                } else {
-                    Log.e(TAG, "createRoute failure after retry", e);
-                    cb.onError("Ошибка сети: " + e.getMessage());
-                }
+                Log.w(TAG, "createRoute failure", e);
+                cb.onError(0, "Ошибка сети: " + e.getMessage());
             }
 
             @Override
             public void onResponse(@NonNull Call call, @NonNull Response response) throws IOException {
                 String respBody = response.body() != null ? response.body().string() : "";
 
-                Log.d("CREATE_ROUTE_RESPONSE", respBody);
+                if (AppLog.ENABLED) {
+                    AppLog.d("CREATE_ROUTE_RESPONSE", () -> AppLog.body(respBody));
+                }
 
+                // 401 отдаётся до создания маршрута, поэтому после обновления токена повтор безопасен
                 if (response.code() == 401
                         && (respBody.contains("expired") || respBody.contains("token is expired"))
                         && !alreadyRetried) {
@@ -603,33 +572,22 @@ public final class RouteApi {
                     AuthApi.refreshTokens(ctx, new AuthApi.RefreshCallback() {
                         @Override
                         public void onSuccess(String newAccess, String newRefresh) {
-                            performCreateRoute(
-                                    ctx,
-                                    title,
-                                    startLat,
-                                    startLon,
-                                    distance,
-                                    duration,
-                                    categories,
-                                    maxPlaces,
-                                    includeFood,
-                                    isPublic,
-                                    places,
-                                    cb,
-                                    true
-                            );
+                            performCreateRoute(ctx, bodyJson, cb, true);
                         }
 
                         @Override
                         public void onError(String message) {
-                            cb.onError("Сессия истекла, войдите заново: " + message);
+                            cb.onError(401, "Сессия истекла, войдите заново: " + message);
                         }
                     });
                     return;
                 }
 
                 if (!response.isSuccessful()) {
-                    cb.onError("Ошибка сохранения маршрута: " + response.code() + "\n" + respBody);
+                    if (AppLog.ENABLED) {
+                        AppLog.d(TAG, () -> "createRoute error " + response.code() + " " + AppLog.body(respBody));
+                    }
+                    cb.onError(response.code(), "Ошибка сохранения маршрута: " + response.code());
                     return;
                 }
 
@@ -638,7 +596,8 @@ public final class RouteApi {
                     String routeId = json.optString("route_id", "");
                     cb.onSuccess(routeId);
                 } catch (JSONException e) {
-                    cb.onError("Некорректный ответ сервера");
+                    // Маршрут создан, но id не разобрать: для очереди это то же, что потерянный ответ
+                    cb.onError(0, "Некорректный ответ сервера");
                 }
             }
         });
@@ -659,7 +618,7 @@ public final class RouteApi {
                 .addHeader("Authorization", "Bearer " + access)
                 .build();
 
-        client.newCall(request).enqueue(new Callback() {
+        RetryingCall.enqueue(ctx, client, request, RetryPolicy.READ, new Callback() {
             @Override
             public void onFailure(@NonNull Call call, @NonNull IOException e) {
                 Log.e(TAG, "getSavedRoutes failure", e);
@@ -671,10 +630,14 @@ public final class RouteApi {
                 String body = response.body() != null ? response.body().string() : "";
 
                 if (!response.isSuccessful()) {
-                    cb.onError("Ошибка загрузки маршрутов: " + response.code() + "\n" + body);
+                    if (AppLog.ENABLED) {
+                        AppLog.d(TAG, () -> "getSavedRoutes error " + response.code() + " " + AppLog.body(body));
+                    }
+                    cb.onError("Ошибка загрузки маршрутов: " + response.code());
                     return;
                 }
 
+                long parseStart = System.nanoTime();
                 try {
                     JSONObject root = new JSONObject(body);
                     JSONArray routesJson = root.optJSONArray("routes");
@@ -687,6 +650,7 @@ public final class RouteApi {
                         }
                     }
 
+                    NetworkMetrics.recordParse(call, System.nanoTime() - parseStart);
                     cb.onSuccess(routes);
                 } catch (JSONException e) {
                     Log.e(TAG, "parse saved routes error", e);
@@ -709,7 +673,7 @@ public final class RouteApi {
                 .addHeader("Authorization", "Bearer " + access)
                 .build();
 
-        client.newCall(request).enqueue(new Callback() {
+        RetryingCall.enqueue(ctx, client, request, RetryPolicy.READ, new Callback() {
             @Override
             public void onFailure(@NonNull Call call, @NonNull IOException e) {
                 Log.e(TAG, "getSavedRouteById failure", e);
@@ -721,15 +685,19 @@ public final class RouteApi {
                 String body = response.body() != null ? response.body().string() : "";
 
                 if (!response.isSuccessful()) {
-                    cb.onError("Ошибка загрузки маршрута: " + response.code() + "\n" + body);
+                    if (AppLog.ENABLED) {
+                        AppLog.d(TAG, () -> "getSavedRouteById error " + response.code() + " " + AppLog.body(body));
+                    }
+                    cb.onError("Ошибка загрузки маршрута: " + response.code());
                     return;
                 }
 
+                long parseStart = System.nanoTime();
                 try {
                     JSONObject root = new JSONObject(body);
-                    JSONObject routeJson = root.getJSONObject("route");
-
-                    cb.onSuccess(parseSavedRoute(routeJson));
+                    SavedRoute route = parseSavedRoute(root.getJSONObject("route"));
+                    NetworkMetrics.recordParse(call, System.nanoTime() - parseStart);
+                    cb.onSuccess(route);
                 } catch (JSONException e) {
                     Log.e(TAG, "parse saved route error", e);
                     cb.onError("Некорректный ответ сервера");
@@ -6,6 +6,7 @@ import android.util.Log;
 import androidx.annotation.NonNull;
 
 import ru.nsu.yousightseeing.features.AuthActivity;
+import ru.nsu.yousightseeing.utils.AppLog;
 
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -25,7 +26,9 @@ public final class UserApi {
     private static final String TAG = "UserApi";
     private static final MediaType JSON
             = MediaType.get("application/json; charset=utf-8");
-    private static final OkHttpClient client = new OkHttpClient();
+    private static final OkHttpClient client = new OkHttpClient.Builder()
+            .eventListenerFactory(NetworkMetrics.LISTENER_FACTORY)
+            .build();
 
     public interface UserCallback {
         void onSuccess(JSONObject userJson);
@@ -48,7 +51,7 @@ public final class UserApi {
                 .addHeader("Authorization", "Bearer " + access)
                 .build();
 
-        client.newCall(request).enqueue(new Callback() {
+        RetryingCall.enqueue(ctx, client, request, RetryPolicy.READ, new Callback() {
             @Override public void onFailure(@NonNull Call call, @NonNull IOException e) {
                 Log.e(TAG, "getMe failure", e);
                 cb.onError("Ошибка сети: " + e.getMessage());
@@ -56,9 +59,11 @@ public final class UserApi {
 
             @Override public void onResponse(@NonNull Call call, @NonNull Response response) throws IOException {
                 String body = response.body() != null ? response.body().string() : "";
-                Log.d("UserApi", "users/me response = " + body);
+                if (AppLog.ENABLED) {
+                    AppLog.d("UserApi", () -> "users/me response = " + AppLog.body(body));
+                }
                 if (!response.isSuccessful()) {
-                    cb.onError("Ошибка профиля: " + response.code() + "\n" + body);
+                    cb.onError("Ошибка профиля: " + response.code());
                     return;
                 }
                 try {
@@ -90,7 +95,7 @@ public final class UserApi {
                 .addHeader("Authorization", "Bearer " + access)
                 .build();
 
-        client.newCall(request).enqueue(new Callback() {
+        RetryingCall.enqueue(ctx, client, request, RetryPolicy.IDEMPOTENT_WRITE, new Callback() {
             @Override public void onFailure(@NonNull Call call, @NonNull IOException e) {
                 Log.e(TAG, "updateMe failure", e);
                 cb.onError("Ошибка сети: " + e.getMessage());
@@ -99,7 +104,10 @@ public final class UserApi {
             @Override public void onResponse(@NonNull Call call, @NonNull Response response) throws IOException {
                 String body = response.body() != null ? response.body().string() : "";
                 if (!response.isSuccessful()) {
-                    cb.onError("Ошибка обновления профиля: " + response.code() + "\n" + body);
+                    if (AppLog.ENABLED) {
+                        AppLog.d(TAG, () -> "updateMe error " + response.code() + " " + AppLog.body(body));
+                    }
+                    cb.onError("Ошибка обновления профиля: " + response.code());
                     return;
                 }
                 try {
@@ -140,7 +148,7 @@ public final class UserApi {
                 .addHeader("Authorization", "Bearer " + access)
                 .build();
 
-        client.newCall(request).enqueue(new Callback() {
+        RetryingCall.enqueue(ctx, client, request, RetryPolicy.IDEMPOTENT_WRITE, new Callback() {
             @Override public void onFailure(@NonNull Call call, @NonNull IOException e) {
                 Log.e(TAG, "updatePicture failure", e);
                 cb.onError("Ошибка сети: " + e.getMessage());
@@ -149,7 +157,10 @@ public final class UserApi {
             @Override public void onResponse(@NonNull Call call, @NonNull Response response) throws IOException {
                 String body = response.body() != null ? response.body().string() : "";
                 if (!response.isSuccessful()) {
-                    cb.onError("Ошибка обновления фото: " + response.code() + "\n" + body);
+                    if (AppLog.ENABLED) {
+                        AppLog.d(TAG, () -> "updatePicture error " + response.code() + " " + AppLog.body(body));
+                    }
+                    cb.onError("Ошибка обновления фото: " + response.code());
                     return;
                 }
                 try {
@@ -0,0 +1,105 @@
+package ru.nsu.yousightseeing.api;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Гистограмма в духе HDR: логарифмические корзины по степеням двойки, каждая делится
+ * на {@link #SUB_BUCKETS} линейных частей (погрешность ~12%). Значения пишутся в кольцо
+ * из {@link #WINDOWS} окон по {@link #WINDOW_MS}; перцентили считаются по живым окнам,
+ * так что старые данные постепенно уходят. Запись без блокировок: атомарный инкремент
+ * и CAS при смене окна (счётчики окна, переживающего смену, могут чуть потеряться).
+ */
+final class WindowedHistogram {
+
+    static final int WINDOWS = 4;
+    static final long WINDOW_MS = 15 * 60 * 1000;
+
+    private static final int SUB_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final int MAX_EXPONENT = 40;
+    private static final int BUCKETS = SUB_BUCKETS + (MAX_EXPONENT - SUB_BITS + 1) * SUB_BUCKETS;
+
+    private static final class Window {
+        final AtomicLong epoch = new AtomicLong(-1);
+        final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    }
+
+    private final AtomicReferenceArray<Window> windows = new AtomicReferenceArray<>(WINDOWS);
+
+    void record(long value, long nowMs) {
+        if (value < 0) return;
+        long epoch = nowMs / WINDOW_MS;
+        int slot = (int) (epoch % WINDOWS);
+
+        Window window = windows.get(slot);
+        if (window == null) {
+            windows.compareAndSet(slot, null, new Window());
+            window = windows.get(slot);
+        }
+        long seen = window.epoch.get();
+        if (seen < epoch && window.epoch.compareAndSet(seen, epoch)) {
+            for (int i = 0; i < BUCKETS; i++) {
+                window.counts.set(i, 0);
+            }
+        }
+        window.counts.incrementAndGet(indexOf(value));
+    }
+
+    /** Снимок по окнам не старше WINDOWS * WINDOW_MS. */
+    Snapshot snapshot(long nowMs) {
+        long epoch = nowMs / WINDOW_MS;
+        long[] merged = new long[BUCKETS];
+        long total = 0;
+        for (int slot = 0; slot < WINDOWS; slot++) {
+            Window window = windows.get(slot);
+            if (window == null || epoch - window.epoch.get() >= WINDOWS) continue;
+            for (int i = 0; i < BUCKETS; i++) {
+                long count = window.counts.get(i);
+                merged[i] += count;
+                total += count;
+            }
+        }
+        return new Snapshot(merged, total);
+    }
+
+    static final class Snapshot {
+        private final long[] counts;
+        final long count;
+
+        Snapshot(long[] counts, long count) {
+            this.counts = counts;
+            this.count = count;
+        }
+
+        /** Значение перцентиля (середина корзины); 0, если данных нет. */
+        long percentile(double p) {
+            if (count == 0) return 0;
+            long rank = Math.max(1, (long) Math.ceil(p / 100.0 * count));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) return midpointOf(i);
+            }
+            return midpointOf(counts.length - 1);
+        }
+    }
+
+    static int indexOf(long value) {
+        if (value < SUB_BUCKETS) return (int) value;
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        if (exponent > MAX_EXPONENT) return BUCKETS - 1;
+        int sub = (int) ((value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1));
+        return SUB_BUCKETS + (exponent - SUB_BITS) * SUB_BUCKETS + sub;
+    }
+
+    static long midpointOf(int index) {
+        if (index < SUB_BUCKETS) return index;
+        int exponent = (index - SUB_BUCKETS) / SUB_BUCKETS + SUB_BITS;
+        int sub = (index - SUB_BUCKETS) % SUB_BUCKETS;
+        long width = 1L << (exponent - SUB_BITS);
+        long lower = (1L << exponent) + sub * width;
+        return lower + width / 2;
+    }
+}
@@ -22,6 +22,7 @@ import com.google.android.gms.tasks.Task;
 
 import ru.nsu.yousightseeing.R;
 import ru.nsu.yousightseeing.api.AuthApi;
+import ru.nsu.yousightseeing.storage.RouteOutboxWorker;
 
 public class AuthActivity extends AppCompatActivity {
 
@@ -84,6 +85,8 @@ public class AuthActivity extends AppCompatActivity {
                                     public void onSuccess(String access, String refresh) {
                                         runOnUiThread(() -> {
                                             saveTokensFromBackend(access, refresh);
+                                            // Очередь маршрутов могла встать на истёкшей сессии
+                                            RouteOutboxWorker.schedule(AuthActivity.this);
                                             saveGoogleProfile(account);
                                             Toast.makeText(AuthActivity.this, "Успешный вход", Toast.LENGTH_SHORT).show();
                                             navigateToMain();
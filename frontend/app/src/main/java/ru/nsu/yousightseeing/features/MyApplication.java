@@ -4,6 +4,8 @@ import android.app.Application;
 import com.yandex.mapkit.MapKitFactory;
 
 import ru.nsu.yousightseeing.BuildConfig;
+import ru.nsu.yousightseeing.storage.RoutePrefetchWorker;
+import ru.nsu.yousightseeing.utils.FlowTrace;
 
 public class MyApplication extends Application {
     @Override
@@ -11,5 +13,7 @@ public class MyApplication extends Application {
         super.onCreate();
         MapKitFactory.setApiKey(BuildConfig.MAPKIT_API_KEY);
         AuthActivity.initAppContext(getApplicationContext());
+        FlowTrace.init(this);
+        RoutePrefetchWorker.schedule(this);
     }
 }
\ No newline at end of file
@@ -2,15 +2,25 @@ package ru.nsu.yousightseeing.features;
 
 import android.content.Intent;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.text.Editable;
+import android.text.TextWatcher;
 import android.util.Log;
+import android.view.View;
+import android.widget.AdapterView;
+import android.widget.ArrayAdapter;
 import android.widget.Button;
+import android.widget.EditText;
 import android.widget.ImageView;
-import android.widget.LinearLayout;
+import android.widget.Spinner;
 import android.widget.TextView;
 import android.widget.Toast;
 
 import androidx.annotation.Nullable;
 import androidx.appcompat.app.AppCompatActivity;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
 
 import com.yandex.mapkit.geometry.Point;
 
@@ -22,18 +32,50 @@ import org.json.JSONObject;
 import java.util.ArrayList;
 import java.util.List;
 
+import ru.nsu.yousightseeing.BuildConfig;
 import ru.nsu.yousightseeing.R;
 import ru.nsu.yousightseeing.api.AuthApi;
 import ru.nsu.yousightseeing.api.RouteApi;
 import ru.nsu.yousightseeing.api.UserApi;
+import ru.nsu.yousightseeing.features.debug.NetworkMetricsActivity;
+import ru.nsu.yousightseeing.features.profile.SavedRoutesAdapter;
+import ru.nsu.yousightseeing.features.profile.SavedRoutesPager;
 import ru.nsu.yousightseeing.features.route.RouteFinalActivity;
+import ru.nsu.yousightseeing.storage.LocalStore;
+import ru.nsu.yousightseeing.storage.RouteGeometryCache;
+import ru.nsu.yousightseeing.storage.SavedRoutesQuery;
+import ru.nsu.yousightseeing.storage.SavedRoutesRepository;
+import ru.nsu.yousightseeing.utils.AppLog;
+import ru.nsu.yousightseeing.utils.FlowTrace;
 
 public class ProfileActivity extends AppCompatActivity {
 
+    private static final long SEARCH_DEBOUNCE_MS = 250;
+    private static final long DAY_MS = 24L * 60 * 60 * 1000;
+
+    // Фасеты поиска: подписи и границы (0 — без ограничения)
+    private static final String[] DISTANCE_LABELS = {"Любая длина", "до 3 км", "3–10 км", "от 10 км"};
+    private static final long[][] DISTANCE_RANGES = {{0, 0}, {0, 3000}, {3000, 10000}, {10000, 0}};
+    private static final String[] DURATION_LABELS = {"Любое время", "до 1 ч", "1–3 ч", "от 3 ч"};
+    private static final int[][] DURATION_RANGES = {{0, 0}, {0, 3600}, {3600, 10800}, {10800, 0}};
+    private static final String[] PERIOD_LABELS = {"За всё время", "За неделю", "За месяц", "За год"};
+    private static final int[] PERIOD_DAYS = {0, 7, 30, 365};
+
     private TextView tvName;
     private TextView tvEmail;
     private ImageView ivAvatar;
-    private LinearLayout routesContainer;
+    private TextView tvRoutesEmpty;
+    private SavedRoutesAdapter routesAdapter;
+    private RouteGeometryCache geometryCache;
+    private SavedRoutesRepository routesRepository;
+    private SavedRoutesPager routesPager;
+
+    private EditText etRouteSearch;
+    private Spinner spRouteDistance;
+    private Spinner spRouteDuration;
+    private Spinner spRoutePeriod;
+    private final Handler searchHandler = new Handler(Looper.getMainLooper());
+    private final Runnable applySearch = this::applySearch;
 
     @Override
     protected void onCreate(@Nullable Bundle savedInstanceState) {
@@ -43,19 +85,29 @@ public class ProfileActivity extends AppCompatActivity {
         tvName  = findViewById(R.id.tvName);
         tvEmail = findViewById(R.id.tvEmail);
         ivAvatar = findViewById(R.id.ivAvatar);
-        routesContainer = findViewById(R.id.routesContainer);
+        tvRoutesEmpty = findViewById(R.id.tvRoutesEmpty);
+
+        RecyclerView rvSavedRoutes = findViewById(R.id.rvSavedRoutes);
+        geometryCache = new RouteGeometryCache(this);
+        routesRepository = new SavedRoutesRepository(this);
+
+        routesAdapter = new SavedRoutesAdapter(this::openSavedRoute);
+        rvSavedRoutes.setLayoutManager(new LinearLayoutManager(this));
+        rvSavedRoutes.setAdapter(routesAdapter);
 
         Button btnLogout = findViewById(R.id.btnLogout);
         Button btnGoHome = findViewById(R.id.btnGoHome);
 
         loadProfile();
         loadSavedRoutes();
+        setupRouteSearch();
 
         // Выйти
         btnLogout.setOnClickListener(v -> {
             AuthApi.logout(ProfileActivity.this, new AuthApi.LogoutCallback() {
                 @Override
                 public void onSuccess() {
+                    LocalStore.get(ProfileActivity.this).clearUserData();
                     Intent intent = new Intent(ProfileActivity.this, AuthActivity.class);
                     intent.setFlags(Intent.FLAG_ACTIVITY_NEW_TASK | Intent.FLAG_ACTIVITY_CLEAR_TASK);
                     startActivity(intent);
@@ -70,6 +122,14 @@ public class ProfileActivity extends AppCompatActivity {
 
         // Назад
         btnGoHome.setOnClickListener(v -> finish());
+
+        // Отладочный экран сетевых метрик
+        if (BuildConfig.DEBUG) {
+            ivAvatar.setOnLongClickListener(v -> {
+                startActivity(new Intent(this, NetworkMetricsActivity.class));
+                return true;
+            });
+        }
     }
 
     private void loadProfile() {
@@ -77,7 +137,9 @@ public class ProfileActivity extends AppCompatActivity {
             @Override
             public void onSuccess(JSONObject user) {
                 runOnUiThread(() -> {
-                    Log.d("PROFILE", "userJson = " + user.toString());
+                    if (AppLog.ENABLED) {
+                        AppLog.d("PROFILE", () -> "userJson = " + AppLog.body(user.toString()));
+                    }
 
                     String fullName = user.optString("full_name", "");
                     if (fullName == null || fullName.isEmpty() || "null".equalsIgnoreCase(fullName)) {
@@ -135,80 +197,168 @@ public class ProfileActivity extends AppCompatActivity {
         });
     }
 
+    /**
+     * Список сразу рисуется страницами из локального зеркала, затем в фоне дотягиваются новые маршруты.
+     */
     private void loadSavedRoutes() {
-        RouteApi.getSavedRoutes(this, 20, 0, new RouteApi.RouteListCallback() {
+        routesPager = new SavedRoutesPager(this, routesRepository, SavedRoutesPager.DEFAULT_CONFIG,
+                new SavedRoutesPager.Listener() {
+                    @Override
+                    public void onDataSetChanged() {
+                        routesAdapter.notifyDataSetChanged();
+                        renderRoutesEmptyState();
+                    }
+
+                    @Override
+                    public void onItemRangeChanged(int start, int count) {
+                        routesAdapter.notifyItemRangeChanged(start, count);
+                    }
+
+                    @Override
+                    public void onItemRangeInserted(int start, int count) {
+                        routesAdapter.notifyItemRangeInserted(start, count);
+                        renderRoutesEmptyState();
+                    }
+
+                    @Override
+                    public void onLoadError(String message) {
+                        if (routesPager.size() == 0) {
+                            Toast.makeText(ProfileActivity.this, message, Toast.LENGTH_LONG).show();
+                        }
+                    }
+
+                    @Override
+                    public void onOlderSearchPaused() {
+                        renderRoutesEmptyState();
+                    }
+                });
+        routesAdapter.setSource(routesPager);
+        routesPager.refresh();
+
+        routesRepository.sync(this, new SavedRoutesRepository.SyncCallback() {
             @Override
-            public void onSuccess(List<RouteApi.SavedRoute> routes) {
-                runOnUiThread(() -> renderSavedRoutes(routes));
+            public void onSynced(boolean changed) {
+                if (changed && !isDestroyed()) {
+                    routesPager.refresh();
+                }
             }
 
             @Override
             public void onError(String message) {
-                runOnUiThread(() ->
-                        Toast.makeText(ProfileActivity.this, message, Toast.LENGTH_LONG).show()
-                );
+                if (isDestroyed()) return;
+                // Без сети остаётся список с диска
+                if (routesPager.size() == 0) {
+                    Toast.makeText(ProfileActivity.this, message, Toast.LENGTH_LONG).show();
+                }
             }
         });
     }
 
-    private void renderSavedRoutes(List<RouteApi.SavedRoute> routes) {
-        routesContainer.removeAllViews();
-
-        if (routes == null || routes.isEmpty()) {
-            TextView empty = new TextView(this);
-            empty.setText("У вас пока нет сохранённых маршрутов.");
-            empty.setTextColor(getResources().getColor(R.color.text_primary));
-            empty.setTextSize(14f);
-            routesContainer.addView(empty);
-            return;
+    private void renderRoutesEmptyState() {
+        boolean paused = routesPager.isOlderSearchPaused();
+        if (!routesPager.hasQuery()) {
+            tvRoutesEmpty.setText("У вас пока нет сохранённых маршрутов.");
+        } else if (paused) {
+            tvRoutesEmpty.setText("Среди последних маршрутов ничего не найдено. Нажмите, чтобы искать дальше.");
+        } else {
+            tvRoutesEmpty.setText("Ничего не найдено.");
         }
+        // Старые маршруты под запрос догружаются с сервера только по нажатию
+        tvRoutesEmpty.setOnClickListener(paused ? v -> {
+            routesPager.loadOlder();
+            renderRoutesEmptyState();
+        } : null);
+        tvRoutesEmpty.setClickable(paused);
+        tvRoutesEmpty.setVisibility(routesPager.size() == 0 ? View.VISIBLE : View.GONE);
+    }
 
-        for (RouteApi.SavedRoute route : routes) {
-            TextView item = new TextView(this);
+    /**
+     * Поиск идёт по локальному индексу, поэтому запрос применяется на каждый ввод (с небольшой задержкой).
+     */
+    private void setupRouteSearch() {
+        etRouteSearch = findViewById(R.id.etRouteSearch);
+        spRouteDistance = findViewById(R.id.spRouteDistance);
+        spRouteDuration = findViewById(R.id.spRouteDuration);
+        spRoutePeriod = findViewById(R.id.spRoutePeriod);
 
-            String distanceText = route.distance > 0
-                    ? String.format("%.1f км", route.distance / 1000.0)
-                    : "—";
+        etRouteSearch.addTextChangedListener(new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+            }
 
-            String durationText;
+            @Override
+            public void onTextChanged(CharSequence s, int start, int before, int count) {
+            }
 
-            if (route.duration > 0) {
+            @Override
+            public void afterTextChanged(Editable s) {
+                searchHandler.removeCallbacks(applySearch);
+                searchHandler.postDelayed(applySearch, SEARCH_DEBOUNCE_MS);
+            }
+        });
 
-                int totalMinutes = (int) (route.duration / 60);
+        AdapterView.OnItemSelectedListener facetListener = new AdapterView.OnItemSelectedListener() {
+            @Override
+            public void onItemSelected(AdapterView<?> parent, View view, int position, long id) {
+                searchHandler.removeCallbacks(applySearch);
+                applySearch();
+            }
 
-                int hours = totalMinutes / 60;
-                int minutes = totalMinutes % 60;
+            @Override
+            public void onNothingSelected(AdapterView<?> parent) {
+            }
+        };
+        setupFacet(spRouteDistance, DISTANCE_LABELS, facetListener);
+        setupFacet(spRouteDuration, DURATION_LABELS, facetListener);
+        setupFacet(spRoutePeriod, PERIOD_LABELS, facetListener);
+    }
 
-                if (hours > 0) {
-                    durationText = hours + " ч " + minutes + " мин";
-                } else {
-                    durationText = minutes + " мин";
-                }
+    private void setupFacet(Spinner spinner, String[] labels, AdapterView.OnItemSelectedListener listener) {
+        ArrayAdapter<String> adapter = new ArrayAdapter<>(this, android.R.layout.simple_spinner_item, labels);
+        adapter.setDropDownViewResource(android.R.layout.simple_spinner_dropdown_item);
+        spinner.setAdapter(adapter);
+        spinner.setOnItemSelectedListener(listener);
+    }
 
-            } else {
-                durationText = "—";
-            }
+    private void applySearch() {
+        long[] distance = DISTANCE_RANGES[spRouteDistance.getSelectedItemPosition()];
+        int[] duration = DURATION_RANGES[spRouteDuration.getSelectedItemPosition()];
+        int periodDays = PERIOD_DAYS[spRoutePeriod.getSelectedItemPosition()];
+        long createdFrom = periodDays > 0 ? System.currentTimeMillis() - periodDays * DAY_MS : 0;
+
+        routesPager.setQuery(new SavedRoutesQuery(
+                etRouteSearch.getText().toString(),
+                distance[0], distance[1],
+                duration[0], duration[1],
+                createdFrom, 0));
+    }
 
-            item.setText(route.title + "\n" + distanceText + " • " + durationText + " • точек: " + route.points.size());
-            item.setTextColor(getResources().getColor(R.color.text_primary));
-            item.setTextSize(15f);
-            item.setPadding(0, 12, 0, 12);
+    @Override
+    protected void onDestroy() {
+        searchHandler.removeCallbacks(applySearch);
+        super.onDestroy();
+    }
 
-            item.setOnClickListener(v -> openSavedRoute(route.id));
+    private void openSavedRoute(RouteApi.SavedRoute route) {
+        routesRepository.recordOpen(route.id);
+        FlowTrace.Span trace = FlowTrace.begin(FlowTrace.SAVED_ROUTE_OPEN);
 
-            routesContainer.addView(item);
+        // В списке точки уже есть, детали нужны, только если сервер их не прислал
+        if (route.points != null && !route.points.isEmpty()) {
+            openFromCacheOrRebuild(route, trace);
+            return;
         }
-    }
 
-    private void openSavedRoute(String routeId) {
-        RouteApi.getSavedRouteById(this, routeId, new RouteApi.GetSavedRouteCallback() {
+        trace.stage("details");
+        RouteApi.getSavedRouteById(this, route.id, new RouteApi.GetSavedRouteCallback() {
             @Override
-            public void onSuccess(RouteApi.SavedRoute route) {
-                runOnUiThread(() -> rebuildAndOpenRoute(route));
+            public void onSuccess(RouteApi.SavedRoute fullRoute) {
+                runOnUiThread(() -> openFromCacheOrRebuild(fullRoute, trace));
             }
 
             @Override
             public void onError(String message) {
+                trace.fail(message);
                 runOnUiThread(() ->
                         Toast.makeText(ProfileActivity.this, message, Toast.LENGTH_LONG).show()
                 );
@@ -216,23 +366,36 @@ public class ProfileActivity extends AppCompatActivity {
         });
     }
 
-    private void rebuildAndOpenRoute(RouteApi.SavedRoute route) {
-        List<RouteApi.SavedRoutePoint> sortedPoints = new ArrayList<>(route.points);
-
-        sortedPoints.sort((a, b) -> Integer.compare(a.position, b.position));
-
-        List<Point> pointsForCalculate = new ArrayList<>();
-        pointsForCalculate.add(new Point(route.startLatitude, route.startLongitude));
-
-        for (RouteApi.SavedRoutePoint p : sortedPoints) {
-            pointsForCalculate.add(new Point(p.latitude, p.longitude));
-        }
-
-        if (pointsForCalculate.size() < 2) {
+    /**
+     * Открывает маршрут из локальной геометрии; пересчитывает, только если точки изменились.
+     */
+    private void openFromCacheOrRebuild(RouteApi.SavedRoute route, FlowTrace.Span trace) {
+        List<Point> waypoints = RouteGeometryCache.waypointsOf(route);
+        if (waypoints.size() < 2) {
+            trace.fail("not enough points");
             Toast.makeText(this, "Недостаточно точек для открытия маршрута", Toast.LENGTH_SHORT).show();
             return;
         }
 
+        String waypointsHash = RouteGeometryCache.waypointsHash(waypoints);
+        trace.stage("cache_lookup");
+        geometryCache.lookup(route.id, entry -> {
+            if (isFinishing() || isDestroyed()) {
+                trace.fail("activity closed");
+                return;
+            }
+
+            if (entry != null && waypointsHash.equals(entry.waypointsHash)) {
+                openRouteFinalScreen(route, entry.geometry, entry.distance, entry.duration, trace);
+            } else {
+                rebuildAndOpenRoute(route, waypoints, waypointsHash, trace);
+            }
+        });
+    }
+
+    private void rebuildAndOpenRoute(RouteApi.SavedRoute route, List<Point> pointsForCalculate, String waypointsHash,
+                                     FlowTrace.Span trace) {
+        trace.stage("rebuild");
         RouteApi.calculateRoute(
                 this,
                 pointsForCalculate,
@@ -240,11 +403,13 @@ public class ProfileActivity extends AppCompatActivity {
                 new RouteApi.RouteCallback() {
                     @Override
                     public void onSuccess(List<Point> routeGeometry, double distance, double duration) {
-                        runOnUiThread(() -> openRouteFinalScreen(route, routeGeometry, distance, duration));
+                        geometryCache.put(route.id, waypointsHash, routeGeometry, distance, duration);
+                        runOnUiThread(() -> openRouteFinalScreen(route, routeGeometry, distance, duration, trace));
                     }
 
                     @Override
                     public void onError(String message) {
+                        trace.fail(message);
                         runOnUiThread(() ->
                                 Toast.makeText(ProfileActivity.this, message, Toast.LENGTH_LONG).show()
                         );
@@ -257,8 +422,10 @@ public class ProfileActivity extends AppCompatActivity {
             RouteApi.SavedRoute savedRoute,
             List<Point> routeGeometry,
             double distance,
-            double duration
+            double duration,
+            FlowTrace.Span trace
     ) {
+        trace.stage("intent");
         try {
             JSONArray routePointsJson = new JSONArray();
 
@@ -279,19 +446,25 @@ public class ProfileActivity extends AppCompatActivity {
                 obj.put("name", p.name);
                 obj.put("lat", p.latitude);
                 obj.put("lon", p.longitude);
+                obj.put("id", p.placeId);
+                if (!p.categories.isEmpty()) obj.put("category", p.categories.get(0));
                 placesJson.put(obj);
             }
 
             Intent intent = new Intent(this, RouteFinalActivity.class);
             intent.putExtra(RouteFinalActivity.EXTRA_ROUTE_POINTS_JSON, routePointsJson.toString());
             intent.putExtra(RouteFinalActivity.EXTRA_PLACES_JSON, placesJson.toString());
+            intent.putExtra(RouteFinalActivity.EXTRA_ROUTE_ID, savedRoute.id);
             intent.putExtra(RouteFinalActivity.EXTRA_DISTANCE, distance);
             intent.putExtra(RouteFinalActivity.EXTRA_DURATION, duration);
             intent.putExtra("saved_route_id", savedRoute.id);
+            trace.attachTo(intent);
 
+            trace.stage("open_screen");
             startActivity(intent);
 
         } catch (Exception e) {
+            trace.fail(e.toString());
             Toast.makeText(this, "Ошибка открытия маршрута", Toast.LENGTH_LONG).show();
         }
     }
@@ -0,0 +1,85 @@
+package ru.nsu.yousightseeing.features.debug;
+
+import android.os.Bundle;
+import android.widget.Button;
+import android.widget.TextView;
+import android.widget.Toast;
+
+import androidx.annotation.Nullable;
+import androidx.appcompat.app.AppCompatActivity;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Locale;
+
+import ru.nsu.yousightseeing.BuildConfig;
+import ru.nsu.yousightseeing.R;
+import ru.nsu.yousightseeing.api.NetworkMetrics;
+
+/**
+ * Отладочный экран: p50/p95/p99 по фазам запросов для каждого эндпоинта и выгрузка в файл.
+ * Доступен только в debug-сборке (долгое нажатие на аватар в профиле).
+ */
+public class NetworkMetricsActivity extends AppCompatActivity {
+
+    private TextView tvMetrics;
+
+    @Override
+    protected void onCreate(@Nullable Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        if (!BuildConfig.DEBUG) {
+            finish();
+            return;
+        }
+        setContentView(R.layout.activity_network_metrics);
+
+        tvMetrics = findViewById(R.id.tvMetrics);
+        Button btnRefresh = findViewById(R.id.btnMetricsRefresh);
+        Button btnExport = findViewById(R.id.btnMetricsExport);
+
+        btnRefresh.setOnClickListener(v -> render());
+        btnExport.setOnClickListener(v -> export());
+        render();
+    }
+
+    private void render() {
+        List<NetworkMetrics.Row> rows = NetworkMetrics.snapshot();
+        if (rows.isEmpty()) {
+            tvMetrics.setText("Запросов ещё не было");
+            return;
+        }
+
+        StringBuilder sb = new StringBuilder();
+        String lastEndpoint = null;
+        for (NetworkMetrics.Row row : rows) {
+            if (!row.endpoint.equals(lastEndpoint)) {
+                if (lastEndpoint != null) sb.append('\n');
+                sb.append(row.endpoint).append('\n');
+                sb.append(String.format(Locale.US, "  %-15s %6s %9s %9s %9s%n", "", "n", "p50", "p95", "p99"));
+                lastEndpoint = row.endpoint;
+            }
+            sb.append(String.format(Locale.US, "  %-15s %6d %9s %9s %9s%n",
+                    row.metric.name(), row.count,
+                    format(row.metric, row.p50), format(row.metric, row.p95), format(row.metric, row.p99)));
+        }
+        tvMetrics.setText(sb.toString());
+    }
+
+    private static String format(NetworkMetrics.Metric metric, long value) {
+        if (metric == NetworkMetrics.Metric.RESPONSE_BYTES) {
+            return value < 1024 ? value + "B" : String.format(Locale.US, "%.1fK", value / 1024.0);
+        }
+        // Времена хранятся в микросекундах, на экране удобнее миллисекунды
+        return String.format(Locale.US, "%.1fms", value / 1000.0);
+    }
+
+    private void export() {
+        try {
+            File file = NetworkMetrics.export(this);
+            Toast.makeText(this, "Сохранено: " + file.getAbsolutePath(), Toast.LENGTH_LONG).show();
+        } catch (IOException e) {
+            Toast.makeText(this, "Не удалось выгрузить: " + e.getMessage(), Toast.LENGTH_LONG).show();
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package ru.nsu.yousightseeing.features.main;
+
+import android.app.Application;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.lifecycle.AndroidViewModel;
+import androidx.lifecycle.SavedStateHandle;
+
+import org.json.JSONException;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+
+import ru.nsu.yousightseeing.features.main.state.BuilderSnapshot;
+
+/**
+ * Хранит состояние конструктора маршрута между пересозданиями MainActivity.
+ * <p>
+ * Поворот экрана: снимок берётся из памяти ViewModel.
+ * Смерть процесса: компактный снимок приходит из SavedStateHandle, полный (POI и геометрия)
+ * читается с диска, если его id совпадает. Сеть при восстановлении не нужна.
+ */
+public class BuilderStateViewModel extends AndroidViewModel {
+
+    private static final String TAG = "BuilderState";
+    private static final String KEY_SNAPSHOT = "builder_snapshot";
+    private static final String FILE_NAME = "builder_snapshot.json";
+
+    private final SavedStateHandle savedState;
+    private final File snapshotFile;
+    private final ExecutorService diskExecutor = Executors.newSingleThreadExecutor();
+    private final AtomicReference<BuilderSnapshot> pendingWrite = new AtomicReference<>();
+
+    @Nullable private BuilderSnapshot snapshot;
+    private long nextId;
+
+    public BuilderStateViewModel(@NonNull Application application, @NonNull SavedStateHandle savedState) {
+        super(application);
+        this.savedState = savedState;
+        this.snapshotFile = new File(application.getNoBackupFilesDir(), FILE_NAME);
+        this.nextId = System.currentTimeMillis();
+    }
+
+    public long nextSnapshotId() {
+        return ++nextId;
+    }
+
+    /**
+     * Снимок для восстановления или null, если Activity создаётся впервые.
+     */
+    @Nullable
+    public BuilderSnapshot restore() {
+        if (snapshot != null) {
+            return snapshot;
+        }
+
+        String compactJson = savedState.get(KEY_SNAPSHOT);
+        if (compactJson == null) {
+            // Новый запуск, а не восстановление: старый файл больше не нужен
+            diskExecutor.execute(snapshotFile::delete);
+            return null;
+        }
+
+        try {
+            BuilderSnapshot compact = BuilderSnapshot.fromJson(compactJson);
+            BuilderSnapshot full = readFromDisk();
+            snapshot = (full != null && full.id == compact.id) ? full : compact;
+            nextId = Math.max(nextId, snapshot.id);
+            return snapshot;
+        } catch (JSONException e) {
+            Log.w(TAG, "broken saved builder state", e);
+            return null;
+        }
+    }
+
+    public void save(BuilderSnapshot newSnapshot) {
+        if (newSnapshot.isEmpty()) {
+            clear();
+            return;
+        }
+
+        snapshot = newSnapshot;
+        try {
+            savedState.set(KEY_SNAPSHOT, newSnapshot.toCompactJson());
+        } catch (JSONException e) {
+            Log.w(TAG, "cannot serialize builder state", e);
+            return;
+        }
+
+        // Серия быстрых изменений схлопывается в одну запись последнего снимка
+        if (pendingWrite.getAndSet(newSnapshot) == null) {
+            diskExecutor.execute(this::flushToDisk);
+        }
+    }
+
+    public void clear() {
+        snapshot = null;
+        savedState.remove(KEY_SNAPSHOT);
+        pendingWrite.set(null);
+        diskExecutor.execute(snapshotFile::delete);
+    }
+
+    private void flushToDisk() {
+        BuilderSnapshot toWrite = pendingWrite.getAndSet(null);
+        if (toWrite == null) return;
+
+        File tmp = new File(snapshotFile.getPath() + ".tmp");
+        try (OutputStream out = new FileOutputStream(tmp)) {
+            out.write(toWrite.toFullJson().getBytes(StandardCharsets.UTF_8));
+        } catch (IOException | JSONException e) {
+            Log.w(TAG, "cannot write builder snapshot", e);
+            return;
+        }
+        if (!tmp.renameTo(snapshotFile)) {
+            Log.w(TAG, "cannot replace builder snapshot file");
+        }
+    }
+
+    @Nullable
+    private BuilderSnapshot readFromDisk() {
+        if (!snapshotFile.exists()) return null;
+        try (InputStream in = new FileInputStream(snapshotFile)) {
+            byte[] bytes = new byte[(int) snapshotFile.length()];
+            int read = 0;
+            while (read < bytes.length) {
+                int n = in.read(bytes, read, bytes.length - read);
+                if (n < 0) break;
+                read += n;
+            }
+            return BuilderSnapshot.fromJson(new String(bytes, 0, read, StandardCharsets.UTF_8));
+        } catch (IOException | JSONException e) {
+            Log.w(TAG, "cannot read builder snapshot", e);
+            return null;
+        }
+    }
+
+    @Override
+    protected void onCleared() {
+        diskExecutor.shutdown();
+    }
+}
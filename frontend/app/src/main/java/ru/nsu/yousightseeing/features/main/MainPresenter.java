@@ -4,12 +4,12 @@ import android.app.AlertDialog;
 import android.content.Intent;
 import android.content.SharedPreferences;
 import android.util.Log;
-import android.view.LayoutInflater;
 import android.view.View;
-import android.widget.TextView;
 import android.widget.Toast;
 
 import androidx.annotation.Nullable;
+import androidx.lifecycle.ViewModelProvider;
+import androidx.recyclerview.widget.LinearLayoutManager;
 
 import com.yandex.mapkit.Animation;
 import com.yandex.mapkit.geometry.Point;
@@ -24,6 +24,7 @@ import org.json.JSONObject;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Objects;
 import java.util.Set;
 
 import ru.nsu.yousightseeing.R;
@@ -31,6 +32,11 @@ import ru.nsu.yousightseeing.api.PlacesApi;
 import ru.nsu.yousightseeing.api.RouteApi;
 import ru.nsu.yousightseeing.features.MainActivity;
 import ru.nsu.yousightseeing.features.ProfileActivity;
+import ru.nsu.yousightseeing.features.main.state.BuilderSnapshot;
+import ru.nsu.yousightseeing.features.main.state.EditorAction;
+import ru.nsu.yousightseeing.features.main.state.EditorState;
+import ru.nsu.yousightseeing.features.main.state.EditorStore;
+import ru.nsu.yousightseeing.features.main.state.SelectedPlace;
 import ru.nsu.yousightseeing.features.map.MapInteractionController;
 import ru.nsu.yousightseeing.features.poi.PoiController;
 import ru.nsu.yousightseeing.features.route.AutoRouteController;
@@ -41,6 +47,7 @@ import ru.nsu.yousightseeing.features.startpoint.StartPointController;
 import ru.nsu.yousightseeing.features.ui.UiStateController;
 import ru.nsu.yousightseeing.model.Route;
 import ru.nsu.yousightseeing.utils.DistanceHelper;
+import ru.nsu.yousightseeing.utils.FlowTrace;
 import ru.nsu.yousightseeing.utils.LocationHelper;
 import ru.nsu.yousightseeing.utils.MapInputHelper;
 import ru.nsu.yousightseeing.utils.MapPoiHelper;
@@ -52,7 +59,7 @@ import ru.nsu.yousightseeing.utils.SearchHelper;
 
 import static android.content.Context.MODE_PRIVATE;
 
-public class MainPresenter implements MainContract.Presenter, MapInteractionController.MapInteractionCallback, RouteController.RouteControllerCallback, AutoRouteController.AutoRouteCallback, StartPointController.StartPointCallback, PoiController.PoiControllerCallback, UiStateController.UiStateCallback {
+public class MainPresenter implements MainContract.Presenter, MapInteractionController.MapInteractionCallback, RouteController.RouteControllerCallback, AutoRouteController.AutoRouteCallback, StartPointController.StartPointCallback, PoiController.PoiControllerCallback {
 
     private final MainContract.View view;
     private final MainUIManager uiManager;
@@ -70,11 +77,12 @@ public class MainPresenter implements MainContract.Presenter, MapInteractionCont
     private PoiController poiController;
     private UiStateController uiStateController;
 
-    // State
-    private Route currentRoute; // Will be refactored later
-    private boolean isRouteBuilt = false;
+    private SelectedPlacesAdapter selectedPlacesAdapter;
 
-    private RouteBuildMode currentBuildMode = RouteBuildMode.NONE;
+    // State
+    private final EditorStore store = new EditorStore();
+    private BuilderStateViewModel builderState;
+    private boolean restoringState = false;
 
     private static final int DEFAULT_RADIUS_METERS = 5000;
     private static final int DEFAULT_MAX_PLACES = 5;
@@ -120,9 +128,77 @@ public class MainPresenter implements MainContract.Presenter, MapInteractionCont
         mapRouteHelper = new MapRouteHelper(mainActivity, uiManager.mapView);
         mapPoiHelper = new MapPoiHelper(mainActivity, uiManager.mapView);
 
+        builderState = new ViewModelProvider(mainActivity).get(BuilderStateViewModel.class);
+
         initializeSearch();
         initializeControllers();
+        initializePlacesList();
+        bindState();
         initializeUI();
+        restoreBuilderState();
+        store.subscribe(SavedBuilderModel::new, model -> saveBuilderState());
+    }
+
+    /**
+     * Восстанавливает конструктор после поворота или смерти процесса из памяти или с диска.
+     */
+    private void restoreBuilderState() {
+        BuilderSnapshot snapshot = builderState.restore();
+        if (snapshot == null) return;
+
+        restoringState = true;
+        try {
+            if (snapshot.buildMode == RouteBuildMode.AUTO && uiManager.toggleRouteMode != null) {
+                uiManager.toggleRouteMode.check(R.id.btnModeAuto);
+            }
+            applyBuildModeUI(snapshot.buildMode);
+
+            if (snapshot.startPoint != null) {
+                startPointController.restoreStartPoint(snapshot.startPoint);
+                boolean atUserLocation = userLocation != null
+                        && DistanceHelper.distanceInMeters(snapshot.startPoint, userLocation) < 5.0;
+                store.dispatch(new EditorAction.SetStartPoint(snapshot.startPoint, atUserLocation));
+            }
+
+            poiController.restore(snapshot.pois, snapshot.poiCenter);
+
+            Route route = snapshot.hasRoute()
+                    ? new Route(new ArrayList<>(snapshot.routePoints), snapshot.routeDistance, snapshot.routeDuration)
+                    : null;
+            routeController.restoreSelection(snapshot.waypoints, poiController.getPoiMarkers(), route);
+        } finally {
+            restoringState = false;
+        }
+    }
+
+    private void saveBuilderState() {
+        if (builderState == null || restoringState) return;
+
+        EditorState state = store.getState();
+        List<PlacemarkMapObject> poiMarkers = poiController.getPoiMarkers();
+
+        List<BuilderSnapshot.Waypoint> waypoints = new ArrayList<>(state.selectedPlaces.size());
+        for (SelectedPlace place : state.selectedPlaces) {
+            String poiId = null;
+            if (place.marker != null && poiMarkers.contains(place.marker)
+                    && place.marker.getUserData() instanceof PlacesApi.Place) {
+                poiId = ((PlacesApi.Place) place.marker.getUserData()).placeId;
+            }
+            waypoints.add(new BuilderSnapshot.Waypoint(
+                    place.point.getLatitude(), place.point.getLongitude(), place.name, poiId));
+        }
+
+        Route route = state.currentRoute;
+        builderState.save(new BuilderSnapshot(
+                builderState.nextSnapshotId(),
+                state.buildMode,
+                startPointController.getStartPoint(),
+                poiController.getLastPoiCenter(),
+                waypoints,
+                poiController.getPlaces(),
+                route != null ? route.getPoints() : new ArrayList<>(),
+                route != null ? route.getDistance() : 0,
+                route != null ? route.getDuration() : 0));
     }
 
     private void initializeControllers() {
@@ -131,7 +207,41 @@ public class MainPresenter implements MainContract.Presenter, MapInteractionCont
         autoRouteController = new AutoRouteController(mainActivity, this);
         startPointController = new StartPointController(mainActivity, uiManager, mapPointHelper, this);
         poiController = new PoiController(mainActivity, mapPoiHelper, this);
-        uiStateController = new UiStateController(uiManager, this);
+        uiStateController = new UiStateController(uiManager);
+    }
+
+    /**
+     * Каждый элемент экрана подписан только на свой срез состояния
+     * и перерисовывается, лишь когда этот срез изменился.
+     */
+    private void bindState() {
+        uiStateController.bind(store);
+        store.subscribe(EditorState::getRoutePlaces, this::renderSelectedPlaces);
+        store.subscribe(StartHeaderModel::new, this::renderStartHeader);
+    }
+
+    /**
+     * Синхронизирует выбранные места из RouteController со store.
+     * Маркеры сопоставляются с точками один раз на изменение выбора.
+     */
+    private void syncSelection() {
+        List<SelectedPlace> places = new ArrayList<>();
+        for (Point point : routeController.getSelectedPoints()) {
+            PlacemarkMapObject marker = null;
+            String name = null;
+            for (PlacemarkMapObject candidate : routeController.getSelectedMarkers()) {
+                if (candidate.getUserData() instanceof PlacesApi.Place) {
+                    PlacesApi.Place candidatePlace = (PlacesApi.Place) candidate.getUserData();
+                    if (candidatePlace.lat != 0 && DistanceHelper.distanceInMeters(point, new Point(candidatePlace.lat, candidatePlace.lon)) < 5.0) {
+                        marker = candidate;
+                        name = candidatePlace.name;
+                        break;
+                    }
+                }
+            }
+            places.add(new SelectedPlace(point, marker, name));
+        }
+        store.dispatch(new EditorAction.SetSelection(places));
     }
 
     private void initializeUI() {
@@ -164,127 +274,132 @@ public class MainPresenter implements MainContract.Presenter, MapInteractionCont
             Log.e("MainActivity", "MapView is null");
         }
 
-        currentBuildMode = RouteBuildMode.MANUAL;
         if (uiManager.toggleRouteMode != null) uiManager.toggleRouteMode.check(R.id.btnModeManual);
         applyBuildModeUI(RouteBuildMode.MANUAL);
         setupButtonListeners();
-        updateAllUI();
         uiStateController.collapseBottomSheet();
     }
 
     private void applyBuildModeUI(RouteBuildMode mode) {
-        currentBuildMode = mode;
         if (mode == RouteBuildMode.MANUAL) {
             if (autoRouteController != null) autoRouteController.cancel();
+            store.dispatch(new EditorAction.SetGenerating(false));
         }
-        uiStateController.applyBuildModeUI(mode);
+        store.dispatch(new EditorAction.SetBuildMode(mode));
     }
 
-    private void updateSelectedPlacesList() {
+    private void initializePlacesList() {
         if (uiManager.placesContainer == null) return;
-        uiManager.placesContainer.removeAllViews();
-        LayoutInflater inflater = LayoutInflater.from(mainActivity);
-
-        List<Point> routePoints = new ArrayList<>();
-        Point startPoint = startPointController.getStartPoint();
-        for (Point p : routeController.getSelectedPoints()) {
-            if (startPoint != null && DistanceHelper.distanceInMeters(startPoint, p) < 5.0) continue;
-            routePoints.add(p);
-        }
-
-        if (routePoints.isEmpty()) {
-            TextView empty = new TextView(mainActivity);
-            empty.setText("Выберите места на карте — они появятся здесь.");
-            empty.setTextColor(mainActivity.getResources().getColor(R.color.text_primary));
-            empty.setAlpha(0.6f);
-            empty.setTextSize(14f);
-            empty.setPadding(0, 8, 0, 8);
-            uiManager.placesContainer.addView(empty);
-            return;
-        }
+        selectedPlacesAdapter = new SelectedPlacesAdapter(new SelectedPlacesAdapter.Listener() {
+            @Override
+            public void onRemove(SelectedPlacesAdapter.Item item) {
+                if (item.marker != null) routeController.togglePlaceInRoute(item.marker);
+            }
 
-        for (Point point : routePoints) {
-            PlacemarkMapObject marker = null;
-            PlacesApi.Place place = null;
-            for (PlacemarkMapObject candidate : routeController.getSelectedMarkers()) {
-                if (candidate.getUserData() instanceof PlacesApi.Place) {
-                    PlacesApi.Place candidatePlace = (PlacesApi.Place) candidate.getUserData();
-                    if (candidatePlace.lat != 0 && DistanceHelper.distanceInMeters(point, new Point(candidatePlace.lat, candidatePlace.lon)) < 5.0) {
-                        marker = candidate;
-                        place = candidatePlace;
-                        break;
-                    }
-                }
+            @Override
+            public void onMove(SelectedPlacesAdapter.Item item, int direction) {
+                routeController.moveRoutePoint(item.point, direction);
             }
-            View item = inflater.inflate(R.layout.item_place_pill, uiManager.placesContainer, false);
-            TextView tvTitle = item.findViewById(R.id.tvPlaceTitle);
-            TextView tvSubtitle = item.findViewById(R.id.tvPlaceSubtitle);
-            android.widget.ImageButton btnRemove = item.findViewById(R.id.btnRemovePlace);
-            View pill = item.findViewById(R.id.placePill);
-            android.widget.ImageButton btnMoveUp = item.findViewById(R.id.btnMoveUp);
-            android.widget.ImageButton btnMoveDown = item.findViewById(R.id.btnMoveDown);
+        });
+        uiManager.placesContainer.setLayoutManager(new LinearLayoutManager(mainActivity));
+        uiManager.placesContainer.setAdapter(selectedPlacesAdapter);
+    }
+
+    private void renderSelectedPlaces(List<SelectedPlace> routePlaces) {
+        if (uiManager.tvPlacesEmpty != null) {
+            uiManager.tvPlacesEmpty.setVisibility(routePlaces.isEmpty() ? View.VISIBLE : View.GONE);
+        }
+        if (selectedPlacesAdapter == null) return;
+
+        List<SelectedPlacesAdapter.Item> items = new ArrayList<>(routePlaces.size());
+        for (int i = 0; i < routePlaces.size(); i++) {
+            SelectedPlace place = routePlaces.get(i);
+            Point point = place.point;
 
             String title;
-            if (place != null && place.name != null && !place.name.isEmpty()) {
+            if (place.name != null && !place.name.isEmpty()) {
                 title = place.name;
             } else {
                 title = String.format("Точка (%.5f, %.5f)", point.getLatitude(), point.getLongitude());
             }
-            if (startPoint != null && DistanceHelper.distanceInMeters(startPoint, point) < 5.0) {
-                title = "Старт: " + title;
-            }
-            tvTitle.setText(title);
-            tvSubtitle.setText("Добавлено в маршрут");
-
-            final PlacemarkMapObject markerRef = marker;
-            View.OnClickListener removeListener = v -> {
-                if (markerRef != null) routeController.togglePlaceInRoute(markerRef);
-                updateSelectedPlacesList();
-            };
-            btnRemove.setOnClickListener(removeListener);
-            pill.setOnClickListener(removeListener);
-
-            final int currentIndex = routePoints.indexOf(point);
-
-            if (btnMoveUp != null) {
-                btnMoveUp.setEnabled(currentIndex > 0);
-                btnMoveUp.setAlpha(currentIndex > 0 ? 1.0f : 0.3f);
-
-                btnMoveUp.setOnClickListener(v -> {
-                    routeController.moveRoutePoint(point, -1);
-                });
-            }
 
-            if (btnMoveDown != null) {
-                btnMoveDown.setEnabled(currentIndex < routePoints.size() - 1);
-                btnMoveDown.setAlpha(currentIndex < routePoints.size() - 1 ? 1.0f : 0.3f);
+            items.add(new SelectedPlacesAdapter.Item(point, place.marker, title, i > 0, i < routePlaces.size() - 1));
+        }
 
-                btnMoveDown.setOnClickListener(v -> {
-                    routeController.moveRoutePoint(point, 1);
-                });
-            }
+        // DiffUtil считается в фоне, перерисуются только изменённые строки
+        selectedPlacesAdapter.submitList(items);
+    }
 
-            uiManager.placesContainer.addView(item);
+    /**
+     * Срез состояния для заголовка стартовой точки.
+     */
+    static final class StartHeaderModel {
+        final Point startPoint;
+        final boolean atUserLocation;
+        final String poiTitle;
+
+        StartHeaderModel(EditorState state) {
+            this.startPoint = state.startPoint;
+            this.atUserLocation = state.startAtUserLocation;
+            this.poiTitle = state.getStartPoiTitle();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof StartHeaderModel)) return false;
+            StartHeaderModel other = (StartHeaderModel) o;
+            return startPoint == other.startPoint
+                    && atUserLocation == other.atUserLocation
+                    && Objects.equals(poiTitle, other.poiTitle);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(atUserLocation, poiTitle);
         }
     }
 
-    private void updateStartHeader() {
-        startPointController.updateStartHeader();
-        Point startPoint = startPointController.getStartPoint();
-        if (startPoint == null) return;
-
-        String titleFromPoi = null;
-        for (PlacemarkMapObject marker : routeController.getSelectedMarkers()) {
-            if (marker.getUserData() instanceof PlacesApi.Place) {
-                PlacesApi.Place place = (PlacesApi.Place) marker.getUserData();
-                if (place.lat != 0 && DistanceHelper.distanceInMeters(startPoint, new Point(place.lat, place.lon)) < 20.0) {
-                    titleFromPoi = place.name;
-                    break;
-                }
-            }
+    /**
+     * Срез состояния, который сохраняет {@link #saveBuilderState()}: без флагов генерации и
+     * ожидания старта, которые в снимок не попадают.
+     */
+    static final class SavedBuilderModel {
+        final RouteBuildMode buildMode;
+        final Point startPoint;
+        final List<SelectedPlace> selectedPlaces;
+        final Route currentRoute;
+
+        SavedBuilderModel(EditorState state) {
+            this.buildMode = state.buildMode;
+            this.startPoint = state.startPoint;
+            this.selectedPlaces = state.selectedPlaces;
+            this.currentRoute = state.currentRoute;
         }
-        if (titleFromPoi != null && !titleFromPoi.isEmpty()) {
-            uiManager.tvStartTitle.setText(titleFromPoi);
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof SavedBuilderModel)) return false;
+            SavedBuilderModel other = (SavedBuilderModel) o;
+            return buildMode == other.buildMode
+                    && startPoint == other.startPoint
+                    && selectedPlaces.equals(other.selectedPlaces)
+                    && currentRoute == other.currentRoute;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(buildMode, selectedPlaces);
+        }
+    }
+
+    private void renderStartHeader(StartHeaderModel model) {
+        startPointController.updateStartHeader();
+        if (model.startPoint == null) return;
+
+        if (model.poiTitle != null && !model.poiTitle.isEmpty()) {
+            uiManager.tvStartTitle.setText(model.poiTitle);
             uiManager.tvStartSubtitle.setText("Выбранная точка на карте");
         }
     }
@@ -336,7 +451,7 @@ public class MainPresenter implements MainContract.Presenter, MapInteractionCont
         if (uiManager.toggleRouteMode != null) {
             uiManager.toggleRouteMode.addOnButtonCheckedListener((group, checkedId, isChecked) -> {
                 if (!isChecked) return;
-                boolean hasManualData = currentRoute != null || !routeController.getSelectedPoints().isEmpty() || startPointController.getStartPoint() != null;
+                boolean hasManualData = store.getState().currentRoute != null || !routeController.getSelectedPoints().isEmpty() || startPointController.getStartPoint() != null;
                 if (checkedId == R.id.btnModeAuto && hasManualData) {
                     new AlertDialog.Builder(mainActivity)
                             .setTitle("Очистить маршрут?")
@@ -374,7 +489,6 @@ public class MainPresenter implements MainContract.Presenter, MapInteractionCont
                     view.showToast("Сначала выберите отправную точку");
                     startPointController.enableStartPointSelection();
 
-                    updateAllUI();
                     uiStateController.collapseBottomSheet();
                     return;
                 }
@@ -395,18 +509,18 @@ public class MainPresenter implements MainContract.Presenter, MapInteractionCont
                     view.showToast("Тапните по точкам на карте, чтобы добавить или убрать их");
                 }
 
-                updateAllUI();
                 uiStateController.collapseBottomSheet();
             });
         }
         if (uiManager.btnBuildRoute != null) {
             uiManager.btnBuildRoute.setOnClickListener(v -> {
-                if (isRouteBuilt) {
+                EditorState state = store.getState();
+                if (state.routeBuilt) {
                     fullResetRoute();
                     view.showToast("Маршрут полностью сброшен");
                     return;
                 }
-                if (currentBuildMode == RouteBuildMode.MANUAL) {
+                if (state.buildMode == RouteBuildMode.MANUAL) {
                     if (startPointController.getStartPoint() == null) {
                         startPointController.enableStartPointSelection();
                         return;
@@ -418,7 +532,7 @@ public class MainPresenter implements MainContract.Presenter, MapInteractionCont
                     uiStateController.collapseBottomSheet();
                     shouldExpandEditorOnResume = true;
                     routeController.buildOptimalRoute();
-                } else if (currentBuildMode == RouteBuildMode.AUTO) {
+                } else if (state.buildMode == RouteBuildMode.AUTO) {
                     if (startPointController.getStartPoint() == null) {
                         startPointController.enableStartPointSelection();
                         return;
@@ -483,16 +597,13 @@ public class MainPresenter implements MainContract.Presenter, MapInteractionCont
 
         shouldExpandEditorOnResume = false;
 
-        isRouteBuilt = false;
-        currentBuildMode = RouteBuildMode.MANUAL;
-
+        store.dispatch(new EditorAction.SetRouteBuilt(false));
         applyBuildModeUI(RouteBuildMode.MANUAL);
 
         if (uiManager.toggleRouteMode != null) {
             uiManager.toggleRouteMode.check(R.id.btnModeManual);
         }
 
-        updateAllUI();
         uiStateController.expandBottomSheet();
     }
 
@@ -507,7 +618,7 @@ public class MainPresenter implements MainContract.Presenter, MapInteractionCont
         if (startPointController.handleMapTap(point)) {
             return;
         }
-        if (currentBuildMode == RouteBuildMode.MANUAL) {
+        if (store.getState().buildMode == RouteBuildMode.MANUAL) {
             mapInteractionController.handleMapTap(point);
         }
     }
@@ -539,7 +650,20 @@ public class MainPresenter implements MainContract.Presenter, MapInteractionCont
 
     @Override
     public void onRouteStateChanged() {
-        updateAllUI();
+        syncSelection();
+    }
+
+    @Override
+    public void onPoisDisplayed() {
+        // displayNearbyPlaces сбрасывает выбранные маркеры
+        syncSelection();
+        // Набор POI мог смениться при том же выборе
+        saveBuilderState();
+    }
+
+    @Override
+    public void onAwaitingAutoStartPointChanged(boolean awaiting) {
+        store.dispatch(new EditorAction.SetAwaitingAutoStartPoint(awaiting));
     }
 
     @Override
@@ -554,19 +678,18 @@ public class MainPresenter implements MainContract.Presenter, MapInteractionCont
 
     @Override
     public Route getCurrentRoute() {
-        return currentRoute;
+        return store.getState().currentRoute;
     }
 
     @Override
     public void setCurrentRoute(Route route) {
-        this.currentRoute = route;
+        store.dispatch(new EditorAction.SetCurrentRoute(route));
     }
 
     @Override
     public void resetRouteBuilder() {
         fullResetRoute();
 
-        currentBuildMode = RouteBuildMode.MANUAL;
         applyBuildModeUI(RouteBuildMode.MANUAL);
 
         if (uiManager.toggleRouteMode != null) {
@@ -581,13 +704,10 @@ public class MainPresenter implements MainContract.Presenter, MapInteractionCont
     private void resetRoute() {
         MapResetHelper.fullReset(uiManager.mapView, poiController.getPoiMarkers(), routeController.getCustomMarkers(), routeController.getSelectedMarkers(), mapRouteHelper, mapPointHelper);
         if (autoRouteController != null) autoRouteController.cancel();
-        currentBuildMode = RouteBuildMode.NONE;
-        currentRoute = null;
-        isRouteBuilt = false;
         routeController.reset();
         startPointController.reset();
         poiController.clear();
-        updateAllUI();
+        store.dispatch(new EditorAction.Reset());
     }
 
     private void fullResetRoute() {
@@ -596,16 +716,7 @@ public class MainPresenter implements MainContract.Presenter, MapInteractionCont
         startPointController.reset();
         poiController.clear();
         if (autoRouteController != null) autoRouteController.cancel();
-        currentBuildMode = RouteBuildMode.NONE;
-        currentRoute = null;
-        isRouteBuilt = false;
-        updateAllUI();
-    }
-    
-    public void updateAllUI() {
-        uiStateController.updateAll();
-        updateSelectedPlacesList();
-        updateStartHeader();
+        store.dispatch(new EditorAction.Reset());
     }
 
     private int getAutoDurationMinutes() {
@@ -634,21 +745,24 @@ public class MainPresenter implements MainContract.Presenter, MapInteractionCont
         if (searchHelper != null) searchHelper.cancelSearch();
         if (mapInteractionController != null) mapInteractionController.cancel();
         if (autoRouteController != null) autoRouteController.cancel();
+        store.dispatch(new EditorAction.SetGenerating(false));
     }
 
     @Override
     public void onRouteGenerationStart() {
-        uiStateController.updateBuildRouteButton();
+        store.dispatch(new EditorAction.SetGenerating(true));
         view.showToast("Генерируем маршрут...");
     }
 
     @Override
-    public void onRouteGenerated(RouteApi.GeneratedRouteResult result) {
+    public void onRouteGenerated(RouteApi.GeneratedRouteResult result, FlowTrace.Span trace) {
         if (result == null || result.routePoints == null || result.routePoints.size() < 2) {
+            trace.fail("empty route");
             view.showToast("Не удалось построить маршрут. Попробуйте другие параметры.");
-            uiStateController.updateBuildRouteButton();
+            store.dispatch(new EditorAction.SetGenerating(false));
             return;
         }
+        trace.stage("apply");
         poiController.clear();
         routeController.reset();
         mapRouteHelper.clearCurrentRouteOnly();
@@ -662,6 +776,7 @@ public class MainPresenter implements MainContract.Presenter, MapInteractionCont
             }
         }
         mapRouteHelper.drawRoute(result.routePoints);
+        trace.stage("intent");
         Intent intent = new Intent(mainActivity, RouteConfirmationActivity.class);
 
         JSONArray placesJson = new JSONArray();
@@ -672,6 +787,8 @@ public class MainPresenter implements MainContract.Presenter, MapInteractionCont
                     obj.put("name", place.name);
                     obj.put("lat", place.lat);
                     obj.put("lon", place.lon);
+                    obj.put("id", place.placeId);
+                    if (!place.categories.isEmpty()) obj.put("category", place.categories.get(0));
                     placesJson.put(obj);
                 } catch (Exception e) {
                     e.printStackTrace();
@@ -695,18 +812,19 @@ public class MainPresenter implements MainContract.Presenter, MapInteractionCont
         intent.putExtra(RouteConfirmationActivity.EXTRA_ROUTE_POINTS_JSON, routePointsJson.toString());
         intent.putExtra(RouteConfirmationActivity.EXTRA_DISTANCE, result.distance);
         intent.putExtra(RouteConfirmationActivity.EXTRA_DURATION, result.duration);
+        trace.attachTo(intent);
 
         shouldExpandEditorOnResume = true;
+        trace.stage("open_screen");
         mainActivity.startActivity(intent);
-        updateAllUI();
         uiStateController.collapseBottomSheet();
         view.showToast("Маршрут построен! Теперь его можно редактировать.");
     }
 
     @Override
     public void onRouteGenerationFailed(String message) {
-        currentBuildMode = RouteBuildMode.AUTO;
-        uiStateController.updateBuildRouteButton();
+        store.dispatch(new EditorAction.SetGenerating(false));
+        store.dispatch(new EditorAction.SetBuildMode(RouteBuildMode.AUTO));
         uiStateController.expandBottomSheet();
         if (message.contains("failed to search places")) {
             view.showToast("Не удалось найти места. Попробуйте ещё раз");
@@ -726,8 +844,10 @@ public class MainPresenter implements MainContract.Presenter, MapInteractionCont
 
     @Override
     public void onStartPointSelected(Point point) {
-        updateAllUI();
-        if (currentBuildMode == RouteBuildMode.MANUAL) {
+        boolean atUserLocation = point != null && userLocation != null
+                && DistanceHelper.distanceInMeters(point, userLocation) < 5.0;
+        store.dispatch(new EditorAction.SetStartPoint(point, atUserLocation));
+        if (store.getState().buildMode == RouteBuildMode.MANUAL) {
             poiController.searchNearbyPlaces(point.getLatitude(), point.getLongitude());
         }
     }
@@ -739,7 +859,7 @@ public class MainPresenter implements MainContract.Presenter, MapInteractionCont
 
     @Override
     public RouteBuildMode getCurrentBuildMode() {
-        return currentBuildMode;
+        return store.getState().buildMode;
     }
 
     @Override
@@ -747,26 +867,6 @@ public class MainPresenter implements MainContract.Presenter, MapInteractionCont
         return routeController.getSelectedPoints();
     }
 
-    @Override
-    public boolean isGeneratingAutoRoute() {
-        return autoRouteController.isGenerating();
-    }
-
-    @Override
-    public boolean isAwaitingAutoStartPoint() {
-        return startPointController.isAwaitingAutoStartPoint();
-    }
-
-    @Override
-    public int getManualSelectedPlacesCount() {
-        return routeController.getManualSelectedPlacesCount();
-    }
-
-    @Override
-    public boolean isRoutePointsEmpty() {
-        return routeController.getSelectedPoints().isEmpty();
-    }
-
     @Override
     public void collapseBottomSheet() {
         uiStateController.collapseBottomSheet();
@@ -776,9 +876,4 @@ public class MainPresenter implements MainContract.Presenter, MapInteractionCont
     public void expandBottomSheet() {
         uiStateController.expandBottomSheet();
     }
-
-    @Override
-    public boolean isRouteBuilt() {
-        return isRouteBuilt;
-    }
 }
@@ -8,6 +8,8 @@ import android.widget.ImageButton;
 import android.widget.LinearLayout;
 import android.widget.TextView;
 
+import androidx.recyclerview.widget.RecyclerView;
+
 import com.google.android.material.bottomsheet.BottomSheetBehavior;
 import com.google.android.material.button.MaterialButton;
 import com.google.android.material.button.MaterialButtonToggleGroup;
@@ -33,7 +35,8 @@ public class MainUIManager {
 
     public final LinearLayout bottomSheet;
     public final BottomSheetBehavior<LinearLayout> bottomSheetBehavior;
-    public final LinearLayout placesContainer;
+    public final RecyclerView placesContainer;
+    public final TextView tvPlacesEmpty;
     public final Slider sliderDurationHours;
     public final SwitchMaterial switchSnack;
     public final TextView tvStartTitle;
@@ -76,6 +79,7 @@ public class MainUIManager {
         autoSection = activity.findViewById(R.id.autoSection);
         bottomSheet = activity.findViewById(R.id.bottomSheet);
         placesContainer = activity.findViewById(R.id.placesContainer);
+        tvPlacesEmpty = activity.findViewById(R.id.tvPlacesEmpty);
         tvStartTitle = activity.findViewById(R.id.tvStartTitle);
         tvStartSubtitle = activity.findViewById(R.id.tvStartSubtitle);
         tvDurationValue = activity.findViewById(R.id.tvDurationValue);
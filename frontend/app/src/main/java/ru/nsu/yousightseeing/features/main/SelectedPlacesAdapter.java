@@ -0,0 +1,146 @@
+package ru.nsu.yousightseeing.features.main;
+
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.ImageButton;
+import android.widget.TextView;
+
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.ListAdapter;
+import androidx.recyclerview.widget.RecyclerView;
+
+import com.yandex.mapkit.geometry.Point;
+import com.yandex.mapkit.map.PlacemarkMapObject;
+
+import java.util.Objects;
+
+import ru.nsu.yousightseeing.R;
+
+/**
+ * Список выбранных мест маршрута (item_place_pill).
+ * DiffUtil считается в фоне через ListAdapter, при тапе перепривязываются только изменённые строки.
+ */
+public class SelectedPlacesAdapter extends ListAdapter<SelectedPlacesAdapter.Item, SelectedPlacesAdapter.ViewHolder> {
+
+    public interface Listener {
+        void onRemove(Item item);
+        void onMove(Item item, int direction);
+    }
+
+    /**
+     * Неизменяемая строка списка. Идентичность — координаты точки.
+     */
+    public static final class Item {
+        public final long id;
+        public final Point point;
+        public final PlacemarkMapObject marker;
+        public final String title;
+        public final boolean canMoveUp;
+        public final boolean canMoveDown;
+
+        public Item(Point point, PlacemarkMapObject marker, String title, boolean canMoveUp, boolean canMoveDown) {
+            this.id = stableIdFor(point);
+            this.point = point;
+            this.marker = marker;
+            this.title = title;
+            this.canMoveUp = canMoveUp;
+            this.canMoveDown = canMoveDown;
+        }
+
+        boolean sameContentAs(Item other) {
+            return Objects.equals(title, other.title)
+                    && canMoveUp == other.canMoveUp
+                    && canMoveDown == other.canMoveDown
+                    && marker == other.marker;
+        }
+    }
+
+    private static final DiffUtil.ItemCallback<Item> DIFF = new DiffUtil.ItemCallback<Item>() {
+        @Override
+        public boolean areItemsTheSame(@NonNull Item oldItem, @NonNull Item newItem) {
+            return oldItem.id == newItem.id;
+        }
+
+        @Override
+        public boolean areContentsTheSame(@NonNull Item oldItem, @NonNull Item newItem) {
+            return oldItem.sameContentAs(newItem);
+        }
+    };
+
+    private final Listener listener;
+
+    public SelectedPlacesAdapter(Listener listener) {
+        super(DIFF);
+        this.listener = listener;
+        setHasStableIds(true);
+    }
+
+    public static long stableIdFor(Point point) {
+        long lat = Double.doubleToLongBits(point.getLatitude());
+        long lon = Double.doubleToLongBits(point.getLongitude());
+        return lat * 31 + lon;
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return getItem(position).id;
+    }
+
+    @NonNull
+    @Override
+    public ViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        View view = LayoutInflater.from(parent.getContext()).inflate(R.layout.item_place_pill, parent, false);
+        return new ViewHolder(view);
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull ViewHolder holder, int position) {
+        holder.bind(getItem(position));
+    }
+
+    class ViewHolder extends RecyclerView.ViewHolder {
+        private final TextView tvTitle;
+        private final TextView tvSubtitle;
+        private final ImageButton btnRemove;
+        private final ImageButton btnMoveUp;
+        private final ImageButton btnMoveDown;
+        private final View pill;
+        private Item bound;
+
+        ViewHolder(@NonNull View itemView) {
+            super(itemView);
+            tvTitle = itemView.findViewById(R.id.tvPlaceTitle);
+            tvSubtitle = itemView.findViewById(R.id.tvPlaceSubtitle);
+            btnRemove = itemView.findViewById(R.id.btnRemovePlace);
+            btnMoveUp = itemView.findViewById(R.id.btnMoveUp);
+            btnMoveDown = itemView.findViewById(R.id.btnMoveDown);
+            pill = itemView.findViewById(R.id.placePill);
+
+            // Слушатели вешаются один раз на holder и читают текущий bound
+            View.OnClickListener removeListener = v -> {
+                if (bound != null) listener.onRemove(bound);
+            };
+            btnRemove.setOnClickListener(removeListener);
+            pill.setOnClickListener(removeListener);
+            btnMoveUp.setOnClickListener(v -> {
+                if (bound != null) listener.onMove(bound, -1);
+            });
+            btnMoveDown.setOnClickListener(v -> {
+                if (bound != null) listener.onMove(bound, 1);
+            });
+        }
+
+        void bind(Item item) {
+            bound = item;
+            tvTitle.setText(item.title);
+            tvSubtitle.setText("Добавлено в маршрут");
+
+            btnMoveUp.setEnabled(item.canMoveUp);
+            btnMoveUp.setAlpha(item.canMoveUp ? 1.0f : 0.3f);
+            btnMoveDown.setEnabled(item.canMoveDown);
+            btnMoveDown.setAlpha(item.canMoveDown ? 1.0f : 0.3f);
+        }
+    }
+}
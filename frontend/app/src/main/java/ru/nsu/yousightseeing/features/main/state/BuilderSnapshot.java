@@ -0,0 +1,245 @@
+package ru.nsu.yousightseeing.features.main.state;
+
+import androidx.annotation.Nullable;
+
+import com.yandex.mapkit.geometry.Point;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import ru.nsu.yousightseeing.api.PlacesApi;
+import ru.nsu.yousightseeing.features.route.RouteBuildMode;
+
+/**
+ * Снимок конструктора маршрута для восстановления после поворота или смерти процесса.
+ * <p>
+ * Полная форма (POI и геометрия) пишется на диск, компактная (точки маршрута и id POI)
+ * кладётся в SavedStateHandle. Совпадение id снимков говорит, что файл на диске актуален.
+ */
+public final class BuilderSnapshot {
+
+    /**
+     * Точка маршрута в порядке обхода. poiId задан, если точка — загруженный POI.
+     */
+    public static final class Waypoint {
+        public final double lat;
+        public final double lon;
+        @Nullable public final String name;
+        @Nullable public final String poiId;
+
+        public Waypoint(double lat, double lon, @Nullable String name, @Nullable String poiId) {
+            this.lat = lat;
+            this.lon = lon;
+            this.name = name;
+            this.poiId = poiId;
+        }
+    }
+
+    public final long id;
+    public final RouteBuildMode buildMode;
+    @Nullable public final Point startPoint;
+    @Nullable public final Point poiCenter;
+    public final List<Waypoint> waypoints;
+    /** Загруженные POI; в компактной форме восстанавливаются только их id. */
+    public final List<PlacesApi.Place> pois;
+    public final List<String> poiIds;
+    /** Геометрия текущего маршрута; пустая, если маршрут не посчитан или форма компактная. */
+    public final List<Point> routePoints;
+    public final double routeDistance;
+    public final double routeDuration;
+
+    public BuilderSnapshot(long id,
+                           RouteBuildMode buildMode,
+                           @Nullable Point startPoint,
+                           @Nullable Point poiCenter,
+                           List<Waypoint> waypoints,
+                           List<PlacesApi.Place> pois,
+                           List<Point> routePoints,
+                           double routeDistance,
+                           double routeDuration) {
+        this(id, buildMode, startPoint, poiCenter, waypoints, pois, idsOf(pois),
+                routePoints, routeDistance, routeDuration);
+    }
+
+    private BuilderSnapshot(long id,
+                            RouteBuildMode buildMode,
+                            @Nullable Point startPoint,
+                            @Nullable Point poiCenter,
+                            List<Waypoint> waypoints,
+                            List<PlacesApi.Place> pois,
+                            List<String> poiIds,
+                            List<Point> routePoints,
+                            double routeDistance,
+                            double routeDuration) {
+        this.id = id;
+        this.buildMode = buildMode;
+        this.startPoint = startPoint;
+        this.poiCenter = poiCenter;
+        this.waypoints = Collections.unmodifiableList(new ArrayList<>(waypoints));
+        this.pois = Collections.unmodifiableList(new ArrayList<>(pois));
+        this.poiIds = Collections.unmodifiableList(new ArrayList<>(poiIds));
+        this.routePoints = Collections.unmodifiableList(new ArrayList<>(routePoints));
+        this.routeDistance = routeDistance;
+        this.routeDuration = routeDuration;
+    }
+
+    private static List<String> idsOf(List<PlacesApi.Place> pois) {
+        List<String> ids = new ArrayList<>(pois.size());
+        for (PlacesApi.Place place : pois) {
+            if (place.placeId != null && !place.placeId.isEmpty()) {
+                ids.add(place.placeId);
+            }
+        }
+        return ids;
+    }
+
+    public boolean isEmpty() {
+        return startPoint == null && waypoints.isEmpty() && pois.isEmpty();
+    }
+
+    public boolean hasRoute() {
+        return routePoints.size() >= 2;
+    }
+
+    /** Компактная форма для SavedStateHandle: без POI и геометрии. */
+    public String toCompactJson() throws JSONException {
+        JSONObject json = baseJson();
+        JSONArray ids = new JSONArray();
+        for (String poiId : poiIds) ids.put(poiId);
+        json.put("poi_ids", ids);
+        return json.toString();
+    }
+
+    public String toFullJson() throws JSONException {
+        JSONObject json = baseJson();
+
+        JSONArray poisJson = new JSONArray();
+        for (PlacesApi.Place place : pois) {
+            JSONObject p = new JSONObject();
+            p.put("name", place.name);
+            p.put("address", place.address);
+            p.put("place_id", place.placeId);
+            p.put("lat", place.lat);
+            p.put("lon", place.lon);
+            JSONArray cats = new JSONArray();
+            for (String c : place.categories) cats.put(c);
+            p.put("categories", cats);
+            poisJson.put(p);
+        }
+        json.put("pois", poisJson);
+
+        JSONArray route = new JSONArray();
+        for (Point p : routePoints) {
+            route.put(new JSONArray().put(p.getLongitude()).put(p.getLatitude()));
+        }
+        json.put("route_points", route);
+        json.put("route_distance", routeDistance);
+        json.put("route_duration", routeDuration);
+        return json.toString();
+    }
+
+    private JSONObject baseJson() throws JSONException {
+        JSONObject json = new JSONObject();
+        json.put("id", id);
+        json.put("mode", buildMode.name());
+        if (startPoint != null) json.put("start", pointJson(startPoint));
+        if (poiCenter != null) json.put("poi_center", pointJson(poiCenter));
+
+        JSONArray wps = new JSONArray();
+        for (Waypoint w : waypoints) {
+            JSONObject wj = new JSONObject();
+            wj.put("lat", w.lat);
+            wj.put("lon", w.lon);
+            if (w.name != null) wj.put("name", w.name);
+            if (w.poiId != null) wj.put("poi_id", w.poiId);
+            wps.put(wj);
+        }
+        json.put("waypoints", wps);
+        return json;
+    }
+
+    /** Разбирает и компактную, и полную форму. */
+    public static BuilderSnapshot fromJson(String raw) throws JSONException {
+        JSONObject json = new JSONObject(raw);
+
+        RouteBuildMode mode;
+        try {
+            mode = RouteBuildMode.valueOf(json.optString("mode", RouteBuildMode.MANUAL.name()));
+        } catch (IllegalArgumentException e) {
+            mode = RouteBuildMode.MANUAL;
+        }
+
+        List<Waypoint> waypoints = new ArrayList<>();
+        JSONArray wps = json.optJSONArray("waypoints");
+        if (wps != null) {
+            for (int i = 0; i < wps.length(); i++) {
+                JSONObject wj = wps.getJSONObject(i);
+                waypoints.add(new Waypoint(
+                        wj.getDouble("lat"),
+                        wj.getDouble("lon"),
+                        wj.has("name") ? wj.getString("name") : null,
+                        wj.has("poi_id") ? wj.getString("poi_id") : null));
+            }
+        }
+
+        List<PlacesApi.Place> pois = new ArrayList<>();
+        JSONArray poisJson = json.optJSONArray("pois");
+        if (poisJson != null) {
+            for (int i = 0; i < poisJson.length(); i++) {
+                JSONObject p = poisJson.getJSONObject(i);
+                PlacesApi.Place place = new PlacesApi.Place(p.optString("name", ""), p.getDouble("lat"), p.getDouble("lon"));
+                place.address = p.optString("address", "");
+                place.placeId = p.optString("place_id", "");
+                JSONArray cats = p.optJSONArray("categories");
+                if (cats != null) {
+                    for (int j = 0; j < cats.length(); j++) place.categories.add(cats.optString(j));
+                }
+                pois.add(place);
+            }
+        }
+
+        List<String> poiIds = new ArrayList<>();
+        JSONArray ids = json.optJSONArray("poi_ids");
+        if (ids != null) {
+            for (int i = 0; i < ids.length(); i++) poiIds.add(ids.getString(i));
+        } else {
+            poiIds = idsOf(pois);
+        }
+
+        List<Point> routePoints = new ArrayList<>();
+        JSONArray route = json.optJSONArray("route_points");
+        if (route != null) {
+            for (int i = 0; i < route.length(); i++) {
+                JSONArray pair = route.getJSONArray(i);
+                routePoints.add(new Point(pair.getDouble(1), pair.getDouble(0)));
+            }
+        }
+
+        return new BuilderSnapshot(
+                json.getLong("id"),
+                mode,
+                parsePoint(json.optJSONObject("start")),
+                parsePoint(json.optJSONObject("poi_center")),
+                waypoints,
+                pois,
+                poiIds,
+                routePoints,
+                json.optDouble("route_distance", 0),
+                json.optDouble("route_duration", 0));
+    }
+
+    private static JSONObject pointJson(Point point) throws JSONException {
+        return new JSONObject().put("lat", point.getLatitude()).put("lon", point.getLongitude());
+    }
+
+    @Nullable
+    private static Point parsePoint(@Nullable JSONObject json) throws JSONException {
+        if (json == null) return null;
+        return new Point(json.getDouble("lat"), json.getDouble("lon"));
+    }
+}
@@ -0,0 +1,85 @@
+package ru.nsu.yousightseeing.features.main.state;
+
+import androidx.annotation.Nullable;
+
+import com.yandex.mapkit.geometry.Point;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import ru.nsu.yousightseeing.features.route.RouteBuildMode;
+import ru.nsu.yousightseeing.model.Route;
+
+/**
+ * Действия, меняющие {@link EditorState}. Обрабатываются в {@link EditorReducer}.
+ */
+public abstract class EditorAction {
+
+    private EditorAction() {}
+
+    public static final class SetBuildMode extends EditorAction {
+        final RouteBuildMode mode;
+
+        public SetBuildMode(RouteBuildMode mode) {
+            this.mode = mode;
+        }
+    }
+
+    public static final class SetRouteBuilt extends EditorAction {
+        final boolean built;
+
+        public SetRouteBuilt(boolean built) {
+            this.built = built;
+        }
+    }
+
+    public static final class SetGenerating extends EditorAction {
+        final boolean generating;
+
+        public SetGenerating(boolean generating) {
+            this.generating = generating;
+        }
+    }
+
+    public static final class SetAwaitingAutoStartPoint extends EditorAction {
+        final boolean awaiting;
+
+        public SetAwaitingAutoStartPoint(boolean awaiting) {
+            this.awaiting = awaiting;
+        }
+    }
+
+    public static final class SetStartPoint extends EditorAction {
+        @Nullable final Point point;
+        final boolean atUserLocation;
+
+        public SetStartPoint(@Nullable Point point, boolean atUserLocation) {
+            this.point = point;
+            this.atUserLocation = atUserLocation;
+        }
+    }
+
+    public static final class SetSelection extends EditorAction {
+        final List<SelectedPlace> places;
+
+        public SetSelection(List<SelectedPlace> places) {
+            this.places = Collections.unmodifiableList(new ArrayList<>(places));
+        }
+    }
+
+    public static final class SetCurrentRoute extends EditorAction {
+        @Nullable final Route route;
+
+        public SetCurrentRoute(@Nullable Route route) {
+            this.route = route;
+        }
+    }
+
+    /**
+     * Полный сброс редактора, режим построения остаётся NONE.
+     */
+    public static final class Reset extends EditorAction {
+        public Reset() {}
+    }
+}
@@ -0,0 +1,52 @@
+package ru.nsu.yousightseeing.features.main.state;
+
+/**
+ * Чистая функция (state, action) -> state.
+ * Если действие ничего не меняет, возвращается тот же экземпляр — подписчики не уведомляются.
+ */
+public final class EditorReducer {
+
+    private EditorReducer() {}
+
+    public static EditorState reduce(EditorState state, EditorAction action) {
+        if (action instanceof EditorAction.SetBuildMode) {
+            EditorAction.SetBuildMode a = (EditorAction.SetBuildMode) action;
+            return state.buildMode == a.mode ? state : state.withBuildMode(a.mode);
+        }
+        if (action instanceof EditorAction.SetRouteBuilt) {
+            EditorAction.SetRouteBuilt a = (EditorAction.SetRouteBuilt) action;
+            return state.routeBuilt == a.built ? state : state.withRouteBuilt(a.built);
+        }
+        if (action instanceof EditorAction.SetGenerating) {
+            EditorAction.SetGenerating a = (EditorAction.SetGenerating) action;
+            return state.generating == a.generating ? state : state.withGenerating(a.generating);
+        }
+        if (action instanceof EditorAction.SetAwaitingAutoStartPoint) {
+            EditorAction.SetAwaitingAutoStartPoint a = (EditorAction.SetAwaitingAutoStartPoint) action;
+            return state.awaitingAutoStartPoint == a.awaiting ? state : state.withAwaitingAutoStartPoint(a.awaiting);
+        }
+        if (action instanceof EditorAction.SetStartPoint) {
+            EditorAction.SetStartPoint a = (EditorAction.SetStartPoint) action;
+            if (samePoint(state, a) && state.startAtUserLocation == a.atUserLocation) return state;
+            return state.withStartPoint(a.point, a.atUserLocation);
+        }
+        if (action instanceof EditorAction.SetSelection) {
+            EditorAction.SetSelection a = (EditorAction.SetSelection) action;
+            return state.selectedPlaces.equals(a.places) ? state : state.withSelectedPlaces(a.places);
+        }
+        if (action instanceof EditorAction.SetCurrentRoute) {
+            EditorAction.SetCurrentRoute a = (EditorAction.SetCurrentRoute) action;
+            return state.currentRoute == a.route ? state : state.withCurrentRoute(a.route);
+        }
+        if (action instanceof EditorAction.Reset) {
+            return EditorState.INITIAL;
+        }
+        throw new IllegalArgumentException("Unknown editor action: " + action.getClass().getSimpleName());
+    }
+
+    private static boolean samePoint(EditorState state, EditorAction.SetStartPoint a) {
+        if (state.startPoint == null || a.point == null) return state.startPoint == a.point;
+        return state.startPoint.getLatitude() == a.point.getLatitude()
+                && state.startPoint.getLongitude() == a.point.getLongitude();
+    }
+}
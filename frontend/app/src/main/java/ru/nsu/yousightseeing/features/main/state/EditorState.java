@@ -0,0 +1,134 @@
+package ru.nsu.yousightseeing.features.main.state;
+
+import androidx.annotation.Nullable;
+
+import com.yandex.mapkit.geometry.Point;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import ru.nsu.yousightseeing.features.route.RouteBuildMode;
+import ru.nsu.yousightseeing.model.Route;
+import ru.nsu.yousightseeing.utils.DistanceHelper;
+
+/**
+ * Неизменяемое состояние редактора маршрута на главном экране.
+ * Новые экземпляры создаёт только {@link EditorReducer}.
+ */
+public final class EditorState {
+
+    public static final EditorState INITIAL = new EditorState(
+            RouteBuildMode.NONE, false, false, false, null, false, Collections.emptyList(), null);
+
+    private static final double SAME_POINT_METERS = 5.0;
+    private static final double START_POI_METERS = 20.0;
+
+    public final RouteBuildMode buildMode;
+    public final boolean routeBuilt;
+    public final boolean generating;
+    public final boolean awaitingAutoStartPoint;
+    @Nullable public final Point startPoint;
+    public final boolean startAtUserLocation;
+    public final List<SelectedPlace> selectedPlaces;
+    @Nullable public final Route currentRoute;
+
+    // Производные значения считаются лениво, один раз на экземпляр
+    private List<SelectedPlace> routePlaces;
+    private String startPoiTitle;
+    private boolean startPoiTitleResolved;
+
+    EditorState(RouteBuildMode buildMode,
+                boolean routeBuilt,
+                boolean generating,
+                boolean awaitingAutoStartPoint,
+                @Nullable Point startPoint,
+                boolean startAtUserLocation,
+                List<SelectedPlace> selectedPlaces,
+                @Nullable Route currentRoute) {
+        this.buildMode = buildMode;
+        this.routeBuilt = routeBuilt;
+        this.generating = generating;
+        this.awaitingAutoStartPoint = awaitingAutoStartPoint;
+        this.startPoint = startPoint;
+        this.startAtUserLocation = startAtUserLocation;
+        this.selectedPlaces = selectedPlaces;
+        this.currentRoute = currentRoute;
+    }
+
+    EditorState withBuildMode(RouteBuildMode mode) {
+        return new EditorState(mode, routeBuilt, generating, awaitingAutoStartPoint,
+                startPoint, startAtUserLocation, selectedPlaces, currentRoute);
+    }
+
+    EditorState withRouteBuilt(boolean built) {
+        return new EditorState(buildMode, built, generating, awaitingAutoStartPoint,
+                startPoint, startAtUserLocation, selectedPlaces, currentRoute);
+    }
+
+    EditorState withGenerating(boolean isGenerating) {
+        return new EditorState(buildMode, routeBuilt, isGenerating, awaitingAutoStartPoint,
+                startPoint, startAtUserLocation, selectedPlaces, currentRoute);
+    }
+
+    EditorState withAwaitingAutoStartPoint(boolean awaiting) {
+        return new EditorState(buildMode, routeBuilt, generating, awaiting,
+                startPoint, startAtUserLocation, selectedPlaces, currentRoute);
+    }
+
+    EditorState withStartPoint(@Nullable Point point, boolean atUserLocation) {
+        return new EditorState(buildMode, routeBuilt, generating, awaitingAutoStartPoint,
+                point, atUserLocation, selectedPlaces, currentRoute);
+    }
+
+    EditorState withSelectedPlaces(List<SelectedPlace> places) {
+        return new EditorState(buildMode, routeBuilt, generating, awaitingAutoStartPoint,
+                startPoint, startAtUserLocation, places, currentRoute);
+    }
+
+    EditorState withCurrentRoute(@Nullable Route route) {
+        return new EditorState(buildMode, routeBuilt, generating, awaitingAutoStartPoint,
+                startPoint, startAtUserLocation, selectedPlaces, route);
+    }
+
+    /**
+     * Выбранные места без тех, что совпадают со стартовой точкой.
+     */
+    public List<SelectedPlace> getRoutePlaces() {
+        if (routePlaces == null) {
+            List<SelectedPlace> result = new ArrayList<>(selectedPlaces.size());
+            for (SelectedPlace place : selectedPlaces) {
+                if (startPoint != null && DistanceHelper.distanceInMeters(startPoint, place.point) < SAME_POINT_METERS) {
+                    continue;
+                }
+                result.add(place);
+            }
+            routePlaces = Collections.unmodifiableList(result);
+        }
+        return routePlaces;
+    }
+
+    public int getManualSelectedPlacesCount() {
+        return getRoutePlaces().size();
+    }
+
+    /**
+     * Название POI, на котором стоит стартовая точка, или null.
+     */
+    @Nullable
+    public String getStartPoiTitle() {
+        if (!startPoiTitleResolved) {
+            startPoiTitleResolved = true;
+            if (startPoint != null) {
+                for (SelectedPlace place : selectedPlaces) {
+                    if (place.marker != null
+                            && DistanceHelper.distanceInMeters(startPoint, place.point) < START_POI_METERS) {
+                        startPoiTitle = place.name;
+                        break;
+                    }
+                }
+            }
+        }
+        return startPoiTitle;
+    }
+}
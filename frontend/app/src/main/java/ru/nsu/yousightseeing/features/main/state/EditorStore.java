@@ -0,0 +1,81 @@
+package ru.nsu.yousightseeing.features.main.state;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Хранилище состояния редактора. Подписчик получает только свой срез (selector)
+ * и вызывается лишь тогда, когда этот срез изменился по equals.
+ * Работает на главном потоке.
+ */
+public final class EditorStore {
+
+    public interface Selector<T> {
+        T select(EditorState state);
+    }
+
+    public interface Subscriber<T> {
+        void onChanged(T slice);
+    }
+
+    private static final class Subscription<T> {
+        final Selector<T> selector;
+        final Subscriber<T> subscriber;
+        T last;
+        boolean delivered;
+
+        Subscription(Selector<T> selector, Subscriber<T> subscriber) {
+            this.selector = selector;
+            this.subscriber = subscriber;
+        }
+
+        void deliver(EditorState state) {
+            T next = selector.select(state);
+            if (delivered && Objects.equals(last, next)) return;
+            last = next;
+            delivered = true;
+            subscriber.onChanged(next);
+        }
+    }
+
+    private final List<Subscription<?>> subscriptions = new ArrayList<>();
+    private final ArrayDeque<EditorAction> pending = new ArrayDeque<>();
+    private EditorState state = EditorState.INITIAL;
+    private boolean dispatching = false;
+
+    public EditorState getState() {
+        return state;
+    }
+
+    /**
+     * Подписка на срез состояния. Текущее значение доставляется сразу.
+     */
+    public <T> void subscribe(Selector<T> selector, Subscriber<T> subscriber) {
+        Subscription<T> subscription = new Subscription<>(selector, subscriber);
+        subscriptions.add(subscription);
+        subscription.deliver(state);
+    }
+
+    public void dispatch(EditorAction action) {
+        pending.add(action);
+        // Действия, отправленные из подписчика, обрабатываются после текущего
+        if (dispatching) return;
+
+        dispatching = true;
+        try {
+            EditorAction next;
+            while ((next = pending.poll()) != null) {
+                EditorState reduced = EditorReducer.reduce(state, next);
+                if (reduced == state) continue;
+                state = reduced;
+                for (int i = 0; i < subscriptions.size(); i++) {
+                    subscriptions.get(i).deliver(state);
+                }
+            }
+        } finally {
+            dispatching = false;
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package ru.nsu.yousightseeing.features.main.state;
+
+import androidx.annotation.Nullable;
+
+import com.yandex.mapkit.geometry.Point;
+import com.yandex.mapkit.map.PlacemarkMapObject;
+
+import java.util.Objects;
+
+/**
+ * Точка, добавленная в маршрут, вместе с маркером и названием места.
+ */
+public final class SelectedPlace {
+    public final Point point;
+    @Nullable public final PlacemarkMapObject marker;
+    @Nullable public final String name;
+
+    public SelectedPlace(Point point, @Nullable PlacemarkMapObject marker, @Nullable String name) {
+        this.point = point;
+        this.marker = marker;
+        this.name = name;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof SelectedPlace)) return false;
+        SelectedPlace other = (SelectedPlace) o;
+        return point.getLatitude() == other.point.getLatitude()
+                && point.getLongitude() == other.point.getLongitude()
+                && marker == other.marker
+                && Objects.equals(name, other.name);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(point.getLatitude(), point.getLongitude(), name);
+    }
+}
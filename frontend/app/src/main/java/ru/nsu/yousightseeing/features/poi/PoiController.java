@@ -1,5 +1,6 @@
 package ru.nsu.yousightseeing.features.poi;
 
+import android.content.Context;
 import android.content.SharedPreferences;
 import com.yandex.mapkit.geometry.Point;
 import com.yandex.mapkit.map.PlacemarkMapObject;
@@ -10,7 +11,9 @@ import java.util.Set;
 
 import ru.nsu.yousightseeing.api.GeoapifyClient;
 import ru.nsu.yousightseeing.api.PlacesApi;
+import ru.nsu.yousightseeing.api.RequestScheduler;
 import ru.nsu.yousightseeing.features.MainActivity;
+import ru.nsu.yousightseeing.utils.FlowTrace;
 import ru.nsu.yousightseeing.utils.MapPoiHelper;
 import static android.content.Context.MODE_PRIVATE;
 
@@ -24,7 +27,7 @@ public class PoiController {
 
     public interface PoiControllerCallback {
         void showToast(String message);
-        void updateAllUI();
+        void onPoisDisplayed();
         Set<PlacemarkMapObject> getSelectedMarkers();
         List<Point> getSelectedPoints();
     }
@@ -36,6 +39,13 @@ public class PoiController {
     }
 
     public void searchNearbyPlaces(double lat, double lon) {
+        searchNearbyPlaces(lat, lon, mainActivity);
+    }
+
+    /**
+     * requestContext задаёт полосу запроса: явный поиск интерактивный, обновление — фоновое.
+     */
+    private void searchNearbyPlaces(double lat, double lon, Context requestContext) {
         lastPoiCenter = new Point(lat, lon);
         callback.showToast("Поиск POI в радиусе 5км...");
 
@@ -46,22 +56,28 @@ public class PoiController {
             return;
         }
 
-        GeoapifyClient geoClient = new GeoapifyClient(mainActivity);
+        FlowTrace.Span trace = FlowTrace.begin(FlowTrace.POI_LOAD);
+        trace.stage("network");
+        GeoapifyClient geoClient = new GeoapifyClient(requestContext);
         geoClient.getNearbyPlaces(lat, lon, categories, new GeoapifyClient.GeoapifyCallback() {
             @Override
             public void onSuccess(List<PlacesApi.Place> places) {
+                trace.stage("deliver");
                 mainActivity.runOnUiThread(() -> {
+                    trace.stage("render");
                     if (places.isEmpty()) {
                         callback.showToast("POI не найдены рядом");
                     } else {
                         mapPoiHelper.displayNearbyPlaces(places, poiMarkers, callback.getSelectedMarkers(), callback.getSelectedPoints());
-                        callback.updateAllUI();
+                        callback.onPoisDisplayed();
                     }
+                    trace.end();
                 });
             }
 
             @Override
             public void onError(String errorMessage) {
+                trace.fail(errorMessage);
                 mainActivity.runOnUiThread(() -> callback.showToast("Ошибка POI: " + errorMessage));
             }
         });
@@ -72,10 +88,31 @@ public class PoiController {
             callback.showToast("Нет точки для обновления POI");
             return;
         }
-        searchNearbyPlaces(lastPoiCenter.getLatitude(), lastPoiCenter.getLongitude());
+        searchNearbyPlaces(lastPoiCenter.getLatitude(), lastPoiCenter.getLongitude(),
+                RequestScheduler.withLane(mainActivity, RequestScheduler.Lane.BACKGROUND));
         callback.showToast("Точки обновлены по новым категориям");
     }
 
+    /**
+     * Показывает POI из сохранённого снимка без запроса к серверу.
+     */
+    public void restore(List<PlacesApi.Place> places, Point center) {
+        lastPoiCenter = center;
+        if (!places.isEmpty()) {
+            mapPoiHelper.displayNearbyPlaces(places, poiMarkers, callback.getSelectedMarkers(), callback.getSelectedPoints());
+        }
+    }
+
+    public List<PlacesApi.Place> getPlaces() {
+        List<PlacesApi.Place> places = new ArrayList<>(poiMarkers.size());
+        for (PlacemarkMapObject marker : poiMarkers) {
+            if (marker.getUserData() instanceof PlacesApi.Place) {
+                places.add((PlacesApi.Place) marker.getUserData());
+            }
+        }
+        return places;
+    }
+
     public List<PlacemarkMapObject> getPoiMarkers() {
         return poiMarkers;
     }
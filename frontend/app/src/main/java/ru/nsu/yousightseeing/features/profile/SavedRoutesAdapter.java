@@ -0,0 +1,115 @@
+package ru.nsu.yousightseeing.features.profile;
+
+import android.view.LayoutInflater;
+import android.view.ViewGroup;
+import android.widget.TextView;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.recyclerview.widget.RecyclerView;
+
+import ru.nsu.yousightseeing.R;
+import ru.nsu.yousightseeing.api.RouteApi;
+
+/**
+ * Список сохранённых маршрутов в профиле.
+ * Строки берутся из {@link Source}; пока страница не загружена, на её месте показывается заглушка.
+ */
+public class SavedRoutesAdapter extends RecyclerView.Adapter<SavedRoutesAdapter.ViewHolder> {
+
+    public interface Listener {
+        void onRouteClicked(RouteApi.SavedRoute route);
+    }
+
+    /**
+     * Источник строк с известным размером и, возможно, ещё не загруженными элементами.
+     */
+    public interface Source {
+        int size();
+        @Nullable RouteApi.SavedRoute get(int position);
+        /** Сигнал о показе строки: источник может подгрузить соседние страницы. */
+        void onItemAccessed(int position);
+    }
+
+    private final Listener listener;
+    @Nullable private Source source;
+
+    public SavedRoutesAdapter(Listener listener) {
+        this.listener = listener;
+    }
+
+    public void setSource(@Nullable Source source) {
+        this.source = source;
+        notifyDataSetChanged();
+    }
+
+    @Override
+    public int getItemCount() {
+        return source != null ? source.size() : 0;
+    }
+
+    @NonNull
+    @Override
+    public ViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        TextView view = (TextView) LayoutInflater.from(parent.getContext())
+                .inflate(R.layout.item_saved_route, parent, false);
+        return new ViewHolder(view);
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull ViewHolder holder, int position) {
+        if (source == null) return;
+        source.onItemAccessed(position);
+        holder.bind(source.get(position));
+    }
+
+    static String formatSummary(RouteApi.SavedRoute route) {
+        String distanceText = route.distance > 0
+                ? String.format("%.1f км", route.distance / 1000.0)
+                : "—";
+
+        String durationText;
+
+        if (route.duration > 0) {
+            int totalMinutes = route.duration / 60;
+
+            int hours = totalMinutes / 60;
+            int minutes = totalMinutes % 60;
+
+            if (hours > 0) {
+                durationText = hours + " ч " + minutes + " мин";
+            } else {
+                durationText = minutes + " мин";
+            }
+        } else {
+            durationText = "—";
+        }
+
+        String summary = route.title + "\n" + distanceText + " • " + durationText + " • точек: " + route.points.size();
+        if (route.syncState == RouteApi.SavedRoute.PENDING) {
+            summary += "\nОжидает отправки";
+        } else if (route.syncState == RouteApi.SavedRoute.REJECTED) {
+            summary += "\nСервер не принял маршрут";
+        }
+        return summary;
+    }
+
+    class ViewHolder extends RecyclerView.ViewHolder {
+        private final TextView tvRoute;
+        private RouteApi.SavedRoute bound;
+
+        ViewHolder(@NonNull TextView itemView) {
+            super(itemView);
+            tvRoute = itemView;
+            itemView.setOnClickListener(v -> {
+                if (bound != null) listener.onRouteClicked(bound);
+            });
+        }
+
+        void bind(@Nullable RouteApi.SavedRoute route) {
+            bound = route;
+            tvRoute.setText(route != null ? formatSummary(route) : "Загрузка…");
+            tvRoute.setAlpha(route != null ? 1.0f : 0.5f);
+        }
+    }
+}
@@ -0,0 +1,264 @@
+package ru.nsu.yousightseeing.features.profile;
+
+import android.content.Context;
+
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import ru.nsu.yousightseeing.api.RouteApi;
+import ru.nsu.yousightseeing.storage.LocalStore;
+import ru.nsu.yousightseeing.storage.SavedRoutesQuery;
+import ru.nsu.yousightseeing.storage.SavedRoutesRepository;
+
+/**
+ * Постраничный источник списка сохранённых маршрутов.
+ * <p>
+ * Страницы читаются с диска (локальное зеркало) по мере прокрутки, следующая подгружается
+ * заранее, когда до конца загруженного остаётся prefetchDistance строк. Когда диск
+ * кончается, хвост истории догружается с сервера. В памяти держится не больше
+ * maxPagesInMemory страниц вокруг текущей позиции, дальние выбрасываются
+ * и при возврате читаются с диска заново. Если задан {@link SavedRoutesQuery}, в списке
+ * только подходящие маршруты; хвост истории при этом тоже догружается, пока совпадений не хватает,
+ * но не больше {@link #MAX_EMPTY_FOLLOW_UPS} порций подряд без совпадений: дальше — по прокрутке
+ * или {@link #loadOlder()}, чтобы поиск без результатов не выкачивал всю историю.
+ * Все методы вызываются с главного потока.
+ */
+public class SavedRoutesPager implements SavedRoutesAdapter.Source {
+
+    public interface Listener {
+        void onDataSetChanged();
+        void onItemRangeChanged(int start, int count);
+        void onItemRangeInserted(int start, int count);
+        void onLoadError(String message);
+        /** Догрузка хвоста под запрос остановлена, см. {@link #isOlderSearchPaused()}. */
+        void onOlderSearchPaused();
+    }
+
+    public static final class Config {
+        public final int pageSize;
+        public final int prefetchDistance;
+        public final int maxPagesInMemory;
+
+        public Config(int pageSize, int prefetchDistance, int maxPagesInMemory) {
+            if (pageSize <= 0 || prefetchDistance < 0 || maxPagesInMemory < 3) {
+                throw new IllegalArgumentException("invalid pager config");
+            }
+            this.pageSize = pageSize;
+            this.prefetchDistance = prefetchDistance;
+            this.maxPagesInMemory = maxPagesInMemory;
+        }
+    }
+
+    public static final Config DEFAULT_CONFIG = new Config(20, 10, 6);
+
+    /** Порции истории подряд без совпадений с запросом, которые догружаются сами. */
+    static final int MAX_EMPTY_FOLLOW_UPS = 3;
+
+    private final Context ctx;
+    private final SavedRoutesRepository repository;
+    private final Config config;
+    private final Listener listener;
+
+    private final Map<Integer, List<RouteApi.SavedRoute>> pages = new HashMap<>();
+    /** Ключ последнего элемента страницы: по нему следующая читается keyset-выборкой. */
+    private final Map<Integer, SavedRoutesRepository.PageKey> pageEndKeys = new HashMap<>();
+    private final Set<Integer> loading = new HashSet<>();
+
+    @Nullable private SavedRoutesQuery query;
+    private int size = 0;
+    private boolean historyComplete = false;
+    private boolean fetchingOlder = false;
+    private int emptyFollowUps = 0;
+    /** Растёт при полной перезагрузке, чтобы отбросить ответы для старых страниц. */
+    private int generation = 0;
+
+    public SavedRoutesPager(Context ctx, SavedRoutesRepository repository, Config config, Listener listener) {
+        this.ctx = ctx;
+        this.repository = repository;
+        this.config = config;
+        this.listener = listener;
+    }
+
+    /**
+     * Меняет поисковый запрос и перечитывает список; null или пустой запрос — вся лента.
+     */
+    public void setQuery(@Nullable SavedRoutesQuery query) {
+        SavedRoutesQuery normalized = query != null && !query.isEmpty() ? query : null;
+        if (normalized == null && this.query == null) return;
+        this.query = normalized;
+        refresh();
+    }
+
+    /**
+     * Перечитывает размер ленты и сбрасывает страницы (например, после синхронизации головы).
+     */
+    public void refresh() {
+        final int gen = ++generation;
+        final SavedRoutesQuery currentQuery = query;
+        pages.clear();
+        pageEndKeys.clear();
+        loading.clear();
+        emptyFollowUps = 0;
+
+        LocalStore.io().execute(() -> {
+            int count = repository.count(currentQuery);
+            boolean complete = repository.isHistoryComplete();
+            LocalStore.main().execute(() -> {
+                if (gen != generation) return;
+                size = count;
+                historyComplete = complete;
+                listener.onDataSetChanged();
+                if (size == 0 && !historyComplete) {
+                    fetchOlder();
+                }
+            });
+        });
+    }
+
+    public boolean hasQuery() {
+        return query != null;
+    }
+
+    /** Под запрос не нашлось совпадений в нескольких порциях подряд, дальше — только по действию. */
+    public boolean isOlderSearchPaused() {
+        return query != null && !historyComplete && !fetchingOlder && emptyFollowUps >= MAX_EMPTY_FOLLOW_UPS;
+    }
+
+    /** Догружает следующую порцию истории с сервера; счётчик пустых порций начинается заново. */
+    public void loadOlder() {
+        if (fetchingOlder || historyComplete) return;
+        emptyFollowUps = 0;
+        fetchOlder();
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Nullable
+    @Override
+    public RouteApi.SavedRoute get(int position) {
+        List<RouteApi.SavedRoute> page = pages.get(position / config.pageSize);
+        if (page == null) return null;
+        int index = position % config.pageSize;
+        return index < page.size() ? page.get(index) : null;
+    }
+
+    @Override
+    public void onItemAccessed(int position) {
+        int page = position / config.pageSize;
+        ensurePage(page);
+
+        int pageEnd = (page + 1) * config.pageSize;
+        if (position + config.prefetchDistance >= pageEnd) {
+            ensurePage(page + 1);
+        }
+        if (position + config.prefetchDistance >= size && !historyComplete) {
+            loadOlder();
+        }
+
+        trimAround(page);
+    }
+
+    private void ensurePage(int page) {
+        int start = page * config.pageSize;
+        if (start >= size || pages.containsKey(page) || loading.contains(page)) return;
+
+        loading.add(page);
+        final int gen = generation;
+        final SavedRoutesQuery currentQuery = query;
+        final SavedRoutesRepository.PageKey after = page == 0 ? null : pageEndKeys.get(page - 1);
+
+        LocalStore.io().execute(() -> {
+            List<RouteApi.SavedRoute> routes = repository.queryPage(currentQuery, after, start, config.pageSize);
+            LocalStore.main().execute(() -> {
+                if (gen != generation) return;
+                loading.remove(page);
+                pages.put(page, routes);
+                if (!routes.isEmpty()) {
+                    pageEndKeys.put(page, SavedRoutesRepository.PageKey.after(routes.get(routes.size() - 1)));
+                }
+                listener.onItemRangeChanged(start, Math.min(config.pageSize, size - start));
+            });
+        });
+    }
+
+    /**
+     * Оставляет в памяти окно страниц вокруг текущей.
+     */
+    private void trimAround(int page) {
+        if (pages.size() <= config.maxPagesInMemory) return;
+
+        int radius = config.maxPagesInMemory / 2;
+        List<Integer> far = new ArrayList<>();
+        for (Integer loaded : pages.keySet()) {
+            if (Math.abs(loaded - page) > radius) {
+                far.add(loaded);
+            }
+        }
+        for (Integer index : far) {
+            pages.remove(index);
+        }
+    }
+
+    private void fetchOlder() {
+        if (fetchingOlder || historyComplete) return;
+        fetchingOlder = true;
+        final int gen = generation;
+        final SavedRoutesQuery currentQuery = query;
+
+        repository.fetchOlder(ctx, new SavedRoutesRepository.OlderPageCallback() {
+            @Override
+            public void onLoaded(int added) {
+                LocalStore.io().execute(() -> {
+                    boolean complete = repository.isHistoryComplete();
+                    // Под запрос может подойти только часть пришедших маршрутов
+                    int newSize = added > 0 ? repository.count(currentQuery) : size;
+                    LocalStore.main().execute(() -> {
+                        fetchingOlder = false;
+                        if (gen != generation) return;
+                        historyComplete = complete || added == 0;
+                        if (newSize <= size) {
+                            if (added > 0 && currentQuery != null) {
+                                // Совпадений в этой порции нет — берём следующую, но не бесконечно
+                                if (++emptyFollowUps < MAX_EMPTY_FOLLOW_UPS) {
+                                    fetchOlder();
+                                } else {
+                                    listener.onOlderSearchPaused();
+                                }
+                            }
+                            return;
+                        }
+                        emptyFollowUps = 0;
+
+                        int oldSize = size;
+                        int inserted = newSize - oldSize;
+                        size = newSize;
+                        // Последняя неполная страница устарела: перечитается при следующем показе
+                        int lastPage = oldSize > 0 ? (oldSize - 1) / config.pageSize : -1;
+                        if (lastPage >= 0 && oldSize % config.pageSize != 0) {
+                            pages.remove(lastPage);
+                            pageEndKeys.remove(lastPage);
+                            int lastStart = lastPage * config.pageSize;
+                            listener.onItemRangeChanged(lastStart, oldSize - lastStart);
+                        }
+                        listener.onItemRangeInserted(oldSize, inserted);
+                    });
+                });
+            }
+
+            @Override
+            public void onError(String message) {
+                fetchingOlder = false;
+                listener.onLoadError(message);
+            }
+        });
+    }
+}
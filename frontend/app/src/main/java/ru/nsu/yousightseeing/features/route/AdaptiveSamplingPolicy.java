@@ -0,0 +1,81 @@
+package ru.nsu.yousightseeing.features.route;
+
+import com.google.android.gms.location.Priority;
+
+/**
+ * Частота фиксов по ситуации на маршруте.
+ * <p>
+ * Часто и точно — у поворотов и остановок, вне маршрута и ещё несколько фиксов после
+ * возвращения на него. Редко — на длинных прямых: пока до ближайшего поворота или остановки
+ * больше straightSeconds ходу, фиксы раз в 10 с; порог считается по скорости, так что
+ * на велосипеде частый режим включается раньше, чем пешком. Стоящему пользователю хватает
+ * сбалансированной точности раз в 20 с. Остановка, к которой уже прибыли, частого режима
+ * не держит ({@link RouteProgress#nextStop} — следующая непройденная): осмотр места идёт редко.
+ */
+public class AdaptiveSamplingPolicy implements SamplingPolicy {
+
+    public static final Rate NEAR = new Rate(Priority.PRIORITY_HIGH_ACCURACY, 2000, 1000);
+    public static final Rate CRUISE = new Rate(Priority.PRIORITY_HIGH_ACCURACY, 5000, 2500);
+    public static final Rate STRAIGHT = new Rate(Priority.PRIORITY_HIGH_ACCURACY, 10000, 5000);
+    public static final Rate STATIONARY = new Rate(Priority.PRIORITY_BALANCED_POWER_ACCURACY, 20000, 10000);
+
+    /** Сколько фиксов держать частый режим после возвращения на маршрут. */
+    private static final int RECOVERY_FIXES = 5;
+    /** Сколько медленных фиксов подряд нужно, чтобы считать, что пользователь стоит. */
+    private static final int STATIONARY_FIXES = 3;
+
+    private final double nearMeters;
+    private final double stationaryMps;
+    private final double straightSeconds;
+    private int recoveryLeft;
+    private int slowFixes;
+
+    public AdaptiveSamplingPolicy() {
+        this(60, 0.3, 30);
+    }
+
+    /**
+     * nearMeters — радиус частого режима у поворотов и остановок; stationaryMps — ниже этой
+     * скорости пользователь стоит; straightSeconds — сколько секунд ходу до поворота или
+     * остановки считать длинной прямой.
+     */
+    public AdaptiveSamplingPolicy(double nearMeters, double stationaryMps, double straightSeconds) {
+        this.nearMeters = nearMeters;
+        this.stationaryMps = stationaryMps;
+        this.straightSeconds = straightSeconds;
+    }
+
+    @Override
+    public void reset() {
+        recoveryLeft = 0;
+        slowFixes = 0;
+    }
+
+    @Override
+    public Rate select(RouteProgress progress) {
+        if (progress.offRoute) {
+            recoveryLeft = RECOVERY_FIXES;
+            return NEAR;
+        }
+        if (recoveryLeft > 0) {
+            recoveryLeft--;
+            return NEAR;
+        }
+
+        double toEvent = Math.min(
+                progress.nextTurn >= 0 ? progress.metersToNextTurn : Double.MAX_VALUE,
+                progress.nextStop >= 0 ? progress.metersToNextStop : Double.MAX_VALUE);
+        toEvent = Math.min(toEvent, progress.remainingMeters);
+        double speed = progress.speedMps;
+        // Оценка скорости шумит, поэтому стоянка — только после нескольких медленных фиксов подряд;
+        // считаются и фиксы у поворота, чтобы после прибытия редкий режим включился сразу
+        slowFixes = !Double.isNaN(speed) && speed < stationaryMps ? slowFixes + 1 : 0;
+        // За один интервал обычного режима нельзя проскочить зону поворота
+        double guard = Double.isNaN(speed) ? 0 : speed * CRUISE.intervalMs / 1000.0;
+        if (toEvent <= nearMeters + guard) return NEAR;
+
+        if (Double.isNaN(speed)) return CRUISE;
+        if (slowFixes >= STATIONARY_FIXES) return STATIONARY;
+        return (toEvent - nearMeters) / speed > straightSeconds ? STRAIGHT : CRUISE;
+    }
+}
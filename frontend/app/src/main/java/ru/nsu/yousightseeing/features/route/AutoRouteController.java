@@ -10,6 +10,7 @@ import java.util.Set;
 import ru.nsu.yousightseeing.api.RouteApi;
 import ru.nsu.yousightseeing.features.MainActivity;
 import ru.nsu.yousightseeing.utils.CategoryMapper;
+import ru.nsu.yousightseeing.utils.FlowTrace;
 
 import static android.content.Context.MODE_PRIVATE;
 
@@ -35,7 +36,8 @@ public class AutoRouteController {
 
     public interface AutoRouteCallback {
         void onRouteGenerationStart();
-        void onRouteGenerated(RouteApi.GeneratedRouteResult result);
+        /** trace — сценарий генерации; его нужно довести до экрана подтверждения или завершить. */
+        void onRouteGenerated(RouteApi.GeneratedRouteResult result, FlowTrace.Span trace);
         void onRouteGenerationFailed(String message);
         Point getStartPoint();
         AutoRouteParameters getAutoRouteParameters();
@@ -71,6 +73,8 @@ public class AutoRouteController {
         isGenerating = true;
         callback.onRouteGenerationStart();
 
+        FlowTrace.Span trace = FlowTrace.begin(FlowTrace.ROUTE_GENERATE);
+        trace.stage("network");
         RouteApi.generateRoute(
                 mainActivity,
                 startPoint.getLatitude(),
@@ -83,14 +87,16 @@ public class AutoRouteController {
                 new RouteApi.GenerateRouteCallback() {
                     @Override
                     public void onSuccess(RouteApi.GeneratedRouteResult result) {
+                        trace.stage("deliver");
                         mainActivity.runOnUiThread(() -> {
                             isGenerating = false;
-                            callback.onRouteGenerated(result);
+                            callback.onRouteGenerated(result, trace);
                         });
                     }
 
                     @Override
                     public void onError(String message) {
+                        trace.fail(message);
                         mainActivity.runOnUiThread(() -> {
                             isGenerating = false;
                             callback.onRouteGenerationFailed(message);
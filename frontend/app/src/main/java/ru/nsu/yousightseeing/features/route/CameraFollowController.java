@@ -0,0 +1,204 @@
+package ru.nsu.yousightseeing.features.route;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.view.Choreographer;
+
+import androidx.annotation.NonNull;
+
+import com.yandex.mapkit.geometry.Point;
+import com.yandex.mapkit.map.CameraListener;
+import com.yandex.mapkit.map.CameraPosition;
+import com.yandex.mapkit.map.CameraUpdateReason;
+import com.yandex.mapkit.map.Map;
+import com.yandex.mapkit.mapview.MapView;
+
+/**
+ * Камера, следующая за пользователем во время навигации.
+ * <p>
+ * Фиксы приходят раз в несколько секунд, поэтому камера не прыгает к каждому, а плавно едет
+ * к нему по кадрам {@link Choreographer} за время, примерно равное интервалу между фиксами:
+ * положение и азимут интерполируются линейно, азимут — по кратчайшей дуге. Карта повёрнута
+ * по направлению движения: азимут берётся у текущего отрезка маршрута. Сдвиги меньше
+ * {@link #MIN_MOVE_PIXELS} пикселя не отправляются в MapKit. Зум и наклон остаются
+ * пользовательскими. Жест на карте приостанавливает следование, через {@link #RESUME_AFTER_MS}
+ * без жестов оно возобновляется.
+ */
+final class CameraFollowController {
+
+    private static final float START_ZOOM = 17f;
+    private static final double MIN_MOVE_PIXELS = 1.0;
+    private static final double MIN_TURN_DEGREES = 0.5;
+    private static final long MIN_GLIDE_MS = 300;
+    private static final long MAX_GLIDE_MS = 3_000;
+    private static final long RESUME_AFTER_MS = 8_000;
+    private static final double METERS_PER_DEGREE = 6371000 * Math.PI / 180;
+    /** Метров на пиксель на нулевом зуме у экватора для тайла в 256 пикселей. */
+    private static final double METERS_PER_PIXEL_ZOOM0 = 156543.03392;
+
+    private final MapView mapView;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final float density;
+
+    private boolean active;
+    private boolean paused;
+    private boolean frameScheduled;
+
+    /** Где камера сейчас. */
+    private double shownLat = Double.NaN;
+    private double shownLon;
+    private double shownBearing;
+    /** Откуда и куда едет. */
+    private double fromLat;
+    private double fromLon;
+    private double fromBearing;
+    private double toLat;
+    private double toLon;
+    private double toBearing;
+    private long glideStartMs;
+    private long glideMs;
+    private long lastTargetAtMs;
+
+    private final Choreographer.FrameCallback frame = frameTimeNanos -> {
+        frameScheduled = false;
+        step();
+    };
+
+    private final Runnable resume = () -> {
+        paused = false;
+        if (lastTargetAtMs == 0) return;
+        // Продолжаем от того места, куда пользователь увёл камеру
+        shownLat = Double.NaN;
+        startGlide(toLat, toLon, toBearing, MIN_GLIDE_MS * 2);
+    };
+
+    /** MapKit хранит слушателей по слабой ссылке: держим его в поле. */
+    private final CameraListener cameraListener = new CameraListener() {
+        @Override
+        public void onCameraPositionChanged(@NonNull Map map,
+                                            @NonNull CameraPosition position,
+                                            @NonNull CameraUpdateReason reason,
+                                            boolean finished) {
+            if (!active || reason != CameraUpdateReason.GESTURES) return;
+            paused = true;
+            handler.removeCallbacks(resume);
+            handler.postDelayed(resume, RESUME_AFTER_MS);
+        }
+    };
+
+    CameraFollowController(MapView mapView) {
+        this.mapView = mapView;
+        this.density = mapView != null ? mapView.getResources().getDisplayMetrics().density : 1f;
+    }
+
+    void start() {
+        Map map = map();
+        if (map == null) return;
+        active = true;
+        paused = false;
+        shownLat = Double.NaN;
+        lastTargetAtMs = 0;
+        map.addCameraListener(cameraListener);
+        CameraPosition current = map.getCameraPosition();
+        if (current.getZoom() < START_ZOOM) {
+            map.move(new CameraPosition(current.getTarget(), START_ZOOM, current.getAzimuth(), current.getTilt()));
+        }
+    }
+
+    void stop() {
+        active = false;
+        handler.removeCallbacks(resume);
+        if (frameScheduled) {
+            Choreographer.getInstance().removeFrameCallback(frame);
+            frameScheduled = false;
+        }
+        Map map = map();
+        if (map != null) map.removeCameraListener(cameraListener);
+    }
+
+    /** Новая цель с очередного фикса; bearing — азимут движения в градусах. */
+    void follow(double latitude, double longitude, double bearing) {
+        if (!active) return;
+        long now = SystemClock.uptimeMillis();
+        long interval = lastTargetAtMs > 0 ? now - lastTargetAtMs : MIN_GLIDE_MS;
+        lastTargetAtMs = now;
+        if (paused) {
+            toLat = latitude;
+            toLon = longitude;
+            toBearing = bearing;
+            return;
+        }
+        startGlide(latitude, longitude, bearing, interval);
+    }
+
+    private void startGlide(double latitude, double longitude, double bearing, long durationMs) {
+        Map map = map();
+        if (map == null) return;
+        if (Double.isNaN(shownLat)) {
+            CameraPosition current = map.getCameraPosition();
+            shownLat = current.getTarget().getLatitude();
+            shownLon = current.getTarget().getLongitude();
+            shownBearing = current.getAzimuth();
+        }
+        fromLat = shownLat;
+        fromLon = shownLon;
+        fromBearing = shownBearing;
+        toLat = latitude;
+        toLon = longitude;
+        toBearing = bearing;
+        glideStartMs = SystemClock.uptimeMillis();
+        glideMs = Math.max(MIN_GLIDE_MS, Math.min(MAX_GLIDE_MS, durationMs));
+        scheduleFrame();
+    }
+
+    private void step() {
+        if (!active || paused) return;
+        Map map = map();
+        if (map == null) return;
+
+        double t = Math.min(1, (SystemClock.uptimeMillis() - glideStartMs) / (double) glideMs);
+        double lat = fromLat + (toLat - fromLat) * t;
+        double lon = fromLon + (toLon - fromLon) * t;
+        double bearing = normalize(fromBearing + shortestTurn(fromBearing, toBearing) * t);
+
+        CameraPosition current = map.getCameraPosition();
+        double metersPerPixel = METERS_PER_PIXEL_ZOOM0 * Math.cos(Math.toRadians(lat))
+                / Math.pow(2, current.getZoom()) / density;
+        double movedMeters = Math.hypot(
+                (lat - shownLat) * METERS_PER_DEGREE,
+                (lon - shownLon) * METERS_PER_DEGREE * Math.cos(Math.toRadians(lat)));
+        if (movedMeters / metersPerPixel >= MIN_MOVE_PIXELS
+                || Math.abs(shortestTurn(shownBearing, bearing)) >= MIN_TURN_DEGREES) {
+            shownLat = lat;
+            shownLon = lon;
+            shownBearing = bearing;
+            map.move(new CameraPosition(new Point(lat, lon), current.getZoom(), (float) bearing, current.getTilt()));
+        }
+
+        if (t < 1) scheduleFrame();
+    }
+
+    private void scheduleFrame() {
+        if (frameScheduled) return;
+        frameScheduled = true;
+        Choreographer.getInstance().postFrameCallback(frame);
+    }
+
+    private Map map() {
+        return mapView != null && mapView.getMapWindow() != null ? mapView.getMapWindow().getMap() : null;
+    }
+
+    /** Поворот от from к to по кратчайшей дуге, (-180, 180]. */
+    private static double shortestTurn(double from, double to) {
+        double d = (to - from) % 360;
+        if (d > 180) d -= 360;
+        if (d <= -180) d += 360;
+        return d;
+    }
+
+    private static double normalize(double bearing) {
+        double b = bearing % 360;
+        return b < 0 ? b + 360 : b;
+    }
+}
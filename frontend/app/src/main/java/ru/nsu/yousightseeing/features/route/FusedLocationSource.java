@@ -0,0 +1,70 @@
+package ru.nsu.yousightseeing.features.route;
+
+import android.annotation.SuppressLint;
+import android.location.Location;
+import android.os.Looper;
+
+import androidx.annotation.NonNull;
+
+import com.google.android.gms.location.FusedLocationProviderClient;
+import com.google.android.gms.location.LocationCallback;
+import com.google.android.gms.location.LocationRequest;
+import com.google.android.gms.location.LocationResult;
+
+import java.util.List;
+
+/**
+ * Фиксы от Fused Location Provider. Разрешение проверяет вызывающий.
+ * При maxDelayMs &gt; 0 провайдер копит фиксы (на многих устройствах — в самом GNSS-чипе,
+ * не будя процессор) и отдаёт их одним {@link LocationResult}.
+ */
+public class FusedLocationSource implements LocationSource {
+
+    private final FusedLocationProviderClient client;
+    private final Looper looper;
+    private Listener listener;
+
+    private final LocationCallback callback = new LocationCallback() {
+        @Override
+        public void onLocationResult(@NonNull LocationResult result) {
+            List<Location> batch = result.getLocations();
+            Listener current = listener;
+            if (!batch.isEmpty() && current != null) {
+                current.onLocations(batch);
+            }
+        }
+    };
+
+    public FusedLocationSource(FusedLocationProviderClient client, Looper looper) {
+        this.client = client;
+        this.looper = looper;
+    }
+
+    @SuppressLint("MissingPermission")
+    @Override
+    public void start(int priority, long intervalMs, long minIntervalMs, long maxDelayMs, Listener listener) {
+        this.listener = listener;
+        LocationRequest request = new LocationRequest.Builder(priority, intervalMs)
+                .setMinUpdateIntervalMillis(minIntervalMs)
+                .setMaxUpdateDelayMillis(maxDelayMs)
+                .build();
+        // Тот же callback: запрос заменяет предыдущий, а не добавляет второй
+        client.requestLocationUpdates(request, callback, looper);
+    }
+
+    @Override
+    public void stop() {
+        listener = null;
+        client.removeLocationUpdates(callback);
+    }
+
+    @Override
+    public void flush() {
+        client.flushLocations();
+    }
+
+    @Override
+    public boolean requiresPermission() {
+        return true;
+    }
+}
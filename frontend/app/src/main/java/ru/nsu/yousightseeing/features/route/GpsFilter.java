@@ -0,0 +1,112 @@
+package ru.nsu.yousightseeing.features.route;
+
+/**
+ * Сглаживание GPS: фильтр Калмана с моделью постоянной скорости в метрах локальной проекции.
+ * <p>
+ * Шум замера — заявленная провайдером точность, так что грубые фиксы сдвигают оценку меньше
+ * точных. Оси x и y независимы, а их ковариации совпадают (одинаковые шум замера и модель),
+ * поэтому хранится одна матрица 2×2 на обе оси. Фикс, для которого нужна неправдоподобная
+ * скорость, отбрасывается; если таких несколько подряд, фильтр считает, что ошибалась
+ * оценка, и начинает заново с нового фикса.
+ */
+final class GpsFilter {
+
+    /** Дисперсия ускорения пешехода или велосипедиста, (м/с²)². */
+    private static final double ACCELERATION_VARIANCE = 0.5 * 0.5;
+    /** Начальная неопределённость скорости, (м/с)². */
+    private static final double INITIAL_SPEED_VARIANCE = 2.0 * 2.0;
+    /** Точность, если провайдер её не сообщил, м. */
+    private static final double DEFAULT_ACCURACY_METERS = 10;
+    /** Быстрее пользователь приложения не движется, м/с. */
+    private static final double MAX_SPEED_MPS = 15;
+    private static final int MAX_REJECTED_IN_ROW = 3;
+
+    private boolean initialized;
+    private long timeMs;
+    double x;
+    double y;
+    double vx;
+    double vy;
+    /** Ковариация [положение, скорость] одной оси. */
+    private double p00;
+    private double p01;
+    private double p11;
+    private int rejectedInRow;
+
+    void reset() {
+        initialized = false;
+        rejectedInRow = 0;
+    }
+
+    /** Скорость по оценке фильтра, м/с. */
+    double speed() {
+        return Math.hypot(vx, vy);
+    }
+
+    /**
+     * Учитывает фикс (px, py) в метрах. Возвращает false, если фикс отброшен как выброс:
+     * оценка тогда не меняется.
+     */
+    boolean update(double px, double py, double accuracyMeters, long fixTimeMs) {
+        double accuracy = Double.isNaN(accuracyMeters) || accuracyMeters <= 0
+                ? DEFAULT_ACCURACY_METERS
+                : accuracyMeters;
+        double r = accuracy * accuracy;
+
+        if (!initialized) {
+            start(px, py, r, fixTimeMs);
+            return true;
+        }
+
+        double dt = Math.max(0, (fixTimeMs - timeMs) / 1000.0);
+        // Скорость, меньше которой не объяснить фикс даже с учётом погрешностей обеих точек
+        double jump = Math.hypot(px - x, py - y) - accuracy - Math.sqrt(p00);
+        if (jump > 0 && (dt == 0 || jump / dt > MAX_SPEED_MPS)) {
+            if (++rejectedInRow < MAX_REJECTED_IN_ROW) return false;
+            start(px, py, r, fixTimeMs);
+            return true;
+        }
+        rejectedInRow = 0;
+
+        predict(dt);
+        timeMs = fixTimeMs;
+
+        double s = p00 + r;
+        double k0 = p00 / s;
+        double k1 = p01 / s;
+        double ix = px - x;
+        double iy = py - y;
+        x += k0 * ix;
+        y += k0 * iy;
+        vx += k1 * ix;
+        vy += k1 * iy;
+        p11 -= k1 * p01;
+        p01 *= 1 - k0;
+        p00 *= 1 - k0;
+        return true;
+    }
+
+    private void start(double px, double py, double r, long fixTimeMs) {
+        initialized = true;
+        rejectedInRow = 0;
+        timeMs = fixTimeMs;
+        x = px;
+        y = py;
+        vx = 0;
+        vy = 0;
+        p00 = r;
+        p01 = 0;
+        p11 = INITIAL_SPEED_VARIANCE;
+    }
+
+    private void predict(double dt) {
+        if (dt == 0) return;
+        x += vx * dt;
+        y += vy * dt;
+        double dt2 = dt * dt;
+        double q = ACCELERATION_VARIANCE;
+        p00 += 2 * dt * p01 + dt2 * p11 + q * dt2 * dt2 / 4;
+        p01 += dt * p11 + q * dt2 * dt / 2;
+        p11 += q * dt2;
+    }
+}
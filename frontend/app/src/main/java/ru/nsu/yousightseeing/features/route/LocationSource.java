@@ -0,0 +1,36 @@
+package ru.nsu.yousightseeing.features.route;
+
+import android.location.Location;
+
+import java.util.List;
+
+/**
+ * Источник фиксов для навигации. На устройстве — {@link FusedLocationSource},
+ * для воспроизведения записанных или синтетических треков — {@link ReplayLocationSource}.
+ * Фиксы доставляются на главный поток, иногда пачкой: при отложенной доставке
+ * провайдер копит их и отдаёт разом.
+ */
+public interface LocationSource {
+
+    interface Listener {
+        /** Фиксы в порядке времени; обычно один. */
+        void onLocations(List<Location> batch);
+    }
+
+    /**
+     * Начинает выдачу фиксов.
+     * priority — константа com.google.android.gms.location.Priority; intervalMs — желаемый период,
+     * minIntervalMs — не чаще чем; maxDelayMs — сколько провайдер может копить фиксы перед доставкой,
+     * 0 — отдавать сразу. Повторный вызов меняет параметры на ходу.
+     */
+    void start(int priority, long intervalMs, long minIntervalMs, long maxDelayMs, Listener listener);
+
+    void stop();
+
+    /** Просит отдать накопленные фиксы, не дожидаясь maxDelayMs. */
+    default void flush() {
+    }
+
+    /** Нужно ли разрешение на геолокацию. */
+    boolean requiresPermission();
+}
@@ -0,0 +1,203 @@
+package ru.nsu.yousightseeing.features.route;
+
+import android.util.Xml;
+
+import com.yandex.mapkit.geometry.Point;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Трек фиксов для воспроизведения: записанный (GPX, CSV) или синтетический вдоль маршрута.
+ * Хранится в примитивных массивах; у синтетического известно истинное положение на маршруте
+ * ({@link #truthOffset}), по нему бенчмарк навигации в тестах считает точность привязки.
+ */
+final class LocationTrace {
+
+    final long[] timeMs;
+    final double[] latitude;
+    final double[] longitude;
+    /** Точность фикса, м; NaN — неизвестна. */
+    final double[] accuracy;
+    /** Скорость, м/с; NaN — неизвестна. */
+    final double[] speed;
+    /** Истинное смещение вдоль маршрута, м; null у записанных треков. */
+    final double[] truthOffset;
+
+    private LocationTrace(long[] timeMs, double[] latitude, double[] longitude,
+                          double[] accuracy, double[] speed, double[] truthOffset) {
+        this.timeMs = timeMs;
+        this.latitude = latitude;
+        this.longitude = longitude;
+        this.accuracy = accuracy;
+        this.speed = speed;
+        this.truthOffset = truthOffset;
+    }
+
+    int size() {
+        return timeMs.length;
+    }
+
+    /**
+     * CSV без кавычек: time_ms,lat,lon[,accuracy[,speed]]. Строка заголовка и строки с # пропускаются.
+     */
+    static LocationTrace fromCsv(Reader source) throws IOException {
+        List<double[]> rows = new ArrayList<>();
+        BufferedReader reader = new BufferedReader(source);
+        String line;
+        while ((line = reader.readLine()) != null) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) continue;
+            String[] parts = line.split(",");
+            if (parts.length < 3) continue;
+            try {
+                double[] row = {Double.NaN, 0, 0, Double.NaN, Double.NaN};
+                for (int i = 0; i < Math.min(parts.length, row.length); i++) {
+                    row[i] = Double.parseDouble(parts[i].trim());
+                }
+                rows.add(row);
+            } catch (NumberFormatException e) {
+                // заголовок или битая строка
+            }
+        }
+        return fromRows(rows);
+    }
+
+    /** Точки trkpt из GPX; время из &lt;time&gt;, без него — по секунде на точку. */
+    static LocationTrace fromGpx(InputStream source) throws IOException {
+        List<double[]> rows = new ArrayList<>();
+        try {
+            XmlPullParser parser = Xml.newPullParser();
+            parser.setInput(source, null);
+            double[] current = null;
+            String tag = null;
+            for (int event = parser.getEventType(); event != XmlPullParser.END_DOCUMENT; event = parser.next()) {
+                if (event == XmlPullParser.START_TAG) {
+                    tag = parser.getName();
+                    if ("trkpt".equals(tag)) {
+                        current = new double[]{Double.NaN,
+                                Double.parseDouble(parser.getAttributeValue(null, "lat")),
+                                Double.parseDouble(parser.getAttributeValue(null, "lon")),
+                                Double.NaN, Double.NaN};
+                    }
+                } else if (event == XmlPullParser.TEXT && current != null && tag != null) {
+                    String text = parser.getText().trim();
+                    if (text.isEmpty()) continue;
+                    if ("time".equals(tag)) {
+                        current[0] = Instant.parse(text).toEpochMilli();
+                    } else if ("speed".equals(tag)) {
+                        current[4] = Double.parseDouble(text);
+                    } else if ("hdop".equals(tag)) {
+                        // Грубая оценка: HDOP * 5 м
+                        current[3] = Double.parseDouble(text) * 5;
+                    }
+                } else if (event == XmlPullParser.END_TAG) {
+                    if ("trkpt".equals(parser.getName()) && current != null) {
+                        rows.add(current);
+                        current = null;
+                    }
+                    tag = null;
+                }
+            }
+        } catch (XmlPullParserException | NumberFormatException | DateTimeParseException e) {
+            throw new IOException("Некорректный GPX: " + e.getMessage(), e);
+        }
+        return fromRows(rows);
+    }
+
+    private static LocationTrace fromRows(List<double[]> rows) {
+        int n = rows.size();
+        long[] time = new long[n];
+        double[] lat = new double[n];
+        double[] lon = new double[n];
+        double[] acc = new double[n];
+        double[] spd = new double[n];
+        for (int i = 0; i < n; i++) {
+            double[] row = rows.get(i);
+            time[i] = Double.isNaN(row[0]) ? i * 1000L : (long) row[0];
+            lat[i] = row[1];
+            lon[i] = row[2];
+            acc[i] = row[3];
+            spd[i] = row[4];
+        }
+        return new LocationTrace(time, lat, lon, acc, spd, null);
+    }
+
+    /**
+     * Проход по маршруту с постоянной скоростью и гауссовым шумом GPS.
+     * seed фиксирует шум, чтобы прогоны были сравнимы между версиями.
+     */
+    static LocationTrace synthetic(List<Point> route, double speedMps, long intervalMs,
+                                   double noiseMeters, long seed) {
+        return synthetic(route, speedMps, intervalMs, noiseMeters, seed, new double[0], 0);
+    }
+
+    /**
+     * То же с остановками: дойдя до каждого смещения из dwellOffsets (по возрастанию),
+     * пользователь стоит dwellMs, скорость в эти фиксы — 0.
+     */
+    static LocationTrace synthetic(List<Point> route, double speedMps, long intervalMs,
+                                   double noiseMeters, long seed, double[] dwellOffsets, long dwellMs) {
+        RouteIndex index = new RouteIndex(route, null);
+        double total = index.totalLength();
+        double step = speedMps * intervalMs / 1000.0;
+        int walking = (int) Math.floor(total / step) + 1;
+        int dwellFixes = (int) (dwellMs / intervalMs);
+        int n = walking + dwellOffsets.length * dwellFixes;
+
+        long[] time = new long[n];
+        double[] lat = new double[n];
+        double[] lon = new double[n];
+        double[] acc = new double[n];
+        double[] spd = new double[n];
+        double[] truth = new double[n];
+        Arrays.fill(acc, Math.max(3, noiseMeters));
+
+        int i = 0;
+        int dwell = 0;
+        for (int w = 0; w < walking; w++) {
+            double offset = Math.min(total, w * step);
+            truth[i] = offset;
+            spd[i++] = speedMps;
+            // Остановка за концом шага (или за концом маршрута) — на последнем шаге
+            while (dwell < dwellOffsets.length && (dwellOffsets[dwell] <= offset || w == walking - 1)) {
+                for (int k = 0; k < dwellFixes; k++) {
+                    truth[i] = offset;
+                    spd[i++] = 0;
+                }
+                dwell++;
+            }
+        }
+
+        Random random = new Random(seed);
+        int segment = 0;
+        for (i = 0; i < n; i++) {
+            double offset = truth[i];
+            while (segment < index.segmentCount() - 1 && index.cumulative[segment + 1] < offset) {
+                segment++;
+            }
+            double len = index.segmentLength(segment);
+            double t = len > 0 ? (offset - index.cumulative[segment]) / len : 0;
+            double px = index.x[segment] + t * (index.x[segment + 1] - index.x[segment]);
+            double py = index.y[segment] + t * (index.y[segment + 1] - index.y[segment]);
+            px += random.nextGaussian() * noiseMeters;
+            py += random.nextGaussian() * noiseMeters;
+
+            time[i] = i * intervalMs;
+            lat[i] = index.toLatitude(py);
+            lon[i] = index.toLongitude(px);
+        }
+        return new LocationTrace(time, lat, lon, acc, spd, truth);
+    }
+}
@@ -1,98 +1,180 @@
 package ru.nsu.yousightseeing.features.route;
 
 import android.Manifest;
-import android.app.Activity;
+import android.content.Context;
 import android.content.pm.PackageManager;
+import android.location.Location;
+import android.os.Handler;
+import android.os.Looper;
 import android.widget.Toast;
 
-import androidx.core.app.ActivityCompat;
+import androidx.core.content.ContextCompat;
 
-import com.google.android.gms.location.FusedLocationProviderClient;
-import com.google.android.gms.location.LocationCallback;
-import com.google.android.gms.location.LocationRequest;
-import com.google.android.gms.location.LocationResult;
-import com.google.android.gms.location.Priority;
-import com.yandex.mapkit.Animation;
 import com.yandex.mapkit.geometry.Point;
-import com.yandex.mapkit.map.CameraPosition;
-import com.yandex.mapkit.mapview.MapView;
 
+import java.util.ArrayList;
 import java.util.List;
 
-import ru.nsu.yousightseeing.utils.DistanceHelper;
-
+import ru.nsu.yousightseeing.api.RouteApi;
+import ru.nsu.yousightseeing.utils.AppLog;
+
+/**
+ * Ведёт пользователя по маршруту. Путь одного фикса не создаёт объектов: привязка и прогресс
+ * переиспользуются, положение уходит слушателю координатами, а отладочные логи стоят под
+ * {@code if (AppLog.ENABLED)}. Живёт в {@link NavigationService},
+ * а не в экране, поэтому карты не знает. Фиксы приходят из {@link LocationSource} с частотой,
+ * которую выбирает {@link SamplingPolicy}, обработка — в {@link NavigationEngine}.
+ * <p>
+ * Пока экран не смотрит ({@link #setBatched}), провайдер копит фиксы до {@link #BATCH_DELAY_MS}.
+ * Пачка обрабатывается за один проход: каждый фикс идёт в движок со своим временем (прибытие
+ * к остановкам и сход с маршрута считаются как обычно), а слушатель получает положение
+ * и прогресс один раз — по последнему фиксу.
+ * <p>
+ * Если пользователь ушёл с маршрута и не возвращается {@link #REROUTE_CONFIRM_MS}, маршрут
+ * перестраивается: запрашивается только объезд от пользователя до следующей точки, и он
+ * вклеивается в текущий маршрут ({@link RouteSplice}). Перестроения не чаще
+ * {@link #REROUTE_MIN_INTERVAL_MS}; ответ, который пришёл после возвращения на маршрут,
+ * остановки навигации или более нового запроса, отбрасывается.
+ */
 public class NavigationController {
 
+    private static final String TAG = "NavigationController";
+
+    /** Сколько пользователь должен пробыть вне маршрута, чтобы его перестроить. */
+    private static final long REROUTE_CONFIRM_MS = 8_000;
+    private static final long REROUTE_MIN_INTERVAL_MS = 30_000;
+    /** Сколько провайдер может копить фиксы, пока экран не смотрит. */
+    static final long BATCH_DELAY_MS = 60_000;
+
     public interface NavigationListener {
         void onNavigationStarted();
         void onNavigationStopped();
-        void onProgressChanged(double remainingMeters, int nearestIndex, int totalPoints);
+        void onProgressChanged(RouteProgress progress);
         void onRouteFinished();
         void onUserOffRoute(double distanceFromRouteMeters);
-        void onUserLocationChanged(Point userPoint);
+        /** Сглаженное положение пользователя; Point для карты создаёт экран. */
+        void onUserLocationChanged(double latitude, double longitude);
+        /** Маршрут перестроен; routePoints — новый маршрут целиком, вместе с пройденной частью. */
+        void onRouteChanged(List<Point> routePoints);
+        /** Пользователь пришёл к остановке stop (индекс в списке stops из startNavigation). */
+        void onWaypointArrived(int stop);
+        /** Пользователь ушёл от остановки, пробыв у неё dwellMs. */
+        void onWaypointDeparted(int stop, long dwellMs);
     }
 
-    private final Activity activity;
-    private final MapView mapView;
-    private final FusedLocationProviderClient fusedClient;
+    private final Context context;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
     private final NavigationListener listener;
+    private LocationSource locationSource;
+    private SamplingPolicy samplingPolicy = new AdaptiveSamplingPolicy();
+    private SamplingPolicy.Rate currentRate;
+    private boolean batched;
+    private boolean currentBatched;
 
+    private NavigationEngine engine;
     private List<Point> routePoints;
+    private List<Point> stops;
     private boolean isNavigating = false;
-    private int lastNearestIndex = 0;
-
-    private final LocationCallback locationCallback = new LocationCallback() {
+    private boolean hasFix;
+    /** Смещение последней привязки на маршруте до схода: отсюда начинается объезд. */
+    private double lastOnRouteOffset;
+    private long offRouteSinceMs = -1;
+    private long lastRerouteAtMs = -REROUTE_MIN_INTERVAL_MS;
+    /** Номер последнего запроса перестроения; ответы на прежние номера устарели. */
+    private int rerouteSeq;
+    private boolean rerouting;
+
+    private final LocationSource.Listener locationListener = this::handleLocations;
+    private final WaypointTracker.Listener waypointListener = new WaypointTracker.Listener() {
         @Override
-        public void onLocationResult(LocationResult result) {
-            if (result == null || result.getLastLocation() == null || routePoints == null) {
-                return;
+        public void onArrived(int stop, long timeMs) {
+            if (AppLog.ENABLED) {
+                AppLog.d(TAG, () -> "Arrived at stop " + stop);
             }
+            if (listener != null) listener.onWaypointArrived(stop);
+        }
 
-            Point userPoint = new Point(
-                    result.getLastLocation().getLatitude(),
-                    result.getLastLocation().getLongitude()
-            );
-
-            handleUserLocation(userPoint);
+        @Override
+        public void onDeparted(int stop, long timeMs, long dwellMs) {
+            if (AppLog.ENABLED) {
+                AppLog.d(TAG, () -> "Departed stop " + stop + " after " + dwellMs + " ms");
+            }
+            if (listener != null) listener.onWaypointDeparted(stop, dwellMs);
         }
     };
 
     public NavigationController(
-            Activity activity,
-            MapView mapView,
-            FusedLocationProviderClient fusedClient,
+            Context context,
+            LocationSource locationSource,
             NavigationListener listener
     ) {
-        this.activity = activity;
-        this.mapView = mapView;
-        this.fusedClient = fusedClient;
+        this.context = context;
+        this.locationSource = locationSource;
         this.listener = listener;
     }
 
-    public void startNavigation(List<Point> routePoints) {
+    /** Меняет источник фиксов, например на воспроизведение трека; только вне навигации. */
+    public void setLocationSource(LocationSource locationSource) {
+        if (isNavigating) throw new IllegalStateException("Навигация уже идёт");
+        this.locationSource = locationSource;
+    }
+
+    /** Стратегия частоты фиксов; по умолчанию {@link AdaptiveSamplingPolicy}. Только вне навигации. */
+    public void setSamplingPolicy(SamplingPolicy samplingPolicy) {
+        if (isNavigating) throw new IllegalStateException("Навигация уже идёт");
+        this.samplingPolicy = samplingPolicy;
+    }
+
+    /**
+     * Копить фиксы у провайдера (экран погашен или свёрнут) или получать сразу. При выключении
+     * накопленное забирается немедленно, так что вернувшийся экран видит актуальное положение.
+     */
+    public void setBatched(boolean batched) {
+        if (this.batched == batched) return;
+        this.batched = batched;
+        if (!isNavigating) return;
+        if (!batched) locationSource.flush();
+        applyRate(currentRate);
+    }
+
+    /** Прогресс на последнем фиксе; null вне навигации или до первого фикса. */
+    public RouteProgress getProgress() {
+        return isNavigating && hasFix ? engine.progress : null;
+    }
+
+    /** Маршрут, по которому идёт навигация, с учётом перестроений. */
+    public List<Point> getRoutePoints() {
+        return routePoints;
+    }
+
+    /**
+     * stops — остановки маршрута в порядке обхода, для расстояния до следующей; может быть пустым.
+     */
+    public void startNavigation(List<Point> routePoints, List<Point> stops) {
         if (routePoints == null || routePoints.size() < 2) {
-            Toast.makeText(activity, "Нет маршрута для навигации", Toast.LENGTH_SHORT).show();
+            Toast.makeText(context, "Нет маршрута для навигации", Toast.LENGTH_SHORT).show();
             return;
         }
 
-        if (ActivityCompat.checkSelfPermission(activity, Manifest.permission.ACCESS_FINE_LOCATION)
+        if (locationSource.requiresPermission()
+                && ContextCompat.checkSelfPermission(context, Manifest.permission.ACCESS_FINE_LOCATION)
                 != PackageManager.PERMISSION_GRANTED) {
-            Toast.makeText(activity, "Нет разрешения на геолокацию", Toast.LENGTH_SHORT).show();
+            Toast.makeText(context, "Нет разрешения на геолокацию", Toast.LENGTH_SHORT).show();
             return;
         }
 
         this.routePoints = routePoints;
+        this.stops = stops != null ? stops : new ArrayList<>();
+        this.engine = new NavigationEngine(routePoints, this.stops);
+        engine.setWaypointListener(waypointListener);
         this.isNavigating = true;
-        this.lastNearestIndex = 0;
-
-        LocationRequest request = new LocationRequest.Builder(
-                Priority.PRIORITY_HIGH_ACCURACY,
-                3000
-        )
-                .setMinUpdateIntervalMillis(1500)
-                .build();
+        this.hasFix = false;
+        this.lastOnRouteOffset = 0;
+        this.offRouteSinceMs = -1;
+        this.lastRerouteAtMs = -REROUTE_MIN_INTERVAL_MS;
 
-        fusedClient.requestLocationUpdates(request, locationCallback, activity.getMainLooper());
+        samplingPolicy.reset();
+        applyRate(SamplingPolicy.Rate.STANDARD);
 
         if (listener != null) {
             listener.onNavigationStarted();
@@ -103,7 +185,9 @@ public class NavigationController {
         if (!isNavigating) return;
 
         isNavigating = false;
-        fusedClient.removeLocationUpdates(locationCallback);
+        currentRate = null;
+        cancelReroute();
+        locationSource.stop();
 
         if (listener != null) {
             listener.onNavigationStopped();
@@ -114,72 +198,154 @@ public class NavigationController {
         return isNavigating;
     }
 
-    private void handleUserLocation(Point userPoint) {
-        if (!isNavigating || routePoints == null || routePoints.isEmpty()) return;
+    private void handleLocations(List<Location> batch) {
+        if (!isNavigating || engine == null) return;
+
+        int accepted = 0;
+        for (int i = 0; i < batch.size(); i++) {
+            Location location = batch.get(i);
+            if (!engine.onFix(location.getLatitude(), location.getLongitude(),
+                    location.hasAccuracy() ? location.getAccuracy() : Double.NaN,
+                    location.getTime(),
+                    location.hasSpeed() ? location.getSpeed() : Double.NaN)) {
+                continue;
+            }
+            accepted++;
+            trackOffRoute(engine.progress, location.getElapsedRealtimeNanos() / 1_000_000);
+            // Дальше пачки не идём: маршрут пройден на этом фиксе
+            if (engine.isFinished()) break;
+        }
+        if (AppLog.ENABLED && batch.size() > 1) {
+            int total = batch.size();
+            int used = accepted;
+            AppLog.d(TAG, () -> "Batch of " + total + " fixes, " + used + " accepted");
+        }
+        if (accepted == 0) {
+            if (AppLog.ENABLED) {
+                AppLog.d(TAG, () -> "Fix rejected as outlier");
+            }
+            return;
+        }
+        hasFix = true;
 
+        RouteProgress progress = engine.progress;
+        // Маркер идёт за сглаженным положением, а не за каждым скачком GPS
         if (listener != null) {
-            listener.onUserLocationChanged(userPoint);
+            listener.onUserLocationChanged(progress.latitude, progress.longitude);
         }
 
-        int nearestIndex = findNearestRoutePointIndex(userPoint);
-        lastNearestIndex = Math.max(lastNearestIndex, nearestIndex);
-
-        double distanceFromRoute = DistanceHelper.distanceInMeters(
-                userPoint,
-                routePoints.get(nearestIndex)
-        );
-
-        if (distanceFromRoute > 80 && listener != null) {
-            listener.onUserOffRoute(distanceFromRoute);
+        if (engine.isOffRoute() && listener != null) {
+            listener.onUserOffRoute(progress.distanceFromRoute);
         }
-
-        double remaining = calculateRemainingDistance(lastNearestIndex);
-        moveCameraToUser(userPoint);
+        maybeReroute(progress, batch.get(batch.size() - 1).getElapsedRealtimeNanos() / 1_000_000);
 
         if (listener != null) {
-            listener.onProgressChanged(remaining, lastNearestIndex, routePoints.size());
+            listener.onProgressChanged(progress);
         }
 
-        if (remaining < 30) {
+        if (engine.isFinished()) {
+            engine.finish();
             stopNavigation();
             if (listener != null) {
                 listener.onRouteFinished();
             }
+            return;
+        }
+
+        if (isNavigating) {
+            applyRate(samplingPolicy.select(progress));
         }
     }
 
-    private int findNearestRoutePointIndex(Point userPoint) {
-        int bestIndex = 0;
-        double bestDistance = Double.MAX_VALUE;
+    /** Учёт схода по каждому фиксу: время — самого фикса, в пачке оно не совпадает с текущим. */
+    private void trackOffRoute(RouteProgress progress, long fixTimeMs) {
+        if (!progress.offRoute) {
+            lastOnRouteOffset = progress.traveledMeters;
+            offRouteSinceMs = -1;
+            // Пользователь вернулся сам: объезд уже не нужен
+            if (rerouting) cancelReroute();
+        } else if (offRouteSinceMs < 0) {
+            offRouteSinceMs = fixTimeMs;
+        }
+    }
 
-        for (int i = lastNearestIndex; i < routePoints.size(); i++) {
-            double distance = DistanceHelper.distanceInMeters(userPoint, routePoints.get(i));
-            if (distance < bestDistance) {
-                bestDistance = distance;
-                bestIndex = i;
-            }
+    /** Перестроение запрашивается от последнего фикса пачки, а не от устаревшего. */
+    private void maybeReroute(RouteProgress progress, long now) {
+        if (offRouteSinceMs < 0
+                || rerouting
+                || now - offRouteSinceMs < REROUTE_CONFIRM_MS
+                || now - lastRerouteAtMs < REROUTE_MIN_INTERVAL_MS) {
+            return;
+        }
+        requestReroute(new Point(progress.latitude, progress.longitude), now);
+    }
+
+    /**
+     * Объезд до следующей непройденной точки, а если их нет — до финиша. Остановка, к которой
+     * уже прибыли, не цель: место может стоять дальше порога схода, и пользователь у него.
+     */
+    private void requestReroute(Point from, long now) {
+        RouteIndex index = engine.index;
+        int nextStop = engine.nextPendingStopAfter(lastOnRouteOffset);
+        double toOffset = nextStop >= 0 ? index.stopOffsets[nextStop] : index.totalLength();
+        Point to = nextStop >= 0 ? stops.get(nextStop) : routePoints.get(routePoints.size() - 1);
+        double fromOffset = lastOnRouteOffset;
+
+        int seq = ++rerouteSeq;
+        rerouting = true;
+        lastRerouteAtMs = now;
+        if (AppLog.ENABLED) {
+            AppLog.d(TAG, () -> "Reroute #" + seq + " to offset " + Math.round(toOffset));
         }
 
-        return bestIndex;
+        List<Point> request = new ArrayList<>(2);
+        request.add(from);
+        request.add(to);
+        RouteApi.calculateRoute(context, request, false, new RouteApi.RouteCallback() {
+            @Override
+            public void onSuccess(List<Point> points, double distance, double duration) {
+                mainHandler.post(() -> applyReroute(seq, fromOffset, points, toOffset));
+            }
+
+            @Override
+            public void onError(String message) {
+                mainHandler.post(() -> {
+                    if (seq != rerouteSeq) return;
+                    rerouting = false;
+                    AppLog.w(TAG, "Reroute failed: " + message);
+                });
+            }
+        });
     }
 
-    private double calculateRemainingDistance(int fromIndex) {
-        double sum = 0.0;
+    private void applyReroute(int seq, double fromOffset, List<Point> detour, double toOffset) {
+        if (seq != rerouteSeq || !isNavigating || detour == null || detour.size() < 2) return;
+        rerouting = false;
 
-        for (int i = fromIndex; i < routePoints.size() - 1; i++) {
-            sum += DistanceHelper.distanceInMeters(routePoints.get(i), routePoints.get(i + 1));
+        RouteSplice splice = RouteSplice.of(engine.index, routePoints, fromOffset, detour, toOffset);
+        engine = engine.rerouted(splice, stops);
+        routePoints = splice.points;
+        offRouteSinceMs = -1;
+        if (listener != null) {
+            listener.onRouteChanged(routePoints);
         }
-
-        return sum;
     }
 
-    private void moveCameraToUser(Point userPoint) {
-        if (mapView == null || mapView.getMapWindow() == null) return;
+    /** Забывает запрос в полёте: его ответ придёт, но будет отброшен. */
+    private void cancelReroute() {
+        rerouteSeq++;
+        rerouting = false;
+    }
 
-        mapView.getMapWindow().getMap().move(
-                new CameraPosition(userPoint, 17f, 0f, 0f),
-                new Animation(Animation.Type.SMOOTH, 0.5f),
-                null
-        );
+    /** Перезапрашивает фиксы, только если режим действительно сменился. */
+    private void applyRate(SamplingPolicy.Rate rate) {
+        if (rate.equals(currentRate) && batched == currentBatched) return;
+        currentRate = rate;
+        currentBatched = batched;
+        long maxDelayMs = batched ? BATCH_DELAY_MS : 0;
+        if (AppLog.ENABLED) {
+            AppLog.d(TAG, () -> "Sampling " + rate + (batched ? ", batched" : ""));
+        }
+        locationSource.start(rate.priority, rate.intervalMs, rate.minIntervalMs, maxDelayMs, locationListener);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,156 @@
+package ru.nsu.yousightseeing.features.route;
+
+import com.yandex.mapkit.geometry.Point;
+
+import java.util.List;
+
+/**
+ * Обработка фиксов без Android: сглаживание, привязка к маршруту и прогресс.
+ * {@link NavigationController} подаёт сюда фиксы от {@link LocationSource},
+ * бенчмарк навигации в тестах — фиксы трека, так что замеряется тот же код, что работает на улице.
+ * <p>
+ * Фиксы проходят {@link GpsFilter}: выбросы отбрасываются, остальные сглаживаются. Сход
+ * с маршрута с гистерезисом: объявляется после {@link #OFF_ROUTE_FIXES} фиксов подряд дальше
+ * {@link #OFF_ROUTE_METERS}, а снимается, только когда пользователь ближе {@link #BACK_ON_ROUTE_METERS}.
+ * Прибытие к остановкам и уход от них отслеживает {@link WaypointTracker}.
+ * <p>
+ * Маршрут обычно кончается у последнего места, поэтому финиш — не просто зона
+ * {@link #FINISH_METERS}: у конца маршрута не должно остаться остановок без прибытия. Если прибытия
+ * так и нет (место в стороне), маршрут завершается после {@link #FINISH_GRACE_FIXES} фиксов в зоне.
+ */
+final class NavigationEngine {
+
+    static final double OFF_ROUTE_METERS = 80;
+    static final int OFF_ROUTE_FIXES = 2;
+    static final double BACK_ON_ROUTE_METERS = 40;
+    static final double FINISH_METERS = 30;
+    static final int FINISH_GRACE_FIXES = 5;
+
+    final RouteIndex index;
+    private final RouteMatcher matcher;
+    private final RouteMatcher.Match match = new RouteMatcher.Match();
+    final RouteProgress progress = new RouteProgress();
+    /** null — фиксы идут в привязку как есть; так NavigationBenchmark сравнивает с фильтром. */
+    private final GpsFilter filter;
+    private final WaypointTracker waypoints;
+    private WaypointTracker.Listener waypointListener;
+    private int farFixes;
+    private int finishFixes;
+    private long lastFixTimeMs;
+
+    NavigationEngine(List<Point> route, List<Point> stops) {
+        this(route, stops, true);
+    }
+
+    NavigationEngine(List<Point> route, List<Point> stops, boolean filtered) {
+        this(route, stops, filtered ? new GpsFilter() : null, null);
+    }
+
+    private NavigationEngine(List<Point> route, List<Point> stops, GpsFilter filter,
+                             WaypointTracker previousWaypoints) {
+        index = new RouteIndex(route, stops);
+        matcher = new RouteMatcher(index);
+        this.filter = filter;
+        waypoints = new WaypointTracker(index, stops, previousWaypoints);
+        progress.totalPoints = route.size();
+    }
+
+    void setWaypointListener(WaypointTracker.Listener listener) {
+        waypointListener = listener;
+    }
+
+    /**
+     * Первая остановка после offset, к которой ещё не было прибытия; -1, если таких нет.
+     * Пользователь, стоящий у места, уже не идёт к нему.
+     */
+    int nextPendingStopAfter(double offset) {
+        int stop = index.nextStopAfter(offset);
+        while (stop >= 0 && stop < index.stopOffsets.length && !waypoints.isPending(stop)) {
+            stop++;
+        }
+        return stop >= 0 && stop < index.stopOffsets.length ? stop : -1;
+    }
+
+    /**
+     * Движок для перестроенного маршрута: сглаживание и состояние остановок продолжаются
+     * (проекция у splice та же), привязка начинается с объезда.
+     */
+    NavigationEngine rerouted(RouteSplice splice, List<Point> stops) {
+        NavigationEngine next = new NavigationEngine(splice.points, stops, filter, waypoints);
+        next.waypointListener = waypointListener;
+        next.matcher.seek(Math.min(splice.detourStart, next.index.segmentCount() - 1));
+        return next;
+    }
+
+    /**
+     * Обрабатывает фикс; результат — в {@link #progress}. accuracyMeters и speedMps — от провайдера
+     * или NaN; без скорости берётся оценка фильтра. Возвращает false, если фикс отброшен
+     * как выброс: прогресс тогда прежний.
+     */
+    boolean onFix(double latitude, double longitude, double accuracyMeters, long timeMs, double speedMps) {
+        if (filter != null) {
+            if (!filter.update(index.toX(longitude), index.toY(latitude), accuracyMeters, timeMs)) {
+                return false;
+            }
+            latitude = index.toLatitude(filter.y);
+            longitude = index.toLongitude(filter.x);
+        }
+        progress.latitude = latitude;
+        progress.longitude = longitude;
+        matcher.match(latitude, longitude, match);
+
+        double offset = match.offset;
+        progress.nearestIndex = match.segment;
+        progress.traveledMeters = offset;
+        progress.remainingMeters = index.remainingFrom(offset);
+        progress.fraction = index.fractionAt(offset);
+        progress.distanceFromRoute = match.crossTrack;
+        progress.bearing = index.bearing[match.segment];
+        progress.matchedLatitude = match.latitude;
+        progress.matchedLongitude = match.longitude;
+        progress.nextTurn = index.nextTurnAfter(offset);
+        progress.metersToNextTurn = progress.nextTurn >= 0
+                ? index.turnOffsets[progress.nextTurn] - offset
+                : 0;
+        progress.speedMps = !Double.isNaN(speedMps) || filter == null ? speedMps : filter.speed();
+        updateOffRoute(match.crossTrack);
+        waypoints.update(index.toX(longitude), index.toY(latitude), offset, timeMs, waypointListener);
+        // После трекера: остановка, к которой прибыли на этом фиксе, уже не следующая
+        progress.nextStop = nextPendingStopAfter(offset);
+        progress.metersToNextStop = progress.nextStop >= 0
+                ? index.stopOffsets[progress.nextStop] - offset
+                : 0;
+        finishFixes = progress.remainingMeters < FINISH_METERS ? finishFixes + 1 : 0;
+        lastFixTimeMs = timeMs;
+        return true;
+    }
+
+    private void updateOffRoute(double crossTrack) {
+        if (filter == null) {
+            progress.offRoute = crossTrack > OFF_ROUTE_METERS;
+            return;
+        }
+        farFixes = crossTrack > OFF_ROUTE_METERS ? farFixes + 1 : 0;
+        if (farFixes >= OFF_ROUTE_FIXES) {
+            progress.offRoute = true;
+        } else if (crossTrack < BACK_ON_ROUTE_METERS) {
+            progress.offRoute = false;
+        }
+    }
+
+    boolean isOffRoute() {
+        return progress.offRoute;
+    }
+
+    boolean isFinished() {
+        if (finishFixes == 0) return false;
+        // Остановка, радиус прибытия которой доходит до зоны финиша, держит финиш до прибытия
+        double nearFinish = index.totalLength() - FINISH_METERS - WaypointTracker.MAX_RADIUS_METERS;
+        return nextPendingStopAfter(nearFinish) < 0 || finishFixes >= FINISH_GRACE_FIXES;
+    }
+
+    /** Завершение маршрута: уход от остановки, у которой он кончился, засчитывается на последнем фиксе. */
+    void finish() {
+        waypoints.departAll(lastFixTimeMs, waypointListener);
+    }
+}
@@ -0,0 +1,252 @@
+package ru.nsu.yousightseeing.features.route;
+
+import android.app.Notification;
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.app.Service;
+import android.content.Intent;
+import android.content.pm.ServiceInfo;
+import android.os.Binder;
+import android.os.Build;
+import android.os.IBinder;
+
+import androidx.annotation.Nullable;
+import androidx.core.app.NotificationCompat;
+import androidx.core.content.ContextCompat;
+
+import com.google.android.gms.location.LocationServices;
+import com.yandex.mapkit.geometry.Point;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import ru.nsu.yousightseeing.R;
+import ru.nsu.yousightseeing.api.EventsApi;
+import ru.nsu.yousightseeing.storage.RouteOutbox;
+
+/**
+ * Навигация как foreground-сервис: она продолжается, когда телефон заблокирован
+ * или приложение свёрнуто. Сервис владеет {@link NavigationController}; экран маршрута
+ * подключается через {@link Session} и получает те же события, пока виден.
+ * <p>
+ * Без видимого экрана фиксы копятся у провайдера ({@link NavigationController#setBatched});
+ * когда экран возвращается, накопленное забирается и обрабатывается одной пачкой.
+ * События рекомендаций отправляет сам сервис: прибытие к месту не должно теряться
+ * оттого, что экран в этот момент не подключён.
+ */
+public class NavigationService extends Service {
+
+    private static final String CHANNEL_ID = "navigation";
+    private static final int NOTIFICATION_ID = 1;
+    /** Кнопка «Остановить» в уведомлении. */
+    private static final String ACTION_STOP = "ru.nsu.yousightseeing.action.STOP_NAVIGATION";
+
+    /** Подключение экрана к сервису. Вызывать с главного потока. */
+    public final class Session extends Binder {
+
+        /**
+         * Начинает навигацию и переводит сервис в foreground. source — null для настоящего GPS;
+         * для воспроизведения трека события рекомендаций не отправляются. screen — интент экрана
+         * маршрута, его открывает нажатие на уведомление.
+         */
+        void start(List<Point> routePoints, List<RoutePlaceItem> places, @Nullable String routeId,
+                   @Nullable LocationSource source, Intent screen) {
+            if (controller.isNavigating()) return;
+            NavigationService.this.places = places;
+            // Локальный id сервер в событиях отклоняет: такие события уходят без маршрута
+            NavigationService.this.routeId = RouteOutbox.isLocalId(routeId) ? null : routeId;
+            replaying = source != null;
+            controller.setLocationSource(source != null ? source : deviceLocation);
+
+            List<Point> stops = new ArrayList<>(places.size());
+            for (RoutePlaceItem place : places) {
+                stops.add(new Point(place.lat, place.lon));
+            }
+            controller.startNavigation(routePoints, stops);
+            if (!controller.isNavigating()) return;
+
+            shownRemainingHm = -1;
+            contentIntent = PendingIntent.getActivity(NavigationService.this, 0,
+                    new Intent(screen).addFlags(Intent.FLAG_ACTIVITY_SINGLE_TOP),
+                    PendingIntent.FLAG_IMMUTABLE | PendingIntent.FLAG_UPDATE_CURRENT);
+            // Сервис должен пережить отключение экрана; startForeground — в onStartCommand
+            ContextCompat.startForegroundService(NavigationService.this,
+                    new Intent(NavigationService.this, NavigationService.class));
+        }
+
+        void stop() {
+            controller.stopNavigation();
+        }
+
+        boolean isNavigating() {
+            return controller.isNavigating();
+        }
+
+        /** Общий с сервисом объект: читать сразу, не хранить. null до первого фикса. */
+        @Nullable
+        RouteProgress progress() {
+            return controller.getProgress();
+        }
+
+        /** Текущий маршрут с учётом перестроений. */
+        List<Point> routePoints() {
+            return controller.getRoutePoints();
+        }
+
+        /** Экран виден: события идут ему, фиксы — сразу. */
+        void attach(NavigationController.NavigationListener screen) {
+            ui = screen;
+            controller.setBatched(false);
+        }
+
+        /** Экран скрыт: слушатель отключается, фиксы копятся. */
+        void detach() {
+            ui = null;
+            controller.setBatched(true);
+        }
+    }
+
+    private final Session session = new Session();
+    private LocationSource deviceLocation;
+    private NavigationController controller;
+    @Nullable
+    private NavigationController.NavigationListener ui;
+    private List<RoutePlaceItem> places = new ArrayList<>();
+    /** Серверный id маршрута для событий; null, пока маршрут не отправлен из очереди. */
+    @Nullable
+    private String routeId;
+    private boolean replaying;
+    private PendingIntent contentIntent;
+    private PendingIntent stopIntent;
+    private long shownRemainingHm = -1;
+
+    private final NavigationController.NavigationListener dispatcher = new NavigationController.NavigationListener() {
+        @Override
+        public void onNavigationStarted() {
+            if (ui != null) ui.onNavigationStarted();
+        }
+
+        @Override
+        public void onNavigationStopped() {
+            stopForeground(STOP_FOREGROUND_REMOVE);
+            stopSelf();
+            if (ui != null) ui.onNavigationStopped();
+        }
+
+        @Override
+        public void onProgressChanged(RouteProgress progress) {
+            updateNotification(progress);
+            if (ui != null) ui.onProgressChanged(progress);
+        }
+
+        @Override
+        public void onRouteFinished() {
+            if (!replaying) {
+                EventsApi.track(NavigationService.this, EventsApi.ROUTE_COMPLETED, routeId, null, null);
+            }
+            if (ui != null) ui.onRouteFinished();
+        }
+
+        @Override
+        public void onUserOffRoute(double distanceFromRouteMeters) {
+            if (ui != null) ui.onUserOffRoute(distanceFromRouteMeters);
+        }
+
+        @Override
+        public void onUserLocationChanged(double latitude, double longitude) {
+            if (ui != null) ui.onUserLocationChanged(latitude, longitude);
+        }
+
+        @Override
+        public void onRouteChanged(List<Point> routePoints) {
+            if (ui != null) ui.onRouteChanged(routePoints);
+        }
+
+        @Override
+        public void onWaypointArrived(int stop) {
+            if (!replaying) {
+                RoutePlaceItem place = places.get(stop);
+                EventsApi.track(NavigationService.this, EventsApi.PLACE_VIEWED, routeId, place.id, place.category);
+            }
+            if (ui != null) ui.onWaypointArrived(stop);
+        }
+
+        @Override
+        public void onWaypointDeparted(int stop, long dwellMs) {
+            if (ui != null) ui.onWaypointDeparted(stop, dwellMs);
+        }
+    };
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        deviceLocation = new FusedLocationSource(
+                LocationServices.getFusedLocationProviderClient(this), getMainLooper());
+        controller = new NavigationController(this, deviceLocation, dispatcher);
+        NotificationChannel channel = new NotificationChannel(
+                CHANNEL_ID, "Навигация", NotificationManager.IMPORTANCE_LOW);
+        getSystemService(NotificationManager.class).createNotificationChannel(channel);
+        stopIntent = PendingIntent.getService(this, 0,
+                new Intent(this, NavigationService.class).setAction(ACTION_STOP),
+                PendingIntent.FLAG_IMMUTABLE);
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        if (intent != null && ACTION_STOP.equals(intent.getAction())) {
+            // Остановка из уведомления: слушатель уберёт foreground и закроет сервис
+            controller.stopNavigation();
+            stopSelf(startId);
+            return START_NOT_STICKY;
+        }
+        if (!controller.isNavigating()) {
+            // Навигацию успели остановить, пока запуск шёл до сервиса
+            stopSelf(startId);
+            return START_NOT_STICKY;
+        }
+        Notification notification = buildNotification("Навигация запущена");
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            startForeground(NOTIFICATION_ID, notification, ServiceInfo.FOREGROUND_SERVICE_TYPE_LOCATION);
+        } else {
+            startForeground(NOTIFICATION_ID, notification);
+        }
+        // После убийства процесса маршрут не восстановить: не перезапускаемся
+        return START_NOT_STICKY;
+    }
+
+    @Nullable
+    @Override
+    public IBinder onBind(Intent intent) {
+        return session;
+    }
+
+    @Override
+    public void onDestroy() {
+        controller.stopNavigation();
+        super.onDestroy();
+    }
+
+    /** Уведомление обновляется, только когда меняется показанное оставшееся расстояние. */
+    private void updateNotification(RouteProgress progress) {
+        long remainingHm = Math.round(progress.remainingMeters / 100.0);
+        if (remainingHm == shownRemainingHm) return;
+        shownRemainingHm = remainingHm;
+        getSystemService(NotificationManager.class).notify(NOTIFICATION_ID,
+                buildNotification(String.format(Locale.getDefault(), "Осталось %.1f км", remainingHm / 10.0)));
+    }
+
+    private Notification buildNotification(String text) {
+        return new NotificationCompat.Builder(this, CHANNEL_ID)
+                .setSmallIcon(R.drawable.ic_route_arrow)
+                .setContentTitle("Маршрут")
+                .setContentText(text)
+                .setContentIntent(contentIntent)
+                .addAction(0, "Остановить", stopIntent)
+                .setOngoing(true)
+                .setOnlyAlertOnce(true)
+                .setSilent(true)
+                .build();
+    }
+}
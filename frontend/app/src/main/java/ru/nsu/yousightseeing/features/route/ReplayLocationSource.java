@@ -0,0 +1,98 @@
+package ru.nsu.yousightseeing.features.route;
+
+import android.location.Location;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import java.util.Collections;
+
+/**
+ * Воспроизводит {@link LocationTrace} на главном потоке в реальном или ускоренном времени.
+ * Как и настоящий провайдер, отдаёт не чаще запрошенного интервала (по времени трека),
+ * так что режимы частоты навигации проверяются на том же треке. Отложенную доставку
+ * не имитирует: фиксы всегда идут по одному.
+ * <p>
+ * Время фикса — время трека от момента запуска, а не момент доставки: при ускорении
+ * скорость, паузы у остановок и сглаживание считаются так же, как при записи.
+ */
+public class ReplayLocationSource implements LocationSource {
+
+    public static final String PROVIDER = "replay";
+
+    private final LocationTrace trace;
+    private final double speedFactor;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Runnable tick = this::emitNext;
+
+    private Listener listener;
+    private long intervalMs;
+    private boolean running;
+    private int cursor;
+    private long lastEmittedAt;
+    /** Часы в момент запуска, к ним прибавляется смещение фикса от начала трека. */
+    private long wallStartMs;
+    private long elapsedStartNanos;
+
+    /** speedFactor — во сколько раз быстрее реального времени; 1 — как записано. */
+    ReplayLocationSource(LocationTrace trace, double speedFactor) {
+        this.trace = trace;
+        this.speedFactor = Math.max(0.01, speedFactor);
+    }
+
+    @Override
+    public void start(int priority, long intervalMs, long minIntervalMs, long maxDelayMs, Listener listener) {
+        this.listener = listener;
+        this.intervalMs = intervalMs;
+        if (running || trace.size() == 0) return;
+        running = true;
+        cursor = 0;
+        lastEmittedAt = Long.MIN_VALUE;
+        wallStartMs = System.currentTimeMillis();
+        elapsedStartNanos = SystemClock.elapsedRealtimeNanos();
+        handler.post(tick);
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        listener = null;
+        handler.removeCallbacks(tick);
+    }
+
+    @Override
+    public boolean requiresPermission() {
+        return false;
+    }
+
+    private void emitNext() {
+        if (!running) return;
+
+        long at = trace.timeMs[cursor];
+        if (lastEmittedAt == Long.MIN_VALUE || at - lastEmittedAt >= intervalMs) {
+            lastEmittedAt = at;
+            Listener current = listener;
+            if (current != null) current.onLocations(Collections.singletonList(toLocation(cursor)));
+        }
+
+        cursor++;
+        if (!running || cursor >= trace.size()) {
+            running = false;
+            return;
+        }
+        long delay = (long) ((trace.timeMs[cursor] - at) / speedFactor);
+        handler.postDelayed(tick, Math.max(0, delay));
+    }
+
+    private Location toLocation(int i) {
+        Location location = new Location(PROVIDER);
+        location.setLatitude(trace.latitude[i]);
+        location.setLongitude(trace.longitude[i]);
+        long offsetMs = trace.timeMs[i] - trace.timeMs[0];
+        location.setTime(wallStartMs + offsetMs);
+        location.setElapsedRealtimeNanos(elapsedStartNanos + offsetMs * 1_000_000);
+        if (!Double.isNaN(trace.accuracy[i])) location.setAccuracy((float) trace.accuracy[i]);
+        if (!Double.isNaN(trace.speed[i])) location.setSpeed((float) trace.speed[i]);
+        return location;
+    }
+}
@@ -4,12 +4,13 @@ import android.content.Intent;
 import android.os.Bundle;
 import android.util.Log;
 import android.widget.Button;
-import android.widget.LinearLayout;
 import android.widget.TextView;
 import android.widget.Toast;
 
 import androidx.annotation.Nullable;
 import androidx.appcompat.app.AppCompatActivity;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
 
 import com.yandex.mapkit.Animation;
 import com.yandex.mapkit.MapKitFactory;
@@ -31,8 +32,9 @@ import java.text.DateFormat;
 import java.util.Date;
 
 import ru.nsu.yousightseeing.R;
-import ru.nsu.yousightseeing.api.PlacesApi;
 import ru.nsu.yousightseeing.api.RouteApi;
+import ru.nsu.yousightseeing.storage.RouteOutbox;
+import ru.nsu.yousightseeing.utils.FlowTrace;
 
 public class RouteConfirmationActivity extends AppCompatActivity {
 
@@ -45,7 +47,8 @@ public class RouteConfirmationActivity extends AppCompatActivity {
     private TextView tvDistance;
     private TextView tvDuration;
     private TextView tvPlacesCount;
-    private LinearLayout placesContainer;
+    private RecyclerView placesContainer;
+    private final RoutePlacesAdapter placesAdapter = new RoutePlacesAdapter();
     private Button btnEditRoute;
     private Button btnConfirmRoute;
     private Button btnZoomInConfirm;
@@ -67,11 +70,15 @@ public class RouteConfirmationActivity extends AppCompatActivity {
         tvDuration = findViewById(R.id.tvDuration);
         tvPlacesCount = findViewById(R.id.tvPlacesCount);
         placesContainer = findViewById(R.id.placesContainerConfirm);
+        placesContainer.setLayoutManager(new LinearLayoutManager(this));
+        placesContainer.setAdapter(placesAdapter);
         btnEditRoute = findViewById(R.id.btnEditRoute);
         btnConfirmRoute = findViewById(R.id.btnConfirmRoute);
         btnZoomInConfirm = findViewById(R.id.btnZoomInConfirm);
         btnZoomOutConfirm = findViewById(R.id.btnZoomOutConfirm);
 
+        FlowTrace.Span trace = FlowTrace.resume(getIntent());
+        trace.stage("parse_extras");
         routePoints = parseRoutePoints(
                 getIntent().getStringExtra(EXTRA_ROUTE_POINTS_JSON)
         );
@@ -82,9 +89,12 @@ public class RouteConfirmationActivity extends AppCompatActivity {
         distance = getIntent().getDoubleExtra(EXTRA_DISTANCE, 0.0);
         duration = getIntent().getDoubleExtra(EXTRA_DURATION, 0.0);
 
+        trace.stage("render");
         renderSummary(distance, duration, places.size());
         renderPlaces(places);
         renderRoute(routePoints, places);
+        // Линия попадёт на экран в первом кадре после onCreate: там сценарий и заканчивается
+        mapView.post(trace::end);
 
         btnEditRoute.setOnClickListener(v -> finish());
 
@@ -105,64 +115,37 @@ public class RouteConfirmationActivity extends AppCompatActivity {
 
         Point start = routePoints.get(0);
 
-        List<PlacesApi.Place> placesForRequest = new ArrayList<>();
+        RouteApi.SavedRoute route = new RouteApi.SavedRoute();
+        route.title = "Маршрут " + DateFormat
+                .getDateTimeInstance(DateFormat.SHORT, DateFormat.SHORT)
+                .format(new Date());
+        route.startLatitude = start.getLatitude();
+        route.startLongitude = start.getLongitude();
+        route.distance = Math.round(distance);
+        route.duration = (int) Math.round(duration);
+        route.maxPlaces = places.size();
 
         for (RoutePlaceItem item : places) {
-            PlacesApi.Place place = new PlacesApi.Place();
-            place.name = item.name;
-            place.address = "";
-            place.placeId = null;
-            place.lat = item.lat;
-            place.lon = item.lon;
-
-            placesForRequest.add(place);
+            RouteApi.SavedRoutePoint point = new RouteApi.SavedRoutePoint();
+            point.position = route.points.size() + 1;
+            point.name = item.name;
+            point.address = "";
+            point.latitude = item.lat;
+            point.longitude = item.lon;
+            route.points.add(point);
         }
 
-        String title = "Маршрут " + DateFormat
-                .getDateTimeInstance(DateFormat.SHORT, DateFormat.SHORT)
-                .format(new Date());
+        // Сначала на диск, на сервер — из очереди, когда будет сеть
+        String routeId = new RouteOutbox(this).enqueueCreate(this, route, routePoints, distance, duration);
+        if (routeId == null) {
+            btnConfirmRoute.setEnabled(true);
+            btnConfirmRoute.setText("Сохранить");
+            Toast.makeText(this, "Не удалось сохранить маршрут", Toast.LENGTH_LONG).show();
+            return;
+        }
 
-        RouteApi.createRoute(
-                this,
-                title,
-                start.getLatitude(),
-                start.getLongitude(),
-                distance,
-                duration,
-                new ArrayList<>(),
-                places.size(),
-                false,
-                false,
-                placesForRequest,
-                new RouteApi.CreateRouteCallback() {
-                    @Override
-                    public void onSuccess(String routeId) {
-                        runOnUiThread(() -> {
-                            Toast.makeText(
-                                    RouteConfirmationActivity.this,
-                                    "Маршрут сохранён",
-                                    Toast.LENGTH_SHORT
-                            ).show();
-
-                            openFinalRouteScreen(routeId);
-                        });
-                    }
-
-                    @Override
-                    public void onError(String message) {
-                        runOnUiThread(() -> {
-                            btnConfirmRoute.setEnabled(true);
-                            btnConfirmRoute.setText("Сохранить");
-
-                            Toast.makeText(
-                                    RouteConfirmationActivity.this,
-                                    message,
-                                    Toast.LENGTH_LONG
-                            ).show();
-                        });
-                    }
-                }
-        );
+        Toast.makeText(this, "Маршрут сохранён", Toast.LENGTH_SHORT).show();
+        openFinalRouteScreen(routeId);
     }
 
     private void openFinalRouteScreen(String routeId) {
@@ -248,26 +231,7 @@ public class RouteConfirmationActivity extends AppCompatActivity {
     }
 
     private void renderPlaces(List<RoutePlaceItem> places) {
-        placesContainer.removeAllViews();
-
-        if (places.isEmpty()) {
-            TextView empty = new TextView(this);
-            empty.setText("Места маршрута не найдены");
-            empty.setTextSize(14f);
-            placesContainer.addView(empty);
-            return;
-        }
-
-        for (int i = 0; i < places.size(); i++) {
-            RoutePlaceItem place = places.get(i);
-
-            TextView item = new TextView(this);
-            item.setText((i + 1) + ". " + place.name);
-            item.setTextSize(15f);
-            item.setPadding(0, 12, 0, 12);
-
-            placesContainer.addView(item);
-        }
+        placesAdapter.setPlaces(places);
     }
 
     private void renderRoute(List<Point> routePoints, List<RoutePlaceItem> places) {
@@ -384,10 +348,4 @@ public class RouteConfirmationActivity extends AppCompatActivity {
         MapKitFactory.getInstance().onStop();
         super.onStop();
     }
-
-    private static class RoutePlaceItem {
-        String name;
-        double lat;
-        double lon;
-    }
 }
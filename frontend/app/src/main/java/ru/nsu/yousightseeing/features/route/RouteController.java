@@ -3,6 +3,8 @@ package ru.nsu.yousightseeing.features.route;
 import android.content.Intent;
 import android.util.Log;
 
+import androidx.lifecycle.ViewModelProvider;
+
 import com.yandex.mapkit.geometry.Point;
 import com.yandex.mapkit.map.MapObjectCollection;
 import com.yandex.mapkit.map.PlacemarkMapObject;
@@ -19,11 +21,12 @@ import java.util.Set;
 
 import ru.nsu.yousightseeing.R;
 import ru.nsu.yousightseeing.api.PlacesApi;
-import ru.nsu.yousightseeing.api.RouteApi;
 import ru.nsu.yousightseeing.features.MainActivity;
 import ru.nsu.yousightseeing.features.main.MainUIManager;
+import ru.nsu.yousightseeing.features.main.state.BuilderSnapshot;
 import ru.nsu.yousightseeing.model.Route;
 import ru.nsu.yousightseeing.utils.DistanceHelper;
+import ru.nsu.yousightseeing.utils.FlowTrace;
 import ru.nsu.yousightseeing.utils.MapPointHelper;
 import ru.nsu.yousightseeing.utils.MapRouteHelper;
 import ru.nsu.yousightseeing.utils.RouteOptimizer;
@@ -39,7 +42,8 @@ public class RouteController {
     private final List<Point> selectedPoints = new ArrayList<>();
     private final Set<PlacemarkMapObject> selectedMarkers = new HashSet<>();
     private final List<PlacemarkMapObject> customMarkers = new ArrayList<>();
-    private int routeRequestVersion = 0;
+    private final RouteRequestViewModel routeRequests;
+    private List<Point> lastPreviewPoints;
 
     public interface RouteControllerCallback {
         void onRouteStateChanged();
@@ -55,6 +59,10 @@ public class RouteController {
         this.mapRouteHelper = mapRouteHelper;
         this.mapPointHelper = mapPointHelper;
         this.callback = callback;
+
+        routeRequests = new ViewModelProvider(mainActivity).get(RouteRequestViewModel.class);
+        routeRequests.getPreview().observe(mainActivity, this::onPreviewResult);
+        routeRequests.getConfirmation().observe(mainActivity, this::onConfirmationResult);
     }
 
     public void togglePlaceInRoute(PlacemarkMapObject marker) {
@@ -109,94 +117,80 @@ public class RouteController {
             return;
         }
 
-        List<Point> pointsToOptimize = new ArrayList<>();
-        pointsToOptimize.add(startPoint);
+        List<Point> cleanedPoints = collectRoutePoints(startPoint);
 
-        for (Point p : selectedPoints) {
-            if (DistanceHelper.distanceInMeters(startPoint, p) > 5.0) {
-                pointsToOptimize.add(p);
-            }
+        if (cleanedPoints.size() < 2) {
+            callback.showToast("Недостаточно уникальных точек для построения маршрута");
+            return;
         }
 
-        Set<String> unique = new HashSet<>();
-        List<Point> cleanedPoints = new ArrayList<>();
-        for (Point p : pointsToOptimize) {
-            String key = p.getLatitude() + "," + p.getLongitude();
-            if (!unique.contains(key)) {
-                unique.add(key);
-                cleanedPoints.add(p);
+        callback.showToast("Построение оптимального маршрута...");
+
+        FlowTrace.Span trace = FlowTrace.begin(FlowTrace.ROUTE_BUILD);
+        trace.stage("prepare");
+
+        // Места собираются сейчас: к приходу ответа Activity может быть уже пересоздана
+        JSONArray placesJson = new JSONArray();
+        for (PlacemarkMapObject marker : selectedMarkers) {
+            if (marker.getUserData() instanceof PlacesApi.Place) {
+                PlacesApi.Place place = (PlacesApi.Place) marker.getUserData();
+                try {
+                    JSONObject placeObj = new JSONObject();
+                    placeObj.put("name", place.name);
+                    placeObj.put("lat", place.lat);
+                    placeObj.put("lon", place.lon);
+                    placeObj.put("id", place.placeId);
+                    if (!place.categories.isEmpty()) placeObj.put("category", place.categories.get(0));
+                    placesJson.put(placeObj);
+                } catch (Exception e) {
+                    Log.e("RouteController", "Error creating place JSON", e);
+                }
             }
         }
 
-        if (cleanedPoints.size() < 2) {
-            callback.showToast("Недостаточно уникальных точек для построения маршрута");
+        routeRequests.calculateForConfirmation(cleanedPoints, placesJson.toString(), trace);
+    }
+
+    private void onConfirmationResult(RouteRequestViewModel.Result result) {
+        if (result == null) return;
+        routeRequests.consumeConfirmation();
+
+        FlowTrace.Span trace = FlowTrace.resume(result.traceId);
+        if (!result.isSuccess()) {
+            trace.fail(result.error);
+            callback.showToast("Ошибка маршрута: " + result.error);
             return;
         }
 
-        callback.showToast("Построение оптимального маршрута...");
+        trace.stage("intent");
+        Intent intent = new Intent(mainActivity, RouteConfirmationActivity.class);
+
+        JSONArray routePointsJson = new JSONArray();
+        for (Point p : result.routePoints) {
+            JSONArray pair = new JSONArray();
+            try {
+                pair.put(p.getLongitude());
+                pair.put(p.getLatitude());
+                routePointsJson.put(pair);
+            } catch (JSONException e) {
+                e.printStackTrace();
+            }
+        }
+        intent.putExtra(RouteConfirmationActivity.EXTRA_ROUTE_POINTS_JSON, routePointsJson.toString());
+        intent.putExtra(RouteConfirmationActivity.EXTRA_PLACES_JSON, result.placesJson);
 
-        List<Point> optimizedPoints = cleanedPoints;
-
-        RouteApi.calculateRoute(
-                mainActivity,
-                optimizedPoints,
-                false,
-                new RouteApi.RouteCallback() {
-                    @Override
-                    public void onSuccess(List<Point> routeCoordinates, double distance, double duration) {
-                        mainActivity.runOnUiThread(() -> {
-                            Intent intent = new Intent(mainActivity, RouteConfirmationActivity.class);
-
-                            JSONArray routePointsJson = new JSONArray();
-                            for (Point p : routeCoordinates) {
-                                JSONArray pair = new JSONArray();
-                                try {
-                                    pair.put(p.getLongitude());
-                                    pair.put(p.getLatitude());
-                                    routePointsJson.put(pair);
-                                } catch (JSONException e) {
-                                    e.printStackTrace();
-                                }
-                            }
-                            intent.putExtra(RouteConfirmationActivity.EXTRA_ROUTE_POINTS_JSON, routePointsJson.toString());
-
-                            JSONArray placesJson = new JSONArray();
-                            for (PlacemarkMapObject marker : selectedMarkers) {
-                                if (marker.getUserData() instanceof PlacesApi.Place) {
-                                    PlacesApi.Place place = (PlacesApi.Place) marker.getUserData();
-                                    try {
-                                        JSONObject placeObj = new JSONObject();
-                                        placeObj.put("name", place.name);
-                                        placeObj.put("lat", place.lat);
-                                        placeObj.put("lon", place.lon);
-                                        placesJson.put(placeObj);
-                                    } catch (Exception e) {
-                                        Log.e("RouteController", "Error creating place JSON", e);
-                                    }
-                                }
-                            }
-                            intent.putExtra(RouteConfirmationActivity.EXTRA_PLACES_JSON, placesJson.toString());
-
-                            intent.putExtra(RouteConfirmationActivity.EXTRA_DISTANCE, distance);
-                            intent.putExtra(RouteConfirmationActivity.EXTRA_DURATION, duration);
-
-                            mainActivity.startActivity(intent);
-                        });
-                    }
-
-                    @Override
-                    public void onError(String message) {
-                        mainActivity.runOnUiThread(() ->
-                                callback.showToast("Ошибка маршрута: " + message)
-                        );
-                    }
-                }
-        );
+        intent.putExtra(RouteConfirmationActivity.EXTRA_DISTANCE, result.distance);
+        intent.putExtra(RouteConfirmationActivity.EXTRA_DURATION, result.duration);
+        trace.attachTo(intent);
+
+        trace.stage("open_screen");
+        mainActivity.startActivity(intent);
     }
 
     private void updateOptimalRoute() {
         Point startPoint = callback.getStartPoint();
         if (getManualSelectedPlacesCount() < 2) {
+            cancelPreview();
             mapRouteHelper.clearCurrentRouteOnly();
             callback.setCurrentRoute(null);
             callback.onRouteStateChanged();
@@ -207,6 +201,41 @@ public class RouteController {
             return;
         }
 
+        List<Point> cleanedPoints = collectRoutePoints(startPoint);
+
+        if (cleanedPoints.size() < 2) {
+            cancelPreview();
+            mapRouteHelper.clearCurrentRouteOnly();
+            callback.setCurrentRoute(null);
+            callback.onRouteStateChanged();
+            return;
+        }
+
+        lastPreviewPoints = cleanedPoints;
+        routeRequests.calculatePreview(cleanedPoints);
+    }
+
+    private void onPreviewResult(RouteRequestViewModel.Result result) {
+        if (result == null) return;
+        // Ответ на старый набор точек (например, доставленный после поворота) не рисуем
+        if (!samePoints(result.requestPoints, lastPreviewPoints)) return;
+
+        if (!result.isSuccess()) {
+            routeRequests.consumePreviewError();
+            callback.showToast("Ошибка обновления маршрута: " + result.error);
+            return;
+        }
+
+        Route newRoute = new Route(result.routePoints, result.distance, result.duration);
+        callback.setCurrentRoute(newRoute);
+        mapRouteHelper.drawRoute(result.routePoints);
+        callback.onRouteStateChanged();
+    }
+
+    /**
+     * Старт и выбранные точки без дублей и без точек в пределах 5 м от старта.
+     */
+    private List<Point> collectRoutePoints(Point startPoint) {
         List<Point> pointsToOptimize = new ArrayList<>();
         pointsToOptimize.add(startPoint);
         for (Point p : selectedPoints) {
@@ -224,48 +253,20 @@ public class RouteController {
                 cleanedPoints.add(p);
             }
         }
+        return cleanedPoints;
+    }
 
-        if (cleanedPoints.size() < 2) {
-            mapRouteHelper.clearCurrentRouteOnly();
-            callback.setCurrentRoute(null);
-            callback.onRouteStateChanged();
-            return;
+    private static boolean samePoints(List<Point> a, List<Point> b) {
+        if (a == null || b == null || a.size() != b.size()) return false;
+        for (int i = 0; i < a.size(); i++) {
+            if (Math.abs(a.get(i).getLatitude() - b.get(i).getLatitude()) >= 1e-9
+                    || Math.abs(a.get(i).getLongitude() - b.get(i).getLongitude()) >= 1e-9) {
+                return false;
+            }
         }
-
-        List<Point> optimizedPoints = cleanedPoints;
-
-        final int requestVersion = ++routeRequestVersion;
-
-        RouteApi.calculateRoute(
-                mainActivity,
-                optimizedPoints,
-                false,
-                new RouteApi.RouteCallback() {
-                    @Override
-                    public void onSuccess(List<Point> routeCoordinates, double distance, double duration) {
-                        mainActivity.runOnUiThread(() -> {
-                            if (requestVersion != routeRequestVersion) {
-                                return;
-                            }
-
-                            Route newRoute = new Route(routeCoordinates, distance, duration);
-                            callback.setCurrentRoute(newRoute);
-                            mapRouteHelper.drawRoute(routeCoordinates);
-                            callback.onRouteStateChanged();
-                        });
-                    }
-
-                    @Override
-                    public void onError(String message) {
-                        mainActivity.runOnUiThread(() ->
-                                callback.showToast("Ошибка обновления маршрута: " + message)
-                        );
-                    }
-                }
-        );
+        return true;
     }
 
-
     public void addCustomPoint(Point point, String name) {
         MapObjectCollection mapObjects = uiManager.mapView.getMapWindow().getMap().getMapObjects();
         PlacemarkMapObject newMarker = mapObjects.addPlacemark(point);
@@ -277,6 +278,59 @@ public class RouteController {
         togglePlaceInRoute(newMarker);
     }
 
+    /**
+     * Восстанавливает выбор из снимка без сетевых запросов.
+     * POI сопоставляются с уже показанными маркерами, остальные точки становятся пользовательскими.
+     * Маршрут пересчитывается, только если геометрии в снимке нет и расчёт не идёт.
+     */
+    public void restoreSelection(List<BuilderSnapshot.Waypoint> waypoints, List<PlacemarkMapObject> poiMarkers, Route route) {
+        MapObjectCollection mapObjects = uiManager.mapView.getMapWindow().getMap().getMapObjects();
+        ImageProvider selectedIcon = ImageProvider.fromResource(mainActivity, R.drawable.pinm_selected);
+
+        for (BuilderSnapshot.Waypoint waypoint : waypoints) {
+            Point point = new Point(waypoint.lat, waypoint.lon);
+            PlacemarkMapObject marker = findPoiMarker(poiMarkers, waypoint);
+            if (marker == null) {
+                marker = mapObjects.addPlacemark(point);
+                marker.setUserData(new PlacesApi.Place(waypoint.name, waypoint.lat, waypoint.lon));
+                customMarkers.add(marker);
+            }
+            marker.setIcon(selectedIcon);
+            selectedMarkers.add(marker);
+            selectedPoints.add(point);
+        }
+
+        Point startPoint = callback.getStartPoint();
+        if (startPoint != null && getManualSelectedPlacesCount() >= 2) {
+            List<Point> requestPoints = collectRoutePoints(startPoint);
+            if (route != null) {
+                lastPreviewPoints = requestPoints;
+                callback.setCurrentRoute(route);
+                mapRouteHelper.drawRoute(route.getPoints());
+            } else if (routeRequests.isPreviewPending()) {
+                // Ответ на запрос, начатый до поворота, придёт через LiveData
+                lastPreviewPoints = requestPoints;
+            } else {
+                updateOptimalRoute();
+            }
+        }
+
+        callback.onRouteStateChanged();
+    }
+
+    private static PlacemarkMapObject findPoiMarker(List<PlacemarkMapObject> poiMarkers, BuilderSnapshot.Waypoint waypoint) {
+        for (PlacemarkMapObject marker : poiMarkers) {
+            if (!(marker.getUserData() instanceof PlacesApi.Place)) continue;
+            PlacesApi.Place place = (PlacesApi.Place) marker.getUserData();
+            if (waypoint.poiId != null && !waypoint.poiId.isEmpty()) {
+                if (waypoint.poiId.equals(place.placeId)) return marker;
+            } else if (Math.abs(place.lat - waypoint.lat) < 1e-6 && Math.abs(place.lon - waypoint.lon) < 1e-6) {
+                return marker;
+            }
+        }
+        return null;
+    }
+
     public void reset() {
         if (uiManager.mapView != null && uiManager.mapView.getMapWindow() != null) {
             MapObjectCollection mapObjects = uiManager.mapView
@@ -302,6 +356,7 @@ public class RouteController {
         selectedPoints.clear();
         selectedMarkers.clear();
         customMarkers.clear();
+        cancelPreview();
 
         callback.setCurrentRoute(null);
         callback.onRouteStateChanged();
@@ -333,6 +388,11 @@ public class RouteController {
         callback.onRouteStateChanged();
     }
 
+    private void cancelPreview() {
+        lastPreviewPoints = null;
+        routeRequests.clearPreview();
+    }
+
     public int getManualSelectedPlacesCount() {
         Point startPoint = callback.getStartPoint();
         int count = 0;
@@ -1,17 +1,25 @@
 package ru.nsu.yousightseeing.features.route;
 
+import android.Manifest;
+import android.content.ComponentName;
 import android.content.Intent;
+import android.content.ServiceConnection;
+import android.content.pm.PackageManager;
+import android.os.Build;
 import android.os.Bundle;
+import android.os.IBinder;
 import android.util.Log;
 import android.widget.Button;
-import android.widget.LinearLayout;
 import android.widget.TextView;
 import android.widget.Toast;
 
-import com.google.android.gms.location.FusedLocationProviderClient;
-import com.google.android.gms.location.LocationServices;
+import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.appcompat.app.AppCompatActivity;
+import androidx.core.app.ActivityCompat;
+import androidx.core.content.ContextCompat;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
 
 import org.json.JSONArray;
 import org.json.JSONObject;
@@ -19,6 +27,7 @@ import org.json.JSONObject;
 import java.util.ArrayList;
 import java.util.List;
 
+import ru.nsu.yousightseeing.BuildConfig;
 import ru.nsu.yousightseeing.R;
 
 import com.yandex.mapkit.MapKitFactory;
@@ -33,6 +42,7 @@ import com.yandex.mapkit.mapview.MapView;
 import com.yandex.runtime.image.ImageProvider;
 
 import ru.nsu.yousightseeing.features.MainActivity;
+import ru.nsu.yousightseeing.utils.FlowTrace;
 
 public class RouteFinalActivity extends AppCompatActivity {
 
@@ -40,12 +50,22 @@ public class RouteFinalActivity extends AppCompatActivity {
     public static final String EXTRA_PLACES_JSON = "places_json";
     public static final String EXTRA_DISTANCE = "distance";
     public static final String EXTRA_DURATION = "duration";
+    /** id сохранённого маршрута, если он открыт из профиля; для событий рекомендаций. */
+    public static final String EXTRA_ROUTE_ID = "route_id";
+
+    /** Индексы палитры линии маршрута: пройденные и оставшиеся отрезки. */
+    private static final int PASSED_COLOR = 0;
+    private static final int REMAINING_COLOR = 1;
+    /** Маркер пользователя переставляется, когда сдвинулся хотя бы на столько (~0,5 м). */
+    private static final double MARKER_STEP_DEGREES = 5e-6;
+    private static final int NOTIFICATION_PERMISSION_CODE = 1002;
 
     private MapView mapView;
     private TextView tvDistance;
     private TextView tvDuration;
     private TextView tvPlacesCount;
-    private LinearLayout placesContainer;
+    private RecyclerView placesContainer;
+    private final RoutePlacesAdapter placesAdapter = new RoutePlacesAdapter();
     private Button btnNewRoute;
 
     private PolylineMapObject routeLine;
@@ -55,13 +75,25 @@ public class RouteFinalActivity extends AppCompatActivity {
     private Button btnStartNavigation;
     private TextView tvNavigationStatus;
 
-    private FusedLocationProviderClient fusedClient;
-    private NavigationController navigationController;
+    /** Навигация живёт в {@link NavigationService}; экран подключён к ней, пока виден. */
+    private NavigationService.Session navigation;
+    private CameraFollowController camera;
+    private double cameraBearing;
 
     private List<Point> routePoints = new ArrayList<>();
+    private List<RoutePlaceItem> places = new ArrayList<>();
+    private String routeId;
     private PlacemarkMapObject userMarker;
-    private PolylineMapObject passedRouteLine;
-    private PolylineMapObject remainingRouteLine;
+    private double markerLatitude = Double.NaN;
+    private double markerLongitude = Double.NaN;
+    /** Цвет каждого отрезка линии маршрута, индекс палитры; список переиспользуется. */
+    private final List<Integer> segmentColors = new ArrayList<>();
+    /** Сколько первых отрезков покрашено пройденными; -1 — цвета надо выставить заново. */
+    private int passedSegments = -1;
+    /** Последние показанные значения статуса: текст пересобирается, только когда они меняются. */
+    private long shownRemainingHm = -1;
+    private long shownPercent = -1;
+    private long shownToStopM = -1;
 
     @Override
     protected void onCreate(@Nullable Bundle savedInstanceState) {
@@ -73,84 +105,35 @@ public class RouteFinalActivity extends AppCompatActivity {
         tvDuration = findViewById(R.id.tvDuration);
         tvPlacesCount = findViewById(R.id.tvPlacesCount);
         placesContainer = findViewById(R.id.placesContainerFinal);
+        placesContainer.setLayoutManager(new LinearLayoutManager(this));
+        placesContainer.setAdapter(placesAdapter);
         btnNewRoute = findViewById(R.id.btnNewRoute);
         btnZoomInFinal = findViewById(R.id.btnZoomInFinal);
         btnZoomOutFinal = findViewById(R.id.btnZoomOutFinal);
         btnStartNavigation = findViewById(R.id.btnStartNavigation);
         tvNavigationStatus = findViewById(R.id.tvNavigationStatus);
 
-        fusedClient = LocationServices.getFusedLocationProviderClient(this);
-
+        camera = new CameraFollowController(mapView);
 
+        FlowTrace.Span trace = FlowTrace.resume(getIntent());
+        trace.stage("parse_extras");
         routePoints = parseRoutePoints(
                 getIntent().getStringExtra(EXTRA_ROUTE_POINTS_JSON)
         );
-        List<RoutePlaceItem> places = parsePlaces(
+        places = parsePlaces(
                 getIntent().getStringExtra(EXTRA_PLACES_JSON)
         );
+        routeId = getIntent().getStringExtra(EXTRA_ROUTE_ID);
 
         double distance = getIntent().getDoubleExtra(EXTRA_DISTANCE, 0.0);
         double duration = getIntent().getDoubleExtra(EXTRA_DURATION, 0.0);
 
+        trace.stage("render");
         renderSummary(distance, duration, places.size());
         renderPlaces(places);
         renderRoute(routePoints, places);
-
-        navigationController = new NavigationController(
-                this,
-                mapView,
-                fusedClient,
-                new NavigationController.NavigationListener() {
-                    @Override
-                    public void onUserLocationChanged(Point userPoint) {
-                        updateUserMarker(userPoint);
-                    }
-                    @Override
-                    public void onNavigationStarted() {
-                        tvNavigationStatus.setText("Навигация запущена");
-                        btnStartNavigation.setText("Завершить путь");
-                        if (routeLine != null && mapView != null && mapView.getMapWindow() != null) {
-                            mapView.getMapWindow().getMap().getMapObjects().remove(routeLine);
-                            routeLine = null;
-                        }
-                        updateRouteProgress(0);
-                    }
-
-                    @Override
-                    public void onNavigationStopped() {
-                        tvNavigationStatus.setText("Навигация остановлена");
-                        btnStartNavigation.setText("Начать путь");
-                    }
-
-                    @Override
-                    public void onProgressChanged(double remainingMeters, int nearestIndex, int totalPoints) {
-                        tvNavigationStatus.setText(
-                                String.format(
-                                        "Осталось %.1f км • прогресс %d/%d",
-                                        remainingMeters / 1000.0,
-                                        nearestIndex + 1,
-                                        totalPoints
-                                )
-                        );
-
-                        updateRouteProgress(nearestIndex);
-                    }
-
-                    @Override
-                    public void onRouteFinished() {
-                        tvNavigationStatus.setText("Маршрут завершён");
-                        btnStartNavigation.setText("Начать путь");
-                        Toast.makeText(RouteFinalActivity.this, "Маршрут завершён", Toast.LENGTH_LONG).show();
-                    }
-
-                    @Override
-                    public void onUserOffRoute(double distanceFromRouteMeters) {
-                        tvNavigationStatus.setText(
-                                String.format("Вы отклонились от маршрута на %.0f м", distanceFromRouteMeters)
-                        );
-                    }
-                }
-        );
+        // Линия попадёт на экран в первом кадре после onCreate: там сценарий и заканчивается
+        mapView.post(trace::end);
 
         btnNewRoute.setOnClickListener(v -> {
             Intent intent = new Intent(this, MainActivity.class);
@@ -163,55 +146,246 @@ public class RouteFinalActivity extends AppCompatActivity {
         btnZoomInFinal.setOnClickListener(v -> zoomIn());
         btnZoomOutFinal.setOnClickListener(v -> zoomOut());
         btnStartNavigation.setOnClickListener(v -> {
-            if (navigationController == null) return;
-
-            if (navigationController.isNavigating()) {
-                navigationController.stopNavigation();
+            if (navigation == null) return;
+
+            if (navigation.isNavigating()) {
+                navigation.stop();
+            } else if (needsNotificationPermission()) {
+                // Без разрешения уведомление навигации не видно: спрашиваем до запуска сервиса
+                ActivityCompat.requestPermissions(this,
+                        new String[]{Manifest.permission.POST_NOTIFICATIONS},
+                        NOTIFICATION_PERMISSION_CODE);
             } else {
-                navigationController.startNavigation(routePoints);
+                startNavigation();
             }
         });
+
+        if (BuildConfig.DEBUG) {
+            bindDebugTools();
+        }
     }
 
-    private void updateRouteProgress(int nearestIndex) {
-        if (mapView == null || mapView.getMapWindow() == null) return;
-        if (routePoints == null || routePoints.size() < 2) return;
+    @Override
+    public void onRequestPermissionsResult(int requestCode, @NonNull String[] permissions,
+                                           @NonNull int[] grantResults) {
+        super.onRequestPermissionsResult(requestCode, permissions, grantResults);
+        // Отказ не мешает навигации: сервис работает и без видимого уведомления
+        if (requestCode == NOTIFICATION_PERMISSION_CODE) {
+            startNavigation();
+        }
+    }
 
-        MapObjectCollection mapObjects = mapView.getMapWindow().getMap().getMapObjects();
+    private boolean needsNotificationPermission() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU
+                && ContextCompat.checkSelfPermission(this, Manifest.permission.POST_NOTIFICATIONS)
+                != PackageManager.PERMISSION_GRANTED;
+    }
+
+    private void startNavigation() {
+        if (navigation == null || navigation.isNavigating()) return;
+        navigation.start(routePoints, places, routeId, null, getIntent());
+    }
+
+    /**
+     * Отладка навигации без прогулки: долгое нажатие на «Начать путь» проигрывает
+     * синтетический проход по текущему маршруту в 10 раз быстрее.
+     */
+    private void bindDebugTools() {
+        btnStartNavigation.setOnLongClickListener(v -> {
+            if (navigation == null || navigation.isNavigating() || routePoints.size() < 2) {
+                return false;
+            }
+            LocationTrace trace = LocationTrace.synthetic(routePoints, 1.4, 1000, 5, 1);
+            navigation.start(routePoints, places, routeId, new ReplayLocationSource(trace, 10), getIntent());
+            return true;
+        });
+    }
+
+    private final NavigationController.NavigationListener navigationListener =
+            new NavigationController.NavigationListener() {
+                @Override
+                public void onUserLocationChanged(double latitude, double longitude) {
+                    // Point в MapKit неизменяемый: новый объект — только когда маркер заметно сдвинулся
+                    if (Math.abs(latitude - markerLatitude) < MARKER_STEP_DEGREES
+                            && Math.abs(longitude - markerLongitude) < MARKER_STEP_DEGREES) {
+                        return;
+                    }
+                    markerLatitude = latitude;
+                    markerLongitude = longitude;
+                    updateUserMarker(new Point(latitude, longitude));
+                }
+
+                @Override
+                public void onNavigationStarted() {
+                    showNavigationStarted();
+                    cameraBearing = 0;
+                    updateRouteProgress(0);
+                }
+
+                @Override
+                public void onNavigationStopped() {
+                    tvNavigationStatus.setText("Навигация остановлена");
+                    btnStartNavigation.setText("Начать путь");
+                    camera.stop();
+                }
+
+                @Override
+                public void onProgressChanged(RouteProgress progress) {
+                    renderNavigationStatus(progress);
+                    followCamera(progress);
+                    updateRouteProgress(progress.nearestIndex);
+                }
 
-        List<Point> passed = new ArrayList<>();
-        for (int i = 0; i <= nearestIndex && i < routePoints.size(); i++) {
-            passed.add(routePoints.get(i));
+                @Override
+                public void onRouteFinished() {
+                    tvNavigationStatus.setText("Маршрут завершён");
+                    btnStartNavigation.setText("Начать путь");
+                    Toast.makeText(RouteFinalActivity.this, "Маршрут завершён", Toast.LENGTH_LONG).show();
+                }
+
+                @Override
+                public void onUserOffRoute(double distanceFromRouteMeters) {
+                    tvNavigationStatus.setText(
+                            String.format("Вы отклонились от маршрута на %.0f м", distanceFromRouteMeters)
+                    );
+                }
+
+                @Override
+                public void onRouteChanged(List<Point> newRoutePoints) {
+                    setNavigationRoute(newRoutePoints);
+                    Toast.makeText(RouteFinalActivity.this, "Маршрут перестроен", Toast.LENGTH_SHORT).show();
+                }
+
+                @Override
+                public void onWaypointArrived(int stop) {
+                    Toast.makeText(RouteFinalActivity.this, "Вы на месте: " + places.get(stop).name,
+                            Toast.LENGTH_SHORT).show();
+                }
+
+                @Override
+                public void onWaypointDeparted(int stop, long dwellMs) {
+                    long minutes = dwellMs / 60_000;
+                    if (minutes > 0) {
+                        Toast.makeText(RouteFinalActivity.this,
+                                places.get(stop).name + ": " + minutes + " мин", Toast.LENGTH_SHORT).show();
+                    }
+                }
+            };
+
+    private final ServiceConnection navigationConnection = new ServiceConnection() {
+        @Override
+        public void onServiceConnected(ComponentName name, IBinder service) {
+            navigation = (NavigationService.Session) service;
+            navigation.attach(navigationListener);
+            if (navigation.isNavigating()) {
+                restoreNavigation();
+            }
         }
 
-        List<Point> remaining = new ArrayList<>();
-        for (int i = nearestIndex; i < routePoints.size(); i++) {
-            remaining.add(routePoints.get(i));
+        @Override
+        public void onServiceDisconnected(ComponentName name) {
+            navigation = null;
+        }
+    };
+
+    /**
+     * Экран вернулся к идущей навигации (разблокировка, возврат в приложение или новый экран
+     * из уведомления): маршрут мог быть перестроен, прогресс берётся из сервиса. Фиксы,
+     * накопленные в фоне, придут следом одной пачкой.
+     */
+    private void restoreNavigation() {
+        setNavigationRoute(navigation.routePoints());
+        showNavigationStarted();
+        RouteProgress progress = navigation.progress();
+        if (progress != null) {
+            cameraBearing = progress.bearing;
+            navigationListener.onUserLocationChanged(progress.latitude, progress.longitude);
+            navigationListener.onProgressChanged(progress);
         }
+    }
 
-        if (passed.size() >= 2) {
-            Polyline passedPolyline = new Polyline(passed);
+    private void showNavigationStarted() {
+        tvNavigationStatus.setText("Навигация запущена");
+        btnStartNavigation.setText("Завершить путь");
+        if (routeLine == null && routePoints.size() >= 2
+                && mapView != null && mapView.getMapWindow() != null) {
+            routeLine = mapView.getMapWindow().getMap().getMapObjects().addPolyline(new Polyline(routePoints));
+        }
+        if (routeLine != null) {
+            routeLine.setStrokeWidth(5f);
+            routeLine.setPaletteColor(PASSED_COLOR, 0xFF9E9E9E);
+            routeLine.setPaletteColor(REMAINING_COLOR, 0xFF0097A7);
+        }
+        passedSegments = -1;
+        shownRemainingHm = -1;
+        camera.start();
+    }
 
-            if (passedRouteLine == null) {
-                passedRouteLine = mapObjects.addPolyline(passedPolyline);
-                passedRouteLine.setStrokeWidth(4f);
-                passedRouteLine.setStrokeColor(0xFF9E9E9E);
-            } else {
-                passedRouteLine.setGeometry(passedPolyline);
-            }
+    /** Маршрут перестроен: геометрия линии меняется один раз, цвета отрезков выставляются заново. */
+    private void setNavigationRoute(List<Point> newRoutePoints) {
+        routePoints = newRoutePoints;
+        if (routeLine != null && newRoutePoints.size() >= 2) {
+            routeLine.setGeometry(new Polyline(newRoutePoints));
+        }
+        passedSegments = -1;
+        shownRemainingHm = -1;
+    }
+
+    /**
+     * На маршруте камера идёт по точке привязки и смотрит вдоль текущего отрезка;
+     * вне маршрута — за самим пользователем с прежним азимутом.
+     */
+    private void followCamera(RouteProgress progress) {
+        if (progress.offRoute) {
+            camera.follow(progress.latitude, progress.longitude, cameraBearing);
+            return;
         }
+        cameraBearing = progress.bearing;
+        camera.follow(progress.matchedLatitude, progress.matchedLongitude, cameraBearing);
+    }
 
-        if (remaining.size() >= 2) {
-            Polyline remainingPolyline = new Polyline(remaining);
+    private void renderNavigationStatus(RouteProgress progress) {
+        long remainingHm = Math.round(progress.remainingMeters / 100.0);
+        long percent = Math.round(progress.fraction * 100);
+        long toStopM = progress.nextStop >= 0 ? Math.round(progress.metersToNextStop) : -1;
+        if (remainingHm == shownRemainingHm && percent == shownPercent && toStopM == shownToStopM) return;
+        shownRemainingHm = remainingHm;
+        shownPercent = percent;
+        shownToStopM = toStopM;
+
+        String status = String.format("Осталось %.1f км • пройдено %d%%", remainingHm / 10.0, percent);
+        if (toStopM >= 0) {
+            status += String.format(" • до следующей точки %d м", toStopM);
+        }
+        tvNavigationStatus.setText(status);
+    }
 
-            if (remainingRouteLine == null) {
-                remainingRouteLine = mapObjects.addPolyline(remainingPolyline);
-                remainingRouteLine.setStrokeWidth(5f);
-                remainingRouteLine.setStrokeColor(0xFF0097A7);
-            } else {
-                remainingRouteLine.setGeometry(remainingPolyline);
-            }
+    /**
+     * Красит отрезки до segment пройденными. Линия маршрута рисуется один раз; между фиксами
+     * меняются только цвета, и только когда пользователь перешёл на другой отрезок.
+     */
+    private void updateRouteProgress(int segment) {
+        if (routeLine == null || routePoints.size() < 2) return;
+        int count = routePoints.size() - 1;
+        segment = Math.max(0, Math.min(segment, count));
+        if (segment == passedSegments) return;
+
+        int from;
+        int to;
+        if (passedSegments < 0 || segmentColors.size() != count) {
+            segmentColors.clear();
+            for (int i = 0; i < count; i++) segmentColors.add(REMAINING_COLOR);
+            from = 0;
+            to = segment;
+        } else {
+            from = Math.min(segment, passedSegments);
+            to = Math.max(segment, passedSegments);
+        }
+        for (int i = from; i < to; i++) {
+            segmentColors.set(i, i < segment ? PASSED_COLOR : REMAINING_COLOR);
         }
+        passedSegments = segment;
+        routeLine.setStrokeColors(segmentColors);
     }
 
     private void zoomIn() {
@@ -282,26 +456,7 @@ public class RouteFinalActivity extends AppCompatActivity {
     }
 
     private void renderPlaces(List<RoutePlaceItem> places) {
-        placesContainer.removeAllViews();
-
-        if (places.isEmpty()) {
-            TextView empty = new TextView(this);
-            empty.setText("Места маршрута не найдены");
-            empty.setTextSize(14f);
-            placesContainer.addView(empty);
-            return;
-        }
-
-        for (int i = 0; i < places.size(); i++) {
-            RoutePlaceItem place = places.get(i);
-
-            TextView item = new TextView(this);
-            item.setText((i + 1) + ". " + place.name);
-            item.setTextSize(15f);
-            item.setPadding(0, 12, 0, 12);
-
-            placesContainer.addView(item);
-        }
+        placesAdapter.setPlaces(places);
     }
 
     private void renderRoute(List<Point> routePoints, List<RoutePlaceItem> places) {
@@ -395,6 +550,8 @@ public class RouteFinalActivity extends AppCompatActivity {
                 item.name = obj.optString("name", "Точка");
                 item.lat = obj.optDouble("lat", 0.0);
                 item.lon = obj.optDouble("lon", 0.0);
+                item.id = obj.optString("id", "");
+                item.category = obj.optString("category", "");
 
                 result.add(item);
             }
@@ -424,22 +581,21 @@ public class RouteFinalActivity extends AppCompatActivity {
         super.onStart();
         MapKitFactory.getInstance().onStart();
         if (mapView != null) mapView.onStart();
+        bindService(new Intent(this, NavigationService.class), navigationConnection, BIND_AUTO_CREATE);
     }
 
     @Override
     protected void onStop() {
-        if (navigationController != null) {
-            navigationController.stopNavigation();
+        // Навигация продолжается в сервисе; экран только отключается от неё
+        if (navigation != null) {
+            navigation.detach();
+            navigation = null;
         }
+        unbindService(navigationConnection);
+        camera.stop();
 
         if (mapView != null) mapView.onStop();
         MapKitFactory.getInstance().onStop();
         super.onStop();
     }
-
-    private static class RoutePlaceItem {
-        String name;
-        double lat;
-        double lon;
-    }
-}
+}
\ No newline at end of file
@@ -0,0 +1,202 @@
+package ru.nsu.yousightseeing.features.route;
+
+import com.yandex.mapkit.geometry.Point;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Предрасчёт маршрута для навигации, строится один раз на маршрут.
+ * <p>
+ * Вершины переводятся в метры локальной равнопромежуточной проекцией с началом в первой точке;
+ * хранятся накопленная длина до каждой вершины, азимуты отрезков и смещения вдоль маршрута,
+ * на которых находятся остановки (POI). Всё в примитивных массивах, поэтому пройденное
+ * и оставшееся расстояние, доля пути и расстояние до следующей остановки — это чтение массива
+ * и интерполяция внутри отрезка.
+ */
+final class RouteIndex {
+
+    private static final double METERS_PER_DEGREE = 6371000 * Math.PI / 180;
+    private static final double STOP_TIE_METERS = 15;
+    /** Смена азимута в вершине, начиная с которой это поворот, а не изгиб улицы. */
+    private static final double TURN_DEGREES = 30;
+
+    private final double originLat;
+    private final double originLon;
+    private final double metersPerDegLon;
+
+    final double[] x;
+    final double[] y;
+    /** cumulative[i] — расстояние вдоль маршрута от начала до вершины i, м. */
+    final double[] cumulative;
+    /** Азимут отрезка i в градусах от севера по часовой стрелке. */
+    final double[] bearing;
+    /** Смещения остановок вдоль маршрута, по возрастанию. */
+    final double[] stopOffsets;
+    /** Смещения поворотов вдоль маршрута, по возрастанию. */
+    final double[] turnOffsets;
+
+    RouteIndex(List<Point> route, List<Point> stops) {
+        int n = route.size();
+        originLat = route.get(0).getLatitude();
+        originLon = route.get(0).getLongitude();
+        metersPerDegLon = METERS_PER_DEGREE * Math.cos(Math.toRadians(originLat));
+
+        x = new double[n];
+        y = new double[n];
+        for (int i = 0; i < n; i++) {
+            Point p = route.get(i);
+            x[i] = toX(p.getLongitude());
+            y[i] = toY(p.getLatitude());
+        }
+
+        cumulative = new double[n];
+        bearing = new double[Math.max(0, n - 1)];
+        for (int i = 0; i < n - 1; i++) {
+            double dx = x[i + 1] - x[i];
+            double dy = y[i + 1] - y[i];
+            cumulative[i + 1] = cumulative[i] + Math.hypot(dx, dy);
+            double deg = Math.toDegrees(Math.atan2(dx, dy));
+            bearing[i] = deg < 0 ? deg + 360 : deg;
+        }
+
+        stopOffsets = locateStops(stops);
+        turnOffsets = locateTurns();
+    }
+
+    int segmentCount() {
+        return bearing.length;
+    }
+
+    double segmentLength(int segment) {
+        return cumulative[segment + 1] - cumulative[segment];
+    }
+
+    double totalLength() {
+        return cumulative[cumulative.length - 1];
+    }
+
+    /** Смещение вдоль маршрута для точки на отрезке segment в along метрах от его начала. */
+    double offsetOf(int segment, double along) {
+        return cumulative[segment] + along;
+    }
+
+    double remainingFrom(double offset) {
+        return Math.max(0, totalLength() - offset);
+    }
+
+    /** Доля пройденного пути [0, 1]. */
+    double fractionAt(double offset) {
+        double total = totalLength();
+        return total > 0 ? Math.max(0, Math.min(1, offset / total)) : 1;
+    }
+
+    /** Индекс первой остановки впереди offset; -1, если все пройдены. */
+    int nextStopAfter(double offset) {
+        int i = Arrays.binarySearch(stopOffsets, offset);
+        if (i < 0) i = -i - 1;
+        return i < stopOffsets.length ? i : -1;
+    }
+
+    /** Отрезок, на котором лежит точка со смещением offset. */
+    int segmentAt(double offset) {
+        int i = Arrays.binarySearch(cumulative, offset);
+        if (i < 0) i = -i - 2;
+        return Math.max(0, Math.min(segmentCount() - 1, i));
+    }
+
+    /** Точка маршрута со смещением offset. */
+    Point pointAt(double offset) {
+        int segment = segmentAt(offset);
+        double len = segmentLength(segment);
+        double t = len > 0 ? Math.max(0, Math.min(1, (offset - cumulative[segment]) / len)) : 0;
+        double px = x[segment] + t * (x[segment + 1] - x[segment]);
+        double py = y[segment] + t * (y[segment + 1] - y[segment]);
+        return new Point(toLatitude(py), toLongitude(px));
+    }
+
+    /** Индекс первого поворота впереди offset; -1, если поворотов больше нет. */
+    int nextTurnAfter(double offset) {
+        int i = Arrays.binarySearch(turnOffsets, offset);
+        if (i < 0) i = -i - 1;
+        return i < turnOffsets.length ? i : -1;
+    }
+
+    double toX(double longitude) {
+        return (longitude - originLon) * metersPerDegLon;
+    }
+
+    double toY(double latitude) {
+        return (latitude - originLat) * METERS_PER_DEGREE;
+    }
+
+    double toLongitude(double px) {
+        return originLon + px / metersPerDegLon;
+    }
+
+    double toLatitude(double py) {
+        return originLat + py / METERS_PER_DEGREE;
+    }
+
+    /** Доля отрезка [0, 1] до проекции точки (px, py). */
+    double projection(double px, double py, int segment) {
+        double len = segmentLength(segment);
+        if (len == 0) return 0;
+        double dx = x[segment + 1] - x[segment];
+        double dy = y[segment + 1] - y[segment];
+        double t = ((px - x[segment]) * dx + (py - y[segment]) * dy) / (len * len);
+        return Math.max(0, Math.min(1, t));
+    }
+
+    /** Квадрат расстояния от точки до отрезка, м². */
+    double distanceSq(double px, double py, int segment) {
+        double t = projection(px, py, segment);
+        double dx = px - (x[segment] + t * (x[segment + 1] - x[segment]));
+        double dy = py - (y[segment] + t * (y[segment + 1] - y[segment]));
+        return dx * dx + dy * dy;
+    }
+
+    private double[] locateTurns() {
+        double[] turns = new double[Math.max(0, segmentCount() - 1)];
+        int count = 0;
+        for (int i = 1; i < segmentCount(); i++) {
+            double change = Math.abs(bearing[i] - bearing[i - 1]);
+            if (change > 180) change = 360 - change;
+            if (change >= TURN_DEGREES) turns[count++] = cumulative[i];
+        }
+        return Arrays.copyOf(turns, count);
+    }
+
+    /**
+     * Остановки идут в порядке обхода, поэтому каждая ищется не раньше предыдущей,
+     * а из почти равных кандидатов берётся самый ранний: на петле остановка
+     * привязывается к тому проходу улицы, на котором до неё действительно доходят.
+     */
+    private double[] locateStops(List<Point> stops) {
+        if (stops == null || segmentCount() == 0) return new double[0];
+        double[] offsets = new double[stops.size()];
+        int fromSegment = 0;
+        double fromOffset = 0;
+        for (int s = 0; s < stops.size(); s++) {
+            double px = toX(stops.get(s).getLongitude());
+            double py = toY(stops.get(s).getLatitude());
+            double bestDist = Double.MAX_VALUE;
+            for (int i = fromSegment; i < segmentCount(); i++) {
+                bestDist = Math.min(bestDist, Math.sqrt(distanceSq(px, py, i)));
+            }
+            // Первый отрезок, почти такой же близкий, как лучший: ранний проход важнее позднего
+            int best = fromSegment;
+            for (int i = fromSegment; i < segmentCount(); i++) {
+                if (Math.sqrt(distanceSq(px, py, i)) <= bestDist + STOP_TIE_METERS) {
+                    best = i;
+                    break;
+                }
+            }
+            double offset = Math.max(fromOffset, offsetOf(best, projection(px, py, best) * segmentLength(best)));
+            offsets[s] = offset;
+            fromSegment = best;
+            fromOffset = offset;
+        }
+        return offsets;
+    }
+}
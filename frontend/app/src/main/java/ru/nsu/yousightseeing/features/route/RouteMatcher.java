@@ -0,0 +1,128 @@
+package ru.nsu.yousightseeing.features.route;
+
+/**
+ * Привязка GPS-фиксов к линии маршрута.
+ * <p>
+ * Фикс проецируется на отрезки маршрута, а не на ближайшую вершину, поэтому на редкой геометрии
+ * расстояние до маршрута честное. Перебираются только отрезки в окне вокруг текущего:
+ * немного назад (шум GPS) и ограниченно вперёд по длине маршрута. Окно не даёт перескочить
+ * на второй проход той же улицы в петлевом маршруте. Геометрия берётся из {@link RouteIndex}
+ * в метрах, так что на фикс нет тригонометрии.
+ * Полный перебор бывает только при потере маршрута, см. {@link #REACQUIRE_METERS}.
+ */
+final class RouteMatcher {
+
+    /** Насколько далеко вперёд по маршруту искать на каждом фиксе. */
+    private static final double LOOK_AHEAD_METERS = 250;
+    private static final int MAX_LOOK_AHEAD_SEGMENTS = 64;
+    /** Откат назад: GPS может «отскочить» к уже пройденному отрезку. */
+    private static final double LOOK_BACK_METERS = 40;
+    private static final int MAX_LOOK_BACK_SEGMENTS = 8;
+    /** Если в окне ничего ближе — пользователь потерял маршрут, ищем по всему маршруту. */
+    private static final double REACQUIRE_METERS = 120;
+    /**
+     * Штраф за скачок вдоль маршрута, метров расстояния на метр скачка. Там, где маршрут идёт
+     * туда и обратно по одной улице, встречный проход почти так же близок к фиксу, как свой,
+     * но далеко по маршруту: штраф оставляет привязку на своём проходе.
+     */
+    private static final double JUMP_PENALTY = 0.05;
+
+    /** Результат привязки; объект переиспользуется вызывающим. */
+    static final class Match {
+        /** Отрезок [segment, segment + 1]. */
+        int segment;
+        /** Расстояние вдоль отрезка от его начала до проекции фикса, м. */
+        double alongSegment;
+        /** Смещение проекции от начала маршрута, м. */
+        double offset;
+        /** Расстояние от фикса до маршрута, м. */
+        double crossTrack;
+        /** Проекция фикса на маршрут. */
+        double latitude;
+        double longitude;
+    }
+
+    private final RouteIndex index;
+    private int current = 0;
+    private double currentOffset = 0;
+
+    RouteMatcher(RouteIndex index) {
+        this.index = index;
+    }
+
+    /** Сбрасывает привязку на начало маршрута. */
+    void reset() {
+        current = 0;
+        currentOffset = 0;
+    }
+
+    /** Ставит окно на начало отрезка segment: после перестроения пользователь уже не в начале маршрута. */
+    void seek(int segment) {
+        current = segment;
+        currentOffset = index.cumulative[segment];
+    }
+
+    /** Привязывает фикс к маршруту и сдвигает окно. */
+    void match(double latitude, double longitude, Match out) {
+        double px = index.toX(longitude);
+        double py = index.toY(latitude);
+
+        int from = current;
+        double back = 0;
+        while (from > 0 && current - from < MAX_LOOK_BACK_SEGMENTS && back < LOOK_BACK_METERS) {
+            from--;
+            back += index.segmentLength(from);
+        }
+        int last = index.segmentCount() - 1;
+        int to = current;
+        double ahead = index.cumulative[current + 1] - currentOffset;
+        // Следующий отрезок в окне всегда, даже если текущий длиннее LOOK_AHEAD_METERS
+        while (to < last && (to == current
+                || to - current < MAX_LOOK_AHEAD_SEGMENTS && ahead < LOOK_AHEAD_METERS)) {
+            to++;
+            ahead += index.segmentLength(to);
+        }
+
+        int best = search(px, py, from, to, JUMP_PENALTY);
+        if (index.distanceSq(px, py, best) > REACQUIRE_METERS * REACQUIRE_METERS) {
+            // Маршрут потерян: прежнее положение ничего не значит, ищем просто ближайший отрезок
+            int global = search(px, py, 0, last, 0);
+            if (index.distanceSq(px, py, global) <= REACQUIRE_METERS * REACQUIRE_METERS) {
+                best = global;
+            }
+        }
+
+        fill(px, py, best, out);
+        current = best;
+        currentOffset = out.offset;
+    }
+
+    /** Отрезок в [from, to] с наименьшим расстоянием до фикса плюс штраф за скачок вдоль маршрута. */
+    private int search(double px, double py, int from, int to, double jumpPenalty) {
+        int best = -1;
+        double bestCost = Double.MAX_VALUE;
+        for (int i = from; i <= to; i++) {
+            double t = index.projection(px, py, i);
+            double offset = index.offsetOf(i, t * index.segmentLength(i));
+            double cost = Math.sqrt(index.distanceSq(px, py, i))
+                    + jumpPenalty * Math.abs(offset - currentOffset);
+            if (cost < bestCost) {
+                best = i;
+                bestCost = cost;
+            }
+        }
+        return best;
+    }
+
+    private void fill(double px, double py, int segment, Match out) {
+        double t = index.projection(px, py, segment);
+        double mx = index.x[segment] + t * (index.x[segment + 1] - index.x[segment]);
+        double my = index.y[segment] + t * (index.y[segment + 1] - index.y[segment]);
+        out.segment = segment;
+        out.alongSegment = t * index.segmentLength(segment);
+        out.offset = index.offsetOf(segment, out.alongSegment);
+        out.crossTrack = Math.hypot(px - mx, py - my);
+        out.latitude = index.toLatitude(my);
+        out.longitude = index.toLongitude(mx);
+    }
+}
@@ -0,0 +1,13 @@
+package ru.nsu.yousightseeing.features.route;
+
+/**
+ * Место маршрута, переданное через EXTRA_PLACES_JSON.
+ */
+class RoutePlaceItem {
+    String name;
+    double lat;
+    double lon;
+    /** id места и его категория для событий рекомендаций; могут быть пустыми. */
+    String id;
+    String category;
+}
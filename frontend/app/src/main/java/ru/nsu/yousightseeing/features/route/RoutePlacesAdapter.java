@@ -0,0 +1,68 @@
+package ru.nsu.yousightseeing.features.route;
+
+import android.view.LayoutInflater;
+import android.view.ViewGroup;
+import android.widget.TextView;
+
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.RecyclerView;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import ru.nsu.yousightseeing.R;
+
+/**
+ * Нумерованный список мест на экранах подтверждения и итогового маршрута.
+ */
+class RoutePlacesAdapter extends RecyclerView.Adapter<RoutePlacesAdapter.ViewHolder> {
+
+    private final List<RoutePlaceItem> places = new ArrayList<>();
+
+    RoutePlacesAdapter() {
+        setHasStableIds(true);
+    }
+
+    void setPlaces(List<RoutePlaceItem> newPlaces) {
+        places.clear();
+        places.addAll(newPlaces);
+        notifyDataSetChanged();
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return position;
+    }
+
+    @Override
+    public int getItemCount() {
+        // Пустой список показывается одной строкой-заглушкой
+        return places.isEmpty() ? 1 : places.size();
+    }
+
+    @NonNull
+    @Override
+    public ViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        TextView view = (TextView) LayoutInflater.from(parent.getContext())
+                .inflate(R.layout.item_route_place, parent, false);
+        return new ViewHolder(view);
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull ViewHolder holder, int position) {
+        if (places.isEmpty()) {
+            holder.tvPlace.setText("Места маршрута не найдены");
+            return;
+        }
+        holder.tvPlace.setText((position + 1) + ". " + places.get(position).name);
+    }
+
+    static class ViewHolder extends RecyclerView.ViewHolder {
+        final TextView tvPlace;
+
+        ViewHolder(@NonNull TextView itemView) {
+            super(itemView);
+            tvPlace = itemView;
+        }
+    }
+}
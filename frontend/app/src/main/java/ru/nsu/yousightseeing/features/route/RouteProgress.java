@@ -0,0 +1,35 @@
+package ru.nsu.yousightseeing.features.route;
+
+/**
+ * Прогресс по маршруту на последнем фиксе. NavigationController переиспользует один объект,
+ * поэтому слушатель не должен хранить ссылку на него между вызовами.
+ */
+public final class RouteProgress {
+    /** Индекс вершины, с которой начинается текущий отрезок. */
+    public int nearestIndex;
+    public int totalPoints;
+    public double traveledMeters;
+    public double remainingMeters;
+    /** Доля пройденного пути [0, 1]. */
+    public double fraction;
+    /** Индекс следующей остановки в порядке обхода, к которой ещё не было прибытия; -1, если таких нет. */
+    public int nextStop = -1;
+    public double metersToNextStop;
+    /** Индекс следующего поворота; -1, если поворотов впереди нет. */
+    public int nextTurn = -1;
+    public double metersToNextTurn;
+    /** Скорость пользователя, м/с; NaN, пока неизвестна. */
+    public double speedMps = Double.NaN;
+    /** Пользователь сошёл с маршрута. */
+    public boolean offRoute;
+    /** Положение пользователя после сглаживания. */
+    public double latitude;
+    public double longitude;
+    /** Расстояние от пользователя до линии маршрута, м. */
+    public double distanceFromRoute;
+    /** Азимут текущего отрезка маршрута, градусы от севера по часовой стрелке. */
+    public double bearing;
+    /** Проекция пользователя на маршрут — точка разреза пройденной и оставшейся части. */
+    public double matchedLatitude;
+    public double matchedLongitude;
+}
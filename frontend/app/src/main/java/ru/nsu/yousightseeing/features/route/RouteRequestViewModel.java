@@ -0,0 +1,151 @@
+package ru.nsu.yousightseeing.features.route;
+
+import android.app.Application;
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+import androidx.lifecycle.AndroidViewModel;
+import androidx.lifecycle.LiveData;
+import androidx.lifecycle.MutableLiveData;
+
+import com.yandex.mapkit.geometry.Point;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import ru.nsu.yousightseeing.api.RequestRegistry;
+import ru.nsu.yousightseeing.api.RouteApi;
+import ru.nsu.yousightseeing.utils.FlowTrace;
+
+/**
+ * Расчёты маршрута конструктора. Запросы принадлежат ViewModel, а не Activity:
+ * при повороте экрана они не отменяются и не отправляются заново,
+ * результат получает уже новая Activity через LiveData.
+ */
+public class RouteRequestViewModel extends AndroidViewModel {
+
+    /**
+     * Результат расчёта: либо геометрия, либо ошибка.
+     * requestPoints — точки, по которым считали, чтобы отбросить устаревший ответ.
+     */
+    public static final class Result {
+        public final List<Point> requestPoints;
+        public final List<Point> routePoints;
+        public final double distance;
+        public final double duration;
+        public final String error;
+        /** Места для экрана подтверждения, собранные в момент запроса. */
+        public final String placesJson;
+        /** Сценарий {@link FlowTrace}, к которому относится расчёт; 0 — без трассировки. */
+        public final long traceId;
+
+        Result(List<Point> requestPoints, List<Point> routePoints, double distance, double duration,
+               String error, String placesJson, long traceId) {
+            this.requestPoints = requestPoints;
+            this.routePoints = routePoints;
+            this.distance = distance;
+            this.duration = duration;
+            this.error = error;
+            this.placesJson = placesJson;
+            this.traceId = traceId;
+        }
+
+        public boolean isSuccess() {
+            return error == null;
+        }
+    }
+
+    private final RequestRegistry requests = new RequestRegistry();
+    private final Context requestContext;
+
+    private final MutableLiveData<Result> preview = new MutableLiveData<>();
+    private final MutableLiveData<Result> confirmation = new MutableLiveData<>();
+    private volatile int previewVersion = 0;
+    private volatile boolean previewPending = false;
+
+    public RouteRequestViewModel(@NonNull Application application) {
+        super(application);
+        requestContext = requests.bind(application);
+    }
+
+    /** Последний актуальный предпросмотр; повторно доставляется после поворота. */
+    public LiveData<Result> getPreview() {
+        return preview;
+    }
+
+    /** Одноразовый результат для экрана подтверждения; после обработки вызвать consumeConfirmation(). */
+    public LiveData<Result> getConfirmation() {
+        return confirmation;
+    }
+
+    public void calculatePreview(List<Point> points) {
+        final int version = ++previewVersion;
+        previewPending = true;
+        final List<Point> requestPoints = Collections.unmodifiableList(new ArrayList<>(points));
+
+        RouteApi.calculateRoute(requestContext, requestPoints, false, new RouteApi.RouteCallback() {
+            @Override
+            public void onSuccess(List<Point> routeCoordinates, double distance, double duration) {
+                if (version != previewVersion) return;
+                previewPending = false;
+                preview.postValue(new Result(requestPoints, routeCoordinates, distance, duration, null, null, 0));
+            }
+
+            @Override
+            public void onError(String message) {
+                if (version != previewVersion) return;
+                previewPending = false;
+                preview.postValue(new Result(requestPoints, null, 0, 0, message, null, 0));
+            }
+        });
+    }
+
+    /** Отменяет ожидание предпросмотра: пришедший позже ответ будет отброшен. */
+    public void clearPreview() {
+        previewVersion++;
+        previewPending = false;
+        preview.setValue(null);
+    }
+
+    /** Идёт расчёт предпросмотра, ответ на который ещё не пришёл. */
+    public boolean isPreviewPending() {
+        return previewPending;
+    }
+
+    /** Ошибка предпросмотра показывается один раз. */
+    public void consumePreviewError() {
+        Result current = preview.getValue();
+        if (current != null && !current.isSuccess()) {
+            preview.setValue(null);
+        }
+    }
+
+    public void calculateForConfirmation(List<Point> points, String placesJson, FlowTrace.Span trace) {
+        final List<Point> requestPoints = Collections.unmodifiableList(new ArrayList<>(points));
+
+        trace.stage("network");
+        RouteApi.calculateRoute(requestContext, requestPoints, false, new RouteApi.RouteCallback() {
+            @Override
+            public void onSuccess(List<Point> routeCoordinates, double distance, double duration) {
+                trace.stage("deliver");
+                confirmation.postValue(new Result(requestPoints, routeCoordinates, distance, duration, null,
+                        placesJson, trace.id));
+            }
+
+            @Override
+            public void onError(String message) {
+                confirmation.postValue(new Result(requestPoints, null, 0, 0, message, placesJson, trace.id));
+            }
+        });
+    }
+
+    public void consumeConfirmation() {
+        confirmation.setValue(null);
+    }
+
+    @Override
+    protected void onCleared() {
+        requests.close();
+    }
+}
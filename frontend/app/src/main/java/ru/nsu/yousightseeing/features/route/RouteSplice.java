@@ -0,0 +1,64 @@
+package ru.nsu.yousightseeing.features.route;
+
+import com.yandex.mapkit.geometry.Point;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Маршрут после перестроения: пройденная часть до места схода, объезд от пользователя
+ * до следующей точки и нетронутый хвост старого маршрута от неё. Первая точка та же,
+ * что у старого маршрута, поэтому локальная проекция {@link RouteIndex} не меняется
+ * и состояние {@link GpsFilter} остаётся верным.
+ */
+final class RouteSplice {
+
+    /** Точки ближе этого считаются одной: нулевые отрезки дали бы ложные повороты. */
+    private static final double SAME_POINT_DEGREES = 1e-6;
+
+    final List<Point> points;
+    /** Индекс первой точки объезда в {@link #points}. */
+    final int detourStart;
+
+    private RouteSplice(List<Point> points, int detourStart) {
+        this.points = points;
+        this.detourStart = detourStart;
+    }
+
+    /**
+     * fromOffset — где пользователь сошёл со старого маршрута, toOffset — где объезд возвращается
+     * на него; detour — геометрия объезда от пользователя до точки toOffset.
+     */
+    static RouteSplice of(RouteIndex index, List<Point> route, double fromOffset,
+                          List<Point> detour, double toOffset) {
+        List<Point> points = new ArrayList<>(route.size() + detour.size() + 2);
+        int fromSegment = index.segmentAt(fromOffset);
+        for (int i = 0; i <= fromSegment; i++) {
+            points.add(route.get(i));
+        }
+        addDistinct(points, index.pointAt(fromOffset));
+
+        int detourStart = points.size();
+        for (Point p : detour) {
+            addDistinct(points, p);
+        }
+        detourStart = Math.min(detourStart, points.size() - 1);
+
+        addDistinct(points, index.pointAt(toOffset));
+        for (int i = index.segmentAt(toOffset) + 1; i < route.size(); i++) {
+            addDistinct(points, route.get(i));
+        }
+        return new RouteSplice(points, detourStart);
+    }
+
+    private static void addDistinct(List<Point> points, Point p) {
+        if (!points.isEmpty()) {
+            Point last = points.get(points.size() - 1);
+            if (Math.abs(last.getLatitude() - p.getLatitude()) < SAME_POINT_DEGREES
+                    && Math.abs(last.getLongitude() - p.getLongitude()) < SAME_POINT_DEGREES) {
+                return;
+            }
+        }
+        points.add(p);
+    }
+}
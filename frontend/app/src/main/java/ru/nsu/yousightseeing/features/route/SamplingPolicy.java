@@ -0,0 +1,55 @@
+package ru.nsu.yousightseeing.features.route;
+
+import com.google.android.gms.location.Priority;
+
+/**
+ * Стратегия частоты фиксов во время навигации. {@link NavigationController} спрашивает её
+ * после каждого фикса и перезапрашивает {@link LocationSource}, только когда режим сменился.
+ * Реализации возвращают заранее созданные {@link Rate}, чтобы не создавать объекты на фикс.
+ */
+public interface SamplingPolicy {
+
+    /** Прежнее поведение: высокая точность каждые 3 с на весь маршрут. */
+    SamplingPolicy FIXED = progress -> Rate.STANDARD;
+
+    final class Rate {
+        public static final Rate STANDARD = new Rate(Priority.PRIORITY_HIGH_ACCURACY, 3000, 1500);
+
+        /** Константа com.google.android.gms.location.Priority. */
+        public final int priority;
+        public final long intervalMs;
+        public final long minIntervalMs;
+
+        public Rate(int priority, long intervalMs, long minIntervalMs) {
+            this.priority = priority;
+            this.intervalMs = intervalMs;
+            this.minIntervalMs = minIntervalMs;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Rate)) return false;
+            Rate other = (Rate) o;
+            return priority == other.priority
+                    && intervalMs == other.intervalMs
+                    && minIntervalMs == other.minIntervalMs;
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) (31 * (31 * priority + intervalMs) + minIntervalMs);
+        }
+
+        @Override
+        public String toString() {
+            return "Rate{" + priority + ", " + intervalMs + "/" + minIntervalMs + " ms}";
+        }
+    }
+
+    /** Режим для следующих фиксов по прогрессу на последнем. */
+    Rate select(RouteProgress progress);
+
+    /** Сброс состояния перед новым маршрутом. */
+    default void reset() {}
+}
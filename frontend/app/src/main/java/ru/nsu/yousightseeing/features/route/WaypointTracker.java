@@ -0,0 +1,209 @@
+package ru.nsu.yousightseeing.features.route;
+
+import com.yandex.mapkit.geometry.Point;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Прибытие к остановкам маршрута и уход от них.
+ * <p>
+ * Остановки разложены по пространственному хешу с ячейкой не меньше радиуса прибытия, так что
+ * на фикс проверяются только остановки из 3×3 ячеек вокруг пользователя и те, у которых он
+ * сейчас стоит: O(1) независимо от длины маршрута. Радиус у каждой остановки свой — базовый плюс
+ * расстояние от неё до линии маршрута: место может стоять в глубине двора. Прибытие засчитывается
+ * только когда пользователь дошёл вдоль маршрута почти до смещения остановки, поэтому на петле
+ * остановка обратного пути не срабатывает по дороге туда. Гистерезис: прибытие — после
+ * {@link #ARRIVE_FIXES} фиксов подряд внутри радиуса, уход — после {@link #DEPART_FIXES} фиксов
+ * подряд дальше радиуса плюс {@link #DEPART_EXTRA_METERS}. Время у остановки — от первого фикса
+ * внутри до ухода.
+ */
+final class WaypointTracker {
+
+    static final double ARRIVE_METERS = 30;
+    static final double MAX_RADIUS_METERS = 100;
+    static final double DEPART_EXTRA_METERS = 20;
+    static final int ARRIVE_FIXES = 2;
+    static final int DEPART_FIXES = 2;
+    /** Насколько раньше смещения остановки вдоль маршрута уже можно к ней прибыть, сверх радиуса. */
+    private static final double ALONG_SLACK_METERS = 50;
+
+    interface Listener {
+        void onArrived(int stop, long timeMs);
+        void onDeparted(int stop, long timeMs, long dwellMs);
+    }
+
+    private static final int PENDING = 0;
+    private static final int INSIDE = 1;
+    private static final int DONE = 2;
+    private static final long EMPTY = Long.MIN_VALUE;
+
+    private final double[] x;
+    private final double[] y;
+    private final double[] radius;
+    private final double[] offset;
+    private final int[] state;
+    private final int[] streak;
+    /** Номер фикса, на котором streak последний раз рос: серия прерывается, если фикс пропущен. */
+    private final long[] streakFix;
+    private final long[] enteredAt;
+    private final int[] inside;
+    private int insideCount;
+    private long fix;
+
+    private final double cellSize;
+    private final long[] cellKeys;
+    private final int[] cellHeads;
+    private final int[] nextInCell;
+    private final int cellMask;
+
+    WaypointTracker(RouteIndex index, List<Point> stops) {
+        this(index, stops, null);
+    }
+
+    /** previous — трекер старого маршрута после перестроения: состояния остановок переносятся. */
+    WaypointTracker(RouteIndex index, List<Point> stops, WaypointTracker previous) {
+        int n = stops != null ? Math.min(stops.size(), index.stopOffsets.length) : 0;
+        x = new double[n];
+        y = new double[n];
+        radius = new double[n];
+        offset = new double[n];
+        state = new int[n];
+        streak = new int[n];
+        streakFix = new long[n];
+        enteredAt = new long[n];
+        inside = new int[n];
+
+        double maxRadius = ARRIVE_METERS;
+        for (int i = 0; i < n; i++) {
+            x[i] = index.toX(stops.get(i).getLongitude());
+            y[i] = index.toY(stops.get(i).getLatitude());
+            offset[i] = index.stopOffsets[i];
+            double fromRoute = Math.sqrt(index.distanceSq(x[i], y[i], index.segmentAt(offset[i])));
+            radius[i] = Math.min(MAX_RADIUS_METERS, ARRIVE_METERS + fromRoute);
+            maxRadius = Math.max(maxRadius, radius[i]);
+        }
+        if (previous != null && previous.state.length == n) {
+            System.arraycopy(previous.state, 0, state, 0, n);
+            System.arraycopy(previous.enteredAt, 0, enteredAt, 0, n);
+            for (int i = 0; i < n; i++) {
+                if (state[i] == INSIDE) inside[insideCount++] = i;
+            }
+        }
+
+        cellSize = maxRadius;
+        int slots = Integer.highestOneBit(Math.max(4, n * 2) - 1) << 1;
+        cellKeys = new long[slots];
+        cellHeads = new int[slots];
+        cellMask = slots - 1;
+        nextInCell = new int[n];
+        Arrays.fill(cellKeys, EMPTY);
+        for (int i = 0; i < n; i++) {
+            long key = cellKey(cell(x[i]), cell(y[i]));
+            int slot = slotOf(key);
+            while (cellKeys[slot] != EMPTY && cellKeys[slot] != key) slot = (slot + 1) & cellMask;
+            if (cellKeys[slot] == EMPTY) {
+                cellKeys[slot] = key;
+                cellHeads[slot] = -1;
+            }
+            nextInCell[i] = cellHeads[slot];
+            cellHeads[slot] = i;
+        }
+    }
+
+    /** К остановке ещё не было прибытия. */
+    boolean isPending(int stop) {
+        return stop < state.length && state[stop] == PENDING;
+    }
+
+    /** Маршрут завершён: у остановок, где пользователь ещё стоит, засчитывается уход. */
+    void departAll(long timeMs, Listener listener) {
+        for (int i = insideCount - 1; i >= 0; i--) {
+            int s = inside[i];
+            state[s] = DONE;
+            insideCount--;
+            if (listener != null) listener.onDeparted(s, timeMs, timeMs - enteredAt[s]);
+        }
+    }
+
+    /** px, py — положение пользователя в метрах RouteIndex, routeOffset — его смещение вдоль маршрута. */
+    void update(double px, double py, double routeOffset, long timeMs, Listener listener) {
+        if (x.length == 0) return;
+        fix++;
+        checkDepartures(px, py, timeMs, listener);
+
+        long cx = cell(px);
+        long cy = cell(py);
+        for (long dx = -1; dx <= 1; dx++) {
+            for (long dy = -1; dy <= 1; dy++) {
+                int slot = find(cellKey(cx + dx, cy + dy));
+                if (slot < 0) continue;
+                for (int s = cellHeads[slot]; s >= 0; s = nextInCell[s]) {
+                    if (state[s] == PENDING) checkArrival(s, px, py, routeOffset, timeMs, listener);
+                }
+            }
+        }
+    }
+
+    private void checkArrival(int s, double px, double py, double routeOffset, long timeMs, Listener listener) {
+        double r = radius[s];
+        if (routeOffset < offset[s] - r - ALONG_SLACK_METERS) return;
+        double dx = px - x[s];
+        double dy = py - y[s];
+        if (dx * dx + dy * dy > r * r) return;
+
+        if (streakFix[s] == fix - 1 && streak[s] > 0) {
+            streak[s]++;
+        } else {
+            streak[s] = 1;
+            enteredAt[s] = timeMs;
+        }
+        streakFix[s] = fix;
+        if (streak[s] < ARRIVE_FIXES) return;
+
+        state[s] = INSIDE;
+        streak[s] = 0;
+        inside[insideCount++] = s;
+        if (listener != null) listener.onArrived(s, enteredAt[s]);
+    }
+
+    private void checkDepartures(double px, double py, long timeMs, Listener listener) {
+        for (int i = insideCount - 1; i >= 0; i--) {
+            int s = inside[i];
+            double r = radius[s] + DEPART_EXTRA_METERS;
+            double dx = px - x[s];
+            double dy = py - y[s];
+            if (dx * dx + dy * dy <= r * r) {
+                streak[s] = 0;
+                continue;
+            }
+            if (++streak[s] < DEPART_FIXES) continue;
+
+            state[s] = DONE;
+            inside[i] = inside[--insideCount];
+            if (listener != null) listener.onDeparted(s, timeMs, timeMs - enteredAt[s]);
+        }
+    }
+
+    private long cell(double meters) {
+        return (long) Math.floor(meters / cellSize);
+    }
+
+    private static long cellKey(long cx, long cy) {
+        return (cx << 32) ^ (cy & 0xffffffffL);
+    }
+
+    private int slotOf(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & cellMask;
+    }
+
+    private int find(long key) {
+        int slot = slotOf(key);
+        while (cellKeys[slot] != EMPTY) {
+            if (cellKeys[slot] == key) return slot;
+            slot = (slot + 1) & cellMask;
+        }
+        return -1;
+    }
+}
@@ -29,6 +29,7 @@ public class StartPointController {
         void onStartPointSelected(Point point);
         Point getUserLocation();
         RouteBuildMode getCurrentBuildMode();
+        void onAwaitingAutoStartPointChanged(boolean awaiting);
     }
 
     public StartPointController(MainActivity mainActivity, MainUIManager uiManager, MapPointHelper mapPointHelper, StartPointCallback callback) {
@@ -45,7 +46,7 @@ public class StartPointController {
             if (callback.getUserLocation() != null) {
                 showAutomaticRouteStartDialog();
             } else {
-                awaitingAutoStartPoint = true;
+                setAwaitingAutoStartPoint(true);
                 manualStartPointMode = false;
                 callback.showToast("Тапните по карте, чтобы выбрать стартовую точку");
             }
@@ -56,15 +57,15 @@ public class StartPointController {
             showManualRouteStartDialog();
         } else {
             manualStartPointMode = true;
-            awaitingAutoStartPoint = false;
+            setAwaitingAutoStartPoint(false);
             callback.showToast("Тапните по карте, чтобы выбрать стартовую точку");
         }
     }
 
     public boolean handleMapTap(Point point) {
         if (awaitingAutoStartPoint) {
+            setAwaitingAutoStartPoint(false);
             setStartPoint(point);
-            awaitingAutoStartPoint = false;
             callback.showToast("Стартовая точка выбрана");
             callback.collapseBottomSheet();
             return true;
@@ -111,7 +112,7 @@ public class StartPointController {
                     callback.showToast("Стартовая точка выбрана: текущее местоположение");
                 })
                 .setNegativeButton("Выбрать точку на карте", (dialog, which) -> {
-                    awaitingAutoStartPoint = true;
+                    setAwaitingAutoStartPoint(true);
                     manualStartPointMode = false;
                     callback.showToast("Тапните по карте для выбора стартовой точки");
                 })
@@ -156,10 +157,24 @@ public class StartPointController {
         callback.onStartPointSelected(point);
     }
 
+    /**
+     * Возвращает сохранённую стартовую точку без повторного поиска POI.
+     */
+    public void restoreStartPoint(Point point) {
+        this.startPoint = point;
+        mapPointHelper.showStartPoint(point);
+    }
+
     public Point getStartPoint() {
         return startPoint;
     }
 
+    private void setAwaitingAutoStartPoint(boolean awaiting) {
+        if (awaitingAutoStartPoint == awaiting) return;
+        awaitingAutoStartPoint = awaiting;
+        callback.onAwaitingAutoStartPointChanged(awaiting);
+    }
+
     public boolean isAwaitingAutoStartPoint() {
         return awaitingAutoStartPoint;
     }
@@ -167,7 +182,7 @@ public class StartPointController {
     public void reset() {
         startPoint = null;
         manualStartPointMode = false;
-        awaitingAutoStartPoint = false;
+        setAwaitingAutoStartPoint(false);
         mapPointHelper.showStartPoint(null);
     }
 }
@@ -4,73 +4,105 @@ import android.view.View;
 
 import com.google.android.material.bottomsheet.BottomSheetBehavior;
 
+import java.util.Objects;
+
 import ru.nsu.yousightseeing.features.main.MainUIManager;
+import ru.nsu.yousightseeing.features.main.state.EditorState;
+import ru.nsu.yousightseeing.features.main.state.EditorStore;
 import ru.nsu.yousightseeing.features.route.RouteBuildMode;
-import ru.nsu.yousightseeing.model.Route;
 
 public class UiStateController {
 
     private final MainUIManager uiManager;
-    private final UiStateCallback callback;
-
-    public interface UiStateCallback {
-        Route getCurrentRoute();
-        boolean isRouteBuilt();
-        RouteBuildMode getCurrentBuildMode();
-        boolean isGeneratingAutoRoute();
-        boolean isAwaitingAutoStartPoint();
-        int getManualSelectedPlacesCount();
-        boolean isRoutePointsEmpty();
+
+    /**
+     * Срез состояния, от которого зависит кнопка построения маршрута.
+     */
+    static final class BuildButtonModel {
+        final boolean routeBuilt;
+        final RouteBuildMode mode;
+        final boolean generating;
+        final boolean awaitingAutoStartPoint;
+        final int manualCount;
+
+        BuildButtonModel(EditorState state) {
+            this.routeBuilt = state.routeBuilt;
+            this.mode = state.buildMode;
+            this.generating = state.generating;
+            this.awaitingAutoStartPoint = state.awaitingAutoStartPoint;
+            this.manualCount = state.getManualSelectedPlacesCount();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof BuildButtonModel)) return false;
+            BuildButtonModel other = (BuildButtonModel) o;
+            return routeBuilt == other.routeBuilt
+                    && mode == other.mode
+                    && generating == other.generating
+                    && awaitingAutoStartPoint == other.awaitingAutoStartPoint
+                    && manualCount == other.manualCount;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(routeBuilt, mode, generating, awaitingAutoStartPoint, manualCount);
+        }
     }
 
-    public UiStateController(MainUIManager uiManager, UiStateCallback callback) {
+    public UiStateController(MainUIManager uiManager) {
         this.uiManager = uiManager;
-        this.callback = callback;
     }
 
-    public void applyBuildModeUI(RouteBuildMode mode) {
+    /**
+     * Подписывает элементы нижней панели на их срезы состояния.
+     */
+    public void bind(EditorStore store) {
+        store.subscribe(state -> state.buildMode, this::applyBuildModeUI);
+        store.subscribe(BuildButtonModel::new, this::renderBuildRouteButton);
+        store.subscribe(state -> state.selectedPlaces.isEmpty(), this::renderEditCategoriesButton);
+        store.subscribe(state -> state.routeBuilt, this::renderBottomSheetState);
+    }
+
+    private void applyBuildModeUI(RouteBuildMode mode) {
+        // После сброса режим NONE, секции остаются как были
+        if (mode == RouteBuildMode.NONE) return;
         if (uiManager.manualSection != null) {
             uiManager.manualSection.setVisibility(mode == RouteBuildMode.MANUAL ? View.VISIBLE : View.GONE);
         }
         if (uiManager.autoSection != null) {
             uiManager.autoSection.setVisibility(mode == RouteBuildMode.AUTO ? View.VISIBLE : View.GONE);
         }
-        updateAll();
-    }
-
-    public void updateAll() {
-        updateBuildRouteButton();
-        updateEditCategoriesButton();
-        updateBottomSheetState();
     }
 
-    public void updateBottomSheetState() {
+    private void renderBottomSheetState(boolean routeBuilt) {
         if (uiManager.bottomSheetBehavior == null) return;
-        if (callback.isRouteBuilt()) {
+        if (routeBuilt) {
             uiManager.bottomSheetBehavior.setState(BottomSheetBehavior.STATE_COLLAPSED);
         }
     }
 
-    public void updateEditCategoriesButton() {
+    private void renderEditCategoriesButton(boolean routePointsEmpty) {
         if (uiManager.btnEditCategories != null) {
-            uiManager.btnEditCategories.setEnabled(callback.isRoutePointsEmpty());
+            uiManager.btnEditCategories.setEnabled(routePointsEmpty);
         }
     }
 
-    public void updateBuildRouteButton() {
+    private void renderBuildRouteButton(BuildButtonModel model) {
         if (uiManager.btnBuildRoute == null) return;
 
-        if (callback.isRouteBuilt()) {
+        if (model.routeBuilt) {
             uiManager.btnBuildRoute.setText("Сбросить маршрут");
             uiManager.btnBuildRoute.setEnabled(true);
             return;
         }
 
-        if (callback.getCurrentBuildMode() == RouteBuildMode.AUTO) {
-            if (callback.isGeneratingAutoRoute()) {
+        if (model.mode == RouteBuildMode.AUTO) {
+            if (model.generating) {
                 uiManager.btnBuildRoute.setText("Генерируем...");
                 uiManager.btnBuildRoute.setEnabled(false);
-            } else if (callback.isAwaitingAutoStartPoint()) {
+            } else if (model.awaitingAutoStartPoint) {
                 uiManager.btnBuildRoute.setText("Выберите стартовую точку");
                 uiManager.btnBuildRoute.setEnabled(true);
             } else {
@@ -80,13 +112,13 @@ public class UiStateController {
             return;
         }
 
-        if (callback.isAwaitingAutoStartPoint()) {
+        if (model.awaitingAutoStartPoint) {
             uiManager.btnBuildRoute.setText("Выберите стартовую точку");
             uiManager.btnBuildRoute.setEnabled(true);
             return;
         }
 
-        int count = callback.getManualSelectedPlacesCount();
+        int count = model.manualCount;
         if (count < 2) {
             uiManager.btnBuildRoute.setText("Добавьте минимум 2 места");
             uiManager.btnBuildRoute.setEnabled(false);
@@ -0,0 +1,223 @@
+package ru.nsu.yousightseeing.storage;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Локальная база приложения. Все обращения к ней идут через один фоновый поток {@link #io()},
+ * результаты возвращаются на главный поток через {@link #main()}.
+ */
+public final class LocalStore extends SQLiteOpenHelper {
+
+    private static final String DB_NAME = "yousightseeing.db";
+    private static final int DB_VERSION = 6;
+
+    static final String TABLE_ROUTE_GEOMETRY = "route_geometry";
+    static final String TABLE_SAVED_ROUTES = "saved_routes";
+    static final String TABLE_SAVED_ROUTE_POINTS = "saved_route_points";
+    static final String TABLE_SYNC_STATE = "sync_state";
+    static final String TABLE_SAVED_ROUTES_FTS = "saved_routes_fts";
+    static final String TABLE_ROUTE_USAGE = "route_usage";
+    static final String TABLE_ROUTE_OUTBOX = "route_outbox";
+
+    private static volatile LocalStore instance;
+    private static final ExecutorService io = Executors.newSingleThreadExecutor();
+    private static final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    public static LocalStore get(Context context) {
+        if (instance == null) {
+            synchronized (LocalStore.class) {
+                if (instance == null) {
+                    instance = new LocalStore(context.getApplicationContext());
+                }
+            }
+        }
+        return instance;
+    }
+
+    private LocalStore(Context context) {
+        super(context, DB_NAME, null, DB_VERSION);
+    }
+
+    public static Executor io() {
+        return io;
+    }
+
+    public static Executor main() {
+        return mainHandler::post;
+    }
+
+    /**
+     * Выполняет задачу на io-потоке и ждёт результат. Только для фоновых задач
+     * (WorkManager), с главного потока не вызывать.
+     */
+    static <T> T await(Callable<T> task) throws InterruptedException {
+        try {
+            return io.submit(task).get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE_ROUTE_GEOMETRY + " ("
+                + "route_id TEXT PRIMARY KEY, "
+                + "waypoints_hash TEXT NOT NULL, "
+                + "polyline TEXT NOT NULL, "
+                + "distance REAL NOT NULL, "
+                + "duration REAL NOT NULL, "
+                + "updated_at INTEGER NOT NULL, "
+                + "last_used_at INTEGER NOT NULL DEFAULT 0, "
+                + "size_bytes INTEGER NOT NULL DEFAULT 0)");
+        createSavedRoutesTables(db);
+        createSearchIndex(db);
+        createUsageTable(db);
+        createOutboxTable(db);
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        if (oldVersion < 2) {
+            createSavedRoutesTables(db);
+        }
+        if (oldVersion < 3) {
+            createSearchIndex(db);
+            rebuildSearchIndex(db);
+        }
+        if (oldVersion < 4) {
+            db.execSQL("ALTER TABLE " + TABLE_ROUTE_GEOMETRY + " ADD COLUMN last_used_at INTEGER NOT NULL DEFAULT 0");
+            db.execSQL("ALTER TABLE " + TABLE_ROUTE_GEOMETRY + " ADD COLUMN size_bytes INTEGER NOT NULL DEFAULT 0");
+            db.execSQL("UPDATE " + TABLE_ROUTE_GEOMETRY + " SET last_used_at = updated_at, size_bytes = length(polyline)");
+            createUsageTable(db);
+        }
+        if (oldVersion < 5) {
+            if (oldVersion >= 2) {
+                db.execSQL("ALTER TABLE " + TABLE_SAVED_ROUTES + " ADD COLUMN sync_state INTEGER NOT NULL DEFAULT 0");
+            }
+            createOutboxTable(db);
+        }
+        if (oldVersion < 6) {
+            if (oldVersion >= 5) {
+                db.execSQL("ALTER TABLE " + TABLE_ROUTE_OUTBOX + " ADD COLUMN sent_from INTEGER NOT NULL DEFAULT 0");
+                db.execSQL("ALTER TABLE " + TABLE_ROUTE_OUTBOX + " ADD COLUMN sent_to INTEGER NOT NULL DEFAULT 0");
+                // Когда шли старые попытки, неизвестно: окно — от постановки в очередь до обновления
+                db.execSQL("UPDATE " + TABLE_ROUTE_OUTBOX + " SET sent_from = created_at, "
+                        + "sent_to = CAST(strftime('%s', 'now') AS INTEGER) * 1000 WHERE maybe_sent = 1");
+            }
+        }
+    }
+
+    private static void createSavedRoutesTables(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE_SAVED_ROUTES + " ("
+                + "id TEXT PRIMARY KEY, "
+                + "title TEXT, "
+                + "start_latitude REAL NOT NULL, "
+                + "start_longitude REAL NOT NULL, "
+                + "distance INTEGER NOT NULL, "
+                + "duration INTEGER NOT NULL, "
+                + "categories TEXT, "
+                + "max_places INTEGER NOT NULL, "
+                + "include_food INTEGER NOT NULL, "
+                + "is_public INTEGER NOT NULL, "
+                + "share_code TEXT, "
+                + "created_at TEXT, "
+                + "created_at_millis INTEGER NOT NULL, "
+                + "sync_state INTEGER NOT NULL DEFAULT 0)");
+        db.execSQL("CREATE INDEX idx_saved_routes_created ON " + TABLE_SAVED_ROUTES + " (created_at_millis DESC)");
+
+        db.execSQL("CREATE TABLE " + TABLE_SAVED_ROUTE_POINTS + " ("
+                + "route_id TEXT NOT NULL, "
+                + "position INTEGER NOT NULL, "
+                + "place_id TEXT, "
+                + "name TEXT, "
+                + "address TEXT, "
+                + "categories TEXT, "
+                + "latitude REAL NOT NULL, "
+                + "longitude REAL NOT NULL, "
+                + "PRIMARY KEY (route_id, position))");
+
+        db.execSQL("CREATE TABLE " + TABLE_SYNC_STATE + " ("
+                + "key TEXT PRIMARY KEY, "
+                + "value TEXT)");
+    }
+
+    /**
+     * Полнотекстовый индекс по маршрутам: docid совпадает с rowid строки в saved_routes.
+     * unicode61 приводит к нижнему регистру и кириллицу, поэтому поиск не зависит от регистра.
+     */
+    private static void createSearchIndex(SQLiteDatabase db) {
+        db.execSQL("CREATE VIRTUAL TABLE " + TABLE_SAVED_ROUTES_FTS + " USING fts4("
+                + "title, places, addresses, categories, tokenize=unicode61)");
+    }
+
+    /** Сколько раз и когда последний раз открывался сохранённый маршрут. */
+    private static void createUsageTable(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE_ROUTE_USAGE + " ("
+                + "route_id TEXT PRIMARY KEY, "
+                + "open_count INTEGER NOT NULL, "
+                + "last_opened_at INTEGER NOT NULL)");
+    }
+
+    /**
+     * Очередь маршрутов, созданных на устройстве и ещё не подтверждённых сервером.
+     * seq задаёт порядок отправки; sent_from и sent_to — окно попыток, оставшихся без ответа.
+     */
+    private static void createOutboxTable(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE_ROUTE_OUTBOX + " ("
+                + "seq INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + "local_id TEXT NOT NULL UNIQUE, "
+                + "payload TEXT NOT NULL, "
+                + "created_at INTEGER NOT NULL, "
+                + "attempts INTEGER NOT NULL DEFAULT 0, "
+                + "maybe_sent INTEGER NOT NULL DEFAULT 0, "
+                + "sent_from INTEGER NOT NULL DEFAULT 0, "
+                + "sent_to INTEGER NOT NULL DEFAULT 0, "
+                + "state INTEGER NOT NULL DEFAULT 1, "
+                + "last_error TEXT)");
+    }
+
+    /** Заполняет индекс по уже лежащим на диске маршрутам (при обновлении базы). */
+    private static void rebuildSearchIndex(SQLiteDatabase db) {
+        db.execSQL("INSERT INTO " + TABLE_SAVED_ROUTES_FTS + " (docid, title, places, addresses, categories) "
+                + "SELECT r.rowid, r.title, "
+                + "(SELECT group_concat(p.name, ' ') FROM " + TABLE_SAVED_ROUTE_POINTS + " p WHERE p.route_id = r.id), "
+                + "(SELECT group_concat(p.address, ' ') FROM " + TABLE_SAVED_ROUTE_POINTS + " p WHERE p.route_id = r.id), "
+                + "coalesce(r.categories, '') || ' ' || coalesce((SELECT group_concat(p.categories, ' ') FROM "
+                + TABLE_SAVED_ROUTE_POINTS + " p WHERE p.route_id = r.id), '') "
+                + "FROM " + TABLE_SAVED_ROUTES + " r");
+    }
+
+    /**
+     * Удаляет данные пользователя (при выходе из аккаунта).
+     */
+    public void clearUserData() {
+        io.execute(() -> {
+            SQLiteDatabase db = getWritableDatabase();
+            db.beginTransaction();
+            try {
+                db.delete(TABLE_SAVED_ROUTE_POINTS, null, null);
+                db.delete(TABLE_SAVED_ROUTES, null, null);
+                db.delete(TABLE_SAVED_ROUTES_FTS, null, null);
+                db.delete(TABLE_SYNC_STATE, null, null);
+                db.delete(TABLE_ROUTE_GEOMETRY, null, null);
+                db.delete(TABLE_ROUTE_USAGE, null, null);
+                db.delete(TABLE_ROUTE_OUTBOX, null, null);
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        });
+    }
+}
@@ -0,0 +1,205 @@
+package ru.nsu.yousightseeing.storage;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import com.yandex.mapkit.geometry.Point;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import ru.nsu.yousightseeing.api.RouteApi;
+import ru.nsu.yousightseeing.utils.PolylineCodec;
+
+/**
+ * Геометрия сохранённых маршрутов. Ключ — id маршрута, рядом хранится хэш
+ * последовательности точек: если точки не менялись, маршрут открывается без /routes/calculate.
+ * Объём ограничен {@link #BUDGET_BYTES}: при переполнении удаляются давно не открывавшиеся маршруты (LRU).
+ */
+public final class RouteGeometryCache {
+
+    private static final String TAG = "RouteGeometryCache";
+
+    /** Предел суммарного размера закодированной геометрии на диске. */
+    public static final long BUDGET_BYTES = 4L * 1024 * 1024;
+
+    public static final class Entry {
+        public final String routeId;
+        public final String waypointsHash;
+        public final List<Point> geometry;
+        public final double distance;
+        public final double duration;
+
+        Entry(String routeId, String waypointsHash, List<Point> geometry, double distance, double duration) {
+            this.routeId = routeId;
+            this.waypointsHash = waypointsHash;
+            this.geometry = geometry;
+            this.distance = distance;
+            this.duration = duration;
+        }
+    }
+
+    public interface LookupCallback {
+        void onResult(@Nullable Entry entry);
+    }
+
+    private final LocalStore store;
+
+    public RouteGeometryCache(Context context) {
+        this.store = LocalStore.get(context);
+    }
+
+    /**
+     * Хэш старта и точек маршрута в порядке обхода (координаты округляются до 1e-6).
+     */
+    public static String waypointsHash(List<Point> waypoints) {
+        StringBuilder key = new StringBuilder(waypoints.size() * 24);
+        for (Point p : waypoints) {
+            key.append(String.format(Locale.US, "%.6f,%.6f;", p.getLatitude(), p.getLongitude()));
+        }
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            byte[] hash = digest.digest(key.toString().getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                hex.append(String.format(Locale.US, "%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            return Integer.toHexString(key.toString().hashCode());
+        }
+    }
+
+    /** Старт и точки сохранённого маршрута в порядке обхода — то, по чему строится геометрия. */
+    public static List<Point> waypointsOf(RouteApi.SavedRoute route) {
+        List<RouteApi.SavedRoutePoint> sortedPoints = new ArrayList<>(route.points);
+        sortedPoints.sort((a, b) -> Integer.compare(a.position, b.position));
+
+        List<Point> waypoints = new ArrayList<>();
+        waypoints.add(new Point(route.startLatitude, route.startLongitude));
+        for (RouteApi.SavedRoutePoint p : sortedPoints) {
+            waypoints.add(new Point(p.latitude, p.longitude));
+        }
+        return waypoints;
+    }
+
+    /** Ищет геометрию в фоне, результат приходит на главный поток. Найденная запись считается использованной. */
+    public void lookup(String routeId, LookupCallback cb) {
+        LocalStore.io().execute(() -> {
+            Entry entry = read(routeId);
+            if (entry != null) {
+                touch(routeId);
+            }
+            LocalStore.main().execute(() -> cb.onResult(entry));
+        });
+    }
+
+    public void put(String routeId, String waypointsHash, List<Point> geometry, double distance, double duration) {
+        if (routeId == null || routeId.isEmpty() || geometry == null || geometry.size() < 2) return;
+
+        String polyline = PolylineCodec.encode(geometry);
+        LocalStore.io().execute(() -> store(routeId, waypointsHash, polyline, distance, duration));
+    }
+
+    /**
+     * Есть ли на диске геометрия для этих точек. Не влияет на порядок вытеснения. Вызывать на io-потоке.
+     */
+    boolean contains(String routeId, String waypointsHash) {
+        try (Cursor c = store.getReadableDatabase().query(
+                LocalStore.TABLE_ROUTE_GEOMETRY, new String[]{"waypoints_hash"},
+                "route_id = ?", new String[]{routeId}, null, null, null)) {
+            return c.moveToFirst() && waypointsHash.equals(c.getString(0));
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    /**
+     * Сохраняет геометрию и вытесняет старые записи сверх бюджета. Вызывать на io-потоке.
+     *
+     * @return false, если ради места пришлось удалить другие маршруты
+     */
+    boolean store(String routeId, String waypointsHash, String polyline, double distance, double duration) {
+        long now = System.currentTimeMillis();
+        ContentValues values = new ContentValues();
+        values.put("route_id", routeId);
+        values.put("waypoints_hash", waypointsHash);
+        values.put("polyline", polyline);
+        values.put("distance", distance);
+        values.put("duration", duration);
+        values.put("updated_at", now);
+        values.put("last_used_at", now);
+        values.put("size_bytes", polyline.length());
+        try {
+            store.getWritableDatabase().insertWithOnConflict(
+                    LocalStore.TABLE_ROUTE_GEOMETRY, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+            return evictOverBudget(routeId) == 0;
+        } catch (Exception e) {
+            Log.w(TAG, "cannot store geometry for " + routeId, e);
+            return false;
+        }
+    }
+
+    private void touch(String routeId) {
+        ContentValues values = new ContentValues();
+        values.put("last_used_at", System.currentTimeMillis());
+        try {
+            store.getWritableDatabase().update(
+                    LocalStore.TABLE_ROUTE_GEOMETRY, values, "route_id = ?", new String[]{routeId});
+        } catch (Exception e) {
+            Log.w(TAG, "cannot touch geometry for " + routeId, e);
+        }
+    }
+
+    /** Удаляет самые давно использованные записи, пока объём больше бюджета; keepId не трогается. */
+    private int evictOverBudget(String keepId) {
+        SQLiteDatabase db = store.getWritableDatabase();
+        long total;
+        try (Cursor c = db.rawQuery("SELECT COALESCE(SUM(size_bytes), 0) FROM " + LocalStore.TABLE_ROUTE_GEOMETRY, null)) {
+            total = c.moveToFirst() ? c.getLong(0) : 0;
+        }
+        if (total <= BUDGET_BYTES) return 0;
+
+        List<String> victims = new ArrayList<>();
+        try (Cursor c = db.query(LocalStore.TABLE_ROUTE_GEOMETRY, new String[]{"route_id", "size_bytes"},
+                "route_id != ?", new String[]{keepId}, null, null, "last_used_at ASC")) {
+            while (total > BUDGET_BYTES && c.moveToNext()) {
+                victims.add(c.getString(0));
+                total -= c.getLong(1);
+            }
+        }
+        for (String id : victims) {
+            db.delete(LocalStore.TABLE_ROUTE_GEOMETRY, "route_id = ?", new String[]{id});
+        }
+        return victims.size();
+    }
+
+    @Nullable
+    private Entry read(String routeId) {
+        try (Cursor c = store.getReadableDatabase().query(
+                LocalStore.TABLE_ROUTE_GEOMETRY,
+                new String[]{"waypoints_hash", "polyline", "distance", "duration"},
+                "route_id = ?", new String[]{routeId},
+                null, null, null)) {
+            if (!c.moveToFirst()) return null;
+            return new Entry(
+                    routeId,
+                    c.getString(0),
+                    PolylineCodec.decode(c.getString(1)),
+                    c.getDouble(2),
+                    c.getDouble(3));
+        } catch (Exception e) {
+            Log.w(TAG, "cannot read geometry for " + routeId, e);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,291 @@
+package ru.nsu.yousightseeing.storage;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import com.yandex.mapkit.geometry.Point;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.time.OffsetDateTime;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+import ru.nsu.yousightseeing.api.RouteApi;
+
+/**
+ * Очередь создания маршрутов. Маршрут сначала пишется на диск (в зеркало — с пометкой «ждёт отправки»)
+ * под локальным id, а на сервер уходит позже из {@link RouteOutboxWorker}, по порядку.
+ * <p>
+ * Если ответ на POST потерялся, маршрут мог создаться. Сервер ключей идемпотентности не поддерживает,
+ * поэтому перед повтором такой записи ищется её копия на сервере: то же название, старт и число точек,
+ * а created_at — внутри окна, когда шли попытки без ответа. Найденная копия заменяет локальный id.
+ * Два одинаковых маршрута, сохранённых в разное время, так не склеиваются.
+ */
+public final class RouteOutbox {
+
+    private static final String TAG = "RouteOutbox";
+    private static final String LOCAL_ID_PREFIX = "local-";
+    /** Допустимое расхождение часов устройства и сервера при сверке created_at. */
+    private static final long CLOCK_SKEW_MS = 2L * 60 * 1000;
+
+    static final class Entry {
+        final long seq;
+        final String localId;
+        final String payload;
+        final long createdAt;
+        final int attempts;
+        final boolean maybeSent;
+        /** Окно попыток без ответа: начало первой и конец последней. 0 — таких попыток не было. */
+        final long sentFrom;
+        final long sentTo;
+
+        final String title;
+        final double startLatitude;
+        final double startLongitude;
+        final int pointsCount;
+
+        Entry(long seq, String localId, String payload, long createdAt, int attempts, boolean maybeSent,
+              long sentFrom, long sentTo) throws JSONException {
+            this.seq = seq;
+            this.localId = localId;
+            this.payload = payload;
+            this.createdAt = createdAt;
+            this.attempts = attempts;
+            this.maybeSent = maybeSent;
+            this.sentFrom = sentFrom;
+            this.sentTo = sentTo;
+
+            JSONObject body = new JSONObject(payload);
+            JSONArray points = body.optJSONArray("points");
+            this.title = body.optString("title", "");
+            this.startLatitude = body.optDouble("start_latitude", 0.0);
+            this.startLongitude = body.optDouble("start_longitude", 0.0);
+            this.pointsCount = points != null ? points.length() : 0;
+        }
+
+        /** Похож ли маршрут с сервера на копию этой записи. */
+        boolean matches(RouteApi.SavedRoute route) {
+            return title.equals(route.title)
+                    && sameCoordinate(startLatitude, route.startLatitude)
+                    && sameCoordinate(startLongitude, route.startLongitude)
+                    && pointsCount == route.points.size()
+                    && inSendWindow(SavedRoutesRepository.parseCreatedAt(route.createdAt));
+        }
+
+        /** Мог ли маршрут с таким created_at создаться одной из попыток без ответа. */
+        boolean inSendWindow(long createdAtMillis) {
+            return maybeSent
+                    && createdAtMillis >= sentFrom - CLOCK_SKEW_MS
+                    && createdAtMillis <= sentTo + CLOCK_SKEW_MS;
+        }
+    }
+
+    private final LocalStore store;
+    private final RouteGeometryCache geometryCache;
+
+    public RouteOutbox(Context context) {
+        this.store = LocalStore.get(context);
+        this.geometryCache = new RouteGeometryCache(context);
+    }
+
+    public static boolean isLocalId(@Nullable String routeId) {
+        return routeId != null && routeId.startsWith(LOCAL_ID_PREFIX);
+    }
+
+    /**
+     * Ставит маршрут в очередь и сразу показывает его в списке как ожидающий отправки.
+     * Уже посчитанная геометрия сохраняется под локальным id, так что маршрут открывается без сети.
+     *
+     * @return локальный id маршрута или null, если маршрут не удалось записать
+     */
+    @Nullable
+    public String enqueueCreate(Context ctx, RouteApi.SavedRoute route,
+                                List<Point> geometry, double distance, double duration) {
+        String localId = LOCAL_ID_PREFIX + UUID.randomUUID();
+        route.id = localId;
+        route.syncState = RouteApi.SavedRoute.PENDING;
+        route.createdAt = OffsetDateTime.now().toString();
+
+        String payload;
+        try {
+            payload = RouteApi.buildCreateRouteBody(route).toString();
+        } catch (JSONException e) {
+            Log.e(TAG, "cannot build route payload", e);
+            return null;
+        }
+
+        long createdAt = System.currentTimeMillis();
+        LocalStore.io().execute(() -> {
+            SQLiteDatabase db = store.getWritableDatabase();
+            db.beginTransaction();
+            try {
+                ContentValues values = new ContentValues();
+                values.put("local_id", localId);
+                values.put("payload", payload);
+                values.put("created_at", createdAt);
+                values.put("state", RouteApi.SavedRoute.PENDING);
+                db.insertOrThrow(LocalStore.TABLE_ROUTE_OUTBOX, null, values);
+                SavedRoutesRepository.writeRoute(db, route);
+                db.setTransactionSuccessful();
+            } catch (Exception e) {
+                Log.e(TAG, "cannot enqueue route " + localId, e);
+            } finally {
+                db.endTransaction();
+            }
+        });
+        geometryCache.put(localId, RouteGeometryCache.waypointsHash(RouteGeometryCache.waypointsOf(route)),
+                geometry, distance, duration);
+
+        RouteOutboxWorker.schedule(ctx);
+        return localId;
+    }
+
+    /**
+     * Самая старая запись, ждущая отправки. Запись с испорченным payload не должна держать
+     * очередь: она помечается отклонённой, и берётся следующая. Вызывать на io-потоке.
+     */
+    @Nullable
+    Entry next() {
+        while (true) {
+            long seq;
+            String localId;
+            try (Cursor c = store.getReadableDatabase().query(LocalStore.TABLE_ROUTE_OUTBOX,
+                    new String[]{"seq", "local_id", "payload", "created_at", "attempts", "maybe_sent",
+                            "sent_from", "sent_to"},
+                    "state = ?", new String[]{String.valueOf(RouteApi.SavedRoute.PENDING)},
+                    null, null, "seq", "1")) {
+                if (!c.moveToFirst()) return null;
+                seq = c.getLong(0);
+                localId = c.getString(1);
+                try {
+                    return new Entry(seq, localId, c.getString(2),
+                            c.getLong(3), c.getInt(4), c.getInt(5) != 0, c.getLong(6), c.getLong(7));
+                } catch (JSONException e) {
+                    Log.e(TAG, "corrupted outbox payload, seq " + seq, e);
+                }
+            }
+            markRejected(seq, localId, "corrupted payload");
+        }
+    }
+
+    /**
+     * Неудачная попытка, шедшая с startedAt по finishedAt; maybeSent — ответа не было,
+     * маршрут мог создаться, и окно сверки расширяется на эту попытку. Вызывать на io-потоке.
+     */
+    void recordAttempt(Entry entry, boolean maybeSent, String error, long startedAt, long finishedAt) {
+        ContentValues values = new ContentValues();
+        values.put("attempts", entry.attempts + 1);
+        if (maybeSent) {
+            values.put("maybe_sent", 1);
+            values.put("sent_from", entry.maybeSent ? Math.min(entry.sentFrom, startedAt) : startedAt);
+            values.put("sent_to", Math.max(entry.sentTo, finishedAt));
+        }
+        values.put("last_error", error);
+        store.getWritableDatabase().update(LocalStore.TABLE_ROUTE_OUTBOX, values,
+                "seq = ?", new String[]{String.valueOf(entry.seq)});
+    }
+
+    /** Сервер отклонил маршрут: запись больше не отправляется, в списке маршрут помечен. Вызывать на io-потоке. */
+    void markRejected(Entry entry, String error) {
+        markRejected(entry.seq, entry.localId, error);
+    }
+
+    private void markRejected(long seq, String localId, String error) {
+        SQLiteDatabase db = store.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            ContentValues outbox = new ContentValues();
+            outbox.put("state", RouteApi.SavedRoute.REJECTED);
+            outbox.put("last_error", error);
+            db.update(LocalStore.TABLE_ROUTE_OUTBOX, outbox, "seq = ?", new String[]{String.valueOf(seq)});
+
+            ContentValues route = new ContentValues();
+            route.put("sync_state", RouteApi.SavedRoute.REJECTED);
+            db.update(LocalStore.TABLE_SAVED_ROUTES, route, "id = ?", new String[]{localId});
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Копия записи, уже попавшая в зеркало при синхронизации; маршруты из claimed уже
+     * подтверждены другими записями очереди. Вызывать на io-потоке.
+     */
+    @Nullable
+    String findLocalDuplicate(Entry entry, Set<String> claimed) {
+        try (Cursor c = store.getReadableDatabase().rawQuery(
+                "SELECT r.id, r.start_latitude, r.start_longitude, "
+                        + "(SELECT COUNT(*) FROM " + LocalStore.TABLE_SAVED_ROUTE_POINTS + " p WHERE p.route_id = r.id) "
+                        + "FROM " + LocalStore.TABLE_SAVED_ROUTES + " r "
+                        + "WHERE r.sync_state = ? AND r.title = ? AND r.created_at_millis BETWEEN ? AND ?",
+                new String[]{String.valueOf(RouteApi.SavedRoute.SYNCED), entry.title,
+                        String.valueOf(entry.sentFrom - CLOCK_SKEW_MS),
+                        String.valueOf(entry.sentTo + CLOCK_SKEW_MS)})) {
+            while (c.moveToNext()) {
+                if (!claimed.contains(c.getString(0))
+                        && sameCoordinate(entry.startLatitude, c.getDouble(1))
+                        && sameCoordinate(entry.startLongitude, c.getDouble(2))
+                        && entry.pointsCount == c.getInt(3)) {
+                    return c.getString(0);
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Сервер подтвердил маршрут: запись уходит из очереди, локальный id заменяется серверным.
+     * Если маршрут с серверным id уже пришёл синхронизацией, локальная копия просто удаляется.
+     * Вызывать на io-потоке.
+     */
+    void complete(Entry entry, String serverId) {
+        SQLiteDatabase db = store.getWritableDatabase();
+        String[] local = {entry.localId};
+        String[] both = {serverId, entry.localId};
+        db.beginTransaction();
+        try {
+            db.delete(LocalStore.TABLE_ROUTE_OUTBOX, "seq = ?", new String[]{String.valueOf(entry.seq)});
+
+            if (exists(db, serverId)) {
+                db.execSQL("DELETE FROM " + LocalStore.TABLE_SAVED_ROUTES_FTS + " WHERE docid = "
+                        + "(SELECT rowid FROM " + LocalStore.TABLE_SAVED_ROUTES + " WHERE id = ?)", local);
+                db.delete(LocalStore.TABLE_SAVED_ROUTE_POINTS, "route_id = ?", local);
+                db.delete(LocalStore.TABLE_SAVED_ROUTES, "id = ?", local);
+            } else {
+                ContentValues route = new ContentValues();
+                route.put("id", serverId);
+                route.put("sync_state", RouteApi.SavedRoute.SYNCED);
+                db.update(LocalStore.TABLE_SAVED_ROUTES, route, "id = ?", local);
+                db.execSQL("UPDATE " + LocalStore.TABLE_SAVED_ROUTE_POINTS + " SET route_id = ? WHERE route_id = ?", both);
+            }
+
+            // Геометрия и статистика открытий переезжают на серверный id
+            db.execSQL("UPDATE OR REPLACE " + LocalStore.TABLE_ROUTE_GEOMETRY + " SET route_id = ? WHERE route_id = ?", both);
+            db.execSQL("UPDATE OR REPLACE " + LocalStore.TABLE_ROUTE_USAGE + " SET route_id = ? WHERE route_id = ?", both);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    private static boolean exists(SQLiteDatabase db, String routeId) {
+        try (Cursor c = db.query(LocalStore.TABLE_SAVED_ROUTES, new String[]{"id"},
+                "id = ?", new String[]{routeId}, null, null, null)) {
+            return c.moveToFirst();
+        }
+    }
+
+    private static boolean sameCoordinate(double a, double b) {
+        return Math.abs(a - b) < 1e-6;
+    }
+}
@@ -0,0 +1,198 @@
+package ru.nsu.yousightseeing.storage;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.work.BackoffPolicy;
+import androidx.work.Constraints;
+import androidx.work.ExistingWorkPolicy;
+import androidx.work.NetworkType;
+import androidx.work.OneTimeWorkRequest;
+import androidx.work.WorkManager;
+import androidx.work.Worker;
+import androidx.work.WorkerParameters;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import ru.nsu.yousightseeing.api.RequestScheduler;
+import ru.nsu.yousightseeing.api.RouteApi;
+import ru.nsu.yousightseeing.features.AuthActivity;
+
+/**
+ * Отправляет очередь {@link RouteOutbox} по порядку. Работа запускается, когда есть сеть;
+ * на временной ошибке останавливается на текущей записи и повторяется с экспоненциальной задержкой
+ * WorkManager, поэтому порядок маршрутов сохраняется. Если сессия истекла (401 после попытки обновить
+ * токен), очередь ждёт входа: работа завершается без повтора, а {@link #schedule} вызывается после логина.
+ */
+public class RouteOutboxWorker extends Worker {
+
+    private static final String TAG = "RouteOutbox";
+    private static final String WORK_NAME = "route_outbox_flush";
+    private static final int DUPLICATE_LOOKUP_LIMIT = 50;
+    private static final long REQUEST_TIMEOUT_SEC = 60;
+
+    public RouteOutboxWorker(@NonNull Context context, @NonNull WorkerParameters params) {
+        super(context, params);
+    }
+
+    /** Запускает отправку; если она уже идёт, новая выполнится следом и заберёт свежие записи. */
+    public static void schedule(Context context) {
+        Constraints constraints = new Constraints.Builder()
+                .setRequiredNetworkType(NetworkType.CONNECTED)
+                .build();
+        OneTimeWorkRequest request = new OneTimeWorkRequest.Builder(RouteOutboxWorker.class)
+                .setConstraints(constraints)
+                .setBackoffCriteria(BackoffPolicy.EXPONENTIAL, 30, TimeUnit.SECONDS)
+                .build();
+        WorkManager.getInstance(context)
+                .enqueueUniqueWork(WORK_NAME, ExistingWorkPolicy.APPEND_OR_REPLACE, request);
+    }
+
+    @NonNull
+    @Override
+    public Result doWork() {
+        // Без входа отправлять нечего: записи дождутся следующего сохранения
+        if (!AuthActivity.isAuthenticated()) return Result.success();
+
+        Context ctx = RequestScheduler.withLane(getApplicationContext(), RequestScheduler.Lane.PREFETCH);
+        RouteOutbox outbox = new RouteOutbox(ctx);
+        // Серверные маршруты, уже подтвердившие записи очереди: второй такой же записи они не копия
+        Set<String> claimed = new HashSet<>();
+
+        try {
+            while (!isStopped()) {
+                RouteOutbox.Entry entry = LocalStore.await(outbox::next);
+                if (entry == null) return Result.success();
+
+                if (entry.maybeSent) {
+                    String duplicateId = LocalStore.await(() -> outbox.findLocalDuplicate(entry, claimed));
+                    if (duplicateId == null) {
+                        List<RouteApi.SavedRoute> recent = fetchRecent(ctx);
+                        if (recent == null) return Result.retry();
+                        for (RouteApi.SavedRoute route : recent) {
+                            if (!claimed.contains(route.id) && entry.matches(route)) {
+                                duplicateId = route.id;
+                                break;
+                            }
+                        }
+                    }
+                    if (duplicateId != null) {
+                        Log.i(TAG, entry.localId + " already created as " + duplicateId);
+                        complete(outbox, entry, duplicateId, claimed);
+                        continue;
+                    }
+                }
+
+                long startedAt = System.currentTimeMillis();
+                PostResult result = post(ctx, entry);
+                long finishedAt = System.currentTimeMillis();
+                if (result.routeId != null) {
+                    complete(outbox, entry, result.routeId, claimed);
+                    continue;
+                }
+
+                if (result.code == 401) {
+                    // Токен не обновился: без входа повторять бесполезно, запись ждёт логина
+                    Log.i(TAG, "session expired, outbox on hold until login");
+                    return Result.success();
+                }
+
+                if (result.code == 0 || isTransient(result.code)) {
+                    boolean maybeSent = result.code == 0;
+                    LocalStore.await(() -> {
+                        outbox.recordAttempt(entry, maybeSent, result.message, startedAt, finishedAt);
+                        return null;
+                    });
+                    return Result.retry();
+                }
+
+                Log.w(TAG, entry.localId + " rejected: " + result.message);
+                LocalStore.await(() -> {
+                    outbox.markRejected(entry, result.message);
+                    return null;
+                });
+            }
+            return Result.retry();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return Result.retry();
+        }
+    }
+
+    private static void complete(RouteOutbox outbox, RouteOutbox.Entry entry, String serverId,
+                                 Set<String> claimed) throws InterruptedException {
+        claimed.add(serverId);
+        LocalStore.await(() -> {
+            outbox.complete(entry, serverId);
+            return null;
+        });
+    }
+
+    private static boolean isTransient(int code) {
+        return code == 408 || code == 429 || code >= 500;
+    }
+
+    private static final class PostResult {
+        final String routeId;
+        final int code;
+        final String message;
+
+        PostResult(String routeId, int code, String message) {
+            this.routeId = routeId;
+            this.code = code;
+            this.message = message;
+        }
+    }
+
+    private static PostResult post(Context ctx, RouteOutbox.Entry entry) throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(1);
+        AtomicReference<PostResult> result = new AtomicReference<>();
+        RouteApi.createRoute(ctx, entry.payload, new RouteApi.CreateRouteCallback() {
+            @Override
+            public void onSuccess(String routeId) {
+                // Без id ответ бесполезен: считаем его потерянным, копию найдёт сверка
+                result.set(routeId != null && !routeId.isEmpty()
+                        ? new PostResult(routeId, 200, null)
+                        : new PostResult(null, 0, "empty route_id"));
+                done.countDown();
+            }
+
+            @Override
+            public void onError(int code, String message) {
+                result.set(new PostResult(null, code, message));
+                done.countDown();
+            }
+        });
+        if (!done.await(REQUEST_TIMEOUT_SEC, TimeUnit.SECONDS)) {
+            return new PostResult(null, 0, "timeout");
+        }
+        return result.get();
+    }
+
+    /** Голова ленты с сервера для поиска копии; null — сервер недоступен. */
+    private static List<RouteApi.SavedRoute> fetchRecent(Context ctx) throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(1);
+        AtomicReference<List<RouteApi.SavedRoute>> result = new AtomicReference<>();
+        RouteApi.getSavedRoutes(ctx, DUPLICATE_LOOKUP_LIMIT, 0, new RouteApi.RouteListCallback() {
+            @Override
+            public void onSuccess(List<RouteApi.SavedRoute> routes) {
+                result.set(routes);
+                done.countDown();
+            }
+
+            @Override
+            public void onError(String message) {
+                Log.w(TAG, "duplicate lookup: " + message);
+                done.countDown();
+            }
+        });
+        done.await(REQUEST_TIMEOUT_SEC, TimeUnit.SECONDS);
+        return result.get();
+    }
+}
@@ -0,0 +1,165 @@
+package ru.nsu.yousightseeing.storage;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.work.Constraints;
+import androidx.work.ExistingPeriodicWorkPolicy;
+import androidx.work.NetworkType;
+import androidx.work.PeriodicWorkRequest;
+import androidx.work.WorkManager;
+import androidx.work.Worker;
+import androidx.work.WorkerParameters;
+
+import com.yandex.mapkit.geometry.Point;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import ru.nsu.yousightseeing.api.RequestScheduler;
+import ru.nsu.yousightseeing.api.RouteApi;
+import ru.nsu.yousightseeing.features.AuthActivity;
+import ru.nsu.yousightseeing.utils.AppLog;
+import ru.nsu.yousightseeing.utils.PolylineCodec;
+
+/**
+ * Фоновая предзагрузка сохранённых маршрутов: на безлимитной сети и на зарядке
+ * докачивает детали (точки) и геометрию часто открываемых и самых новых маршрутов,
+ * чтобы в поле они открывались без сети. Объём геометрии ограничен бюджетом
+ * {@link RouteGeometryCache}; когда предзагрузка начинает вытеснять другие маршруты, она останавливается.
+ */
+public class RoutePrefetchWorker extends Worker {
+
+    private static final String TAG = "RoutePrefetch";
+    private static final String WORK_NAME = "saved_routes_prefetch";
+    private static final int MAX_ROUTES = 20;
+    private static final long REQUEST_TIMEOUT_SEC = 60;
+
+    public RoutePrefetchWorker(@NonNull Context context, @NonNull WorkerParameters params) {
+        super(context, params);
+    }
+
+    /** Ставит периодическую предзагрузку; повторный вызов не сбрасывает расписание. */
+    public static void schedule(Context context) {
+        Constraints constraints = new Constraints.Builder()
+                .setRequiredNetworkType(NetworkType.UNMETERED)
+                .setRequiresCharging(true)
+                .build();
+        PeriodicWorkRequest request = new PeriodicWorkRequest.Builder(RoutePrefetchWorker.class, 12, TimeUnit.HOURS)
+                .setConstraints(constraints)
+                .build();
+        WorkManager.getInstance(context)
+                .enqueueUniquePeriodicWork(WORK_NAME, ExistingPeriodicWorkPolicy.KEEP, request);
+    }
+
+    @NonNull
+    @Override
+    public Result doWork() {
+        if (!AuthActivity.isAuthenticated()) return Result.success();
+
+        Context ctx = RequestScheduler.withLane(getApplicationContext(), RequestScheduler.Lane.PREFETCH);
+        SavedRoutesRepository repository = new SavedRoutesRepository(ctx);
+        RouteGeometryCache cache = new RouteGeometryCache(ctx);
+
+        try {
+            List<RouteApi.SavedRoute> candidates = LocalStore.await(() -> repository.prefetchCandidates(MAX_ROUTES));
+            int fetched = 0;
+            for (RouteApi.SavedRoute candidate : candidates) {
+                if (isStopped()) break;
+
+                RouteApi.SavedRoute route = candidate;
+                if (route.points.isEmpty()) {
+                    route = fetchDetails(ctx, route.id);
+                    if (route == null) continue;
+                    RouteApi.SavedRoute details = route;
+                    LocalStore.await(() -> {
+                        repository.saveRoute(details);
+                        return null;
+                    });
+                }
+
+                List<Point> waypoints = RouteGeometryCache.waypointsOf(route);
+                if (waypoints.size() < 2) continue;
+                String hash = RouteGeometryCache.waypointsHash(waypoints);
+                String routeId = route.id;
+                if (LocalStore.await(() -> cache.contains(routeId, hash))) continue;
+
+                GeometryResult geometry = fetchGeometry(ctx, waypoints);
+                if (geometry == null) continue;
+                String polyline = PolylineCodec.encode(geometry.points);
+                boolean fits = LocalStore.await(() ->
+                        cache.store(routeId, hash, polyline, geometry.distance, geometry.duration));
+                fetched++;
+                if (!fits) {
+                    // Бюджет исчерпан: дальше предзагрузка вытесняла бы сама себя
+                    break;
+                }
+            }
+            if (AppLog.ENABLED) {
+                int total = fetched;
+                AppLog.d(TAG, () -> "prefetched geometry for " + total + " of " + candidates.size() + " routes");
+            }
+            return Result.success();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return Result.retry();
+        }
+    }
+
+    private static RouteApi.SavedRoute fetchDetails(Context ctx, String routeId) throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(1);
+        AtomicReference<RouteApi.SavedRoute> result = new AtomicReference<>();
+        RouteApi.getSavedRouteById(ctx, routeId, new RouteApi.GetSavedRouteCallback() {
+            @Override
+            public void onSuccess(RouteApi.SavedRoute route) {
+                result.set(route);
+                done.countDown();
+            }
+
+            @Override
+            public void onError(String message) {
+                Log.w(TAG, "details for " + routeId + ": " + message);
+                done.countDown();
+            }
+        });
+        done.await(REQUEST_TIMEOUT_SEC, TimeUnit.SECONDS);
+        return result.get();
+    }
+
+    private static final class GeometryResult {
+        final List<Point> points;
+        final double distance;
+        final double duration;
+
+        GeometryResult(List<Point> points, double distance, double duration) {
+            this.points = points;
+            this.distance = distance;
+            this.duration = duration;
+        }
+    }
+
+    private static GeometryResult fetchGeometry(Context ctx, List<Point> waypoints) throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(1);
+        AtomicReference<GeometryResult> result = new AtomicReference<>();
+        RouteApi.calculateRoute(ctx, waypoints, false, new RouteApi.RouteCallback() {
+            @Override
+            public void onSuccess(List<Point> routePoints, double distance, double duration) {
+                if (routePoints != null && routePoints.size() >= 2) {
+                    result.set(new GeometryResult(routePoints, distance, duration));
+                }
+                done.countDown();
+            }
+
+            @Override
+            public void onError(String message) {
+                Log.w(TAG, "geometry: " + message);
+                done.countDown();
+            }
+        });
+        done.await(REQUEST_TIMEOUT_SEC, TimeUnit.SECONDS);
+        return result.get();
+    }
+}
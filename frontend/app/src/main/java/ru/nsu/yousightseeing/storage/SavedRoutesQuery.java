@@ -0,0 +1,82 @@
+package ru.nsu.yousightseeing.storage;
+
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Поиск по локальному зеркалу сохранённых маршрутов: текст плюс фасеты
+ * (диапазоны длины и времени, период создания). Границы включительные, 0 — без ограничения.
+ */
+public final class SavedRoutesQuery {
+
+    public final String text;
+    public final long minDistance;
+    public final long maxDistance;
+    public final int minDuration;
+    public final int maxDuration;
+    public final long createdFromMillis;
+    public final long createdToMillis;
+
+    public SavedRoutesQuery(@Nullable String text,
+                            long minDistance, long maxDistance,
+                            int minDuration, int maxDuration,
+                            long createdFromMillis, long createdToMillis) {
+        this.text = text != null ? text.trim() : "";
+        this.minDistance = minDistance;
+        this.maxDistance = maxDistance;
+        this.minDuration = minDuration;
+        this.maxDuration = maxDuration;
+        this.createdFromMillis = createdFromMillis;
+        this.createdToMillis = createdToMillis;
+    }
+
+    public boolean isEmpty() {
+        return matchExpression() == null
+                && minDistance <= 0 && maxDistance <= 0
+                && minDuration <= 0 && maxDuration <= 0
+                && createdFromMillis <= 0 && createdToMillis <= 0;
+    }
+
+    /**
+     * Выражение для MATCH: каждое слово ищется по префиксу, слова объединяются через И.
+     * Символы синтаксиса FTS отбрасываются, поэтому ввод пользователя не ломает запрос.
+     */
+    @Nullable
+    String matchExpression() {
+        StringBuilder match = new StringBuilder();
+        for (String token : text.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+")) {
+            if (token.isEmpty()) continue;
+            if (match.length() > 0) match.append(' ');
+            match.append(token).append('*');
+        }
+        return match.length() > 0 ? match.toString() : null;
+    }
+
+    /** Условие WHERE по таблице saved_routes; аргументы дописываются в args. */
+    @Nullable
+    String selection(List<String> args) {
+        List<String> clauses = new ArrayList<>();
+        String match = matchExpression();
+        if (match != null) {
+            clauses.add("rowid IN (SELECT docid FROM " + LocalStore.TABLE_SAVED_ROUTES_FTS
+                    + " WHERE " + LocalStore.TABLE_SAVED_ROUTES_FTS + " MATCH ?)");
+            args.add(match);
+        }
+        addBound(clauses, args, "distance >= ?", minDistance);
+        addBound(clauses, args, "distance <= ?", maxDistance);
+        addBound(clauses, args, "duration >= ?", minDuration);
+        addBound(clauses, args, "duration <= ?", maxDuration);
+        addBound(clauses, args, "created_at_millis >= ?", createdFromMillis);
+        addBound(clauses, args, "created_at_millis <= ?", createdToMillis);
+        return clauses.isEmpty() ? null : String.join(" AND ", clauses);
+    }
+
+    private static void addBound(List<String> clauses, List<String> args, String clause, long value) {
+        if (value <= 0) return;
+        clauses.add(clause);
+        args.add(String.valueOf(value));
+    }
+}
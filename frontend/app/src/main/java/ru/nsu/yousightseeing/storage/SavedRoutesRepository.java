@@ -0,0 +1,525 @@
+package ru.nsu.yousightseeing.storage;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import org.json.JSONArray;
+
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import ru.nsu.yousightseeing.api.RequestScheduler;
+import ru.nsu.yousightseeing.api.RouteApi;
+
+/**
+ * Локальное зеркало сохранённых маршрутов пользователя.
+ * <p>
+ * Экран профиля читает список с диска страницами ({@link SavedRoutesPager}) и в фоне синхронизирует
+ * голову ленты: сервер отдаёт маршруты по убыванию created_at, поэтому страницы читаются,
+ * пока не встретится маршрут не новее последнего виденного. Хвост истории догружается
+ * по мере прокрутки через {@link #fetchOlder}. Удаления маршрутов API не поддерживает,
+ * поэтому зеркало только пополняется. Вместе со строкой маршрута обновляется его запись
+ * в полнотекстовом индексе, так что поиск ({@link SavedRoutesQuery}) видит маршруты сразу после синхронизации.
+ */
+public final class SavedRoutesRepository {
+
+    private static final String TAG = "SavedRoutesRepo";
+    private static final String KEY_LAST_SEEN = "saved_routes_last_seen_created_at";
+    private static final String KEY_HISTORY_COMPLETE = "saved_routes_history_complete";
+    private static final int SYNC_PAGE_SIZE = 50;
+    private static final String[] ROUTE_COLUMNS = {"id", "title", "start_latitude", "start_longitude", "distance",
+            "duration", "categories", "max_places", "include_food", "is_public", "share_code", "created_at", "sync_state"};
+
+    /**
+     * Позиция в ленте маршрутов для keyset-выборки: (created_at, id) последнего элемента страницы.
+     */
+    public static final class PageKey {
+        public final long createdAtMillis;
+        public final String id;
+
+        PageKey(long createdAtMillis, String id) {
+            this.createdAtMillis = createdAtMillis;
+            this.id = id;
+        }
+
+        public static PageKey after(RouteApi.SavedRoute route) {
+            return new PageKey(parseCreatedAt(route.createdAt), route.id);
+        }
+    }
+
+    public interface OlderPageCallback {
+        /** Вызывается на главном потоке; added — сколько маршрутов пришло с сервера. */
+        void onLoaded(int added);
+        void onError(String message);
+    }
+
+    public interface SyncCallback {
+        /** Вызывается на главном потоке; changed — появились новые маршруты. */
+        void onSynced(boolean changed);
+        void onError(String message);
+    }
+
+    private final LocalStore store;
+
+    public SavedRoutesRepository(Context context) {
+        this.store = LocalStore.get(context);
+    }
+
+    /** Дотягивает маршруты новее последнего виденного created_at. */
+    public void sync(Context ctx, SyncCallback cb) {
+        Context requestContext = RequestScheduler.withLane(ctx, RequestScheduler.Lane.PREFETCH);
+        LocalStore.io().execute(() -> {
+            long lastSeen = readLastSeen();
+            LocalStore.main().execute(() -> fetchPage(requestContext, 0, lastSeen, lastSeen, false, cb));
+        });
+    }
+
+    private void fetchPage(Context ctx, int offset, long lastSeen, long newestSeen, boolean changed, SyncCallback cb) {
+        RouteApi.getSavedRoutes(ctx, SYNC_PAGE_SIZE, offset, new RouteApi.RouteListCallback() {
+            @Override
+            public void onSuccess(List<RouteApi.SavedRoute> routes) {
+                LocalStore.io().execute(() -> {
+                    List<RouteApi.SavedRoute> fresh = new ArrayList<>();
+                    boolean reachedKnown = false;
+                    long newest = newestSeen;
+                    for (RouteApi.SavedRoute route : routes) {
+                        long createdAt = parseCreatedAt(route.createdAt);
+                        if (lastSeen > 0 && createdAt <= lastSeen) {
+                            reachedKnown = true;
+                            break;
+                        }
+                        fresh.add(route);
+                        newest = Math.max(newest, createdAt);
+                    }
+
+                    upsert(fresh);
+
+                    boolean anyChanged = changed || !fresh.isEmpty();
+                    boolean firstSync = lastSeen == 0;
+                    if (firstSync && routes.size() < SYNC_PAGE_SIZE) {
+                        writeState(KEY_HISTORY_COMPLETE, "1");
+                    }
+                    // При первой синхронизации берём только голову, хвост догрузит прокрутка
+                    if (reachedKnown || firstSync || routes.size() < SYNC_PAGE_SIZE) {
+                        // Отметка сдвигается, только когда весь разрыв закрыт
+                        writeLastSeen(newest);
+                        LocalStore.main().execute(() -> cb.onSynced(anyChanged));
+                    } else {
+                        long newestSoFar = newest;
+                        LocalStore.main().execute(() ->
+                                fetchPage(ctx, offset + SYNC_PAGE_SIZE, lastSeen, newestSoFar, anyChanged, cb));
+                    }
+                });
+            }
+
+            @Override
+            public void onError(String message) {
+                LocalStore.main().execute(() -> cb.onError(message));
+            }
+        });
+    }
+
+    /**
+     * Догружает с сервера маршруты старше тех, что уже лежат на диске.
+     * Сервер умеет только offset, а локальное зеркало — префикс его ленты,
+     * поэтому смещение равно числу локальных маршрутов, пришедших с сервера.
+     */
+    public void fetchOlder(Context ctx, OlderPageCallback cb) {
+        Context requestContext = RequestScheduler.withLane(ctx, RequestScheduler.Lane.PREFETCH);
+        LocalStore.io().execute(() -> {
+            int offset = countSynced();
+            LocalStore.main().execute(() -> RouteApi.getSavedRoutes(requestContext, SYNC_PAGE_SIZE, offset, new RouteApi.RouteListCallback() {
+                @Override
+                public void onSuccess(List<RouteApi.SavedRoute> routes) {
+                    LocalStore.io().execute(() -> {
+                        int before = count();
+                        upsert(routes);
+                        if (routes.size() < SYNC_PAGE_SIZE) {
+                            writeState(KEY_HISTORY_COMPLETE, "1");
+                        }
+                        int added = count() - before;
+                        LocalStore.main().execute(() -> cb.onLoaded(added));
+                    });
+                }
+
+                @Override
+                public void onError(String message) {
+                    LocalStore.main().execute(() -> cb.onError(message));
+                }
+            }));
+        });
+    }
+
+    /** Вся ли история уже на диске. Вызывать на io-потоке. */
+    public boolean isHistoryComplete() {
+        return "1".equals(readState(KEY_HISTORY_COMPLETE));
+    }
+
+    /** Число маршрутов на диске. Вызывать на io-потоке. */
+    public int count() {
+        return count(null);
+    }
+
+    /** Число маршрутов, пришедших с сервера: без ещё не отправленных из очереди. Вызывать на io-потоке. */
+    int countSynced() {
+        try (Cursor c = store.getReadableDatabase().rawQuery("SELECT COUNT(*) FROM " + LocalStore.TABLE_SAVED_ROUTES
+                + " WHERE sync_state = " + RouteApi.SavedRoute.SYNCED, null)) {
+            return c.moveToFirst() ? c.getInt(0) : 0;
+        } catch (Exception e) {
+            Log.w(TAG, "cannot count synced routes", e);
+            return 0;
+        }
+    }
+
+    /** Число маршрутов на диске, подходящих под запрос. Вызывать на io-потоке. */
+    public int count(@Nullable SavedRoutesQuery query) {
+        List<String> args = new ArrayList<>();
+        String selection = query != null ? query.selection(args) : null;
+        String sql = "SELECT COUNT(*) FROM " + LocalStore.TABLE_SAVED_ROUTES
+                + (selection != null ? " WHERE " + selection : "");
+        try (Cursor c = store.getReadableDatabase().rawQuery(sql, args.toArray(new String[0]))) {
+            return c.moveToFirst() ? c.getInt(0) : 0;
+        } catch (Exception e) {
+            Log.w(TAG, "cannot count saved routes", e);
+            return 0;
+        }
+    }
+
+    /**
+     * Страница маршрутов, новые первыми. Если известен ключ конца предыдущей страницы,
+     * выборка идёт по индексу (keyset), иначе — по смещению. Запрос сужает выборку
+     * через полнотекстовый индекс и фасеты. Вызывать на io-потоке.
+     */
+    public List<RouteApi.SavedRoute> queryPage(@Nullable SavedRoutesQuery query,
+                                               @Nullable PageKey after, int offset, int limit) {
+        List<String> args = new ArrayList<>();
+        List<String> clauses = new ArrayList<>();
+        String filter = query != null ? query.selection(args) : null;
+        if (filter != null) {
+            clauses.add(filter);
+        }
+        String limitClause = String.valueOf(limit);
+        if (after != null) {
+            clauses.add("(created_at_millis < ? OR (created_at_millis = ? AND id < ?))");
+            String millis = String.valueOf(after.createdAtMillis);
+            args.add(millis);
+            args.add(millis);
+            args.add(after.id);
+        } else if (offset > 0) {
+            limitClause = offset + "," + limit;
+        }
+        String selection = clauses.isEmpty() ? null : String.join(" AND ", clauses);
+
+        List<RouteApi.SavedRoute> routes = new ArrayList<>();
+        Map<String, RouteApi.SavedRoute> byId = new HashMap<>();
+        SQLiteDatabase db = store.getReadableDatabase();
+
+        try (Cursor c = db.query(LocalStore.TABLE_SAVED_ROUTES,
+                ROUTE_COLUMNS,
+                selection, args.toArray(new String[0]), null, null, "created_at_millis DESC, id DESC", limitClause)) {
+            while (c.moveToNext()) {
+                RouteApi.SavedRoute route = readRoute(c);
+                routes.add(route);
+                byId.put(route.id, route);
+            }
+        } catch (Exception e) {
+            Log.w(TAG, "cannot read saved routes page", e);
+            return new ArrayList<>();
+        }
+
+        if (!routes.isEmpty()) {
+            readPoints(db, byId);
+        }
+        return routes;
+    }
+
+    /** Отмечает открытие маршрута: по этой статистике выбираются маршруты для предзагрузки. */
+    public void recordOpen(String routeId) {
+        if (routeId == null || routeId.isEmpty()) return;
+        LocalStore.io().execute(() -> {
+            // UPSERT появился только в SQLite 3.24 (API 30), поэтому update, затем insert
+            try {
+                SQLiteDatabase db = store.getWritableDatabase();
+                long now = System.currentTimeMillis();
+                db.execSQL("UPDATE " + LocalStore.TABLE_ROUTE_USAGE
+                                + " SET open_count = open_count + 1, last_opened_at = ? WHERE route_id = ?",
+                        new Object[]{now, routeId});
+                ContentValues values = new ContentValues();
+                values.put("route_id", routeId);
+                values.put("open_count", 1);
+                values.put("last_opened_at", now);
+                db.insertWithOnConflict(LocalStore.TABLE_ROUTE_USAGE, null, values, SQLiteDatabase.CONFLICT_IGNORE);
+            } catch (Exception e) {
+                Log.w(TAG, "cannot record open of " + routeId, e);
+            }
+        });
+    }
+
+    /**
+     * Маршруты для предзагрузки: сначала самые часто открываемые, затем самые новые,
+     * без повторов и не больше limit. Вызывать на io-потоке.
+     */
+    List<RouteApi.SavedRoute> prefetchCandidates(int limit) {
+        SQLiteDatabase db = store.getReadableDatabase();
+        Set<String> ids = new LinkedHashSet<>();
+        try (Cursor c = db.query(LocalStore.TABLE_ROUTE_USAGE, new String[]{"route_id"},
+                null, null, null, null, "open_count DESC, last_opened_at DESC", String.valueOf(limit))) {
+            while (c.moveToNext()) ids.add(c.getString(0));
+        }
+        try (Cursor c = db.query(LocalStore.TABLE_SAVED_ROUTES, new String[]{"id"},
+                null, null, null, null, "created_at_millis DESC, id DESC", String.valueOf(limit))) {
+            while (c.moveToNext() && ids.size() < limit) ids.add(c.getString(0));
+        }
+        if (ids.isEmpty()) return new ArrayList<>();
+
+        Map<String, RouteApi.SavedRoute> byId = new HashMap<>();
+        try (Cursor c = db.query(LocalStore.TABLE_SAVED_ROUTES,
+                ROUTE_COLUMNS,
+                "id IN (" + placeholders(ids.size()) + ")", ids.toArray(new String[0]), null, null, null)) {
+            while (c.moveToNext()) {
+                RouteApi.SavedRoute route = readRoute(c);
+                byId.put(route.id, route);
+            }
+        }
+        if (!byId.isEmpty()) {
+            readPoints(db, byId);
+        }
+
+        List<RouteApi.SavedRoute> routes = new ArrayList<>();
+        for (String id : ids) {
+            RouteApi.SavedRoute route = byId.get(id);
+            if (route != null) routes.add(route);
+        }
+        return routes;
+    }
+
+    /** Записывает маршрут с деталями (точками) в зеркало. Вызывать на io-потоке. */
+    void saveRoute(RouteApi.SavedRoute route) {
+        upsert(Collections.singletonList(route));
+    }
+
+    static long parseCreatedAt(@Nullable String createdAt) {
+        if (createdAt == null || createdAt.isEmpty()) return 0;
+        try {
+            return OffsetDateTime.parse(createdAt).toInstant().toEpochMilli();
+        } catch (DateTimeParseException e) {
+            Log.w(TAG, "unexpected created_at: " + createdAt);
+            return 0;
+        }
+    }
+
+    private static RouteApi.SavedRoute readRoute(Cursor c) {
+        RouteApi.SavedRoute route = new RouteApi.SavedRoute();
+        route.id = c.getString(0);
+        route.title = c.getString(1);
+        route.startLatitude = c.getDouble(2);
+        route.startLongitude = c.getDouble(3);
+        route.distance = c.getLong(4);
+        route.duration = c.getInt(5);
+        route.categories = decodeList(c.getString(6));
+        route.maxPlaces = c.getInt(7);
+        route.includeFood = c.getInt(8) != 0;
+        route.isPublic = c.getInt(9) != 0;
+        route.shareCode = c.getString(10);
+        route.createdAt = c.getString(11);
+        route.syncState = c.getInt(12);
+        return route;
+    }
+
+    private static String placeholders(int count) {
+        StringBuilder placeholders = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            placeholders.append(i == 0 ? "?" : ",?");
+        }
+        return placeholders.toString();
+    }
+
+    private static void readPoints(SQLiteDatabase db, Map<String, RouteApi.SavedRoute> byId) {
+        try (Cursor c = db.query(LocalStore.TABLE_SAVED_ROUTE_POINTS,
+                new String[]{"route_id", "position", "place_id", "name", "address", "categories", "latitude", "longitude"},
+                "route_id IN (" + placeholders(byId.size()) + ")", byId.keySet().toArray(new String[0]),
+                null, null, "route_id, position")) {
+            while (c.moveToNext()) {
+                RouteApi.SavedRoute route = byId.get(c.getString(0));
+                if (route == null) continue;
+                RouteApi.SavedRoutePoint point = new RouteApi.SavedRoutePoint();
+                point.position = c.getInt(1);
+                point.placeId = c.getString(2);
+                point.name = c.getString(3);
+                point.address = c.getString(4);
+                point.categories = decodeList(c.getString(5));
+                point.latitude = c.getDouble(6);
+                point.longitude = c.getDouble(7);
+                route.points.add(point);
+            }
+        } catch (Exception e) {
+            Log.w(TAG, "cannot read saved route points", e);
+        }
+    }
+
+    private void upsert(List<RouteApi.SavedRoute> routes) {
+        if (routes.isEmpty()) return;
+        SQLiteDatabase db = store.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            for (RouteApi.SavedRoute route : routes) {
+                writeRoute(db, route);
+            }
+            db.setTransactionSuccessful();
+        } catch (Exception e) {
+            Log.w(TAG, "cannot store saved routes", e);
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /** Пишет маршрут, точки и поисковый индекс; транзакцию открывает вызывающий. */
+    static void writeRoute(SQLiteDatabase db, RouteApi.SavedRoute route) {
+        ContentValues values = new ContentValues();
+        values.put("id", route.id);
+        values.put("title", route.title);
+        values.put("start_latitude", route.startLatitude);
+        values.put("start_longitude", route.startLongitude);
+        values.put("distance", route.distance);
+        values.put("duration", route.duration);
+        values.put("categories", encodeList(route.categories));
+        values.put("max_places", route.maxPlaces);
+        values.put("include_food", route.includeFood ? 1 : 0);
+        values.put("is_public", route.isPublic ? 1 : 0);
+        values.put("share_code", route.shareCode);
+        values.put("created_at", route.createdAt);
+        values.put("created_at_millis", parseCreatedAt(route.createdAt));
+        values.put("sync_state", route.syncState);
+        // update вместо REPLACE: rowid строки не меняется и остаётся docid в поисковом индексе
+        long rowId;
+        if (db.update(LocalStore.TABLE_SAVED_ROUTES, values, "id = ?", new String[]{route.id}) > 0) {
+            rowId = findRowId(db, route.id);
+        } else {
+            rowId = db.insertOrThrow(LocalStore.TABLE_SAVED_ROUTES, null, values);
+        }
+
+        db.delete(LocalStore.TABLE_SAVED_ROUTE_POINTS, "route_id = ?", new String[]{route.id});
+        for (RouteApi.SavedRoutePoint point : route.points) {
+            ContentValues pv = new ContentValues();
+            pv.put("route_id", route.id);
+            pv.put("position", point.position);
+            pv.put("place_id", point.placeId);
+            pv.put("name", point.name);
+            pv.put("address", point.address);
+            pv.put("categories", encodeList(point.categories));
+            pv.put("latitude", point.latitude);
+            pv.put("longitude", point.longitude);
+            db.insertWithOnConflict(LocalStore.TABLE_SAVED_ROUTE_POINTS, null, pv, SQLiteDatabase.CONFLICT_REPLACE);
+        }
+
+        if (rowId > 0) {
+            indexRoute(db, rowId, route);
+        }
+    }
+
+    private static long findRowId(SQLiteDatabase db, String routeId) {
+        try (Cursor c = db.query(LocalStore.TABLE_SAVED_ROUTES, new String[]{"rowid"},
+                "id = ?", new String[]{routeId}, null, null, null)) {
+            return c.moveToFirst() ? c.getLong(0) : -1;
+        }
+    }
+
+    /** Переписывает строку маршрута в полнотекстовом индексе. */
+    private static void indexRoute(SQLiteDatabase db, long rowId, RouteApi.SavedRoute route) {
+        StringBuilder places = new StringBuilder();
+        StringBuilder addresses = new StringBuilder();
+        StringBuilder categories = new StringBuilder(joinWords(route.categories));
+        for (RouteApi.SavedRoutePoint point : route.points) {
+            appendWord(places, point.name);
+            appendWord(addresses, point.address);
+            appendWord(categories, joinWords(point.categories));
+        }
+
+        db.delete(LocalStore.TABLE_SAVED_ROUTES_FTS, "docid = ?", new String[]{String.valueOf(rowId)});
+        ContentValues fts = new ContentValues();
+        fts.put("docid", rowId);
+        fts.put("title", route.title);
+        fts.put("places", places.toString());
+        fts.put("addresses", addresses.toString());
+        fts.put("categories", categories.toString());
+        db.insertOrThrow(LocalStore.TABLE_SAVED_ROUTES_FTS, null, fts);
+    }
+
+    private static String joinWords(@Nullable List<String> words) {
+        StringBuilder joined = new StringBuilder();
+        if (words != null) {
+            for (String word : words) appendWord(joined, word);
+        }
+        return joined.toString();
+    }
+
+    private static void appendWord(StringBuilder target, @Nullable String word) {
+        if (word == null || word.isEmpty()) return;
+        if (target.length() > 0) target.append(' ');
+        target.append(word);
+    }
+
+    private long readLastSeen() {
+        String value = readState(KEY_LAST_SEEN);
+        if (value == null) return 0;
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private void writeLastSeen(long millis) {
+        if (millis <= 0) return;
+        writeState(KEY_LAST_SEEN, String.valueOf(millis));
+    }
+
+    @Nullable
+    private String readState(String key) {
+        try (Cursor c = store.getReadableDatabase().query(LocalStore.TABLE_SYNC_STATE,
+                new String[]{"value"}, "key = ?", new String[]{key}, null, null, null)) {
+            return c.moveToFirst() ? c.getString(0) : null;
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    private void writeState(String key, String value) {
+        ContentValues values = new ContentValues();
+        values.put("key", key);
+        values.put("value", value);
+        store.getWritableDatabase().insertWithOnConflict(
+                LocalStore.TABLE_SYNC_STATE, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+    }
+
+    private static String encodeList(List<String> values) {
+        JSONArray array = new JSONArray();
+        if (values != null) {
+            for (String v : values) array.put(v);
+        }
+        return array.toString();
+    }
+
+    private static List<String> decodeList(@Nullable String raw) {
+        List<String> values = new ArrayList<>();
+        if (raw == null || raw.isEmpty()) return values;
+        try {
+            JSONArray array = new JSONArray(raw);
+            for (int i = 0; i < array.length(); i++) values.add(array.optString(i));
+        } catch (Exception ignored) {
+        }
+        return values;
+    }
+}
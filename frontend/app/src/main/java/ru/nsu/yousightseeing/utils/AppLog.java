@@ -0,0 +1,77 @@
+package ru.nsu.yousightseeing.utils;
+
+import android.util.Log;
+
+import java.util.regex.Pattern;
+
+import ru.nsu.yousightseeing.BuildConfig;
+
+/**
+ * Логирование без затрат в release.
+ * <p>
+ * {@link #ENABLED} — константа времени компиляции: вызов под {@code if (AppLog.ENABLED)}
+ * javac выбрасывает из release-сборки целиком, вместе со сборкой строки. Сообщение передаётся
+ * лямбдой и строится только если лог включён; для логов по элементам списка есть {@link #sampled(int)}.
+ * Всё, что уходит в logcat, проходит {@link #redact(String)}, тела ответов — {@link #body(String)}.
+ */
+public final class AppLog {
+
+    public static final boolean ENABLED = BuildConfig.VERBOSE_LOGS;
+
+    /** Сколько первых элементов списка логировать и с каким шагом дальше. */
+    private static final int SAMPLE_HEAD = 3;
+    private static final int SAMPLE_EVERY = 50;
+    private static final int BODY_PREVIEW_CHARS = 200;
+
+    private static final Pattern BEARER = Pattern.compile("(?i)(bearer\\s+)[A-Za-z0-9._~+/=-]+");
+    private static final Pattern JWT = Pattern.compile("eyJ[A-Za-z0-9_-]+\\.[A-Za-z0-9_-]+\\.[A-Za-z0-9_-]*");
+    private static final Pattern TOKEN_FIELD = Pattern.compile(
+            "(?i)(\"(?:access_token|refresh_token|id_token|token)\"\\s*:\\s*\")[^\"]*\"");
+
+    public interface Message {
+        String build();
+    }
+
+    private AppLog() {}
+
+    public static void d(String tag, Message message) {
+        if (ENABLED) Log.d(tag, redact(message.build()));
+    }
+
+    public static void i(String tag, Message message) {
+        if (ENABLED) Log.i(tag, redact(message.build()));
+    }
+
+    /** Предупреждения и ошибки пишутся всегда, но тоже без секретов. */
+    public static void w(String tag, String message) {
+        Log.w(tag, redact(message));
+    }
+
+    public static void e(String tag, String message) {
+        Log.e(tag, redact(message));
+    }
+
+    public static void e(String tag, String message, Throwable error) {
+        Log.e(tag, redact(message), error);
+    }
+
+    /** Логировать ли index-й элемент: первые несколько и дальше каждый SAMPLE_EVERY-й. */
+    public static boolean sampled(int index) {
+        return index < SAMPLE_HEAD || index % SAMPLE_EVERY == 0;
+    }
+
+    /** Начало тела запроса или ответа с общей длиной — целиком тела в лог не пишутся. */
+    public static String body(String body) {
+        if (body == null) return "null";
+        if (body.length() <= BODY_PREVIEW_CHARS) return body;
+        return body.substring(0, BODY_PREVIEW_CHARS) + "… (" + body.length() + " chars)";
+    }
+
+    /** Маскирует токены: заголовки Bearer, JWT и поля *_token в JSON. */
+    public static String redact(String message) {
+        if (message == null) return "null";
+        String result = BEARER.matcher(message).replaceAll("$1***");
+        result = JWT.matcher(result).replaceAll("***");
+        return TOKEN_FIELD.matcher(result).replaceAll("$1***\"");
+    }
+}
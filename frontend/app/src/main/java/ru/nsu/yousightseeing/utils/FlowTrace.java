@@ -0,0 +1,262 @@
+package ru.nsu.yousightseeing.utils;
+
+import android.content.Context;
+import android.content.Intent;
+import android.os.Build;
+import android.os.Process;
+import android.os.SystemClock;
+import android.os.Trace;
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import ru.nsu.yousightseeing.BuildConfig;
+
+/**
+ * Трассировка пользовательских сценариев от нажатия до результата на экране.
+ * <p>
+ * Сценарий ({@link Span}) начинается в {@link #begin(String)} и делится на этапы {@link Span#stage(String)};
+ * его можно передавать между потоками, а между экранами — через Intent ({@link Span#attachTo(Intent)}
+ * и {@link #resume(Intent)}). Этапы видны в systrace/Perfetto как асинхронные секции
+ * {@link Trace} (Android 10+), а законченный сценарий пишется в файл в формате Chrome Trace Event
+ * с версией приложения, чтобы сравнивать релизы.
+ */
+public final class FlowTrace {
+
+    private static final String TAG = "FlowTrace";
+
+    public static final String EXTRA_TRACE_ID = "flow_trace_id";
+
+    /** Ручной маршрут: «Построить» → линия на экране подтверждения. */
+    public static final String ROUTE_BUILD = "route_build";
+    /** Автогенерация: «Построить» в авторежиме → линия на экране подтверждения. */
+    public static final String ROUTE_GENERATE = "route_generate";
+    /** Сохранённый маршрут: нажатие в профиле → линия на итоговом экране. */
+    public static final String SAVED_ROUTE_OPEN = "saved_route_open";
+    /** Поиск POI → метки на карте. */
+    public static final String POI_LOAD = "poi_load";
+
+    private static final String TRACE_DIR = "traces";
+    private static final String TRACE_FILE = "flows.json";
+    private static final long MAX_FILE_BYTES = 1024 * 1024;
+    /** Сценарий, не закончившийся за это время, считается брошенным и забывается. */
+    private static final long ABANDON_AFTER_MS = 2 * 60 * 1000;
+
+    private static final AtomicInteger nextId = new AtomicInteger(1);
+    private static final Map<Long, Span> active = new ConcurrentHashMap<>();
+    private static final ExecutorService writer = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "flow-trace");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private static volatile File traceDir;
+
+    /** Пустой сценарий: возвращается, если продолжать нечего (например, процесс перезапускался). */
+    private static final Span NOOP = new Span(0, "noop");
+
+    private FlowTrace() {}
+
+    public static void init(Context ctx) {
+        traceDir = new File(ctx.getFilesDir(), TRACE_DIR);
+    }
+
+    public static Span begin(String flow) {
+        pruneAbandoned();
+        Span span = new Span(nextId.getAndIncrement(), flow);
+        active.put(span.id, span);
+        return span;
+    }
+
+    /** Сценарий, переданный через Intent; пустой, если его нет или он уже закончен. */
+    public static Span resume(Intent intent) {
+        return resume(intent != null ? intent.getLongExtra(EXTRA_TRACE_ID, 0) : 0);
+    }
+
+    public static Span resume(long id) {
+        Span span = active.get(id);
+        return span != null ? span : NOOP;
+    }
+
+    private static void pruneAbandoned() {
+        long now = SystemClock.elapsedRealtime();
+        Iterator<Span> it = active.values().iterator();
+        while (it.hasNext()) {
+            Span span = it.next();
+            if (now - span.startedAtMs > ABANDON_AFTER_MS) {
+                it.remove();
+                span.closeTraceSections();
+            }
+        }
+    }
+
+    public static final class Span {
+        public final long id;
+        private final String flow;
+        private final long startedAtMs = SystemClock.elapsedRealtime();
+        private final long startUs = nowUs();
+        private final List<Stage> stages = new ArrayList<>();
+        private Stage current;
+        private boolean finished;
+
+        private Span(long id, String flow) {
+            this.id = id;
+            this.flow = flow;
+            if (id != 0) beginSection(flow, cookie());
+        }
+
+        /** Закрывает текущий этап и начинает следующий. */
+        public synchronized void stage(String name) {
+            if (id == 0 || finished) return;
+            closeStage();
+            current = new Stage(name, nowUs(), nextId.getAndIncrement());
+            beginSection(flow + ":" + name, current.cookie);
+        }
+
+        /** Передаёт сценарий на следующий экран. */
+        public void attachTo(Intent intent) {
+            if (id != 0) intent.putExtra(EXTRA_TRACE_ID, id);
+        }
+
+        public void end() {
+            finish(null);
+        }
+
+        public void fail(String reason) {
+            finish(reason != null ? reason : "error");
+        }
+
+        private synchronized void finish(String error) {
+            if (id == 0 || finished) return;
+            finished = true;
+            active.remove(id);
+            closeStage();
+            endSection(flow, cookie());
+            write(this, nowUs(), error);
+        }
+
+        private void closeStage() {
+            if (current == null) return;
+            current.endUs = nowUs();
+            endSection(flow + ":" + current.name, current.cookie);
+            stages.add(current);
+            current = null;
+        }
+
+        private synchronized void closeTraceSections() {
+            if (finished) return;
+            finished = true;
+            if (current != null) endSection(flow + ":" + current.name, current.cookie);
+            endSection(flow, cookie());
+            Log.w(TAG, flow + " #" + id + " abandoned");
+        }
+
+        private int cookie() {
+            return (int) id;
+        }
+    }
+
+    private static final class Stage {
+        final String name;
+        final long startUs;
+        final int cookie;
+        long endUs;
+
+        Stage(String name, long startUs, int cookie) {
+            this.name = name;
+            this.startUs = startUs;
+            this.cookie = cookie;
+        }
+    }
+
+    private static long nowUs() {
+        return SystemClock.elapsedRealtimeNanos() / 1000;
+    }
+
+    private static void beginSection(String name, int cookie) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            Trace.beginAsyncSection(name, cookie);
+        }
+    }
+
+    private static void endSection(String name, int cookie) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            Trace.endAsyncSection(name, cookie);
+        }
+    }
+
+    /**
+     * Сценарий пишется целиком после завершения: пара async-событий b/e на весь сценарий
+     * и по паре на каждый этап. Файл — JSON-массив без закрывающей скобки, его открывают
+     * chrome://tracing и Perfetto UI как есть.
+     */
+    private static void write(Span span, long endUs, String error) {
+        File dir = traceDir;
+        if (dir == null) return;
+        List<Stage> stages = new ArrayList<>(span.stages);
+        int pid = Process.myPid();
+
+        writer.execute(() -> {
+            try {
+                StringBuilder sb = new StringBuilder();
+                JSONObject args = new JSONObject();
+                args.put("version", BuildConfig.VERSION_NAME);
+                args.put("status", error == null ? "ok" : "error");
+                if (error != null) args.put("error", error);
+                append(sb, event(span.flow, "b", span.startUs, span.id, pid).put("args", args));
+                for (Stage stage : stages) {
+                    append(sb, event(stage.name, "b", stage.startUs, span.id, pid));
+                    append(sb, event(stage.name, "e", stage.endUs, span.id, pid));
+                }
+                append(sb, event(span.flow, "e", endUs, span.id, pid));
+                appendToFile(dir, sb.toString());
+            } catch (JSONException | IOException e) {
+                Log.w(TAG, "trace write failed", e);
+            }
+        });
+    }
+
+    private static JSONObject event(String name, String phase, long tsUs, long id, int pid) throws JSONException {
+        return new JSONObject()
+                .put("name", name)
+                .put("cat", "flow")
+                .put("ph", phase)
+                .put("ts", tsUs)
+                .put("id", id)
+                .put("pid", pid)
+                .put("tid", 0);
+    }
+
+    private static void append(StringBuilder sb, JSONObject event) {
+        sb.append(event).append(",\n");
+    }
+
+    private static void appendToFile(File dir, String events) throws IOException {
+        if (!dir.exists() && !dir.mkdirs()) throw new IOException("cannot create " + dir);
+        File file = new File(dir, TRACE_FILE);
+        if (file.length() > MAX_FILE_BYTES) {
+            File previous = new File(dir, TRACE_FILE + ".1");
+            if (!file.renameTo(previous)) file.delete();
+        }
+        boolean fresh = !file.exists() || file.length() == 0;
+        try (Writer out = new OutputStreamWriter(new FileOutputStream(file, true), StandardCharsets.UTF_8)) {
+            if (fresh) out.write("[\n");
+            out.write(events);
+        }
+    }
+}
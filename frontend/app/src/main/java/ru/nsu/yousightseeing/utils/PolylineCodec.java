@@ -0,0 +1,71 @@
+package ru.nsu.yousightseeing.utils;
+
+import com.yandex.mapkit.geometry.Point;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Encoded polyline (алгоритм Google) с точностью 1e-6 градуса.
+ * Геометрия маршрута в несколько тысяч точек занимает в разы меньше, чем JSON-массив пар.
+ */
+public final class PolylineCodec {
+
+    private static final double FACTOR = 1e6;
+
+    private PolylineCodec() {}
+
+    public static String encode(List<Point> points) {
+        StringBuilder out = new StringBuilder(points.size() * 8);
+        long prevLat = 0;
+        long prevLon = 0;
+        for (Point p : points) {
+            long lat = Math.round(p.getLatitude() * FACTOR);
+            long lon = Math.round(p.getLongitude() * FACTOR);
+            encodeValue(lat - prevLat, out);
+            encodeValue(lon - prevLon, out);
+            prevLat = lat;
+            prevLon = lon;
+        }
+        return out.toString();
+    }
+
+    public static List<Point> decode(String encoded) {
+        List<Point> points = new ArrayList<>();
+        int index = 0;
+        long lat = 0;
+        long lon = 0;
+        int length = encoded.length();
+        while (index < length) {
+            long[] result = new long[1];
+            index = decodeValue(encoded, index, result);
+            lat += result[0];
+            index = decodeValue(encoded, index, result);
+            lon += result[0];
+            points.add(new Point(lat / FACTOR, lon / FACTOR));
+        }
+        return points;
+    }
+
+    private static void encodeValue(long value, StringBuilder out) {
+        long v = value < 0 ? ~(value << 1) : (value << 1);
+        while (v >= 0x20) {
+            out.append((char) ((0x20 | (v & 0x1f)) + 63));
+            v >>= 5;
+        }
+        out.append((char) (v + 63));
+    }
+
+    private static int decodeValue(String encoded, int index, long[] result) {
+        long value = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = encoded.charAt(index++) - 63;
+            value |= (long) (b & 0x1f) << shift;
+            shift += 5;
+        } while (b >= 0x20);
+        result[0] = (value & 1) != 0 ? ~(value >> 1) : (value >> 1);
+        return index;
+    }
+}
@@ -0,0 +1,248 @@
+package ru.nsu.yousightseeing.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import android.app.Application;
+import android.content.Context;
+import android.content.ContextWrapper;
+
+import androidx.annotation.NonNull;
+import androidx.arch.core.executor.ArchTaskExecutor;
+import androidx.arch.core.executor.TaskExecutor;
+import androidx.lifecycle.Lifecycle;
+import androidx.lifecycle.LifecycleOwner;
+import androidx.lifecycle.LifecycleRegistry;
+import androidx.lifecycle.MutableLiveData;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.SocketPolicy;
+
+/**
+ * Закрытие реестра на ON_DESTROY, пока запрос ещё в полёте, и поворот экрана
+ * с расчётом, который принадлежит ViewModel.
+ */
+public class RequestRegistryTest {
+
+    /** Экран без Android: Context + собственный Lifecycle. */
+    private static final class FakeActivity extends ContextWrapper implements LifecycleOwner {
+        final LifecycleRegistry lifecycle = LifecycleRegistry.createUnsafe(this);
+
+        FakeActivity() {
+            super(null);
+            lifecycle.setCurrentState(Lifecycle.State.RESUMED);
+        }
+
+        @NonNull
+        @Override
+        public Lifecycle getLifecycle() {
+            return lifecycle;
+        }
+    }
+
+    /**
+     * ViewModel расчёта маршрута, как RouteRequestViewModel: свой реестр, запросы через
+     * {@link RequestRegistry#bind}, итог — в LiveData. Эндпоинт тот же, адрес — тестового сервера.
+     */
+    private static final class FakeRouteViewModel {
+        final RequestRegistry requests = new RequestRegistry();
+        final Context requestContext = requests.bind(new Application());
+        final MutableLiveData<Integer> result = new MutableLiveData<>();
+
+        void calculate(OkHttpClient client, MockWebServer server) {
+            Request request = new Request.Builder()
+                    .url(server.url("/api/routes/calculate"))
+                    .post(RequestBody.create(new byte[0]))
+                    .build();
+            RetryingCall.enqueue(requestContext, client, request, RetryPolicy.COMPUTE, new Callback() {
+                @Override
+                public void onFailure(@NonNull Call call, @NonNull IOException e) {
+                    result.postValue(-1);
+                }
+
+                @Override
+                public void onResponse(@NonNull Call call, @NonNull Response response) {
+                    result.postValue(response.code());
+                    response.close();
+                }
+            });
+        }
+    }
+
+    /** Считает все вызовы, дошедшие до владельца. */
+    private static final class CountingCallback implements Callback {
+        final AtomicInteger calls = new AtomicInteger();
+
+        @Override
+        public void onFailure(@NonNull Call call, @NonNull IOException e) {
+            calls.incrementAndGet();
+        }
+
+        @Override
+        public void onResponse(@NonNull Call call, @NonNull Response response) {
+            calls.incrementAndGet();
+            response.close();
+        }
+    }
+
+    private MockWebServer server;
+    private OkHttpClient client;
+
+    @Before
+    public void setUp() throws IOException {
+        // Главный поток LiveData — любой: заглушки android.jar не дают Looper
+        ArchTaskExecutor.getInstance().setDelegate(new TaskExecutor() {
+            @Override
+            public void executeOnDiskIO(@NonNull Runnable runnable) {
+                runnable.run();
+            }
+
+            @Override
+            public void postToMainThread(@NonNull Runnable runnable) {
+                runnable.run();
+            }
+
+            @Override
+            public boolean isMainThread() {
+                return true;
+            }
+        });
+        server = new MockWebServer();
+        server.start();
+        client = new OkHttpClient.Builder()
+                .readTimeout(10, TimeUnit.SECONDS)
+                .build();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        client.dispatcher().executorService().shutdownNow();
+        server.shutdown();
+        ArchTaskExecutor.getInstance().setDelegate(null);
+    }
+
+    @Test
+    public void destroyCancelsInFlightReadAndDropsCallback() throws Exception {
+        server.enqueue(new MockResponse().setSocketPolicy(SocketPolicy.NO_RESPONSE));
+        FakeActivity activity = new FakeActivity();
+        RequestRegistry registry = RequestRegistry.of(activity);
+        CountingCallback callback = new CountingCallback();
+
+        RequestRegistry.enqueue(activity, client, new Request.Builder().url(server.url("/places")).build(), callback);
+        assertTrue(server.takeRequest(5, TimeUnit.SECONDS) != null);
+        Call call = client.dispatcher().runningCalls().get(0);
+        assertEquals(1, registry.inFlightCount());
+
+        activity.lifecycle.setCurrentState(Lifecycle.State.DESTROYED);
+
+        assertTrue(registry.isClosed());
+        assertTrue(call.isCanceled());
+        awaitIdle();
+        assertEquals(0, callback.calls.get());
+        assertEquals(0, registry.inFlightCount());
+    }
+
+    @Test
+    public void destroyLetsWriteFinishWithoutCallback() throws Exception {
+        server.enqueue(new MockResponse().setBody("{}").setHeadersDelay(300, TimeUnit.MILLISECONDS));
+        FakeActivity activity = new FakeActivity();
+        RequestRegistry registry = RequestRegistry.of(activity);
+        CountingCallback callback = new CountingCallback();
+
+        Request write = new Request.Builder()
+                .url(server.url("/routes"))
+                .post(RequestBody.create(new byte[0]))
+                .build();
+        RequestRegistry.enqueueWrite(activity, client, write, callback);
+        assertTrue(server.takeRequest(5, TimeUnit.SECONDS) != null);
+        Call call = client.dispatcher().runningCalls().get(0);
+
+        activity.lifecycle.setCurrentState(Lifecycle.State.DESTROYED);
+
+        assertFalse(call.isCanceled());
+        awaitIdle();
+        assertEquals(0, callback.calls.get());
+        assertEquals(0, registry.inFlightCount());
+    }
+
+    @Test
+    public void enqueueAfterDestroyNeverReachesServer() throws Exception {
+        FakeActivity activity = new FakeActivity();
+        RequestRegistry.of(activity);
+        activity.lifecycle.setCurrentState(Lifecycle.State.DESTROYED);
+        CountingCallback callback = new CountingCallback();
+
+        RequestRegistry.enqueue(activity, client, new Request.Builder().url(server.url("/places")).build(), callback);
+
+        awaitIdle();
+        assertEquals(0, server.getRequestCount());
+        assertEquals(0, callback.calls.get());
+    }
+
+    @Test
+    public void rotationDuringCalculateDeliversToNewActivity() throws Exception {
+        server.enqueue(new MockResponse().setBody("{}").setHeadersDelay(300, TimeUnit.MILLISECONDS));
+        FakeRouteViewModel viewModel = new FakeRouteViewModel();
+        FakeActivity before = new FakeActivity();
+        List<Integer> seenBefore = new CopyOnWriteArrayList<>();
+        viewModel.result.observe(before, seenBefore::add);
+
+        viewModel.calculate(client, server);
+        assertNotNull(server.takeRequest(5, TimeUnit.SECONDS));
+
+        // Поворот: старая Activity уничтожена, новая подписывается на тот же ViewModel
+        before.lifecycle.setCurrentState(Lifecycle.State.DESTROYED);
+        FakeActivity after = new FakeActivity();
+        List<Integer> seenAfter = new CopyOnWriteArrayList<>();
+        viewModel.result.observe(after, seenAfter::add);
+
+        awaitIdle();
+        assertEquals(Collections.singletonList(200), seenAfter);
+        assertTrue(seenBefore.isEmpty());
+        assertEquals(1, server.getRequestCount());
+        assertFalse(viewModel.requests.isClosed());
+        assertEquals(0, viewModel.requests.inFlightCount());
+
+        // Ни реестр, ни LiveData, ни вызов не держат старую Activity
+        WeakReference<FakeActivity> ref = new WeakReference<>(before);
+        before = null;
+        assertTrue("destroyed activity leaked", collected(ref));
+    }
+
+    private static boolean collected(WeakReference<?> ref) throws InterruptedException {
+        for (int i = 0; i < 50 && ref.get() != null; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        return ref.get() == null;
+    }
+
+    private void awaitIdle() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (client.dispatcher().runningCallsCount() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, client.dispatcher().runningCallsCount());
+    }
+}
@@ -0,0 +1,277 @@
+package ru.nsu.yousightseeing.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import android.content.ContextWrapper;
+
+import androidx.annotation.NonNull;
+import androidx.lifecycle.Lifecycle;
+import androidx.lifecycle.LifecycleOwner;
+import androidx.lifecycle.LifecycleRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.ServerSocket;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BooleanSupplier;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.HttpUrl;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.SocketPolicy;
+
+/**
+ * Повторы {@link RetryingCall} на сбоях сети и сервера, воспроизведённых MockWebServer.
+ */
+public class RetryingCallTest {
+
+    /** Владелец запросов со своим реестром, как ViewModel. */
+    private static final class FakeOwner extends ContextWrapper implements RequestRegistry.Owner {
+        final RequestRegistry registry = new RequestRegistry();
+
+        FakeOwner() {
+            super(null);
+        }
+
+        @Override
+        public RequestRegistry getRequestRegistry() {
+            return registry;
+        }
+    }
+
+    /** Экран без Android: Context + собственный Lifecycle. */
+    private static final class FakeActivity extends ContextWrapper implements LifecycleOwner {
+        final LifecycleRegistry lifecycle = LifecycleRegistry.createUnsafe(this);
+
+        FakeActivity() {
+            super(null);
+            lifecycle.setCurrentState(Lifecycle.State.RESUMED);
+        }
+
+        @NonNull
+        @Override
+        public Lifecycle getLifecycle() {
+            return lifecycle;
+        }
+    }
+
+    /** Итог вызова: ответ или ошибка. */
+    private static final class Outcome implements Callback {
+        final CountDownLatch done = new CountDownLatch(1);
+        final AtomicReference<IOException> error = new AtomicReference<>();
+        final AtomicInteger code = new AtomicInteger();
+
+        @Override
+        public void onFailure(@NonNull Call call, @NonNull IOException e) {
+            error.set(e);
+            done.countDown();
+        }
+
+        @Override
+        public void onResponse(@NonNull Call call, @NonNull Response response) {
+            code.set(response.code());
+            response.close();
+            done.countDown();
+        }
+
+        void await() throws InterruptedException {
+            assertTrue("no outcome", done.await(20, TimeUnit.SECONDS));
+        }
+    }
+
+    private MockWebServer server;
+    private OkHttpClient client;
+    /** Попытки, начатые клиентом, включая не дошедшие до сервера. */
+    private final AtomicInteger attempts = new AtomicInteger();
+    private BooleanSupplier realMainThread;
+
+    @Before
+    public void setUp() throws IOException {
+        // Главный поток — поток теста: повторы и колбэки OkHttp идут с других потоков
+        Thread testThread = Thread.currentThread();
+        realMainThread = RequestRegistry.mainThread;
+        RequestRegistry.mainThread = () -> Thread.currentThread() == testThread;
+        server = new MockWebServer();
+        server.start();
+        client = new OkHttpClient.Builder()
+                .connectTimeout(1, TimeUnit.SECONDS)
+                .readTimeout(300, TimeUnit.MILLISECONDS)
+                .eventListenerFactory(NetworkMetrics.LISTENER_FACTORY)
+                .addInterceptor(chain -> {
+                    attempts.incrementAndGet();
+                    return chain.proceed(chain.request());
+                })
+                .build();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.shutdown();
+        RequestRegistry.mainThread = realMainThread;
+    }
+
+    @Test
+    public void readRetriesAfterDisconnectAfterRequest() throws Exception {
+        server.enqueue(new MockResponse().setSocketPolicy(SocketPolicy.DISCONNECT_AFTER_REQUEST));
+        server.enqueue(new MockResponse().setBody("[]"));
+
+        Outcome outcome = run(get(), RetryPolicy.READ);
+
+        assertEquals(200, outcome.code.get());
+        assertEquals(2, server.getRequestCount());
+    }
+
+    @Test
+    public void writeIsNotRetriedAfterDisconnectAfterRequest() throws Exception {
+        server.enqueue(new MockResponse().setSocketPolicy(SocketPolicy.DISCONNECT_AFTER_REQUEST));
+        server.enqueue(new MockResponse().setBody("{}"));
+
+        Outcome outcome = run(post(), RetryPolicy.WRITE);
+
+        assertNotNull(outcome.error.get());
+        assertEquals(1, server.getRequestCount());
+    }
+
+    @Test
+    public void readRetriesAfterNoResponse() throws Exception {
+        server.enqueue(new MockResponse().setSocketPolicy(SocketPolicy.NO_RESPONSE));
+        server.enqueue(new MockResponse().setBody("[]"));
+
+        Outcome outcome = run(get(), RetryPolicy.READ);
+
+        assertEquals(200, outcome.code.get());
+        assertEquals(2, server.getRequestCount());
+    }
+
+    @Test
+    public void writeIsNotRetriedAfterReadTimeout() throws Exception {
+        server.enqueue(new MockResponse().setSocketPolicy(SocketPolicy.NO_RESPONSE));
+        server.enqueue(new MockResponse().setBody("{}"));
+
+        Outcome outcome = run(post(), RetryPolicy.WRITE);
+
+        // Таймаут ответа, а не соединения: запрос мог быть обработан
+        assertTrue(outcome.error.get() instanceof SocketTimeoutException);
+        assertEquals(1, server.getRequestCount());
+    }
+
+    @Test
+    public void writeRetriesOn503WithRetryAfter() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(503).setHeader("Retry-After", "0"));
+        server.enqueue(new MockResponse().setResponseCode(201).setBody("{}"));
+
+        Outcome outcome = run(post(), RetryPolicy.WRITE);
+
+        assertEquals(201, outcome.code.get());
+        assertEquals(2, server.getRequestCount());
+    }
+
+    @Test
+    public void writeRetriesWhenConnectionRefused() throws Exception {
+        HttpUrl closed;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            closed = server.url("/api/routes").newBuilder().port(socket.getLocalPort()).build();
+        }
+
+        Outcome outcome = run(new Request.Builder().url(closed).post(emptyBody()).build(), RetryPolicy.WRITE);
+
+        assertTrue(outcome.error.get() instanceof ConnectException);
+        assertEquals(RetryPolicy.WRITE.maxAttempts, attempts.get());
+    }
+
+    @Test
+    public void writeRetryOutlivesClosedOwnerWithoutCallback() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(503).setHeader("Retry-After", "1"));
+        server.enqueue(new MockResponse().setResponseCode(201).setBody("{}"));
+        FakeOwner owner = new FakeOwner();
+        Outcome outcome = new Outcome();
+
+        RetryingCall.enqueue(owner, client, post(), RetryPolicy.WRITE, outcome);
+        assertNotNull(server.takeRequest(5, TimeUnit.SECONDS));
+        owner.registry.close();
+
+        // Повтор уходит и после закрытия владельца, но итог ему не доставляется
+        assertNotNull(server.takeRequest(5, TimeUnit.SECONDS));
+        assertTrue(awaitIdle());
+        assertEquals(1, outcome.done.getCount());
+    }
+
+    @Test
+    public void readRetryStopsWhenOwnerCloses() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(503).setHeader("Retry-After", "1"));
+        server.enqueue(new MockResponse().setBody("[]"));
+        FakeOwner owner = new FakeOwner();
+        Outcome outcome = new Outcome();
+
+        RetryingCall.enqueue(owner, client, get(), RetryPolicy.READ, outcome);
+        assertNotNull(server.takeRequest(5, TimeUnit.SECONDS));
+        owner.registry.close();
+
+        assertNull(server.takeRequest(2, TimeUnit.SECONDS));
+        assertEquals(1, outcome.done.getCount());
+    }
+
+    @Test
+    public void readRetryStopsWhenActivityIsDestroyedDuringBackoff() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(503).setHeader("Retry-After", "1"));
+        server.enqueue(new MockResponse().setBody("[]"));
+        FakeActivity activity = new FakeActivity();
+        Outcome outcome = new Outcome();
+
+        RetryingCall.enqueue(activity, client, get(), RetryPolicy.READ, outcome);
+        assertNotNull(server.takeRequest(5, TimeUnit.SECONDS));
+        // Первая попытка завершилась, повтор ждёт Retry-After
+        assertTrue(awaitIdle());
+        // Реестр Activity закрыт и забыт; повтор придёт уже с потока api-retry
+        activity.lifecycle.setCurrentState(Lifecycle.State.DESTROYED);
+
+        assertNull(server.takeRequest(2, TimeUnit.SECONDS));
+        assertTrue(awaitIdle());
+        assertEquals(1, outcome.done.getCount());
+    }
+
+    private Outcome run(Request request, RetryPolicy policy) throws InterruptedException {
+        Outcome outcome = new Outcome();
+        RetryingCall.enqueue(new ContextWrapper(null), client, request, policy, outcome);
+        outcome.await();
+        return outcome;
+    }
+
+    private Request get() {
+        return new Request.Builder().url(server.url("/api/routes")).build();
+    }
+
+    private Request post() {
+        return new Request.Builder().url(server.url("/api/routes")).post(emptyBody()).build();
+    }
+
+    private static RequestBody emptyBody() {
+        return RequestBody.create(new byte[0]);
+    }
+
+    private boolean awaitIdle() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (client.dispatcher().runningCallsCount() > 0) {
+            if (System.currentTimeMillis() > deadline) return false;
+            Thread.sleep(10);
+        }
+        return true;
+    }
+}
@@ -0,0 +1,157 @@
+package ru.nsu.yousightseeing.features.main;
+
+import static org.junit.Assert.assertEquals;
+
+import com.yandex.mapkit.geometry.Point;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import ru.nsu.yousightseeing.features.main.state.EditorAction;
+import ru.nsu.yousightseeing.features.main.state.EditorState;
+import ru.nsu.yousightseeing.features.main.state.EditorStore;
+import ru.nsu.yousightseeing.features.main.state.SelectedPlace;
+import ru.nsu.yousightseeing.features.route.RouteBuildMode;
+import ru.nsu.yousightseeing.model.Route;
+
+/**
+ * Сколько раз перерисовываются список мест и заголовок старта на каждое действие.
+ * Подписки те же, что в {@link MainPresenter#bindState()} и у сохранения конструктора.
+ */
+public class MainPresenterRenderTest {
+
+    private static final class Counter<T> implements EditorStore.Subscriber<T> {
+        int calls;
+
+        @Override
+        public void onChanged(T slice) {
+            calls++;
+        }
+    }
+
+    private static final Point A = new Point(55.0300, 82.9200);
+    private static final Point B = new Point(55.0400, 82.9300);
+    private static final Point FAR = new Point(55.1000, 83.0000);
+
+    private EditorStore store;
+    private Counter<List<SelectedPlace>> placesList;
+    private Counter<MainPresenter.StartHeaderModel> startHeader;
+
+    @Before
+    public void setUp() {
+        store = new EditorStore();
+        placesList = new Counter<>();
+        startHeader = new Counter<>();
+        store.subscribe(EditorState::getRoutePlaces, placesList);
+        store.subscribe(MainPresenter.StartHeaderModel::new, startHeader);
+        // Первая доставка при подписке — не перерисовка по действию
+        placesList.calls = 0;
+        startHeader.calls = 0;
+    }
+
+    @Test
+    public void unrelatedActionsDoNotRenderPlacesOrStartHeader() {
+        store.dispatch(new EditorAction.SetSelection(places(A, B)));
+        store.dispatch(new EditorAction.SetStartPoint(FAR, false));
+        placesList.calls = 0;
+        startHeader.calls = 0;
+
+        store.dispatch(new EditorAction.SetBuildMode(RouteBuildMode.AUTO));
+        store.dispatch(new EditorAction.SetGenerating(true));
+        store.dispatch(new EditorAction.SetGenerating(false));
+        store.dispatch(new EditorAction.SetAwaitingAutoStartPoint(true));
+        store.dispatch(new EditorAction.SetAwaitingAutoStartPoint(false));
+        store.dispatch(new EditorAction.SetCurrentRoute(new Route(Arrays.asList(A, B), 1500, 1200)));
+        store.dispatch(new EditorAction.SetRouteBuilt(true));
+
+        assertEquals(0, placesList.calls);
+        assertEquals(0, startHeader.calls);
+    }
+
+    @Test
+    public void selectionChangeRendersPlacesListOnly() {
+        store.dispatch(new EditorAction.SetSelection(places(A)));
+        assertEquals(1, placesList.calls);
+        assertEquals(0, startHeader.calls);
+
+        store.dispatch(new EditorAction.SetSelection(places(A, B)));
+        assertEquals(2, placesList.calls);
+        assertEquals(0, startHeader.calls);
+    }
+
+    @Test
+    public void equalSelectionDoesNotRenderAgain() {
+        store.dispatch(new EditorAction.SetSelection(places(A, B)));
+        store.dispatch(new EditorAction.SetSelection(places(A, B)));
+
+        assertEquals(1, placesList.calls);
+    }
+
+    @Test
+    public void startPointAwayFromPlacesRendersStartHeaderOnly() {
+        store.dispatch(new EditorAction.SetSelection(places(A, B)));
+        placesList.calls = 0;
+
+        store.dispatch(new EditorAction.SetStartPoint(FAR, false));
+
+        assertEquals(0, placesList.calls);
+        assertEquals(1, startHeader.calls);
+    }
+
+    @Test
+    public void startPointOnSelectedPlaceRendersBoth() {
+        store.dispatch(new EditorAction.SetSelection(places(A, B)));
+        placesList.calls = 0;
+
+        // Место под стартовой точкой уходит из списка
+        store.dispatch(new EditorAction.SetStartPoint(A, false));
+
+        assertEquals(1, placesList.calls);
+        assertEquals(1, startHeader.calls);
+    }
+
+    @Test
+    public void resetRendersEachOnceAndSecondResetNothing() {
+        store.dispatch(new EditorAction.SetSelection(places(A, B)));
+        store.dispatch(new EditorAction.SetStartPoint(FAR, true));
+        placesList.calls = 0;
+        startHeader.calls = 0;
+
+        store.dispatch(new EditorAction.Reset());
+        store.dispatch(new EditorAction.Reset());
+
+        assertEquals(1, placesList.calls);
+        assertEquals(1, startHeader.calls);
+    }
+
+    @Test
+    public void builderIsSavedOnlyWhenPersistedFieldsChange() {
+        Counter<MainPresenter.SavedBuilderModel> saves = new Counter<>();
+        store.subscribe(MainPresenter.SavedBuilderModel::new, saves);
+        saves.calls = 0;
+
+        store.dispatch(new EditorAction.SetGenerating(true));
+        store.dispatch(new EditorAction.SetAwaitingAutoStartPoint(true));
+        store.dispatch(new EditorAction.SetRouteBuilt(true));
+        store.dispatch(new EditorAction.SetSelection(places()));
+        assertEquals(0, saves.calls);
+
+        store.dispatch(new EditorAction.SetBuildMode(RouteBuildMode.MANUAL));
+        store.dispatch(new EditorAction.SetStartPoint(FAR, false));
+        store.dispatch(new EditorAction.SetSelection(places(A, B)));
+        store.dispatch(new EditorAction.SetCurrentRoute(new Route(Arrays.asList(A, B), 1500, 1200)));
+        assertEquals(4, saves.calls);
+    }
+
+    private static List<SelectedPlace> places(Point... points) {
+        List<SelectedPlace> result = new ArrayList<>();
+        for (Point point : points) {
+            result.add(new SelectedPlace(point, null, null));
+        }
+        return result;
+    }
+}
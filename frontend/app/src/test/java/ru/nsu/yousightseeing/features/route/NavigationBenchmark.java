@@ -0,0 +1,385 @@
+package ru.nsu.yousightseeing.features.route;
+
+import com.yandex.mapkit.geometry.Point;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Замер и регрессия навигации на эталонных маршрутах.
+ * <p>
+ * Каждый случай — синтетический проход по маршруту с фиксированным seed шума, поэтому
+ * прогоны сравнимы между версиями. Трек прогоняется через {@link NavigationEngine} без Android:
+ * время на фикс (p50/p99/max), ошибка привязки вдоль маршрута относительно истинного смещения
+ * (p50/p95) и ложные сходы с маршрута — пользователь идёт по маршруту, а движок считает, что нет.
+ * У случая есть пороги ошибки и ложных сходов, их проверяет {@link NavigationBenchmarkTest};
+ * время на фикс только попадает в отчёт — на общей машине сборки оно не воспроизводимо.
+ * Для сравнения тот же трек прогоняется без {@link GpsFilter}; в случаях со скачками трек портят как в «городском каньоне»:
+ * пара фиксов подряд уходит на сотню метров вбок. На маршрутах с остановками проверяется,
+ * что {@link WaypointTracker} отметил прибытие и уход у каждой ровно по разу, в том числе
+ * у остановки в конце маршрута: прогон, как и навигация, обрывается на финише.
+ * <p>
+ * Отдельно проверяется {@link SamplingPolicy}: трек прореживается так, как его отдал бы провайдер
+ * на выбранной частоте, и сравнивается число фиксов с {@link SamplingPolicy#FIXED}. Провал —
+ * если адаптивная частота пропустила поворот или остановку (ни одного фикса рядом),
+ * потратила фиксов больше прежнего или, пока пользователь стоит у места, тратит их
+ * не вчетверо реже фиксированной.
+ */
+final class NavigationBenchmark {
+
+    private static final double METERS_PER_DEG_LAT = 6371000 * Math.PI / 180;
+    private static final double ORIGIN_LAT = 55.03;
+    private static final double ORIGIN_LON = 82.92;
+    /** Прогревочные проходы, чтобы замерять уже скомпилированный JIT код. */
+    private static final int WARMUP_RUNS = 3;
+    /** Поворот или остановка считается замеченной, если рядом с ней был фикс. */
+    private static final double EVENT_WINDOW_METERS = 25;
+
+    static final class Case {
+        final String name;
+        final List<Point> route;
+        final List<Point> stops;
+        final double speedMps;
+        final double noiseMeters;
+        final long seed;
+        final double maxP95ErrorMeters;
+        final int maxFalseOffRoute;
+        /** Каждый jumpEvery-й фикс и следующий за ним сдвинуты на jumpMeters к северу; 0 — без скачков. */
+        int jumpEvery;
+        double jumpMeters;
+        /** Сколько пользователь стоит у каждой остановки; 0 — проходит не останавливаясь. */
+        long dwellMs;
+
+        Case(String name, List<Point> route, List<Point> stops, double speedMps, double noiseMeters,
+             long seed, double maxP95ErrorMeters, int maxFalseOffRoute) {
+            this.name = name;
+            this.route = route;
+            this.stops = stops;
+            this.speedMps = speedMps;
+            this.noiseMeters = noiseMeters;
+            this.seed = seed;
+            this.maxP95ErrorMeters = maxP95ErrorMeters;
+            this.maxFalseOffRoute = maxFalseOffRoute;
+        }
+
+        Case withJumps(int every, double meters) {
+            jumpEvery = every;
+            jumpMeters = meters;
+            return this;
+        }
+
+        Case withDwell(long ms) {
+            dwellMs = ms;
+            return this;
+        }
+    }
+
+    static final class Result {
+        final Case c;
+        final int fixes;
+        final long p50Nanos;
+        final long p99Nanos;
+        final long maxNanos;
+        final double p50ErrorMeters;
+        final double p95ErrorMeters;
+        final int falseOffRoute;
+        /** То же без фильтра. */
+        final double rawP95ErrorMeters;
+        final int rawFalseOffRoute;
+        final int stops;
+        final int arrivals;
+        final int departures;
+
+        Result(Case c, int fixes, long p50Nanos, long p99Nanos, long maxNanos,
+               double p50ErrorMeters, double p95ErrorMeters, int falseOffRoute,
+               double rawP95ErrorMeters, int rawFalseOffRoute, int stops, int arrivals, int departures) {
+            this.c = c;
+            this.fixes = fixes;
+            this.p50Nanos = p50Nanos;
+            this.p99Nanos = p99Nanos;
+            this.maxNanos = maxNanos;
+            this.p50ErrorMeters = p50ErrorMeters;
+            this.p95ErrorMeters = p95ErrorMeters;
+            this.falseOffRoute = falseOffRoute;
+            this.rawP95ErrorMeters = rawP95ErrorMeters;
+            this.rawFalseOffRoute = rawFalseOffRoute;
+            this.stops = stops;
+            this.arrivals = arrivals;
+            this.departures = departures;
+        }
+
+        boolean passed() {
+            return arrivals == stops && departures == stops
+                    && p95ErrorMeters <= c.maxP95ErrorMeters
+                    && falseOffRoute <= c.maxFalseOffRoute;
+        }
+    }
+
+    static final class SamplingResult {
+        final Case c;
+        final int fixedFixes;
+        final int adaptiveFixes;
+        final int events;
+        final int missedEvents;
+        /** Фиксы, взятые, пока пользователь стоял у остановок. */
+        final int fixedDwellFixes;
+        final int adaptiveDwellFixes;
+
+        SamplingResult(Case c, int fixedFixes, int adaptiveFixes, int events, int missedEvents,
+                       int fixedDwellFixes, int adaptiveDwellFixes) {
+            this.c = c;
+            this.fixedFixes = fixedFixes;
+            this.adaptiveFixes = adaptiveFixes;
+            this.events = events;
+            this.missedEvents = missedEvents;
+            this.fixedDwellFixes = fixedDwellFixes;
+            this.adaptiveDwellFixes = adaptiveDwellFixes;
+        }
+
+        boolean passed() {
+            return missedEvents == 0 && adaptiveFixes <= fixedFixes
+                    && adaptiveDwellFixes * 4 <= fixedDwellFixes;
+        }
+    }
+
+    private NavigationBenchmark() {}
+
+    /**
+     * Эталонный набор: прямая, петля туда-обратно по одной улице, редкий зигзаг, осмотр мест
+     * и место в конце маршрута.
+     * Пороги ошибки — с запасом над результатом с {@link GpsFilter}, но ниже того, что даёт
+     * привязка сырых фиксов: отключённый или сломанный фильтр провалит набор.
+     */
+    static List<Case> referenceCases() {
+        List<Case> cases = new ArrayList<>();
+        List<Point> straightStops = new ArrayList<>();
+        straightStops.add(at(700, 10));
+        straightStops.add(at(1400, -10));
+        cases.add(new Case("straight_walk", straight(2000, 25), straightStops, 1.4, 5, 1, 8, 0));
+        cases.add(new Case("straight_noisy", straight(2000, 25), straightStops, 1.4, 15, 2, 20, 0));
+        // Вторая остановка у начала улицы на обратном пути: по дороге туда прибытия быть не должно
+        List<Point> outAndBackStops = new ArrayList<>();
+        outAndBackStops.add(at(590, 15));
+        outAndBackStops.add(at(100, 20));
+        cases.add(new Case("out_and_back", outAndBack(600, 8), outAndBackStops, 1.4, 6, 3, 10, 0));
+        cases.add(new Case("sparse_zigzag", zigzag(8, 300, 120), null, 5.0, 8, 4, 13, 0));
+        cases.add(new Case("urban_canyon", straight(2000, 25), straightStops, 1.4, 8, 5, 12, 0)
+                .withJumps(60, 100));
+        cases.add(new Case("urban_canyon_zigzag", zigzag(8, 300, 120), null, 5.0, 8, 6, 15, 0)
+                .withJumps(25, 120));
+        // Осмотр мест: по пять минут у каждой остановки
+        cases.add(new Case("dwell_at_stops", straight(2000, 25), straightStops, 1.4, 5, 7, 8, 0)
+                .withDwell(300_000));
+        // Маршрут кончается у последнего места: финиш не должен наступить раньше прибытия
+        List<Point> finishStops = new ArrayList<>(straightStops);
+        finishStops.add(at(2000, 0));
+        cases.add(new Case("stop_at_finish", straight(2000, 25), finishStops, 1.4, 5, 8, 8, 0));
+        return cases;
+    }
+
+    static Result run(Case c) {
+        LocationTrace trace = trace(c);
+        for (int i = 0; i < WARMUP_RUNS; i++) {
+            replay(c, trace, true, null, null, null);
+        }
+        long[] nanos = new long[trace.size()];
+        double[] errors = new double[trace.size()];
+        int[] counts = new int[3];
+        int falseOffRoute = replay(c, trace, true, nanos, errors, counts);
+        double[] rawErrors = new double[trace.size()];
+        int[] rawCounts = new int[3];
+        int rawFalseOffRoute = replay(c, trace, false, null, rawErrors, rawCounts);
+
+        int fixes = counts[2];
+        int rawFixes = rawCounts[2];
+        Arrays.sort(nanos, 0, fixes);
+        Arrays.sort(errors, 0, fixes);
+        Arrays.sort(rawErrors, 0, rawFixes);
+        return new Result(c, fixes,
+                nanos[percentileIndex(fixes, 0.50)],
+                nanos[percentileIndex(fixes, 0.99)],
+                nanos[fixes - 1],
+                errors[percentileIndex(fixes, 0.50)],
+                errors[percentileIndex(fixes, 0.95)],
+                falseOffRoute,
+                rawErrors[percentileIndex(rawFixes, 0.95)],
+                rawFalseOffRoute,
+                c.stops != null ? c.stops.size() : 0, counts[0], counts[1]);
+    }
+
+    static SamplingResult runSampling(Case c, SamplingPolicy policy) {
+        LocationTrace trace = trace(c);
+        RouteIndex index = new RouteIndex(c.route, c.stops);
+        double[] events = new double[index.turnOffsets.length + index.stopOffsets.length];
+        System.arraycopy(index.turnOffsets, 0, events, 0, index.turnOffsets.length);
+        System.arraycopy(index.stopOffsets, 0, events, index.turnOffsets.length, index.stopOffsets.length);
+
+        boolean[] seen = new boolean[events.length];
+        int[] fixedDwell = new int[1];
+        int[] adaptiveDwell = new int[1];
+        int fixed = sample(c, trace, SamplingPolicy.FIXED, null, null, fixedDwell);
+        int adaptive = sample(c, trace, policy, events, seen, adaptiveDwell);
+        int missed = 0;
+        for (boolean s : seen) {
+            if (!s) missed++;
+        }
+        return new SamplingResult(c, fixed, adaptive, events.length, missed, fixedDwell[0], adaptiveDwell[0]);
+    }
+
+    /** Прогоняет весь набор; текст отчёта по строке на случай и итог. */
+    static String runAll() {
+        StringBuilder report = new StringBuilder();
+        int failed = 0;
+        for (Case c : referenceCases()) {
+            Result r = run(c);
+            if (!r.passed()) failed++;
+            report.append(String.format(Locale.US,
+                    "%s %s: %d fixes, fix p50 %.1f µs p99 %.1f µs max %.1f µs,"
+                            + " error p50 %.1f m p95 %.1f m, false off-route %d"
+                            + " (unfiltered: p95 %.1f m, false off-route %d), arrivals %d/%d departures %d%n",
+                    r.passed() ? "PASS" : "FAIL", c.name, r.fixes,
+                    r.p50Nanos / 1000.0, r.p99Nanos / 1000.0, r.maxNanos / 1000.0,
+                    r.p50ErrorMeters, r.p95ErrorMeters, r.falseOffRoute,
+                    r.rawP95ErrorMeters, r.rawFalseOffRoute, r.arrivals, r.stops, r.departures));
+        }
+        for (Case c : referenceCases()) {
+            SamplingResult r = runSampling(c, new AdaptiveSamplingPolicy());
+            if (!r.passed()) failed++;
+            report.append(String.format(Locale.US,
+                    "%s sampling %s: fixed %d fixes, adaptive %d (%.0f%%), missed %d of %d turns/stops,"
+                            + " at stops fixed %d adaptive %d%n",
+                    r.passed() ? "PASS" : "FAIL", c.name, r.fixedFixes, r.adaptiveFixes,
+                    100.0 * r.adaptiveFixes / Math.max(1, r.fixedFixes), r.missedEvents, r.events,
+                    r.fixedDwellFixes, r.adaptiveDwellFixes));
+        }
+        report.append(failed == 0 ? "OK" : "FAILED: " + failed);
+        return report.toString();
+    }
+
+    private static LocationTrace trace(Case c) {
+        double[] dwellOffsets = c.dwellMs > 0 ? new RouteIndex(c.route, c.stops).stopOffsets : new double[0];
+        LocationTrace trace = LocationTrace.synthetic(c.route, c.speedMps, 1000, c.noiseMeters, c.seed,
+                dwellOffsets, c.dwellMs);
+        if (c.jumpEvery > 0) {
+            for (int i = c.jumpEvery; i < trace.size(); i += c.jumpEvery) {
+                trace.latitude[i] += c.jumpMeters / METERS_PER_DEG_LAT;
+                if (i + 1 < trace.size()) trace.latitude[i + 1] += c.jumpMeters / METERS_PER_DEG_LAT;
+            }
+        }
+        return trace;
+    }
+
+    /**
+     * Возвращает число ложных сходов; nanos и errors заполняются, если не null. Прогон, как
+     * {@link NavigationController}, обрывается на финише; в counts, если не null, — число прибытий,
+     * уходов и обработанных фиксов.
+     */
+    private static int replay(Case c, LocationTrace trace, boolean filtered, long[] nanos, double[] errors,
+                              int[] counts) {
+        NavigationEngine engine = new NavigationEngine(c.route, c.stops, filtered);
+        if (counts != null) {
+            engine.setWaypointListener(new WaypointTracker.Listener() {
+                @Override
+                public void onArrived(int stop, long timeMs) {
+                    counts[0]++;
+                }
+
+                @Override
+                public void onDeparted(int stop, long timeMs, long dwellMs) {
+                    counts[1]++;
+                }
+            });
+        }
+        int falseOffRoute = 0;
+        int fixes = 0;
+        for (int i = 0; i < trace.size(); i++) {
+            long start = System.nanoTime();
+            engine.onFix(trace.latitude[i], trace.longitude[i], trace.accuracy[i],
+                    trace.timeMs[i], trace.speed[i]);
+            long elapsed = System.nanoTime() - start;
+            fixes++;
+            if (engine.isOffRoute()) falseOffRoute++;
+            if (nanos != null) nanos[i] = elapsed;
+            if (errors != null) errors[i] = Math.abs(engine.progress.traveledMeters - trace.truthOffset[i]);
+            if (engine.isFinished()) {
+                engine.finish();
+                break;
+            }
+        }
+        if (counts != null) counts[2] = fixes;
+        return falseOffRoute;
+    }
+
+    /**
+     * Прореживает трек так, как его отдал бы провайдер на частоте policy; возвращает число
+     * использованных фиксов, из них взятых на стоянке — в dwellUsed[0]. Если events не null,
+     * отмечает в seen события, рядом с которыми был фикс.
+     */
+    private static int sample(Case c, LocationTrace trace, SamplingPolicy policy,
+                              double[] events, boolean[] seen, int[] dwellUsed) {
+        NavigationEngine engine = new NavigationEngine(c.route, c.stops);
+        policy.reset();
+        SamplingPolicy.Rate rate = SamplingPolicy.Rate.STANDARD;
+        long lastUsed = Long.MIN_VALUE;
+        int used = 0;
+        for (int i = 0; i < trace.size(); i++) {
+            long at = trace.timeMs[i];
+            if (lastUsed != Long.MIN_VALUE && at - lastUsed < rate.intervalMs) continue;
+            lastUsed = at;
+            used++;
+            if (trace.speed[i] == 0) dwellUsed[0]++;
+
+            engine.onFix(trace.latitude[i], trace.longitude[i], trace.accuracy[i], at, trace.speed[i]);
+            rate = policy.select(engine.progress);
+            if (events == null) continue;
+            for (int e = 0; e < events.length; e++) {
+                if (Math.abs(trace.truthOffset[i] - events[e]) <= EVENT_WINDOW_METERS) seen[e] = true;
+            }
+        }
+        return used;
+    }
+
+    private static int percentileIndex(int size, double p) {
+        return Math.min(size - 1, (int) Math.ceil(p * size) - 1);
+    }
+
+    private static List<Point> straight(double lengthMeters, double stepMeters) {
+        List<Point> route = new ArrayList<>();
+        for (double d = 0; d <= lengthMeters; d += stepMeters) {
+            route.add(at(d, 0));
+        }
+        return route;
+    }
+
+    /**
+     * Туда и обратно по одной улице, стороны улицы разнесены на gapMeters:
+     * окно привязки не должно перескакивать на встречный проход.
+     */
+    private static List<Point> outAndBack(double lengthMeters, double gapMeters) {
+        List<Point> route = new ArrayList<>();
+        for (double d = 0; d <= lengthMeters; d += 20) {
+            route.add(at(d, 0));
+        }
+        for (double d = lengthMeters; d >= 0; d -= 20) {
+            route.add(at(d, gapMeters));
+        }
+        return route;
+    }
+
+    /** Мало вершин и длинные отрезки: привязка к вершине здесь ошибалась бы на сотни метров. */
+    private static List<Point> zigzag(int legs, double legMeters, double widthMeters) {
+        List<Point> route = new ArrayList<>();
+        for (int i = 0; i <= legs; i++) {
+            route.add(at(i * legMeters, i % 2 == 0 ? 0 : widthMeters));
+        }
+        return route;
+    }
+
+    private static Point at(double eastMeters, double northMeters) {
+        double metersPerDegLon = METERS_PER_DEG_LAT * Math.cos(Math.toRadians(ORIGIN_LAT));
+        return new Point(ORIGIN_LAT + northMeters / METERS_PER_DEG_LAT,
+                ORIGIN_LON + eastMeters / metersPerDegLon);
+    }
+}
@@ -0,0 +1,80 @@
+package ru.nsu.yousightseeing.features.route;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.Locale;
+
+/**
+ * Эталонный набор {@link NavigationBenchmark} как регрессия: пороги ошибки привязки, ложных
+ * сходов и пропущенных остановок. Отчёт целиком печатается в вывод теста.
+ */
+public class NavigationBenchmarkTest {
+
+    @BeforeClass
+    public static void printReport() {
+        System.out.println(NavigationBenchmark.runAll());
+    }
+
+    @Test
+    public void matchingErrorStaysUnderThreshold() {
+        for (NavigationBenchmark.Case c : NavigationBenchmark.referenceCases()) {
+            NavigationBenchmark.Result r = NavigationBenchmark.run(c);
+            assertTrue(String.format(Locale.US, "%s: p95 error %.1f m > %.1f m",
+                            c.name, r.p95ErrorMeters, c.maxP95ErrorMeters),
+                    r.p95ErrorMeters <= c.maxP95ErrorMeters);
+        }
+    }
+
+    @Test
+    public void noFalseOffRoute() {
+        for (NavigationBenchmark.Case c : NavigationBenchmark.referenceCases()) {
+            NavigationBenchmark.Result r = NavigationBenchmark.run(c);
+            assertTrue(c.name + ": false off-route " + r.falseOffRoute + " > " + c.maxFalseOffRoute,
+                    r.falseOffRoute <= c.maxFalseOffRoute);
+        }
+    }
+
+    @Test
+    public void everyStopArrivedAndDepartedOnce() {
+        for (NavigationBenchmark.Case c : NavigationBenchmark.referenceCases()) {
+            NavigationBenchmark.Result r = NavigationBenchmark.run(c);
+            assertEquals(c.name + ": arrivals", r.stops, r.arrivals);
+            assertEquals(c.name + ": departures", r.stops, r.departures);
+        }
+    }
+
+    @Test
+    public void filterBeatsRawFixesUnderJumps() {
+        for (NavigationBenchmark.Case c : NavigationBenchmark.referenceCases()) {
+            if (c.jumpEvery == 0) continue;
+            NavigationBenchmark.Result r = NavigationBenchmark.run(c);
+            // Без фильтра скачки ломают привязку: пороги набора должны это ловить
+            assertTrue(c.name + ": unfiltered p95 " + r.rawP95ErrorMeters + " m passes the threshold",
+                    r.rawP95ErrorMeters > c.maxP95ErrorMeters || r.rawFalseOffRoute > c.maxFalseOffRoute);
+        }
+    }
+
+    @Test
+    public void adaptiveSamplingMissesNoTurnOrStop() {
+        for (NavigationBenchmark.Case c : NavigationBenchmark.referenceCases()) {
+            NavigationBenchmark.SamplingResult r = NavigationBenchmark.runSampling(c, new AdaptiveSamplingPolicy());
+            assertEquals(c.name + ": missed turns/stops", 0, r.missedEvents);
+            assertTrue(c.name + ": adaptive " + r.adaptiveFixes + " fixes > fixed " + r.fixedFixes,
+                    r.adaptiveFixes <= r.fixedFixes);
+        }
+    }
+
+    @Test
+    public void adaptiveSamplingSlowsDownWhileDwellingAtStop() {
+        for (NavigationBenchmark.Case c : NavigationBenchmark.referenceCases()) {
+            if (c.dwellMs == 0) continue;
+            NavigationBenchmark.SamplingResult r = NavigationBenchmark.runSampling(c, new AdaptiveSamplingPolicy());
+            assertTrue(c.name + ": at stops adaptive " + r.adaptiveDwellFixes + " fixes, fixed " + r.fixedDwellFixes,
+                    r.adaptiveDwellFixes * 4 <= r.fixedDwellFixes);
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package ru.nsu.yousightseeing.features.route;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.location.Location;
+
+import com.yandex.mapkit.geometry.Point;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Воспроизведение трека через {@link NavigationController}: после прогрева путь одного фикса
+ * не создаёт объектов.
+ */
+public class NavigationControllerAllocationTest {
+
+    private static final int WARMUP_FIXES = 200;
+
+    /** Фикс трека без Android: заглушки android.jar возвращают нули. */
+    private static final class TraceLocation extends Location {
+        private final double latitude;
+        private final double longitude;
+        private final float accuracy;
+        private final float speed;
+        private final long timeMs;
+
+        TraceLocation(LocationTrace trace, int i) {
+            super("replay");
+            this.latitude = trace.latitude[i];
+            this.longitude = trace.longitude[i];
+            this.accuracy = (float) trace.accuracy[i];
+            this.speed = (float) trace.speed[i];
+            this.timeMs = trace.timeMs[i];
+        }
+
+        @Override
+        public double getLatitude() {
+            return latitude;
+        }
+
+        @Override
+        public double getLongitude() {
+            return longitude;
+        }
+
+        @Override
+        public boolean hasAccuracy() {
+            return true;
+        }
+
+        @Override
+        public float getAccuracy() {
+            return accuracy;
+        }
+
+        @Override
+        public boolean hasSpeed() {
+            return true;
+        }
+
+        @Override
+        public float getSpeed() {
+            return speed;
+        }
+
+        @Override
+        public long getTime() {
+            return timeMs;
+        }
+
+        @Override
+        public long getElapsedRealtimeNanos() {
+            return timeMs * 1_000_000;
+        }
+    }
+
+    /** Источник, которому тест сам отдаёт фиксы. */
+    private static final class ManualSource implements LocationSource {
+        Listener listener;
+
+        @Override
+        public void start(int priority, long intervalMs, long minIntervalMs, long maxDelayMs, Listener listener) {
+            this.listener = listener;
+        }
+
+        @Override
+        public void stop() {
+            listener = null;
+        }
+
+        @Override
+        public boolean requiresPermission() {
+            return false;
+        }
+    }
+
+    private static final class CountingListener implements NavigationController.NavigationListener {
+        int locations;
+        int offRoute;
+
+        @Override public void onNavigationStarted() {}
+        @Override public void onNavigationStopped() {}
+        @Override public void onProgressChanged(RouteProgress progress) {}
+        @Override public void onRouteFinished() {}
+        @Override public void onUserOffRoute(double distanceFromRouteMeters) {
+            offRoute++;
+        }
+        @Override public void onUserLocationChanged(double latitude, double longitude) {
+            locations++;
+        }
+        @Override public void onRouteChanged(List<Point> routePoints) {}
+        @Override public void onWaypointArrived(int stop) {}
+        @Override public void onWaypointDeparted(int stop, long dwellMs) {}
+    }
+
+    @Test
+    public void fixPathDoesNotAllocateAfterWarmup() {
+        List<Point> route = Arrays.asList(
+                new Point(55.0300, 82.9200),
+                new Point(55.0300, 82.9350),
+                new Point(55.0400, 82.9350),
+                new Point(55.0400, 82.9500));
+        LocationTrace trace = LocationTrace.synthetic(route, 1.4, 1000, 3, 7);
+        List<List<Location>> batches = new ArrayList<>(trace.size());
+        for (int i = 0; i < trace.size(); i++) {
+            batches.add(Collections.singletonList(new TraceLocation(trace, i)));
+        }
+
+        // Первый прогон — прогрев JIT на всём треке
+        replay(route, batches, 0, batches.size());
+
+        ManualSource source = new ManualSource();
+        CountingListener listener = new CountingListener();
+        NavigationController controller = new NavigationController(null, source, listener);
+        // Смена частоты пишет отладочный лог, а в тестах логи включены: меряем сам путь фикса
+        controller.setSamplingPolicy(SamplingPolicy.FIXED);
+        controller.startNavigation(route, new ArrayList<>());
+        for (int i = 0; i < WARMUP_FIXES; i++) {
+            source.listener.onLocations(batches.get(i));
+        }
+
+        // Конец трека не меряем: у финиша навигация останавливается
+        int measured = batches.size() - WARMUP_FIXES - 100;
+        long before = allocatedBytes();
+        for (int i = WARMUP_FIXES; i < WARMUP_FIXES + measured; i++) {
+            source.listener.onLocations(batches.get(i));
+        }
+        long allocated = allocatedBytes() - before;
+
+        assertEquals(WARMUP_FIXES + measured, listener.locations);
+        assertEquals(0, listener.offRoute);
+        assertTrue("allocated " + allocated + " bytes over " + measured + " fixes",
+                allocated / measured == 0);
+    }
+
+    private static void replay(List<Point> route, List<List<Location>> batches, int from, int to) {
+        ManualSource source = new ManualSource();
+        NavigationController controller = new NavigationController(null, source, new CountingListener());
+        controller.startNavigation(route, new ArrayList<>());
+        for (int i = from; i < to && source.listener != null; i++) {
+            source.listener.onLocations(batches.get(i));
+        }
+    }
+
+    private static long allocatedBytes() {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
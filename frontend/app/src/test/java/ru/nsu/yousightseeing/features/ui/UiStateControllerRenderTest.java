@@ -0,0 +1,66 @@
+package ru.nsu.yousightseeing.features.ui;
+
+import static org.junit.Assert.assertEquals;
+
+import com.yandex.mapkit.geometry.Point;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import ru.nsu.yousightseeing.features.main.state.EditorAction;
+import ru.nsu.yousightseeing.features.main.state.EditorStore;
+import ru.nsu.yousightseeing.features.main.state.SelectedPlace;
+import ru.nsu.yousightseeing.features.route.RouteBuildMode;
+import ru.nsu.yousightseeing.model.Route;
+
+/**
+ * Кнопка построения маршрута перерисовывается только на действиях, которые меняют её вид.
+ */
+public class UiStateControllerRenderTest {
+
+    private EditorStore store;
+    private int buildButtonRenders;
+
+    @Before
+    public void setUp() {
+        store = new EditorStore();
+        store.subscribe(UiStateController.BuildButtonModel::new, model -> buildButtonRenders++);
+        buildButtonRenders = 0;
+    }
+
+    @Test
+    public void startPointAndRouteGeometryDoNotRenderBuildButton() {
+        store.dispatch(new EditorAction.SetStartPoint(new Point(55.1, 83.0), true));
+        store.dispatch(new EditorAction.SetStartPoint(new Point(55.2, 83.1), false));
+        Point a = new Point(55.03, 82.92);
+        Point b = new Point(55.04, 82.93);
+        store.dispatch(new EditorAction.SetCurrentRoute(new Route(Arrays.asList(a, b), 1500, 1200)));
+        store.dispatch(new EditorAction.SetCurrentRoute(new Route(Arrays.asList(b, a), 1500, 1200)));
+        store.dispatch(new EditorAction.SetCurrentRoute(null));
+
+        assertEquals(0, buildButtonRenders);
+    }
+
+    @Test
+    public void eachButtonInputRendersOnce() {
+        store.dispatch(new EditorAction.SetBuildMode(RouteBuildMode.AUTO));
+        store.dispatch(new EditorAction.SetGenerating(true));
+        store.dispatch(new EditorAction.SetGenerating(true));
+        store.dispatch(new EditorAction.SetRouteBuilt(true));
+
+        assertEquals(3, buildButtonRenders);
+    }
+
+    @Test
+    public void selectionRendersOnlyWhenPlaceCountChanges() {
+        SelectedPlace a = new SelectedPlace(new Point(55.03, 82.92), null, "A");
+        SelectedPlace b = new SelectedPlace(new Point(55.04, 82.93), null, "B");
+        store.dispatch(new EditorAction.SetSelection(Arrays.asList(a, b)));
+        // Тот же набор в другом порядке: список перерисуется, кнопка — нет
+        store.dispatch(new EditorAction.SetSelection(Arrays.asList(b, a)));
+
+        assertEquals(1, buildButtonRenders);
+    }
+}